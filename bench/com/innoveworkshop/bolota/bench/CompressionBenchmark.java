@@ -0,0 +1,84 @@
+package com.innoveworkshop.bolota.bench;
+
+import com.innoveworkshop.bolota.models.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Benchmarks the size and the cost of opening and saving documents at each compression level.
+ * The size of each document is printed once it's generated.
+ */
+@State(Scope.Benchmark)
+public class CompressionBenchmark {
+	@Param({"5"})
+	public int depth;
+
+	@Param({"none", "1", "6", "9"})
+	public String level;
+
+	@Param({"stream", "mapped"})
+	public String mode;
+
+	private File file;
+	private Document doc;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		file = File.createTempFile("bench", ".bol");
+		SyntheticDocument generator = new SyntheticDocument(42);
+		generator.setFanOut(8);
+		generator.setDepth(depth);
+		doc = generator.generate(file);
+
+		// Save it again with the compression level being measured.
+		if (!level.equals("none")) {
+			doc.setCompressed(true);
+			doc.setCompressionLevel(Integer.parseInt(level));
+			doc.save(file);
+		}
+
+		System.out.println("Document size: " + file.length() + " bytes (" +
+			((file.length() * 100) / doc.getFileLength()) + "% of uncompressed)");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Benchmark
+	public Document open() throws IOException {
+		Document doc = new Document();
+		doc.open(file, mode.equals("mapped"));
+
+		return doc;
+	}
+
+	@Benchmark
+	public void save() throws IOException {
+		doc.save(new WritableByteChannel() {
+			public int write(ByteBuffer src) {
+				int length = src.remaining();
+				src.position(src.limit());
+				return length;
+			}
+
+			public boolean isOpen() {
+				return true;
+			}
+
+			public void close() {
+			}
+		});
+	}
+}
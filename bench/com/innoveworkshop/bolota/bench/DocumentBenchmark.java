@@ -0,0 +1,79 @@
+package com.innoveworkshop.bolota.bench;
+
+import com.innoveworkshop.bolota.models.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Benchmarks opening and serializing entire documents.
+ */
+@State(Scope.Benchmark)
+public class DocumentBenchmark {
+	@Param({"8"})
+	public int fanOut;
+
+	@Param({"3", "5"})
+	public int depth;
+
+	@Param({"stream", "mapped", "lazy"})
+	public String mode;
+
+	private File file;
+	private Document doc;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		file = File.createTempFile("bench", ".bol");
+		SyntheticDocument generator = new SyntheticDocument(42);
+		generator.setFanOut(fanOut);
+		generator.setDepth(depth);
+		doc = generator.generate(file);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Benchmark
+	public Document open() throws IOException {
+		Document doc = new Document();
+		doc.setLazyLoading(mode.equals("lazy"));
+		doc.open(file, !mode.equals("stream"));
+
+		return doc;
+	}
+
+	@Benchmark
+	public ByteBuffer getBytes() {
+		return doc.getBytes();
+	}
+
+	@Benchmark
+	public void save() throws IOException {
+		doc.save(new WritableByteChannel() {
+			public int write(ByteBuffer src) {
+				int length = src.remaining();
+				src.position(src.limit());
+				return length;
+			}
+
+			public boolean isOpen() {
+				return true;
+			}
+
+			public void close() {
+			}
+		});
+	}
+}
@@ -0,0 +1,66 @@
+package com.innoveworkshop.bolota.bench;
+
+import com.innoveworkshop.bolota.models.Field;
+import com.innoveworkshop.bolota.models.fields.BlankField;
+import com.innoveworkshop.bolota.models.fields.DateField;
+import com.innoveworkshop.bolota.models.fields.IconField;
+import com.innoveworkshop.bolota.models.fields.TextField;
+import com.innoveworkshop.bolota.utils.UString;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Benchmarks parsing and serializing single fields of each type.
+ */
+@State(Scope.Thread)
+public class FieldBenchmark {
+	@Param({"text", "date", "icon", "blank"})
+	public String type;
+
+	private Field field;
+	private ByteBuffer record;
+
+	@Setup
+	public void setup() {
+		field = createField();
+		record = field.getBytes();
+		record.flip();
+	}
+
+	@Benchmark
+	public Field parse() {
+		// Skip the type, just like the topics parser does.
+		record.position(1);
+		Field parsed = createField();
+		parsed.fromBytes(record);
+
+		return parsed;
+	}
+
+	@Benchmark
+	public ByteBuffer serialize() {
+		return field.getBytes();
+	}
+
+	/**
+	 * Creates a field of the type being benchmarked.
+	 *
+	 * @return Field of the benchmarked type.
+	 */
+	private Field createField() {
+		UString text = new UString("A reasonably sized topic éçã 日本");
+		if (type.equals("date"))
+			return new DateField(null, DateField.getCalendarUTC(), text);
+		if (type.equals("icon"))
+			return new IconField(null, (byte)3, text);
+		if (type.equals("blank"))
+			return new BlankField();
+
+		return new TextField(null, text);
+	}
+}
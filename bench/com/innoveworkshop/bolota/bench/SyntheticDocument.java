@@ -0,0 +1,266 @@
+package com.innoveworkshop.bolota.bench;
+
+import com.innoveworkshop.bolota.models.Document;
+import com.innoveworkshop.bolota.models.Field;
+import com.innoveworkshop.bolota.models.fields.BlankField;
+import com.innoveworkshop.bolota.models.fields.DateField;
+import com.innoveworkshop.bolota.models.fields.IconField;
+import com.innoveworkshop.bolota.models.fields.TextField;
+import com.innoveworkshop.bolota.ui.resources.FieldIcon;
+import com.innoveworkshop.bolota.utils.ResourceManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A seeded generator of synthetic Bolota documents to be used in benchmarks.
+ */
+public class SyntheticDocument {
+	private final long seed;
+	private int fanOut;
+	private int depth;
+	private int textWeight;
+	private int dateWeight;
+	private int iconWeight;
+	private int blankWeight;
+	private double unicodeRatio;
+
+	private Random random;
+	private int fieldCount;
+
+	/**
+	 * Plain ASCII words used to build up topic texts.
+	 */
+	private static final String[] WORDS = {
+		"outline", "topic", "note", "meeting", "status", "done", "pending", "review", "draft",
+		"journal", "daily", "log", "idea", "project", "release", "bug", "fix", "plan", "todo"
+	};
+
+	/**
+	 * Unicode phrases similar to the ones in the examples/unicode_full.bol document.
+	 */
+	private static final String[] UNICODE = {
+		"∃x∈ℝ: ⌈x⌉ = −⌊−x⌋",
+		"Δημοκρατία και ελευθερία",
+		"Зарегистрируйтесь сейчас",
+		"日本語のテキスト",
+		"ἀνθρωπος été ça va",
+		"∀∂∈ℝ∧∪≡∞ ↑↗↨↻⇣",
+		"😀 📅 📌"
+	};
+
+	/**
+	 * Constructs a generator with sensible defaults.
+	 *
+	 * @param seed Seed of the random number generator, so documents can be reproduced.
+	 */
+	public SyntheticDocument(long seed) {
+		this.seed = seed;
+		this.fanOut = 8;
+		this.depth = 4;
+		this.textWeight = 70;
+		this.dateWeight = 10;
+		this.iconWeight = 10;
+		this.blankWeight = 10;
+		this.unicodeRatio = 0.3;
+	}
+
+	/**
+	 * Sets the maximum number of children of each field.
+	 *
+	 * @param fanOut Maximum number of children of each field.
+	 */
+	public void setFanOut(int fanOut) {
+		this.fanOut = fanOut;
+	}
+
+	/**
+	 * Sets the number of levels of the generated tree.
+	 *
+	 * @param depth Number of levels of the tree.
+	 */
+	public void setDepth(int depth) {
+		this.depth = depth;
+	}
+
+	/**
+	 * Sets the relative weights of each field type in the generated document.
+	 *
+	 * @param text  Weight of text fields.
+	 * @param date  Weight of date fields.
+	 * @param icon  Weight of icon fields.
+	 * @param blank Weight of blank fields.
+	 */
+	public void setTypeMix(int text, int date, int icon, int blank) {
+		this.textWeight = text;
+		this.dateWeight = date;
+		this.iconWeight = icon;
+		this.blankWeight = blank;
+	}
+
+	/**
+	 * Sets the ratio of topics that contain Unicode text.
+	 *
+	 * @param unicodeRatio Ratio between 0 and 1 of topics with Unicode text.
+	 */
+	public void setUnicodeRatio(double unicodeRatio) {
+		this.unicodeRatio = unicodeRatio;
+	}
+
+	/**
+	 * Generates a document. The same settings and seed always generate the same document.
+	 *
+	 * @return Generated document.
+	 */
+	public Document generate() {
+		random = new Random(seed);
+		fieldCount = 0;
+
+		// Set up the document.
+		Document doc = new Document();
+		doc.setTitle("Synthetic document " + seed);
+		doc.setSubtitle("Fan-out " + fanOut + ", depth " + depth);
+		doc.setDate(randomDate());
+
+		// Populate it with topics.
+		populate(doc, 0);
+
+		return doc;
+	}
+
+	/**
+	 * Generates a document and saves it to a file.
+	 *
+	 * @param file File to save the document to.
+	 *
+	 * @return Generated document.
+	 *
+	 * @throws IOException if an error occurred while saving the document.
+	 */
+	public Document generate(File file) throws IOException {
+		Document doc = generate();
+		doc.save(file);
+
+		return doc;
+	}
+
+	/**
+	 * Gets the number of fields in the last generated document.
+	 *
+	 * @return Number of fields in the last generated document.
+	 */
+	public int getFieldCount() {
+		return fieldCount;
+	}
+
+	/**
+	 * Recursively adds topics to a field.
+	 *
+	 * @param parent Field to add the topics to.
+	 * @param level  Level of the topics in the tree.
+	 */
+	private void populate(Field parent, int level) {
+		if (level >= depth)
+			return;
+
+		// Top-level always gets the full fan-out.
+		int count = (level == 0) ? fanOut : random.nextInt(fanOut + 1);
+		for (int i = 0; i < count; i++) {
+			Field field = randomField();
+			parent.appendChild(field);
+			fieldCount++;
+
+			if (!(field instanceof BlankField))
+				populate(field, level + 1);
+		}
+	}
+
+	/**
+	 * Creates a field of a random type according to the type mix.
+	 *
+	 * @return Random field.
+	 */
+	private Field randomField() {
+		int pick = random.nextInt(textWeight + dateWeight + iconWeight + blankWeight);
+
+		if (pick < textWeight)
+			return new TextField(randomText());
+		pick -= textWeight;
+		if (pick < dateWeight)
+			return new DateField(null, randomDate(), randomText());
+		pick -= dateWeight;
+		if (pick < iconWeight) {
+			List<FieldIcon> icons = ResourceManager.getInstance().getFieldIcons();
+			return new IconField(null, icons.get(random.nextInt(icons.size())).id, randomText());
+		}
+
+		return new BlankField();
+	}
+
+	/**
+	 * Creates a random topic text.
+	 *
+	 * @return Random text.
+	 */
+	private String randomText() {
+		StringBuilder sb = new StringBuilder();
+		int words = 2 + random.nextInt(10);
+		for (int i = 0; i < words; i++) {
+			if (i > 0)
+				sb.append(' ');
+			sb.append(WORDS[random.nextInt(WORDS.length)]);
+		}
+
+		if (random.nextDouble() < unicodeRatio)
+			sb.append(' ').append(UNICODE[random.nextInt(UNICODE.length)]);
+
+		return sb.toString();
+	}
+
+	/**
+	 * Creates a random date.
+	 *
+	 * @return Random date in UTC.
+	 */
+	private Calendar randomDate() {
+		Calendar date = DateField.getCalendarUTC();
+		date.set(2000 + random.nextInt(30), random.nextInt(12), 1 + random.nextInt(28),
+			random.nextInt(24), random.nextInt(60), random.nextInt(60));
+
+		return date;
+	}
+
+	/**
+	 * Generates a synthetic document file.
+	 *
+	 * <p>Usage: {@code SyntheticDocument file [seed] [fan-out] [depth] [unicode ratio]}</p>
+	 *
+	 * @param args Command line arguments.
+	 *
+	 * @throws IOException if an error occurred while saving the document.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: SyntheticDocument file [seed] [fan-out] [depth] " +
+				"[unicode ratio]");
+			System.exit(1);
+		}
+
+		SyntheticDocument generator = new SyntheticDocument((args.length > 1) ?
+			Long.parseLong(args[1]) : 0);
+		if (args.length > 2)
+			generator.setFanOut(Integer.parseInt(args[2]));
+		if (args.length > 3)
+			generator.setDepth(Integer.parseInt(args[3]));
+		if (args.length > 4)
+			generator.setUnicodeRatio(Double.parseDouble(args[4]));
+
+		File file = new File(args[0]);
+		generator.generate(file);
+		System.out.println("Generated " + generator.getFieldCount() + " fields (" +
+			file.length() + " bytes) into " + file);
+	}
+}
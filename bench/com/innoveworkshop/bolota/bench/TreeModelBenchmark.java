@@ -0,0 +1,56 @@
+package com.innoveworkshop.bolota.bench;
+
+import com.innoveworkshop.bolota.models.Document;
+import com.innoveworkshop.bolota.ui.components.BolotaTreeModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.swing.tree.TreeModel;
+
+/**
+ * Benchmarks walking through a document the same way a {@link javax.swing.JTree} does.
+ */
+@State(Scope.Benchmark)
+public class TreeModelBenchmark {
+	@Param({"8", "64"})
+	public int fanOut;
+
+	@Param({"4"})
+	public int depth;
+
+	private TreeModel model;
+
+	@Setup
+	public void setup() {
+		SyntheticDocument generator = new SyntheticDocument(42);
+		generator.setFanOut(fanOut);
+		generator.setDepth(depth);
+		Document doc = generator.generate();
+		model = new BolotaTreeModel(doc);
+	}
+
+	@Benchmark
+	public void traverse(Blackhole bh) {
+		traverse(model.getRoot(), bh);
+	}
+
+	/**
+	 * Recursively walks through a node like a tree does when painting and handling events.
+	 *
+	 * @param node Node to walk through.
+	 * @param bh   Sink for the values read.
+	 */
+	private void traverse(Object node, Blackhole bh) {
+		int count = model.getChildCount(node);
+		for (int i = 0; i < count; i++) {
+			Object child = model.getChild(node, i);
+			bh.consume(model.isLeaf(child));
+			bh.consume(model.getIndexOfChild(node, child));
+			traverse(child, bh);
+		}
+	}
+}
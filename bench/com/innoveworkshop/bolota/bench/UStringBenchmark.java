@@ -0,0 +1,55 @@
+package com.innoveworkshop.bolota.bench;
+
+import com.innoveworkshop.bolota.utils.UString;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Benchmarks encoding and decoding strings to and from UTF-8.
+ */
+@State(Scope.Thread)
+public class UStringBenchmark {
+	@Param({"ascii", "unicode"})
+	public String content;
+
+	private String text;
+	private byte[] bytes;
+	private ByteBuffer buffer;
+
+	@Setup
+	public void setup() {
+		text = content.equals("ascii") ? "Plain old ASCII topic text for the outline" :
+			"∃x∈ℝ: Δημοκρατία " +
+			"日本語のテキスト";
+		bytes = new UString(text).getBytes();
+		buffer = ByteBuffer.allocateDirect(bytes.length);
+		buffer.put(bytes);
+	}
+
+	@Benchmark
+	public byte[] encode() {
+		return new UString(text).getBytes();
+	}
+
+	@Benchmark
+	public String decode() {
+		return new UString(bytes).toString();
+	}
+
+	@Benchmark
+	public String decodeFromBuffer() {
+		UString str = new UString("");
+		str.set(buffer, 0, bytes.length);
+		return str.toString();
+	}
+
+	@Benchmark
+	public int measure() {
+		return new UString(text).getUTF8Length();
+	}
+}
@@ -6,12 +6,12 @@ import com.innoveworkshop.bolota.models.fields.BlankField;
 import com.innoveworkshop.bolota.models.fields.DateField;
 import com.innoveworkshop.bolota.models.fields.IconField;
 import com.innoveworkshop.bolota.models.fields.TextField;
+import com.innoveworkshop.bolota.ui.EventWatchdog;
 import com.innoveworkshop.bolota.ui.windows.MainWindow;
 import com.innoveworkshop.bolota.utils.ResourceManager;
 
 import javax.swing.*;
 import java.io.File;
-import java.io.IOException;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.logging.Level;
@@ -28,30 +28,24 @@ public class Main {
 	 *
 	 * @param args Command line arguments.
 	 */
-	public static void main(String[] args) {
-		final Document document;
-
+	public static void main(final String[] args) {
 		System.out.println("Bolota for Java");
-		if (args.length > 0) {
-			try {
-				document = new Document(new File(args[0]));
-			} catch (IOException e) {
-				throw new RuntimeException(e);
-			}
-		} else {
-			document = getExampleDocument();
-		}
 
 		// Implicitly load all our resources.
 		ResourceManager.getInstance();
 
 		// Show the application's main window.
 		setNativeLookAndFeel();
+		EventWatchdog.install();
 		SwingUtilities.invokeLater(new Runnable() {
 			public void run() {
 				MainWindow window = new MainWindow();
 				window.setVisible(true);
-				window.getViewer().openDocument(document);
+				if (args.length > 0) {
+					window.openFile(new File(args[0]));
+				} else {
+					window.getViewer().openDocument(getExampleDocument());
+				}
 			}
 		});
 	}
@@ -99,8 +93,7 @@ public class Main {
 		doc.appendChild(new TextField("Second topic"));
 		Field field1 = new TextField("Third topic");
 		field1.appendChild(new TextField("Sub-item of third topic"));
-		field1.appendChild(new IconField(null, ResourceManager.getInstance().fieldIcons.get(10),
-				"Example icon"));
+		field1.appendChild(new IconField(null, (byte)11, "Example icon"));
 		field1.appendChild(new TextField("Another sub-item of third topic"));
 		doc.appendChild(field1);
 		doc.appendChild(new DateField(null, DateField.getCalendarUTC(), "A sample date topic."));
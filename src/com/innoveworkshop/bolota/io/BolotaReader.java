@@ -0,0 +1,407 @@
+package com.innoveworkshop.bolota.io;
+
+import com.innoveworkshop.bolota.exceptions.BolotaFileException;
+import com.innoveworkshop.bolota.exceptions.InvalidFieldTypeException;
+import com.innoveworkshop.bolota.models.Field;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * An event-driven reader of Bolota documents that walks through a file without ever building
+ * a tree of {@link Field} objects.
+ *
+ * <p>Nothing is allocated per field. The text and payload buffers handed to the {@link Handler}
+ * are views into the document that get reused for every field, so they must not be held on to
+ * after the event returns.</p>
+ */
+public class BolotaReader {
+	private final Handler handler;
+
+	/**
+	 * Length of the fixed part of a field: Type (U8) + Depth (U8) + Length (U16) +
+	 * Text Length (U16).
+	 */
+	private static final int FIELD_HEADER_LEN = 6;
+
+	/**
+	 * Maximum number of levels a document's tree can have.
+	 */
+	private static final int MAX_DEPTH = 128;
+
+	/**
+	 * Constructs a document reader.
+	 *
+	 * @param handler Handler that will receive the events of the reader.
+	 */
+	public BolotaReader(Handler handler) {
+		this.handler = handler;
+	}
+
+	/**
+	 * Reads a Bolota document file by mapping it into memory.
+	 *
+	 * @param file Bolota document file.
+	 *
+	 * @throws IOException if an error occurred while reading the document.
+	 */
+	public void read(File file) throws IOException {
+		read(file, DocumentHeader.map(file));
+	}
+
+	/**
+	 * Reads an entire Bolota document that is already in memory.
+	 *
+	 * @param file   File that the document came from, used for error reporting.
+	 * @param buffer Little-endian buffer positioned at the start of the document.
+	 *
+	 * @throws IOException if an error occurred while reading the document.
+	 */
+	public void read(File file, ByteBuffer buffer) throws IOException {
+		// Read the header and slice the sections out of the document.
+		DocumentHeader header = DocumentHeader.read(file, buffer);
+		if (header.isCompressed()) {
+			readCompressed(file, buffer, header);
+			return;
+		}
+		ByteBuffer properties = DocumentHeader.slice(file, buffer, header.propertiesLength,
+			"properties");
+		StringTable strings = null;
+		if (header.hasStringTable()) {
+			strings = StringTable.read(file, DocumentHeader.slice(file, buffer,
+				header.stringsLength, "string table"));
+		}
+		ByteBuffer topics = DocumentHeader.slice(file, buffer, header.topicsLength, "topics");
+		if (buffer.hasRemaining())
+			throw new BolotaFileException(file, "Document continues after end of topics section");
+
+		// Walk through the sections.
+		handler.onHeader(header);
+		readProperties(properties);
+		readTopics(topics, strings);
+	}
+
+	/**
+	 * Walks through the compressed sections of a document, one block at a time.
+	 *
+	 * @param file   File that the document came from, used for error reporting.
+	 * @param buffer Little-endian buffer positioned right after the header.
+	 * @param header Header of the document.
+	 *
+	 * @throws IOException if an error occurred while reading the document.
+	 */
+	private void readCompressed(File file, ByteBuffer buffer,
+	                            DocumentHeader header) throws IOException {
+		handler.onHeader(header);
+
+		// Walk through the properties section.
+		CompressedSection.Reader reader = new CompressedSection.Reader(file, buffer);
+		try {
+			readProperties(reader.readSection(header.propertiesLength, "properties"));
+		} finally {
+			reader.close();
+		}
+
+		// Read the string table section.
+		StringTable strings = null;
+		if (header.hasStringTable()) {
+			reader = new CompressedSection.Reader(file, buffer);
+			try {
+				strings = StringTable.read(file,
+					reader.readSection(header.stringsLength, "string table"));
+			} finally {
+				reader.close();
+			}
+		}
+
+		// Walk through the topics section as it gets decompressed.
+		reader = new CompressedSection.Reader(file, buffer);
+		try {
+			TopicsWalker walker = new TopicsWalker(handler, strings);
+			ByteBuffer block;
+			while ((block = reader.next()) != null)
+				walker.walk(block);
+			reader.checkLength(header.topicsLength, "topics");
+			walker.finish();
+		} finally {
+			reader.close();
+		}
+
+		if (buffer.hasRemaining())
+			throw new BolotaFileException(file, "Document continues after end of topics section");
+	}
+
+	/**
+	 * Walks through the properties section of a document.
+	 *
+	 * @param section Properties section of the document.
+	 *
+	 * @throws IOException if an invalid field is found.
+	 */
+	public void readProperties(ByteBuffer section) throws IOException {
+		ByteBuffer text = createView(section);
+		ByteBuffer payload = createView(section);
+
+		int pos = section.position();
+		while (pos < section.limit()) {
+			int length = readRecord(section, pos, text, payload, null);
+			handler.onProperty(section.get(pos), text, payload);
+			pos += length;
+		}
+	}
+
+	/**
+	 * Walks through the topics section of a document that has no string table.
+	 *
+	 * @param section Topics section of the document.
+	 *
+	 * @throws IOException if an invalid field is found.
+	 */
+	public void readTopics(ByteBuffer section) throws IOException {
+		readTopics(section, null);
+	}
+
+	/**
+	 * Walks through the topics section of a document.
+	 *
+	 * @param section Topics section of the document.
+	 * @param strings String table of the document or {@code null} if it doesn't have one.
+	 *
+	 * @throws IOException if an invalid field is found.
+	 */
+	public void readTopics(ByteBuffer section, StringTable strings) throws IOException {
+		TopicsWalker walker = new TopicsWalker(handler, strings);
+		walker.walk(section);
+		walker.finish();
+	}
+
+	/**
+	 * Validates a single field record and points the text and payload views at it.
+	 *
+	 * @param section Section that contains the record.
+	 * @param pos     Absolute position of the record in the section.
+	 * @param text    View to be pointed at the text of the field, which must be a view of the
+	 *                string table if the record refers to it.
+	 * @param payload View to be pointed at the type-specific data of the field.
+	 * @param strings String table of the document or {@code null} if it doesn't have one.
+	 *
+	 * @return Length of the record in bytes.
+	 *
+	 * @throws IOException if the record is invalid.
+	 */
+	private static int readRecord(ByteBuffer section, int pos, ByteBuffer text,
+	                              ByteBuffer payload, StringTable strings) throws IOException {
+		if ((section.limit() - pos) < FIELD_HEADER_LEN)
+			throw new IOException("Field header ended prematurely");
+
+		// Check the field type.
+		byte type = section.get(pos);
+		if ((type != Field.TYPE_TEXT) && (type != Field.TYPE_DATE) &&
+				(type != Field.TYPE_ICON) && (type != Field.TYPE_BLANK)) {
+			throw new InvalidFieldTypeException(type);
+		}
+
+		// Check the lengths of the field.
+		int length = section.getShort(pos + 2) & 0xFFFF;
+		int textLength = section.getShort(pos + 4) & 0xFFFF;
+		if (length > (section.limit() - pos))
+			throw new IOException("Field length is invalid");
+
+		int textStart = pos + FIELD_HEADER_LEN;
+		if ((strings != null) && StringTable.isReference(section, pos)) {
+			// Point the text view at the string table.
+			int index = StringTable.readIndex(section, textStart, pos + length);
+			strings.pointView(text, index);
+			textLength = StringTable.getIndexLength(index);
+		} else {
+			// Point the text view at the field.
+			if (length < (FIELD_HEADER_LEN + textLength))
+				throw new IOException("Field length is invalid");
+			text.limit(text.capacity());
+			text.position(textStart);
+			text.limit(textStart + textLength);
+		}
+
+		// Point the payload view at the field.
+		payload.limit(payload.capacity());
+		payload.position(textStart + textLength);
+		payload.limit(pos + length);
+
+		return length;
+	}
+
+	/**
+	 * Creates a reusable view of a section.
+	 *
+	 * @param section Section to create a view of.
+	 *
+	 * @return Read-only little-endian view of the section.
+	 */
+	private static ByteBuffer createView(ByteBuffer section) {
+		return section.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Walks through a topics section, which may be split across multiple buffers as long as
+	 * none of its fields are.
+	 */
+	private static class TopicsWalker {
+		private final Handler handler;
+		private final StringTable strings;
+		private final ByteBuffer stringText;
+		private final byte[] types;
+		private int depth;
+
+		/**
+		 * Starts walking through a topics section.
+		 *
+		 * @param handler Handler that will receive the events.
+		 * @param strings String table of the document or {@code null} if it doesn't have one.
+		 */
+		public TopicsWalker(Handler handler, StringTable strings) {
+			this.handler = handler;
+			this.strings = strings;
+			this.stringText = (strings != null) ? strings.createView() : null;
+			this.types = new byte[MAX_DEPTH];
+			this.depth = -1;
+		}
+
+		/**
+		 * Walks through a range of the section.
+		 *
+		 * @param section Range of the topics section.
+		 *
+		 * @throws IOException if an invalid field is found.
+		 */
+		public void walk(ByteBuffer section) throws IOException {
+			ByteBuffer text = createView(section);
+			ByteBuffer payload = createView(section);
+
+			int pos = section.position();
+			while (pos < section.limit()) {
+				// Texts in the string table are pointed at by a view of their own.
+				ByteBuffer fieldText = text;
+				if ((strings != null) && ((section.limit() - pos) >= FIELD_HEADER_LEN) &&
+						StringTable.isReference(section, pos))
+					fieldText = stringText;
+
+				int length = readRecord(section, pos, fieldText, payload, strings);
+				byte type = section.get(pos);
+				byte fieldDepth = section.get(pos + 1);
+				if ((fieldDepth < 0) || (fieldDepth > (depth + 1)))
+					throw new IOException("Field depth forward jump greater than 1");
+
+				if (fieldDepth > depth) {
+					// First child of the last field.
+					if (fieldDepth > 0)
+						handler.onEnterSubtree(fieldDepth);
+				} else {
+					// Close every field that isn't an ancestor of this one.
+					while (depth > fieldDepth) {
+						handler.onFieldEnd(types[depth], (byte)depth);
+						handler.onExitSubtree((byte)depth);
+						depth--;
+					}
+					handler.onFieldEnd(types[depth], (byte)depth);
+				}
+
+				// Start the new field.
+				types[fieldDepth] = type;
+				depth = fieldDepth;
+				handler.onFieldStart(type, fieldDepth, fieldText, payload);
+				pos += length;
+			}
+		}
+
+		/**
+		 * Closes everything that is still open once the entire section has been walked.
+		 */
+		public void finish() {
+			while (depth >= 0) {
+				handler.onFieldEnd(types[depth], (byte)depth);
+				if (depth > 0)
+					handler.onExitSubtree((byte)depth);
+				depth--;
+			}
+		}
+	}
+
+	/**
+	 * Receives the events of a {@link BolotaReader}.
+	 */
+	public interface Handler {
+		/**
+		 * Called once the document header has been read.
+		 *
+		 * @param header Document header.
+		 */
+		void onHeader(DocumentHeader header);
+
+		/**
+		 * Called for each field in the properties section (title, subtitle and date).
+		 *
+		 * @param type    Field type identifier character.
+		 * @param text    UTF-8 encoded text of the field.
+		 * @param payload Type-specific data that follows the text.
+		 */
+		void onProperty(byte type, ByteBuffer text, ByteBuffer payload);
+
+		/**
+		 * Called when a topic starts.
+		 *
+		 * @param type    Field type identifier character.
+		 * @param depth   Depth of the field in the tree.
+		 * @param text    UTF-8 encoded text of the field.
+		 * @param payload Type-specific data that follows the text.
+		 */
+		void onFieldStart(byte type, byte depth, ByteBuffer text, ByteBuffer payload);
+
+		/**
+		 * Called when a topic ends, after all of its descendants.
+		 *
+		 * @param type  Field type identifier character.
+		 * @param depth Depth of the field in the tree.
+		 */
+		void onFieldEnd(byte type, byte depth);
+
+		/**
+		 * Called before the first child of the last started topic.
+		 *
+		 * @param depth Depth of the children.
+		 */
+		void onEnterSubtree(byte depth);
+
+		/**
+		 * Called after the last child of a topic, right before the topic itself ends.
+		 *
+		 * @param depth Depth of the children.
+		 */
+		void onExitSubtree(byte depth);
+	}
+
+	/**
+	 * An empty implementation of {@link Handler} to make it easier to only handle the events
+	 * that are needed.
+	 */
+	public static class Adapter implements Handler {
+		public void onHeader(DocumentHeader header) {
+		}
+
+		public void onProperty(byte type, ByteBuffer text, ByteBuffer payload) {
+		}
+
+		public void onFieldStart(byte type, byte depth, ByteBuffer text, ByteBuffer payload) {
+		}
+
+		public void onFieldEnd(byte type, byte depth) {
+		}
+
+		public void onEnterSubtree(byte depth) {
+		}
+
+		public void onExitSubtree(byte depth) {
+		}
+	}
+}
@@ -0,0 +1,456 @@
+package com.innoveworkshop.bolota.io;
+
+import com.innoveworkshop.bolota.exceptions.BolotaFileException;
+import com.innoveworkshop.bolota.models.Field;
+import com.innoveworkshop.bolota.models.fields.DateField;
+import com.innoveworkshop.bolota.utils.UString;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A headless catalog of a directory tree of Bolota documents.
+ *
+ * <p>Only the header and properties section of each document are read, since the header holds
+ * the length of every section up front. The topics section is only touched if the number of
+ * fields in each document is requested, and even then only the field headers are read (after
+ * being decompressed in compressed documents).</p>
+ */
+public class Catalog {
+	private static final Logger Log = Logger.getLogger(Catalog.class.getName());
+	private final boolean countFields;
+	private final int threads;
+
+	/**
+	 * Sorts catalog entries by their title.
+	 */
+	public static final Comparator<Entry> BY_TITLE = new Comparator<Entry>() {
+		public int compare(Entry a, Entry b) {
+			return a.title.compareToIgnoreCase(b.title);
+		}
+	};
+
+	/**
+	 * Sorts catalog entries by their date, leaving the ones without a date at the end.
+	 */
+	public static final Comparator<Entry> BY_DATE = new Comparator<Entry>() {
+		public int compare(Entry a, Entry b) {
+			if ((a.date == null) || (b.date == null))
+				return (a.date == b.date) ? 0 : ((a.date == null) ? 1 : -1);
+
+			return a.date.compareTo(b.date);
+		}
+	};
+
+	/**
+	 * Sorts catalog entries by their file size.
+	 */
+	public static final Comparator<Entry> BY_SIZE = new Comparator<Entry>() {
+		public int compare(Entry a, Entry b) {
+			return (a.size < b.size) ? -1 : ((a.size == b.size) ? 0 : 1);
+		}
+	};
+
+	/**
+	 * Sorts catalog entries by their number of fields.
+	 */
+	public static final Comparator<Entry> BY_FIELD_COUNT = new Comparator<Entry>() {
+		public int compare(Entry a, Entry b) {
+			return (a.fieldCount < b.fieldCount) ? -1 : ((a.fieldCount == b.fieldCount) ? 0 : 1);
+		}
+	};
+
+	/**
+	 * Constructs a document catalog.
+	 *
+	 * @param countFields Should the number of fields in each document be counted?
+	 * @param threads     Number of documents to read in parallel.
+	 */
+	public Catalog(boolean countFields, int threads) {
+		this.countFields = countFields;
+		this.threads = threads;
+	}
+
+	/**
+	 * Constructs a document catalog that reads one document per processor in parallel.
+	 *
+	 * @param countFields Should the number of fields in each document be counted?
+	 */
+	public Catalog(boolean countFields) {
+		this(countFields, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Scans a directory tree for Bolota documents and catalogs all of them. Documents that fail
+	 * to be read are logged and left out.
+	 *
+	 * @param dir Directory to be scanned.
+	 *
+	 * @return Catalog entries in the order they were found.
+	 *
+	 * @throws InterruptedException if interrupted while waiting for the documents to be read.
+	 */
+	public List<Entry> scan(File dir) throws InterruptedException {
+		// Find all the documents first.
+		List<File> files = new ArrayList<File>();
+		findDocuments(dir, files);
+
+		// Read them in parallel.
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<Entry>> results = new ArrayList<Future<Entry>>(files.size());
+		try {
+			for (final File file : files) {
+				results.add(executor.submit(new Callable<Entry>() {
+					public Entry call() throws IOException {
+						return read(file);
+					}
+				}));
+			}
+
+			// Collect the results.
+			List<Entry> entries = new ArrayList<Entry>(files.size());
+			for (int i = 0; i < results.size(); i++) {
+				try {
+					entries.add(results.get(i).get());
+				} catch (ExecutionException e) {
+					Log.log(Level.WARNING, "Failed to catalog " + files.get(i), e.getCause());
+				}
+			}
+
+			return entries;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Reads the catalog entry of a single document.
+	 *
+	 * @param file Bolota document file.
+	 *
+	 * @return Catalog entry of the document.
+	 *
+	 * @throws IOException if an error occurred while reading the document.
+	 */
+	public Entry read(File file) throws IOException {
+		FileInputStream fis = new FileInputStream(file);
+
+		try {
+			FileChannel channel = fis.getChannel();
+
+			// Read the header and the properties section.
+			DocumentHeader header = DocumentHeader.read(file, fis);
+			if (header.isCompressed())
+				return readCompressed(file, channel, fis, header);
+			long topicsStart = header.getLength() + (long)header.propertiesLength +
+				header.stringsLength;
+			if (channel.size() != (topicsStart + header.topicsLength))
+				throw new BolotaFileException(file, "Document length doesn't match its header");
+			ByteBuffer buffer = readFully(file, channel, header.getLength(),
+				header.propertiesLength, "properties section");
+			PropertiesHandler properties = new PropertiesHandler();
+			new BolotaReader(properties).readProperties(buffer);
+
+			// Count the fields only if needed.
+			int fieldCount = -1;
+			if (countFields && (header.topicsLength > 0)) {
+				fieldCount = countFields(channel.map(FileChannel.MapMode.READ_ONLY, topicsStart,
+					header.topicsLength).order(ByteOrder.LITTLE_ENDIAN));
+			} else if (countFields) {
+				fieldCount = 0;
+			}
+
+			return new Entry(file, properties.title, properties.subtitle, properties.date,
+				channel.size(), fieldCount);
+		} finally {
+			// Close the file stream.
+			fis.close();
+		}
+	}
+
+	/**
+	 * Reads the catalog entry of a compressed document. The topics section is only
+	 * decompressed, one block at a time, if the fields have to be counted.
+	 *
+	 * @param file    Bolota document file.
+	 * @param channel Channel of the file.
+	 * @param in      Stream of the file positioned right after the header.
+	 * @param header  Header of the document.
+	 *
+	 * @return Catalog entry of the document.
+	 *
+	 * @throws IOException if an error occurred while reading the document.
+	 */
+	private Entry readCompressed(File file, FileChannel channel, InputStream in,
+	                             DocumentHeader header) throws IOException {
+		// Read the properties section.
+		PropertiesHandler properties = new PropertiesHandler();
+		CompressedSection.Reader reader = new CompressedSection.Reader(file, in);
+		try {
+			new BolotaReader(properties).readProperties(reader.readSection(
+				header.propertiesLength, "properties"));
+		} finally {
+			reader.close();
+		}
+
+		// Count the fields only if needed, skipping over the string table to get to them.
+		int fieldCount = -1;
+		if (countFields) {
+			if (header.hasStringTable()) {
+				reader = new CompressedSection.Reader(file, in);
+				try {
+					while (reader.next() != null);
+					reader.checkLength(header.stringsLength, "string table");
+				} finally {
+					reader.close();
+				}
+			}
+
+			fieldCount = 0;
+			reader = new CompressedSection.Reader(file, in);
+			try {
+				ByteBuffer block;
+				while ((block = reader.next()) != null)
+					fieldCount += countFields(block);
+				reader.checkLength(header.topicsLength, "topics");
+			} finally {
+				reader.close();
+			}
+		}
+
+		return new Entry(file, properties.title, properties.subtitle, properties.date,
+			channel.size(), fieldCount);
+	}
+
+	/**
+	 * Counts the fields in a topics section by skipping from one field header to the next.
+	 *
+	 * @param topics Topics section of the document.
+	 *
+	 * @return Number of fields in the section.
+	 *
+	 * @throws IOException if an invalid field header is found.
+	 */
+	private static int countFields(ByteBuffer topics) throws IOException {
+		int count = 0;
+		int pos = 0;
+		while (pos < topics.limit()) {
+			if ((topics.limit() - pos) < 6)
+				throw new IOException("Field header ended prematurely");
+			int length = topics.getShort(pos + 2) & 0xFFFF;
+			if (length < 6)
+				throw new IOException("Field length is invalid");
+
+			pos += length;
+			count++;
+		}
+
+		return count;
+	}
+
+	/**
+	 * Reads a region of a file into a buffer.
+	 *
+	 * @param file     File that is being read.
+	 * @param channel  Channel of the file.
+	 * @param position Position in the file to start reading from.
+	 * @param length   Number of bytes to read.
+	 * @param name     Name of the part of the document being read for error reporting.
+	 *
+	 * @return Little-endian buffer with the region of the file.
+	 *
+	 * @throws IOException if the file ended prematurely or a read error occurred.
+	 */
+	private static ByteBuffer readFully(File file, FileChannel channel, long position, int length,
+	                                    String name) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0)
+				throw new BolotaFileException(file, "Document " + name + " ended prematurely");
+		}
+		buffer.flip();
+
+		return buffer;
+	}
+
+	/**
+	 * Recursively finds all the Bolota documents in a directory tree.
+	 *
+	 * @param dir   Directory to be searched.
+	 * @param files List to add the documents found to.
+	 */
+	private static void findDocuments(File dir, List<File> files) {
+		File[] entries = dir.listFiles(new FileFilter() {
+			public boolean accept(File file) {
+				return file.isDirectory() || file.getName().toLowerCase().endsWith(".bol");
+			}
+		});
+		if (entries == null)
+			return;
+
+		for (File entry : entries) {
+			if (entry.isDirectory()) {
+				findDocuments(entry, files);
+			} else {
+				files.add(entry);
+			}
+		}
+	}
+
+	/**
+	 * Catalogs a directory tree of Bolota documents and prints the catalog as tab-separated
+	 * values.
+	 *
+	 * <p>Usage: {@code Catalog [-count] [-sort title|date|size|fields] directory}</p>
+	 *
+	 * @param args Command line arguments.
+	 *
+	 * @throws InterruptedException if interrupted while reading the documents.
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		boolean count = false;
+		Comparator<Entry> sort = BY_TITLE;
+		File dir = null;
+
+		// Parse the command line arguments.
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-count")) {
+				count = true;
+			} else if (args[i].equals("-sort") && (i < (args.length - 1))) {
+				String key = args[++i];
+				if (key.equals("date")) {
+					sort = BY_DATE;
+				} else if (key.equals("size")) {
+					sort = BY_SIZE;
+				} else if (key.equals("fields")) {
+					sort = BY_FIELD_COUNT;
+				}
+			} else {
+				dir = new File(args[i]);
+			}
+		}
+		if (dir == null) {
+			System.err.println("Usage: Catalog [-count] [-sort title|date|size|fields] directory");
+			System.exit(1);
+		}
+
+		// Catalog the documents.
+		List<Entry> entries = new Catalog(count).scan(dir);
+		Collections.sort(entries, sort);
+		for (Entry entry : entries)
+			System.out.println(entry);
+	}
+
+	/**
+	 * Collects the properties of a document.
+	 */
+	private static class PropertiesHandler extends BolotaReader.Adapter {
+		private int index = 0;
+		public String title = "";
+		public String subtitle = "";
+		public Calendar date = null;
+
+		@Override
+		public void onProperty(byte type, ByteBuffer text, ByteBuffer payload) {
+			switch (index++) {
+				case 0:
+					title = decode(text);
+					break;
+				case 1:
+					subtitle = decode(text);
+					break;
+				case 2:
+					if ((type == Field.TYPE_DATE) && (payload.remaining() >= 7)) {
+						// Pack the parts of the date just like the field does.
+						payload.order(ByteOrder.LITTLE_ENDIAN);
+						long year = payload.getShort() & 0xFFFF;
+						long timestamp = (year << 40) | ((long)(payload.get() & 0xFF) << 32) |
+							((long)(payload.get() & 0xFF) << 24) | ((payload.get() & 0xFF) << 16) |
+							((payload.get() & 0xFF) << 8) | (payload.get() & 0xFF);
+						if (timestamp != DateField.NO_DATE)
+							date = DateField.unpack(timestamp);
+					}
+					break;
+			}
+		}
+
+		/**
+		 * Decodes the text of a property.
+		 *
+		 * @param text UTF-8 encoded text.
+		 *
+		 * @return Decoded text.
+		 */
+		private static String decode(ByteBuffer text) {
+			UString str = new UString("");
+			str.set(text, text.position(), text.remaining());
+			return str.toString();
+		}
+	}
+
+	/**
+	 * A single document in the catalog.
+	 */
+	public static class Entry {
+		private static final String DATE_FORMAT = "yyyy-MM-dd HH:mm";
+
+		public final File file;
+		public final String title;
+		public final String subtitle;
+		public final Calendar date;
+		public final long size;
+		public final int fieldCount;
+
+		/**
+		 * Constructs a catalog entry.
+		 *
+		 * @param file       Document file.
+		 * @param title      Title of the document.
+		 * @param subtitle   Subtitle of the document.
+		 * @param date       Date of the document's creation or {@code null} if it has none.
+		 * @param size       Size of the document file in bytes.
+		 * @param fieldCount Number of fields in the document or {@code -1} if not counted.
+		 */
+		public Entry(File file, String title, String subtitle, Calendar date, long size,
+		             int fieldCount) {
+			this.file = file;
+			this.title = title;
+			this.subtitle = subtitle;
+			this.date = date;
+			this.size = size;
+			this.fieldCount = fieldCount;
+		}
+
+		@Override
+		public String toString() {
+			String formatted = "";
+			if (date != null) {
+				SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT);
+				sdf.setTimeZone(date.getTimeZone());
+				formatted = sdf.format(date.getTime());
+			}
+
+			return title + "\t" + subtitle + "\t" + formatted + "\t" + size + "\t" + fieldCount +
+				"\t" + file.getPath();
+		}
+	}
+}
@@ -0,0 +1,377 @@
+package com.innoveworkshop.bolota.io;
+
+import com.innoveworkshop.bolota.exceptions.BolotaFileException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Reads and writes the sections of compressed Bolota documents.
+ *
+ * <p>A compressed section is a sequence of blocks, each of them made up of its uncompressed
+ * length (U32), its compressed length (U32) and its contents compressed with Deflate. Blocks
+ * always end at the end of a field and are compressed independently from each other, so each
+ * one can be decompressed and parsed on its own. The section ends with a block whose lengths
+ * are both 0.</p>
+ */
+public class CompressedSection {
+	/**
+	 * Fields are grouped into blocks of at least this many bytes before being compressed.
+	 */
+	public static final int BLOCK_LEN = 64 * 1024;
+
+	/**
+	 * Length of the header of each block: Uncompressed Length (U32) + Compressed Length (U32).
+	 */
+	private static final int BLOCK_HEADER_LEN = 8;
+
+	/**
+	 * Largest possible field, which is how far past {@link #BLOCK_LEN} a block may go.
+	 */
+	private static final int MAX_FIELD_LEN = 0xFFFF;
+
+	/**
+	 * Largest possible uncompressed block.
+	 */
+	private static final int MAX_BLOCK_LEN = BLOCK_LEN + MAX_FIELD_LEN;
+
+	/**
+	 * Compresses the fields written to it into a section of blocks.
+	 *
+	 * <p>Fields may be written in pieces of any size, since they are only split into blocks
+	 * once they are complete. {@link #finish()} must be called once the whole section has been
+	 * written.</p>
+	 */
+	public static class Writer implements WritableByteChannel {
+		private final WritableByteChannel channel;
+		private final Deflater deflater;
+		private final byte[] block;
+		private byte[] compressed;
+		private int blockLength;
+		private int fieldsEnd;
+		private boolean open;
+
+		/**
+		 * Starts writing a compressed section.
+		 *
+		 * @param channel Channel to write the section to.
+		 * @param level   Compression level from 0 to 9 or {@link Deflater#DEFAULT_COMPRESSION}.
+		 */
+		public Writer(WritableByteChannel channel, int level) {
+			this.channel = channel;
+			this.deflater = new Deflater(level);
+			this.block = new byte[MAX_BLOCK_LEN];
+			this.compressed = new byte[BLOCK_HEADER_LEN + BLOCK_LEN];
+			this.blockLength = 0;
+			this.fieldsEnd = 0;
+			this.open = true;
+		}
+
+		/**
+		 * Writes a piece of the section.
+		 *
+		 * @param src Buffer with the bytes of the fields.
+		 *
+		 * @return Number of bytes written, which is always everything that was in the buffer.
+		 *
+		 * @throws IOException if the fields are invalid or an error occurred while writing.
+		 */
+		public int write(ByteBuffer src) throws IOException {
+			int written = src.remaining();
+
+			while (src.hasRemaining()) {
+				int length = Math.min(src.remaining(), block.length - blockLength);
+				src.get(block, blockLength, length);
+				blockLength += length;
+
+				// Find the end of the fields that were completed.
+				while ((blockLength - fieldsEnd) >= 4) {
+					int fieldLength = (block[fieldsEnd + 2] & 0xFF) |
+						((block[fieldsEnd + 3] & 0xFF) << 8);
+					if (fieldLength < 6)
+						throw new IOException("Field length is invalid");
+					if ((fieldsEnd + fieldLength) > blockLength)
+						break;
+					fieldsEnd += fieldLength;
+				}
+
+				// A block never gets full before reaching its minimum length, since the field
+				// that is left incomplete is always able to fit.
+				if (fieldsEnd >= BLOCK_LEN)
+					writeBlock();
+			}
+
+			return written;
+		}
+
+		/**
+		 * Writes whatever is left and ends the section. The channel the section was written to
+		 * is left open.
+		 *
+		 * @throws IOException if the last field is incomplete or an error occurred while writing.
+		 */
+		public void finish() throws IOException {
+			if (!open)
+				return;
+			open = false;
+
+			try {
+				if (fieldsEnd != blockLength)
+					throw new IOException("Section ended in the middle of a field");
+				if (blockLength > 0)
+					writeBlock();
+
+				// Terminate the section.
+				ByteBuffer end = ByteBuffer.allocate(BLOCK_HEADER_LEN);
+				while (end.hasRemaining())
+					channel.write(end);
+			} finally {
+				deflater.end();
+			}
+		}
+
+		/**
+		 * Compresses the complete fields that are in the block and writes them out.
+		 *
+		 * @throws IOException if an error occurred while writing the block.
+		 */
+		private void writeBlock() throws IOException {
+			deflater.reset();
+			deflater.setInput(block, 0, fieldsEnd);
+			deflater.finish();
+
+			int length = BLOCK_HEADER_LEN;
+			while (!deflater.finished()) {
+				if (length == compressed.length) {
+					byte[] larger = new byte[compressed.length * 2];
+					System.arraycopy(compressed, 0, larger, 0, length);
+					compressed = larger;
+				}
+				length += deflater.deflate(compressed, length, compressed.length - length);
+			}
+
+			// Write the block along with its header.
+			ByteBuffer buffer = ByteBuffer.wrap(compressed, 0, length);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(0, fieldsEnd);
+			buffer.putInt(4, length - BLOCK_HEADER_LEN);
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+
+			// Carry the incomplete field over to the next block.
+			System.arraycopy(block, fieldsEnd, block, 0, blockLength - fieldsEnd);
+			blockLength -= fieldsEnd;
+			fieldsEnd = 0;
+		}
+
+		public boolean isOpen() {
+			return open;
+		}
+
+		/**
+		 * Same as {@link #finish()}.
+		 *
+		 * @throws IOException if the last field is incomplete or an error occurred while writing.
+		 */
+		public void close() throws IOException {
+			finish();
+		}
+	}
+
+	/**
+	 * Decompresses a section one block at a time.
+	 *
+	 * <p>Every block is decompressed into an array of its own, since the fields parsed from it
+	 * keep pointing into it for their text and to be copied verbatim when saved. A block is
+	 * only reclaimed once every field that was read from it is gone, so a loaded document keeps
+	 * its whole uncompressed topics section in memory, exactly like an uncompressed document
+	 * keeps the array it was read into.</p>
+	 */
+	public static class Reader {
+		private final File file;
+		private final ByteBuffer source;
+		private final InputStream in;
+		private final Inflater inflater;
+		private byte[] compressed;
+		private long length;
+		private boolean ended;
+
+		/**
+		 * Starts reading a compressed section from a buffer.
+		 *
+		 * @param file   File that is being read, used for error reporting.
+		 * @param source Little-endian buffer positioned at the start of the section. Will be
+		 *               positioned right after the section once it's been read.
+		 */
+		public Reader(File file, ByteBuffer source) {
+			this(file, source, null);
+		}
+
+		/**
+		 * Starts reading a compressed section from a stream. Nothing past the end of the
+		 * section is ever read from the stream.
+		 *
+		 * @param file File that is being read, used for error reporting.
+		 * @param in   Stream positioned at the start of the section.
+		 */
+		public Reader(File file, InputStream in) {
+			this(file, null, in);
+		}
+
+		/**
+		 * Starts reading a compressed section.
+		 *
+		 * @param file   File that is being read, used for error reporting.
+		 * @param source Buffer to read the section from or {@code null} to read from a stream.
+		 * @param in     Stream to read the section from if there's no buffer.
+		 */
+		private Reader(File file, ByteBuffer source, InputStream in) {
+			this.file = file;
+			this.source = source;
+			this.in = in;
+			this.inflater = new Inflater();
+			this.compressed = new byte[BLOCK_LEN];
+			this.length = 0;
+			this.ended = false;
+		}
+
+		/**
+		 * Decompresses the next block of the section.
+		 *
+		 * @return Little-endian buffer with the fields in the block, which is never reused, or
+		 *         {@code null} if the section has ended.
+		 *
+		 * @throws IOException if the section is corrupted or an error occurred while reading.
+		 */
+		public ByteBuffer next() throws IOException {
+			if (ended)
+				return null;
+
+			// Read the header of the block.
+			byte[] header = new byte[BLOCK_HEADER_LEN];
+			read(header, BLOCK_HEADER_LEN);
+			ByteBuffer lengths = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+			int blockLength = lengths.getInt();
+			int compressedLength = lengths.getInt();
+			if ((blockLength == 0) && (compressedLength == 0)) {
+				ended = true;
+				inflater.end();
+				return null;
+			}
+			if ((blockLength <= 0) || (blockLength > MAX_BLOCK_LEN) || (compressedLength <= 0) ||
+					(compressedLength > (2 * MAX_BLOCK_LEN)))
+				throw new BolotaFileException(file, "Document has an invalid compressed block");
+
+			// Read the compressed block.
+			if (compressed.length < compressedLength)
+				compressed = new byte[compressedLength];
+			read(compressed, compressedLength);
+
+			// Decompress it.
+			byte[] block = new byte[blockLength];
+			inflater.reset();
+			inflater.setInput(compressed, 0, compressedLength);
+			try {
+				int inflated = 0;
+				while ((inflated < blockLength) && !inflater.finished() && !inflater.needsInput())
+					inflated += inflater.inflate(block, inflated, blockLength - inflated);
+				if ((inflated != blockLength) || !inflater.finished())
+					throw new BolotaFileException(file, "Document has a corrupted compressed block");
+			} catch (DataFormatException e) {
+				throw new BolotaFileException(file, "Document has a corrupted compressed block");
+			}
+
+			length += blockLength;
+			return ByteBuffer.wrap(block).order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		/**
+		 * Decompresses the rest of the section into a single buffer.
+		 *
+		 * @param sectionLength Uncompressed length of the section as stated in the header.
+		 * @param name          Name of the section for error reporting.
+		 *
+		 * @return Little-endian buffer with the rest of the section.
+		 *
+		 * @throws IOException if the section is corrupted or an error occurred while reading.
+		 */
+		public ByteBuffer readSection(int sectionLength, String name) throws IOException {
+			byte[] bytes = new byte[sectionLength];
+			int pos = 0;
+
+			ByteBuffer block;
+			while ((block = next()) != null) {
+				if (block.remaining() > (sectionLength - pos))
+					break;
+				block.get(bytes, pos, block.remaining());
+				pos += block.capacity();
+			}
+			checkLength(sectionLength, name);
+
+			return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		/**
+		 * Checks if the section has been read to its end and is as long as it should be.
+		 *
+		 * @param sectionLength Uncompressed length of the section as stated in the header.
+		 * @param name          Name of the section for error reporting.
+		 *
+		 * @throws BolotaFileException if the length of the section doesn't match.
+		 */
+		public void checkLength(int sectionLength, String name) throws BolotaFileException {
+			if (!ended || (length != sectionLength)) {
+				throw new BolotaFileException(file, "Document " + name +
+					" section doesn't match its length");
+			}
+		}
+
+		/**
+		 * Gets the number of bytes that have been decompressed so far.
+		 *
+		 * @return Uncompressed length of the blocks that have been read.
+		 */
+		public long getLength() {
+			return length;
+		}
+
+		/**
+		 * Releases the resources used to decompress the section.
+		 */
+		public void close() {
+			inflater.end();
+		}
+
+		/**
+		 * Reads an exact number of bytes of the section.
+		 *
+		 * @param bytes  Array to read the bytes into.
+		 * @param length Number of bytes to be read.
+		 *
+		 * @throws IOException if the section ended prematurely or a read error occurred.
+		 */
+		private void read(byte[] bytes, int length) throws IOException {
+			if (source != null) {
+				if (source.remaining() < length)
+					throw new BolotaFileException(file, "Document compressed section ended prematurely");
+				source.get(bytes, 0, length);
+				return;
+			}
+
+			int offset = 0;
+			while (offset < length) {
+				int read = in.read(bytes, offset, length - offset);
+				if (read < 0)
+					throw new BolotaFileException(file, "Document compressed section ended prematurely");
+				offset += read;
+			}
+		}
+	}
+}
@@ -0,0 +1,292 @@
+package com.innoveworkshop.bolota.io;
+
+import com.innoveworkshop.bolota.exceptions.BolotaFileException;
+import com.innoveworkshop.bolota.exceptions.InvalidMagicException;
+import com.innoveworkshop.bolota.exceptions.NewerVersionException;
+import com.innoveworkshop.bolota.models.Document;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * The header at the start of every Bolota document file.
+ */
+public class DocumentHeader {
+	public final byte version;
+	public final byte flags;
+	public final int propertiesLength;
+	public final int topicsLength;
+	public final int stringsLength;
+
+	/**
+	 * Length of the document magic number.
+	 */
+	public static final int MAGIC_LEN = 3;
+
+	/**
+	 * Length of the document header: magic, version (U8) and the two section lengths (U32).
+	 */
+	public static final int LENGTH = MAGIC_LEN + 9;
+
+	/**
+	 * Length of the document header in versions that also have flags (U8) after the version.
+	 */
+	public static final int FLAGS_LENGTH = LENGTH + 1;
+
+	/**
+	 * Length of the document header in versions that also have the length of the string table
+	 * section (U32) after the length of the topics section. This is the longest header.
+	 */
+	public static final int MAX_LENGTH = FLAGS_LENGTH + 4;
+
+	/**
+	 * First version of the document specification to have flags in the header.
+	 */
+	public static final byte FLAGS_VERSION = 2;
+
+	/**
+	 * First version of the document specification to have a string table section.
+	 */
+	public static final byte STRINGS_VERSION = 3;
+
+	/**
+	 * Flag that indicates that the sections are stored as {@link CompressedSection}s.
+	 */
+	public static final byte FLAG_COMPRESSED = 0x01;
+
+	/**
+	 * Constructs a document header.
+	 *
+	 * @param version          Version of the document specification.
+	 * @param flags            Flags of the document. Must be 0 for versions before
+	 *                         {@link #FLAGS_VERSION}.
+	 * @param propertiesLength Uncompressed length of the properties section in bytes.
+	 * @param topicsLength     Uncompressed length of the topics section in bytes.
+	 * @param stringsLength    Uncompressed length of the string table section in bytes. Must be
+	 *                         0 for versions before {@link #STRINGS_VERSION}.
+	 */
+	public DocumentHeader(byte version, byte flags, int propertiesLength, int topicsLength,
+	                      int stringsLength) {
+		this.version = version;
+		this.flags = flags;
+		this.propertiesLength = propertiesLength;
+		this.topicsLength = topicsLength;
+		this.stringsLength = stringsLength;
+	}
+
+	/**
+	 * Constructs a document header without a string table.
+	 *
+	 * @param version          Version of the document specification.
+	 * @param flags            Flags of the document. Must be 0 for versions before
+	 *                         {@link #FLAGS_VERSION}.
+	 * @param propertiesLength Uncompressed length of the properties section in bytes.
+	 * @param topicsLength     Uncompressed length of the topics section in bytes.
+	 */
+	public DocumentHeader(byte version, byte flags, int propertiesLength, int topicsLength) {
+		this(version, flags, propertiesLength, topicsLength, 0);
+	}
+
+	/**
+	 * Constructs a document header without any flags.
+	 *
+	 * @param version          Version of the document specification.
+	 * @param propertiesLength Length of the properties section in bytes.
+	 * @param topicsLength     Length of the topics section in bytes.
+	 */
+	public DocumentHeader(byte version, int propertiesLength, int topicsLength) {
+		this(version, (byte)0, propertiesLength, topicsLength);
+	}
+
+	/**
+	 * Checks if the sections of the document are compressed.
+	 *
+	 * @return {@code true} if the sections are stored as {@link CompressedSection}s.
+	 */
+	public boolean isCompressed() {
+		return (flags & FLAG_COMPRESSED) != 0;
+	}
+
+	/**
+	 * Checks if the document has a string table section.
+	 *
+	 * @return {@code true} if some of the topics refer to texts in a {@link StringTable}.
+	 */
+	public boolean hasStringTable() {
+		return stringsLength > 0;
+	}
+
+	/**
+	 * Gets the length of this header in its binary form, which depends on its version.
+	 *
+	 * @return Length of the header in bytes.
+	 */
+	public int getLength() {
+		return getLength(version);
+	}
+
+	/**
+	 * Gets the length of a header in its binary form.
+	 *
+	 * @param version Version of the document specification.
+	 *
+	 * @return Length of the header in bytes.
+	 */
+	public static int getLength(byte version) {
+		if (version >= STRINGS_VERSION)
+			return MAX_LENGTH;
+		if (version >= FLAGS_VERSION)
+			return FLAGS_LENGTH;
+
+		return LENGTH;
+	}
+
+	/**
+	 * Reads and validates a document header in place.
+	 *
+	 * @param file   File that is being read.
+	 * @param buffer Little-endian buffer positioned at the start of the document. Will be
+	 *               positioned right after the header once we return.
+	 *
+	 * @return Document header.
+	 *
+	 * @throws InvalidMagicException if the file isn't a Bolota document.
+	 * @throws NewerVersionException if the document is newer than what we support.
+	 * @throws BolotaFileException if the header is truncated or invalid.
+	 */
+	public static DocumentHeader read(File file, ByteBuffer buffer) throws BolotaFileException {
+		if (buffer.remaining() < LENGTH)
+			throw new BolotaFileException(file, "Document header ended prematurely");
+
+		// Check if the magic and version are valid.
+		if (!((buffer.get() == 'B') && (buffer.get() == 'L') && (buffer.get() == 'T')))
+			throw new InvalidMagicException(file);
+		byte version = buffer.get();
+		if (version > Document.DOC_VERSION)
+			throw new NewerVersionException(file, version);
+
+		if (buffer.remaining() < (getLength(version) - MAGIC_LEN - 1))
+			throw new BolotaFileException(file, "Document header ended prematurely");
+
+		// Check if we know how to deal with the flags of the document.
+		byte flags = 0;
+		if (version >= FLAGS_VERSION) {
+			flags = buffer.get();
+			if ((flags & ~FLAG_COMPRESSED) != 0)
+				throw new BolotaFileException(file, "Document uses features that aren't supported");
+		}
+
+		// Get the length of the file sections.
+		int propertiesLength = buffer.getInt();
+		int topicsLength = buffer.getInt();
+		int stringsLength = (version >= STRINGS_VERSION) ? buffer.getInt() : 0;
+		if ((propertiesLength < 0) || (topicsLength < 0) || (stringsLength < 0))
+			throw new BolotaFileException(file, "Document has an invalid section length");
+
+		return new DocumentHeader(version, flags, propertiesLength, topicsLength, stringsLength);
+	}
+
+	/**
+	 * Reads and validates a document header from a stream, without reading anything past it.
+	 *
+	 * @param file File that is being read.
+	 * @param in   Stream positioned at the start of the document.
+	 *
+	 * @return Document header.
+	 *
+	 * @throws InvalidMagicException if the file isn't a Bolota document.
+	 * @throws NewerVersionException if the document is newer than what we support.
+	 * @throws IOException if the header is truncated or a read error occurred.
+	 */
+	public static DocumentHeader read(File file, InputStream in) throws IOException {
+		byte[] bytes = new byte[MAX_LENGTH];
+		int length = LENGTH;
+		int offset = 0;
+
+		while (offset < length) {
+			int read = in.read(bytes, offset, length - offset);
+			if (read < 0)
+				throw new BolotaFileException(file, "Document header ended prematurely");
+			offset += read;
+
+			// Newer versions have a longer header.
+			if (offset > MAGIC_LEN)
+				length = getLength(bytes[MAGIC_LEN]);
+		}
+
+		return read(file, ByteBuffer.wrap(bytes, 0, length).order(ByteOrder.LITTLE_ENDIAN));
+	}
+
+	/**
+	 * Puts the header into a buffer as it should be written to a file.
+	 *
+	 * @param buffer Little-endian buffer to put the header into.
+	 */
+	public void write(ByteBuffer buffer) {
+		buffer.put((byte)'B');
+		buffer.put((byte)'L');
+		buffer.put((byte)'T');
+		buffer.put(version);
+		if (version >= FLAGS_VERSION)
+			buffer.put(flags);
+		buffer.putInt(propertiesLength);
+		buffer.putInt(topicsLength);
+		if (version >= STRINGS_VERSION)
+			buffer.putInt(stringsLength);
+	}
+
+	/**
+	 * Maps an entire document file into memory. The mapping stays valid after we return.
+	 *
+	 * @param file Bolota document file.
+	 *
+	 * @return Read-only little-endian buffer of the entire file.
+	 *
+	 * @throws IOException if the file couldn't be mapped.
+	 */
+	public static ByteBuffer map(File file) throws IOException {
+		FileInputStream fis = new FileInputStream(file);
+
+		try {
+			FileChannel channel = fis.getChannel();
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new BolotaFileException(file, "Document is too large to be mapped");
+
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return buffer.order(ByteOrder.LITTLE_ENDIAN);
+		} finally {
+			// Close the file stream.
+			fis.close();
+		}
+	}
+
+	/**
+	 * Slices a section out of a document buffer without copying it and advances the buffer
+	 * past it.
+	 *
+	 * @param file   File that is being read.
+	 * @param buffer Buffer positioned at the start of the section.
+	 * @param length Length of the section in bytes.
+	 * @param name   Name of the section for error reporting.
+	 *
+	 * @return Read-only little-endian view of the section.
+	 *
+	 * @throws BolotaFileException if the section goes beyond the end of the file.
+	 */
+	public static ByteBuffer slice(File file, ByteBuffer buffer, int length,
+	                               String name) throws BolotaFileException {
+		if ((length < 0) || (length > buffer.remaining()))
+			throw new BolotaFileException(file, "Document " + name + " section ended prematurely");
+
+		ByteBuffer section = buffer.slice();
+		section.limit(length);
+		buffer.position(buffer.position() + length);
+
+		return section.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+	}
+}
@@ -0,0 +1,541 @@
+package com.innoveworkshop.bolota.io;
+
+import com.innoveworkshop.bolota.exceptions.BolotaFileException;
+import com.innoveworkshop.bolota.utils.UString;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The string table of a Bolota document, which holds the texts that repeat throughout the
+ * topics so that they're only stored once.
+ *
+ * <p>The string table section is made up of text records at depth 0, one per string, so it's
+ * framed just like the other sections. A topic whose text is in the table has
+ * {@link #REFERENCE} as its text length, followed by the index of the string as an unsigned
+ * LEB128 varint where its text would be.</p>
+ *
+ * <p>Each string is decoded into a single {@link UString} that is shared by every field that
+ * refers to it.</p>
+ */
+public class StringTable {
+	private final File file;
+	private final ByteBuffer section;
+	private final int[] offsets;
+	private final int[] lengths;
+	private final UString[] strings;
+
+	/**
+	 * Text length that indicates that the text of a field is in the string table.
+	 */
+	public static final short REFERENCE = (short)0xFFFF;
+
+	/**
+	 * Length of the fixed part of a field: Type (U8) + Depth (U8) + Length (U16) +
+	 * Text Length (U16).
+	 */
+	private static final int FIELD_HEADER_LEN = 6;
+
+	/**
+	 * Longest possible index varint.
+	 */
+	private static final int MAX_INDEX_LEN = 5;
+
+	/**
+	 * Constructs a string table out of the strings in a section.
+	 *
+	 * @param file    File that is being read, used for error reporting.
+	 * @param section Section that contains the strings.
+	 * @param offsets Absolute position of each string in the section.
+	 * @param lengths Length of each string in bytes.
+	 */
+	private StringTable(File file, ByteBuffer section, int[] offsets, int[] lengths) {
+		this.file = file;
+		this.section = section;
+		this.offsets = offsets;
+		this.lengths = lengths;
+
+		// Strings are only decoded once they're first needed.
+		this.strings = new UString[offsets.length];
+		for (int i = 0; i < strings.length; i++) {
+			strings[i] = new UString("");
+			strings[i].set(section, offsets[i], lengths[i]);
+		}
+	}
+
+	/**
+	 * Reads a string table section.
+	 *
+	 * @param file    File that is being read, used for error reporting.
+	 * @param section Little-endian string table section. Must not change afterwards, since the
+	 *                strings are referenced rather than copied.
+	 *
+	 * @return String table.
+	 *
+	 * @throws BolotaFileException if the section is invalid.
+	 */
+	public static StringTable read(File file, ByteBuffer section) throws BolotaFileException {
+		List<Integer> offsets = new ArrayList<Integer>();
+		List<Integer> lengths = new ArrayList<Integer>();
+
+		int pos = section.position();
+		while (pos < section.limit()) {
+			if ((section.limit() - pos) < FIELD_HEADER_LEN)
+				throw new BolotaFileException(file, "Document string table ended prematurely");
+
+			int length = section.getShort(pos + 2) & 0xFFFF;
+			int textLength = section.getShort(pos + 4) & 0xFFFF;
+			if ((section.get(pos) != 'T') || (section.get(pos + 1) != 0) ||
+					(length != (FIELD_HEADER_LEN + textLength)) ||
+					(length > (section.limit() - pos)))
+				throw new BolotaFileException(file, "Document has an invalid string table");
+
+			offsets.add(pos + FIELD_HEADER_LEN);
+			lengths.add(textLength);
+			pos += length;
+		}
+
+		int[] offsetArray = new int[offsets.size()];
+		int[] lengthArray = new int[lengths.size()];
+		for (int i = 0; i < offsetArray.length; i++) {
+			offsetArray[i] = offsets.get(i);
+			lengthArray[i] = lengths.get(i);
+		}
+
+		return new StringTable(file, section, offsetArray, lengthArray);
+	}
+
+	/**
+	 * Gets the number of strings in the table.
+	 *
+	 * @return Number of strings.
+	 */
+	public int size() {
+		return strings.length;
+	}
+
+	/**
+	 * Gets a string from the table. The same instance is returned every time, so it must not
+	 * be changed.
+	 *
+	 * @param index Index of the string.
+	 *
+	 * @return Shared string.
+	 *
+	 * @throws BolotaFileException if there's no such string in the table.
+	 */
+	public UString get(int index) throws BolotaFileException {
+		checkIndex(index);
+		return strings[index];
+	}
+
+	/**
+	 * Gets the string a field record refers to.
+	 *
+	 * @param record Buffer that contains the record.
+	 * @param pos    Absolute position of the record in the buffer.
+	 *
+	 * @return Shared string.
+	 *
+	 * @throws IOException if the index is invalid.
+	 */
+	public UString get(ByteBuffer record, int pos) throws IOException {
+		int end = pos + (record.getShort(pos + 2) & 0xFFFF);
+		return get(readIndex(record, pos + FIELD_HEADER_LEN, end));
+	}
+
+	/**
+	 * Creates a view of the section for {@link #pointView(ByteBuffer, int)} to reuse.
+	 *
+	 * @return Read-only little-endian view of the section.
+	 */
+	public ByteBuffer createView() {
+		return section.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Points a view created by {@link #createView()} at the UTF-8 encoded text of a string.
+	 *
+	 * @param view  View of the section.
+	 * @param index Index of the string.
+	 *
+	 * @throws BolotaFileException if there's no such string in the table.
+	 */
+	public void pointView(ByteBuffer view, int index) throws BolotaFileException {
+		checkIndex(index);
+		view.limit(view.capacity());
+		view.position(offsets[index]);
+		view.limit(offsets[index] + lengths[index]);
+	}
+
+	/**
+	 * Checks if an index refers to a string in the table.
+	 *
+	 * @param index Index of the string.
+	 *
+	 * @throws BolotaFileException if there's no such string in the table.
+	 */
+	private void checkIndex(int index) throws BolotaFileException {
+		if ((index < 0) || (index >= strings.length))
+			throw new BolotaFileException(file, "Field refers to a string that isn't in the table");
+	}
+
+	/**
+	 * Checks if the text of a field record is in a string table.
+	 *
+	 * @param record Buffer that contains the record.
+	 * @param pos    Absolute position of the record in the buffer.
+	 *
+	 * @return {@code true} if the record refers to a string table.
+	 */
+	public static boolean isReference(ByteBuffer record, int pos) {
+		return record.getShort(pos + 4) == REFERENCE;
+	}
+
+	/**
+	 * Reads an index varint.
+	 *
+	 * @param buffer Buffer that contains the varint.
+	 * @param pos    Absolute position of the varint in the buffer.
+	 * @param end    Absolute position the varint must end before, usually the end of the record.
+	 *
+	 * @return Index that was read.
+	 *
+	 * @throws IOException if the varint is invalid or goes past the end.
+	 */
+	public static int readIndex(ByteBuffer buffer, int pos, int end) throws IOException {
+		int index = 0;
+		for (int i = 0; i < MAX_INDEX_LEN; i++) {
+			if ((pos + i) >= Math.min(end, buffer.limit()))
+				throw new IOException("String table index ended prematurely");
+
+			// The last byte can only hold what's left of a positive integer.
+			byte b = buffer.get(pos + i);
+			if ((i == (MAX_INDEX_LEN - 1)) && ((b & 0xF8) != 0))
+				break;
+
+			index |= (b & 0x7F) << (7 * i);
+			if ((b & 0x80) == 0)
+				return index;
+		}
+
+		throw new IOException("String table index is invalid");
+	}
+
+	/**
+	 * Skips over an index varint.
+	 *
+	 * @param buffer Buffer positioned at the varint. Will be positioned right after it.
+	 */
+	public static void skipIndex(ByteBuffer buffer) {
+		while ((buffer.get() & 0x80) != 0);
+	}
+
+	/**
+	 * Gets the length of an index once it's encoded as a varint.
+	 *
+	 * @param index Index to be encoded.
+	 *
+	 * @return Length of the varint in bytes.
+	 */
+	public static int getIndexLength(int index) {
+		int length = 1;
+		while ((index >>>= 7) != 0)
+			length++;
+
+		return length;
+	}
+
+	/**
+	 * Puts an index into a buffer as a varint.
+	 *
+	 * @param buffer Buffer to put the varint into.
+	 * @param index  Index to be encoded.
+	 */
+	public static void putIndex(ByteBuffer buffer, int index) {
+		while ((index & ~0x7F) != 0) {
+			buffer.put((byte)((index & 0x7F) | 0x80));
+			index >>>= 7;
+		}
+		buffer.put((byte)index);
+	}
+
+	/**
+	 * Builds the string table of a document that is about to be written and encodes the topics
+	 * to refer to it.
+	 *
+	 * <p>Every record that is going to be written must first go through
+	 * {@link #addRecord(ByteBuffer)} or {@link #addRecords(ByteBuffer)}, in order to count how
+	 * often each text repeats. {@link #finish()} then picks the texts that are worth storing
+	 * only once, after which the very same records must be written through
+	 * {@link #putRecord(ByteBuffer, ByteBuffer, byte)}.</p>
+	 */
+	public static class Encoder {
+		private final Map<Text, Text> texts;
+		private final Text probe;
+		private final List<Text> entries;
+		private long savedLength;
+		private int sectionLength;
+
+		/**
+		 * Starts building a string table.
+		 */
+		public Encoder() {
+			this.texts = new HashMap<Text, Text>();
+			this.probe = new Text();
+			this.entries = new ArrayList<Text>();
+			this.savedLength = 0;
+			this.sectionLength = 0;
+		}
+
+		/**
+		 * Counts the text of a field record that is going to be written.
+		 *
+		 * @param record Buffer positioned at the start of the record.
+		 */
+		public void addRecord(ByteBuffer record) {
+			int pos = record.position();
+			int textLength = record.getShort(pos + 4) & 0xFFFF;
+			if ((textLength == 0) || (textLength == (REFERENCE & 0xFFFF)))
+				return;
+
+			probe.set(record, pos + FIELD_HEADER_LEN, textLength);
+			Text text = texts.get(probe);
+			if (text == null) {
+				text = new Text();
+				text.set(record, pos + FIELD_HEADER_LEN, textLength);
+				texts.put(text, text);
+			}
+			text.count++;
+		}
+
+		/**
+		 * Counts the texts of a range of field records that are going to be written.
+		 *
+		 * @param range Records to be counted.
+		 */
+		public void addRecords(ByteBuffer range) {
+			ByteBuffer record = range.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+			while (record.hasRemaining()) {
+				addRecord(record);
+				record.position(record.position() + (record.getShort(record.position() + 2) &
+					0xFFFF));
+			}
+		}
+
+		/**
+		 * Picks the texts that are worth storing only once, giving the shortest indices to
+		 * the ones that repeat the most.
+		 *
+		 * @return {@code true} if the string table makes the document smaller.
+		 */
+		public boolean finish() {
+			List<Text> candidates = new ArrayList<Text>();
+			for (Text text : texts.values()) {
+				if (text.count > 1)
+					candidates.add(text);
+			}
+			Collections.sort(candidates, new Comparator<Text>() {
+				public int compare(Text a, Text b) {
+					return (a.count > b.count) ? -1 : ((a.count == b.count) ? 0 : 1);
+				}
+			});
+
+			// Only keep the texts that save more than they cost in the table.
+			long gain = 0;
+			for (Text text : candidates) {
+				int indexLength = getIndexLength(entries.size());
+				long saved = (long)text.count * (text.length - indexLength);
+				int cost = FIELD_HEADER_LEN + text.length;
+				if ((saved <= cost) || ((sectionLength + (long)cost) > Integer.MAX_VALUE))
+					continue;
+
+				text.index = entries.size();
+				entries.add(text);
+				savedLength += saved;
+				sectionLength += cost;
+				gain += saved - cost;
+			}
+
+			// The string table also makes the header longer.
+			return gain > (DocumentHeader.MAX_LENGTH - DocumentHeader.FLAGS_LENGTH);
+		}
+
+		/**
+		 * Gets the number of bytes that referring to the string table saves in the topics.
+		 *
+		 * @return Difference between the length of the plain and encoded topics.
+		 */
+		public long getSavedLength() {
+			return savedLength;
+		}
+
+		/**
+		 * Gets the length of the string table section.
+		 *
+		 * @return Length of the section in bytes.
+		 */
+		public int getSectionLength() {
+			return sectionLength;
+		}
+
+		/**
+		 * Gets the number of strings in the table.
+		 *
+		 * @return Number of strings.
+		 */
+		public int size() {
+			return entries.size();
+		}
+
+		/**
+		 * Gets the length of the record of a string in the table.
+		 *
+		 * @param index Index of the string.
+		 *
+		 * @return Length of the record in bytes.
+		 */
+		public int getEntryLength(int index) {
+			return FIELD_HEADER_LEN + entries.get(index).length;
+		}
+
+		/**
+		 * Puts the record of a string in the table into a buffer.
+		 *
+		 * @param buffer Buffer with at least {@link #getEntryLength(int)} bytes remaining.
+		 * @param index  Index of the string.
+		 */
+		public void putEntry(ByteBuffer buffer, int index) {
+			Text text = entries.get(index);
+			buffer.put((byte)'T');
+			buffer.put((byte)0);
+			buffer.putShort((short)(FIELD_HEADER_LEN + text.length));
+			buffer.putShort((short)text.length);
+			copy(text.buffer, text.offset, text.length, buffer);
+		}
+
+		/**
+		 * Puts a field record into a buffer at a specific depth, replacing its text with a
+		 * reference to the string table if it's in there.
+		 *
+		 * @param buffer Buffer with at least as many bytes remaining as the plain record.
+		 * @param record Buffer positioned at the start of the record. Will be positioned right
+		 *               after it.
+		 * @param depth  Depth of the field to be written.
+		 *
+		 * @throws IOException if the record already refers to a string table.
+		 */
+		public void putRecord(ByteBuffer buffer, ByteBuffer record, byte depth) throws IOException {
+			int pos = record.position();
+			int length = record.getShort(pos + 2) & 0xFFFF;
+			int textLength = record.getShort(pos + 4) & 0xFFFF;
+			if (textLength == (REFERENCE & 0xFFFF))
+				throw new IOException("Field already refers to a string table");
+
+			// Look the text up in the table.
+			Text text = null;
+			if (textLength > 0) {
+				probe.set(record, pos + FIELD_HEADER_LEN, textLength);
+				text = texts.get(probe);
+			}
+
+			if ((text == null) || (text.index < 0)) {
+				// Put the record as it is.
+				int start = buffer.position();
+				copy(record, pos, length, buffer);
+				buffer.put(start + 1, depth);
+			} else {
+				// Replace the text with its index.
+				int indexLength = getIndexLength(text.index);
+				buffer.put(record.get(pos));
+				buffer.put(depth);
+				buffer.putShort((short)(length - textLength + indexLength));
+				buffer.putShort(REFERENCE);
+				putIndex(buffer, text.index);
+				copy(record, pos + FIELD_HEADER_LEN + textLength,
+					length - FIELD_HEADER_LEN - textLength, buffer);
+			}
+
+			record.position(pos + length);
+		}
+	}
+
+	/**
+	 * Copies a region of a buffer into another one.
+	 *
+	 * @param src    Buffer to copy the bytes from.
+	 * @param offset Absolute position of the first byte to copy.
+	 * @param length Number of bytes to copy.
+	 * @param dest   Buffer to put the bytes into.
+	 */
+	private static void copy(ByteBuffer src, int offset, int length, ByteBuffer dest) {
+		if (src.hasArray()) {
+			dest.put(src.array(), src.arrayOffset() + offset, length);
+			return;
+		}
+
+		ByteBuffer view = src.duplicate();
+		view.limit(offset + length);
+		view.position(offset);
+		dest.put(view);
+	}
+
+	/**
+	 * The UTF-8 encoded text of a record, which is compared byte by byte.
+	 */
+	private static class Text {
+		private ByteBuffer buffer;
+		private int offset;
+		private int length;
+		private int hash;
+		public int count;
+		public int index;
+
+		/**
+		 * Points the text at a region of a buffer.
+		 *
+		 * @param buffer Buffer that contains the text.
+		 * @param offset Absolute position of the text in the buffer.
+		 * @param length Length of the text in bytes.
+		 */
+		public void set(ByteBuffer buffer, int offset, int length) {
+			this.buffer = buffer;
+			this.offset = offset;
+			this.length = length;
+			this.index = -1;
+
+			hash = length;
+			for (int i = offset; i < (offset + length); i++)
+				hash = (31 * hash) + buffer.get(i);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Text))
+				return false;
+
+			Text text = (Text)obj;
+			if ((text.length != length) || (text.hash != hash))
+				return false;
+			for (int i = 0; i < length; i++) {
+				if (buffer.get(offset + i) != text.buffer.get(text.offset + i))
+					return false;
+			}
+
+			return true;
+		}
+	}
+}
@@ -1,8 +1,11 @@
 package com.innoveworkshop.bolota.models;
 
 import com.innoveworkshop.bolota.exceptions.BolotaFileException;
-import com.innoveworkshop.bolota.exceptions.InvalidMagicException;
-import com.innoveworkshop.bolota.exceptions.NewerVersionException;
+import com.innoveworkshop.bolota.io.BolotaReader;
+import com.innoveworkshop.bolota.io.CompressedSection;
+import com.innoveworkshop.bolota.io.DocumentHeader;
+import com.innoveworkshop.bolota.io.StringTable;
+import com.innoveworkshop.bolota.models.fields.BlankField;
 import com.innoveworkshop.bolota.models.fields.DateField;
 import com.innoveworkshop.bolota.models.fields.TextField;
 import com.innoveworkshop.bolota.utils.UString;
@@ -10,29 +13,81 @@ import com.innoveworkshop.bolota.utils.UString;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.Deflater;
 
 /**
  * A Bolota document object representation.
  */
-public class Document extends Field {
+public class Document extends Field implements DocumentWriter {
 	private final TextField title;
 	private final TextField subtitle;
 	private final DateField date;
+	private boolean lazyLoading;
+	private boolean compressed;
+	private int compressionLevel;
+	private boolean stringTableEnabled;
+	private final List<FieldListener> fieldListeners;
+	private DocumentLoader loader;
 
 	/**
-	 * Length of the document magic number.
+	 * Name of the title property used in change notifications.
 	 */
-	private static final int DOC_MAGIC_LEN = 3;
+	public static final String PROPERTY_TITLE = "title";
 
 	/**
-	 * Version of the Bolota document specification.
+	 * Name of the subtitle property used in change notifications.
 	 */
-	public static final byte DOC_VERSION = 1;
+	public static final String PROPERTY_SUBTITLE = "subtitle";
+
+	/**
+	 * Documents at least this big (in bytes) are good candidates for lazy loading.
+	 */
+	public static final long LAZY_THRESHOLD = 1024 * 1024;
+
+	/**
+	 * Topics sections at least this big (in bytes) are parsed using multiple threads.
+	 */
+	public static final int PARALLEL_THRESHOLD = 1024 * 1024;
+
+	/**
+	 * Number of threads used to parse large topics sections.
+	 */
+	private static final int PARSER_THREADS = Runtime.getRuntime().availableProcessors();
+	private static ExecutorService parserPool = null;
+
+	/**
+	 * Size of the buffer used to write documents. Must be able to hold the largest field.
+	 */
+	static final int WRITE_BUFFER_LEN = 128 * 1024;
+
+	/**
+	 * Latest version of the Bolota document specification that we support.
+	 */
+	public static final byte DOC_VERSION = 3;
+
+	/**
+	 * Version of the specification used to save documents that aren't compressed, so that
+	 * older readers are still able to open them.
+	 */
+	public static final byte PLAIN_DOC_VERSION = 1;
 
 	/**
 	 * Constructs a blank document.
@@ -42,6 +97,12 @@ public class Document extends Field {
 		title = new TextField(null, "");
 		subtitle = new TextField(null, "");
 		date = new DateField(null, Calendar.getInstance(), "");
+		lazyLoading = false;
+		compressed = false;
+		compressionLevel = Deflater.DEFAULT_COMPRESSION;
+		stringTableEnabled = false;
+		fieldListeners = new CopyOnWriteArrayList<FieldListener>();
+		loader = null;
 	}
 
 	/**
@@ -57,7 +118,11 @@ public class Document extends Field {
 	}
 
 	/**
-	 * Opens a Bolota document file and reads it into this object.
+	 * Opens a Bolota document file and reads it into the heap.
+	 *
+	 * <p>The document isn't memory-mapped, since a mapping lasts for as long as the document
+	 * and keeps the file from being replaced on some platforms (Windows), which would make it
+	 * impossible to save over it. Use {@link #open(File, boolean)} to opt into mapping.</p>
 	 *
 	 * @param file Bolota document file.
 	 *
@@ -65,55 +130,141 @@ public class Document extends Field {
 	 * @throws IOException if an error occurred while reading the document.
 	 */
 	public void open(File file) throws IOException {
+		open(file, false);
+	}
+
+	/**
+	 * Opens a Bolota document file and reads it into this object.
+	 *
+	 * <p>When memory-mapped the sections of the document are parsed in place, without being
+	 * copied into the heap first. The text and the source of the fields point into the mapping,
+	 * so it lives for as long as the document does. Keep in mind that some platforms (Windows)
+	 * will keep the file locked for as long as the mapping is alive, so saving the document over
+	 * the same file fails there.</p>
+	 *
+	 * @param file   Bolota document file.
+	 * @param mapped Should the file be memory-mapped instead of read into the heap?
+	 *
+	 * @throws FileNotFoundException if the document file wasn't found.
+	 * @throws IOException if an error occurred while reading the document.
+	 */
+	public void open(File file, boolean mapped) throws IOException {
+		read(file, mapped);
+
+		// Bring the document up to date with the edits that were journaled after its last save.
+		DocumentJournal.replay(this, file);
+	}
+
+	/**
+	 * Reads a Bolota document file, handing its topics over to a loader in batches instead of
+	 * attaching them to this object, unless it's loaded lazily. The journal isn't replayed.
+	 *
+	 * @param file   Bolota document file.
+	 * @param loader Loader to hand the topics over to.
+	 *
+	 * @throws IOException if an error occurred while reading the document or the loader was
+	 *                     cancelled.
+	 */
+	void load(File file, DocumentLoader loader) throws IOException {
+		this.loader = loader;
+		try {
+			read(file, false);
+		} finally {
+			this.loader = null;
+		}
+	}
+
+	/**
+	 * Reads a Bolota document file into this object.
+	 *
+	 * @param file   Bolota document file.
+	 * @param mapped Should the file be memory-mapped instead of read into the heap?
+	 *
+	 * @throws IOException if an error occurred while reading the document.
+	 */
+	private void read(File file, boolean mapped) throws IOException {
+		if (mapped) {
+			openMapped(file);
+		} else {
+			openStream(file);
+		}
+	}
+
+	/**
+	 * Opens a Bolota document file by mapping it into memory and parsing its sections in place.
+	 *
+	 * @param file Bolota document file.
+	 *
+	 * @throws IOException if an error occurred while reading the document.
+	 */
+	private void openMapped(File file) throws IOException {
+		ByteBuffer buffer = DocumentHeader.map(file);
+
+		// Check the header of the document in place.
+		DocumentHeader header = DocumentHeader.read(file, buffer);
+		if (header.isCompressed()) {
+			readCompressed(file, buffer, null, header);
+			if (buffer.hasRemaining())
+				throw new BolotaFileException(file, "Document continues after end of topics section");
+			return;
+		}
+
+		// Slice the sections out of the mapping.
+		compressed = false;
+		ByteBuffer properties = DocumentHeader.slice(file, buffer, header.propertiesLength,
+			"properties");
+		StringTable strings = null;
+		if (header.hasStringTable()) {
+			strings = StringTable.read(file, DocumentHeader.slice(file, buffer,
+				header.stringsLength, "string table"));
+		}
+		ByteBuffer topics = DocumentHeader.slice(file, buffer, header.topicsLength, "topics");
+
+		// Check if we have reached the end of the file.
+		if (buffer.hasRemaining())
+			throw new BolotaFileException(file, "Document continues after end of topics section");
+
+		// Parse the sections.
+		readProperties(properties);
+		readTopics(topics, strings);
+	}
+
+	/**
+	 * Opens a Bolota document file by reading each of its sections into the heap.
+	 *
+	 * @param file Bolota document file.
+	 *
+	 * @throws IOException if an error occurred while reading the document.
+	 */
+	private void openStream(File file) throws IOException {
 		FileInputStream fis = new FileInputStream(file);
 
 		try {
-			// Read the header of the document.
-			byte[] bytes = new byte[DOC_MAGIC_LEN + 9];
-			int len = fis.read(bytes);
-			if (len < (DOC_MAGIC_LEN + 9))
-				throw new BolotaFileException(file, "Document header ended prematurely");
-
-			// Get read buffer.
-			ByteBuffer buffer = ByteBuffer.wrap(bytes);
-			buffer.order(ByteOrder.LITTLE_ENDIAN);
-
-			// Check if the magic and version are valid.
-			if (!((buffer.get() == 'B') && (buffer.get() == 'L') && (buffer.get() == 'T')))
-				throw new InvalidMagicException(file);
-			byte version = buffer.get();
-			if (version > DOC_VERSION)
-				throw new NewerVersionException(file, version);
-
-			// Get the length of the file sections.
-			int propertiesLength = buffer.getInt();
-			int topicsLength = buffer.getInt();
-
-			// Read the properties section.
-			bytes = new byte[propertiesLength];
-			len = fis.read(bytes);
-			if (len < propertiesLength)
-				throw new BolotaFileException(file, "Document properties section ended prematurely");
-			buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
-			buffer.get();  // Ignore field type since we already know it.
-			title.fromBytes(buffer);
-			buffer.get();  // Ignore field type since we already know it.
-			subtitle.fromBytes(buffer);
-			buffer.get();  // Ignore field type since we already know it.
-			date.fromBytes(buffer);
-
-			// Read the topics section.
-			bytes = new byte[topicsLength];
-			len = fis.read(bytes);
-			if (len < topicsLength)
-				throw new BolotaFileException(file, "Document topics section ended prematurely");
-			buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
-
-			// Parse the topics section.
-			Field previousTopic = this;
-			Field topic;
-			while ((topic = Field.createFromBytes(previousTopic, buffer)) != null) {
-				previousTopic = topic;
+			// Read the header of the document and check if it's valid.
+			DocumentHeader header = DocumentHeader.read(file, fis);
+			if (header.isCompressed()) {
+				readCompressed(file, null, fis, header);
+			} else {
+				compressed = false;
+
+				// Read the properties section.
+				byte[] bytes = new byte[header.propertiesLength];
+				readFully(file, fis, bytes, "properties section");
+				readProperties(ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN));
+
+				// Read the string table section.
+				StringTable strings = null;
+				if (header.hasStringTable()) {
+					bytes = new byte[header.stringsLength];
+					readFully(file, fis, bytes, "string table section");
+					strings = StringTable.read(file,
+						ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN));
+				}
+
+				// Read the topics section.
+				bytes = new byte[header.topicsLength];
+				readFully(file, fis, bytes, "topics section");
+				readTopics(ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN), strings);
 			}
 
 			// Check if we have reached the end of the file.
@@ -125,6 +276,1025 @@ public class Document extends Field {
 		}
 	}
 
+	/**
+	 * Reads the compressed sections of a document, either from a buffer or from a stream.
+	 *
+	 * <p>Unless the document is loaded lazily, the topics are parsed as they get decompressed,
+	 * one block at a time, so the compressed and the uncompressed forms of the whole section
+	 * never have to be in memory at the same time. The uncompressed blocks themselves stay in
+	 * memory for as long as the fields that were read from them, which adds up to the same as
+	 * the topics section of an uncompressed document.</p>
+	 *
+	 * @param file   File that is being read.
+	 * @param buffer Buffer positioned right after the header or {@code null} to use the stream.
+	 * @param in     Stream positioned right after the header if there's no buffer.
+	 * @param header Header of the document.
+	 *
+	 * @throws IOException if an error occurred while reading the document.
+	 */
+	private void readCompressed(File file, ByteBuffer buffer, InputStream in,
+	                            DocumentHeader header) throws IOException {
+		compressed = true;
+
+		// Read the properties section.
+		CompressedSection.Reader reader = (buffer != null) ?
+			new CompressedSection.Reader(file, buffer) : new CompressedSection.Reader(file, in);
+		try {
+			readProperties(reader.readSection(header.propertiesLength, "properties"));
+		} finally {
+			reader.close();
+		}
+
+		// Read the string table section.
+		StringTable strings = null;
+		if (header.hasStringTable()) {
+			reader = (buffer != null) ?
+				new CompressedSection.Reader(file, buffer) : new CompressedSection.Reader(file, in);
+			try {
+				strings = StringTable.read(file,
+					reader.readSection(header.stringsLength, "string table"));
+			} finally {
+				reader.close();
+			}
+		}
+		stringTableEnabled = (strings != null);
+
+		// Lazy loading needs the entire topics section at hand.
+		reader = (buffer != null) ?
+			new CompressedSection.Reader(file, buffer) : new CompressedSection.Reader(file, in);
+		try {
+			if (lazyLoading && (strings == null)) {
+				readTopics(reader.readSection(header.topicsLength, "topics"), null);
+				return;
+			}
+
+			// Parse the topics section block by block.
+			TopicsParser parser = createParser(strings, header.topicsLength);
+			ByteBuffer block = reader.next();
+			while (block != null) {
+				parser.setBase(reader.getLength() - block.limit());
+				parser.parse(block);
+				ByteBuffer next = reader.next();
+				if (next != null) {
+					parser.split();
+				} else {
+					parser.end(block.limit());
+				}
+				block = next;
+			}
+			reader.checkLength(header.topicsLength, "topics");
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Reads exactly as many bytes as the array can hold from a stream, since a single read call
+	 * is allowed to return less than that.
+	 *
+	 * @param file  File that is being read.
+	 * @param in    Stream to read from.
+	 * @param bytes Array to be completely filled.
+	 * @param name  Name of the part of the document being read for error reporting.
+	 *
+	 * @throws IOException if the stream ended prematurely or a read error occurred.
+	 */
+	private static void readFully(File file, InputStream in, byte[] bytes,
+	                              String name) throws IOException {
+		int offset = 0;
+		while (offset < bytes.length) {
+			int len = in.read(bytes, offset, bytes.length - offset);
+			if (len < 0)
+				throw new BolotaFileException(file, "Document " + name + " ended prematurely");
+			offset += len;
+		}
+	}
+
+	/**
+	 * Parses the properties section of a document.
+	 *
+	 * @param buffer Properties section of the document.
+	 */
+	private void readProperties(ByteBuffer buffer) {
+		buffer.get();  // Ignore field type since we already know it.
+		title.fromBytes(buffer);
+		buffer.get();  // Ignore field type since we already know it.
+		subtitle.fromBytes(buffer);
+		buffer.get();  // Ignore field type since we already know it.
+		date.fromBytes(buffer);
+	}
+
+	/**
+	 * Parses the topics section of a document.
+	 *
+	 * <p>Documents with a string table are always loaded eagerly, since their records can't be
+	 * parsed or copied on their own later on.</p>
+	 *
+	 * @param buffer  Topics section of the document.
+	 * @param strings String table of the document or {@code null} if it doesn't have one.
+	 *
+	 * @throws IOException if an invalid field is found.
+	 */
+	private void readTopics(ByteBuffer buffer, StringTable strings) throws IOException {
+		stringTableEnabled = (strings != null);
+		if (lazyLoading && (strings == null)) {
+			// Validate the whole section up front, since most of it will only be parsed later.
+			new BolotaReader(new BolotaReader.Adapter()).readTopics(buffer);
+			if (buffer.hasRemaining())
+				loadChildren(this, buffer, buffer.position(), buffer.limit());
+			return;
+		}
+
+		// Hand the topics over to the loader as they get parsed.
+		if (loader != null) {
+			TopicsParser parser = createParser(strings, buffer.remaining());
+			parser.setBase(-buffer.position());
+			parser.parse(buffer);
+			parser.end(buffer.position());
+			return;
+		}
+
+		// Split large sections across multiple threads.
+		if ((buffer.remaining() >= PARALLEL_THRESHOLD) && (PARSER_THREADS > 1)) {
+			readTopicsParallel(buffer, strings);
+			return;
+		}
+
+		readTopics(this, buffer, strings);
+	}
+
+	/**
+	 * Sequentially parses a range of a topics section into a root field.
+	 *
+	 * <p>The last field read at each depth is kept in a stack, so that every field is attached
+	 * to its parent in constant time. Each field also remembers where it and its descendants
+	 * are in the section, so that they can be copied straight from it until they change.</p>
+	 *
+	 * @param root    Document root to append the topics to.
+	 * @param buffer  Range of the topics section to be parsed.
+	 * @param strings String table of the document or {@code null} if it doesn't have one.
+	 *
+	 * @throws IOException if an invalid field is found.
+	 */
+	static void readTopics(Field root, ByteBuffer buffer, StringTable strings) throws IOException {
+		TopicsParser parser = new TopicsParser(root, strings);
+		parser.parse(buffer);
+		parser.end(buffer.position());
+	}
+
+	/**
+	 * Creates the parser of the topics section of this document, which either attaches the
+	 * topics to it or hands them over to the loader.
+	 *
+	 * @param strings String table of the document or {@code null} if it doesn't have one.
+	 * @param length  Length of the topics section in bytes.
+	 *
+	 * @return Parser of the topics section.
+	 */
+	private TopicsParser createParser(StringTable strings, long length) {
+		if (loader == null)
+			return new TopicsParser(this, strings);
+
+		loader.begin();
+		return new TopicsParser(new Document(), strings, loader, length);
+	}
+
+	/**
+	 * Parses a topics section, which may be split across multiple buffers, into a tree.
+	 *
+	 * <p>Fields that refer to a string table aren't self-contained, so they don't keep track of
+	 * where they were read from.</p>
+	 *
+	 * <p>When there's a loader, the top-level topics are handed over to it in batches as soon
+	 * as they're complete, instead of staying attached to the root.</p>
+	 */
+	private static class TopicsParser {
+		private final Field[] parents;
+		private final StringTable strings;
+		private final DocumentLoader loader;
+		private final long length;
+		private long base;
+		private int maxDepth;
+
+		/**
+		 * Starts parsing a topics section.
+		 *
+		 * @param root    Document root to append the topics to.
+		 * @param strings String table of the document or {@code null} if it doesn't have one.
+		 */
+		public TopicsParser(Field root, StringTable strings) {
+			this(root, strings, null, 0);
+		}
+
+		/**
+		 * Starts parsing a topics section, handing its topics over to a loader.
+		 *
+		 * @param root    Scratch root to append the topics to until they're handed over.
+		 * @param strings String table of the document or {@code null} if it doesn't have one.
+		 * @param loader  Loader to hand the topics over to or {@code null} to keep them.
+		 * @param length  Length of the topics section in bytes.
+		 */
+		public TopicsParser(Field root, StringTable strings, DocumentLoader loader, long length) {
+			// Parent of the fields at each depth, offset by one to fit the document root.
+			this.parents = new Field[Byte.MAX_VALUE + 2];
+			this.parents[0] = root;
+			this.strings = strings;
+			this.loader = loader;
+			this.length = length;
+			this.base = 0;
+			this.maxDepth = 0;
+		}
+
+		/**
+		 * Sets where the next buffer to be parsed is in the section, which is used to report
+		 * the progress to the loader.
+		 *
+		 * @param base Offset to add to the positions in the buffer to get the position in the
+		 *             section.
+		 */
+		public void setBase(long base) {
+			this.base = base;
+		}
+
+		/**
+		 * Parses a range of the section.
+		 *
+		 * @param buffer Range of the topics section to be parsed.
+		 *
+		 * @throws IOException if an invalid field is found.
+		 */
+		public void parse(ByteBuffer buffer) throws IOException {
+			while (buffer.hasRemaining()) {
+				// Every topic before a new top-level one is complete and can be handed over.
+				int start = buffer.position();
+				if ((loader != null) && (buffer.remaining() > 1) && (buffer.get(start + 1) == 0) &&
+						(parents[0].children.size() > 0) && loader.isPublishDue()) {
+					publish(start, base + start);
+				}
+
+				// Parse the field.
+				Field field = Field.createFromType(buffer.get());
+				byte depth = field.fromBytes(buffer);
+				if ((depth < 0) || (depth > maxDepth))
+					throw new IOException("Field depth forward jump greater than 1");
+				field.resolveText(buffer, start, strings);
+				if (strings == null) {
+					field.setSource(buffer, start, buffer.position());
+
+					// The subtrees of the fields at this depth and deeper end right here.
+					for (int i = depth + 1; i <= maxDepth; i++)
+						parents[i].setSourceEnd(start);
+				}
+
+				// Attach it to its parent and make it the parent of the next level.
+				parents[depth].attachChild(field);
+				parents[depth + 1] = field;
+				maxDepth = depth + 1;
+			}
+		}
+
+		/**
+		 * Indicates that the section carries on in another buffer. The subtrees that are still
+		 * open can't be copied from a single buffer anymore.
+		 */
+		public void split() {
+			for (int i = 1; i <= maxDepth; i++)
+				parents[i].clearSource();
+		}
+
+		/**
+		 * Finishes parsing the section.
+		 *
+		 * @param end Absolute position of the end of the last buffer.
+		 */
+		public void end(int end) {
+			// Wrap up the subtrees that reach the end of the section.
+			if (strings == null) {
+				for (int i = 1; i <= maxDepth; i++)
+					parents[i].setSourceEnd(end);
+			}
+
+			// Hand over whatever is left.
+			if ((loader != null) && (parents[0].children.size() > 0))
+				publish(end, length);
+		}
+
+		/**
+		 * Hands the top-level topics parsed so far over to the loader.
+		 *
+		 * @param end      Position in the buffer where the last topic ends.
+		 * @param position Number of bytes of the section that have been parsed.
+		 */
+		private void publish(int end, long position) {
+			// The subtrees that are still open end right here.
+			if (strings == null) {
+				for (int i = 1; i <= maxDepth; i++)
+					parents[i].setSourceEnd(end);
+			}
+			maxDepth = 0;
+
+			// Detach the topics from the scratch root.
+			List<Field> topics = new ArrayList<Field>(parents[0].children.size());
+			for (Field topic : parents[0].children)
+				topics.add(topic);
+			parents[0].children.clear();
+
+			loader.publish(topics, position, length);
+		}
+	}
+
+	/**
+	 * Parses the topics section of a document using multiple threads.
+	 *
+	 * <p>A first pass goes through the field headers to find where the top-level topics start.
+	 * Groups of top-level subtrees are then parsed concurrently and stitched back in order, which
+	 * produces the exact same tree as the sequential parser.</p>
+	 *
+	 * @param buffer  Topics section of the document.
+	 * @param strings String table of the document or {@code null} if it doesn't have one.
+	 *
+	 * @throws IOException if an invalid field is found.
+	 */
+	private void readTopicsParallel(ByteBuffer buffer,
+	                                final StringTable strings) throws IOException {
+		// Split the section into chunks of top-level subtrees.
+		List<Integer> splits = splitTopics(buffer, buffer.remaining() / (PARSER_THREADS * 4));
+		List<Future<Document>> results = new ArrayList<Future<Document>>(splits.size());
+		for (int i = 0; i < splits.size(); i++) {
+			final ByteBuffer chunk = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+			chunk.limit((i < (splits.size() - 1)) ? splits.get(i + 1) : buffer.limit());
+			chunk.position(splits.get(i));
+
+			// Parse each chunk into a scratch document.
+			results.add(getParserPool().submit(new Callable<Document>() {
+				public Document call() throws IOException {
+					Document root = new Document();
+					readTopics(root, chunk, strings);
+					return root;
+				}
+			}));
+		}
+
+		// Stitch the topics back in order.
+		try {
+			for (Future<Document> result : results) {
+				for (Field topic : result.get().children)
+					attachChild(topic);
+			}
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted while parsing the topics section");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException)e.getCause();
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException)e.getCause();
+			throw new RuntimeException(e.getCause());
+		} finally {
+			for (Future<Document> result : results)
+				result.cancel(false);
+		}
+	}
+
+	/**
+	 * Finds the positions to split a topics section at, going only through the field headers.
+	 * Splits only ever happen at top-level topics.
+	 *
+	 * @param buffer    Topics section of the document.
+	 * @param chunkSize Minimum size of each chunk in bytes.
+	 *
+	 * @return Absolute positions where each chunk starts.
+	 *
+	 * @throws IOException if an invalid field header is found.
+	 */
+	private static List<Integer> splitTopics(ByteBuffer buffer, int chunkSize) throws IOException {
+		List<Integer> splits = new ArrayList<Integer>();
+		int chunkStart = buffer.position();
+		int pos = buffer.position();
+
+		if (buffer.get(pos + 1) != 0)
+			throw new IOException("First field of the topics section isn't at the top level");
+
+		while (pos < buffer.limit()) {
+			if ((buffer.limit() - pos) < 6)
+				throw new IOException("Field header ended prematurely");
+
+			// Split at top-level topics once the chunk is big enough.
+			if ((buffer.get(pos + 1) == 0) && ((pos == chunkStart) ||
+					((pos - chunkStart) >= chunkSize))) {
+				splits.add(pos);
+				chunkStart = pos;
+			}
+
+			// Skip over the field.
+			int length = buffer.getShort(pos + 2) & 0xFFFF;
+			if (length < 6)
+				throw new IOException("Field length is invalid");
+			pos += length;
+		}
+
+		return splits;
+	}
+
+	/**
+	 * Gets the thread pool shared by the parallel parsers.
+	 *
+	 * @return Parser thread pool.
+	 */
+	private static synchronized ExecutorService getParserPool() {
+		if (parserPool == null) {
+			parserPool = Executors.newFixedThreadPool(PARSER_THREADS, new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "Bolota parser");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+
+		return parserPool;
+	}
+
+	/**
+	 * Saves the document to a file.
+	 *
+	 * <p>The document is written to a temporary file alongside the destination, which then
+	 * replaces it, so that a failed save never leaves a half-written document behind. On
+	 * platforms where a file can't be renamed over an existing one (Windows) the destination is
+	 * deleted right before the rename. The journal left behind for the file, if any, is
+	 * deleted.</p>
+	 *
+	 * <p>Once saved, the document is no longer modified. Its fields are pointed at the topics
+	 * they were just saved as, which are kept in memory, so that the next save copies whatever
+	 * hasn't changed since straight from there.</p>
+	 *
+	 * @param file Destination Bolota document file.
+	 *
+	 * @throws IOException if an error occurred while writing the document.
+	 */
+	public void save(File file) throws IOException {
+		final ByteBuffer[] topics = new ByteBuffer[1];
+		save(file, new DocumentWriter() {
+			public void save(WritableByteChannel channel) throws IOException {
+				ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_LEN);
+				buffer.order(ByteOrder.LITTLE_ENDIAN);
+				topics[0] = write(buffer, channel, true);
+			}
+		});
+
+		// Everything is now exactly as it was saved, so the next save can copy it from there.
+		resetSource(topics[0]);
+	}
+
+	/**
+	 * Saves a document to a file by writing it to a temporary file that then replaces the
+	 * destination.
+	 *
+	 * @param file   Destination Bolota document file.
+	 * @param writer Writer of the document.
+	 *
+	 * @throws IOException if an error occurred while writing the document.
+	 */
+	static void save(File file, DocumentWriter writer) throws IOException {
+		File dir = file.getAbsoluteFile().getParentFile();
+		File temp = File.createTempFile(file.getName(), ".tmp", dir);
+		boolean saved = false;
+
+		try {
+			// Write the document to the temporary file.
+			FileOutputStream fos = new FileOutputStream(temp);
+			try {
+				FileChannel channel = fos.getChannel();
+				writer.save(channel);
+				channel.force(true);
+			} finally {
+				fos.close();
+			}
+
+			// Replace the destination file with the one we've just written.
+			if (!temp.renameTo(file)) {
+				if (!file.delete()) {
+					throw new BolotaFileException(file, "Failed to replace the document file, " +
+							"it may be in use or memory-mapped");
+				}
+				if (!temp.renameTo(file)) {
+					// The document only exists in the temporary file now, so keep it around.
+					saved = true;
+					throw new BolotaFileException(file, "Failed to move the saved document " +
+							"into place, it was left at " + temp);
+				}
+			}
+			saved = true;
+		} finally {
+			if (!saved)
+				temp.delete();
+		}
+
+		// Whatever was journaled for the previous version of the file is in it now.
+		DocumentJournal.getJournalFile(file).delete();
+	}
+
+	/**
+	 * Writes the document to a channel.
+	 *
+	 * <p>The lengths of the sections are worked out in a single pass over the tree, after which
+	 * every field is streamed through one reusable buffer.</p>
+	 *
+	 * @param channel Channel to write the document to.
+	 *
+	 * @throws IOException if an error occurred while writing the document.
+	 */
+	public void save(WritableByteChannel channel) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_LEN);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		write(buffer, channel, false);
+	}
+
+	/**
+	 * Serializes a field and all of its descendants.
+	 *
+	 * @param field Field to be serialized.
+	 *
+	 * @return Records of the field and its descendants, relative to the depth of the field.
+	 */
+	static byte[] serializeSubtree(Field field) {
+		long length = getSubtreeLength(field);
+		if (length > Integer.MAX_VALUE)
+			throw new RuntimeException("Field is too large to be serialized on its own");
+
+		ByteBuffer buffer = ByteBuffer.allocate((int)length);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		try {
+			writeSubtree(buffer, null, field, (byte)0, null);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		return buffer.array();
+	}
+
+	/**
+	 * Rebuilds a field and all of its descendants.
+	 *
+	 * @param bytes Records as serialized by {@link #serializeSubtree(Field)}.
+	 *
+	 * @return Detached field.
+	 */
+	static Field deserializeSubtree(byte[] bytes) {
+		Field root = new BlankField();
+		try {
+			readTopics(root, ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN), null);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		Field field = root.getChildAt(0);
+		root.remove(0);
+		return field;
+	}
+
+	/**
+	 * Gets the length of the document in its uncompressed binary form.
+	 *
+	 * @return Length of the uncompressed document file in bytes.
+	 */
+	public long getFileLength() {
+		return DocumentHeader.LENGTH + getPropertiesLength() + getTopicsLength(this);
+	}
+
+	/**
+	 * Gets the length of the properties section of the document.
+	 *
+	 * @return Length of the properties section in bytes.
+	 */
+	private int getPropertiesLength() {
+		return (title.getLength() & 0xFFFF) + (subtitle.getLength() & 0xFFFF) +
+			(date.getLength() & 0xFFFF);
+	}
+
+	/**
+	 * Gets the length of all the descendants of a field in their binary form.
+	 *
+	 * @param parent Field to have its descendants measured.
+	 *
+	 * @return Length of the descendants in bytes.
+	 */
+	static long getTopicsLength(Field parent) {
+		long length = 0;
+		for (int i = 0; i < parent.getChildCount(); i++)
+			length += getSubtreeLength(parent.getChildAt(i));
+
+		return length;
+	}
+
+	/**
+	 * Gets the length of a field and all of its descendants in their binary form.
+	 *
+	 * @param field Field to be measured.
+	 *
+	 * @return Length of the field and its descendants in bytes.
+	 */
+	private static long getSubtreeLength(Field field) {
+		if (field.isSourceIntact())
+			return field.getSourceLength();
+
+		return field.getRecordLength() + getTopicsLength(field);
+	}
+
+	/**
+	 * Writes the entire document through a buffer.
+	 *
+	 * @param buffer  Buffer to write the document through. Must be able to hold at least the
+	 *                largest possible field.
+	 * @param channel    Channel to flush the buffer to whenever it fills up or {@code null} if
+	 *                   the buffer is able to hold the entire document.
+	 * @param keepTopics Should the topics section be laid out in memory and returned?
+	 *
+	 * @return Uncompressed topics section without a string table, if it was kept, or
+	 *         {@code null}.
+	 *
+	 * @throws IOException if an error occurred while writing the document.
+	 */
+	private ByteBuffer write(ByteBuffer buffer, WritableByteChannel channel,
+	                         boolean keepTopics) throws IOException {
+		long topicsLength = getTopicsLength(this);
+		if (topicsLength > Integer.MAX_VALUE)
+			throw new IOException("Document topics section is too large to be saved");
+
+		// Lay out the topics in memory first, so that the fields can be pointed at them later.
+		ByteBuffer topics = null;
+		if (keepTopics) {
+			topics = ByteBuffer.allocate((int)topicsLength);
+			topics.order(ByteOrder.LITTLE_ENDIAN);
+			writeTopics(topics, null, this, (byte)0, null);
+			topics.flip();
+		}
+
+		// Only store the texts that repeat once if it actually makes the document smaller.
+		StringTable.Encoder strings = null;
+		if (stringTableEnabled && (channel != null)) {
+			strings = new StringTable.Encoder();
+			addTexts(strings, this, (byte)0);
+			if (strings.finish()) {
+				topicsLength -= strings.getSavedLength();
+			} else {
+				strings = null;
+			}
+		}
+
+		// Write the header. Documents can only be compressed when written to a channel.
+		boolean compress = compressed && (channel != null);
+		createHeader(compress, getPropertiesLength(), (int)topicsLength, strings).write(buffer);
+
+		// Write the properties section.
+		WritableByteChannel section = beginSection(buffer, channel, compress, compressionLevel);
+		flush(buffer, section, title.getLength() & 0xFFFF);
+		title.putBytes(buffer, (byte)0);
+		flush(buffer, section, subtitle.getLength() & 0xFFFF);
+		subtitle.putBytes(buffer, (byte)0);
+		flush(buffer, section, date.getLength() & 0xFFFF);
+		date.putBytes(buffer, (byte)0);
+		endSection(buffer, section);
+
+		// Write the string table and topics sections and whatever is left in the buffer.
+		writeStrings(buffer, channel, compress, compressionLevel, strings);
+		section = beginSection(buffer, channel, compress, compressionLevel);
+		if (topics != null) {
+			copy(buffer, section, topics.duplicate(), strings);
+		} else {
+			writeTopics(buffer, section, this, (byte)0, strings);
+		}
+		endSection(buffer, section);
+		if (channel != null)
+			flush(buffer, channel, buffer.capacity());
+
+		return topics;
+	}
+
+	/**
+	 * Creates the header of a document that is about to be written. Documents are written in
+	 * the oldest version of the specification that supports what they use, so that documents
+	 * that aren't compressed and have no string table can still be opened by older readers.
+	 *
+	 * @param compressed       Are the sections going to be compressed?
+	 * @param propertiesLength Uncompressed length of the properties section in bytes.
+	 * @param topicsLength     Uncompressed length of the topics section in bytes.
+	 * @param strings          String table of the document or {@code null} if it has none.
+	 *
+	 * @return Header of the document.
+	 */
+	static DocumentHeader createHeader(boolean compressed, int propertiesLength,
+	                                   int topicsLength, StringTable.Encoder strings) {
+		byte flags = (compressed) ? DocumentHeader.FLAG_COMPRESSED : 0;
+		if (strings != null) {
+			return new DocumentHeader(DocumentHeader.STRINGS_VERSION, flags, propertiesLength,
+				topicsLength, strings.getSectionLength());
+		} else if (compressed) {
+			return new DocumentHeader(DocumentHeader.FLAGS_VERSION, flags, propertiesLength,
+				topicsLength);
+		}
+
+		return new DocumentHeader(PLAIN_DOC_VERSION, propertiesLength, topicsLength);
+	}
+
+	/**
+	 * Counts the texts of all the descendants of a field that are about to be written, going
+	 * through exactly the same records as {@link #writeTopics}.
+	 *
+	 * @param strings String table being built.
+	 * @param parent  Field to have the texts of its descendants counted.
+	 * @param depth   Depth of the children of the field.
+	 */
+	private static void addTexts(StringTable.Encoder strings, Field parent, byte depth) {
+		for (int i = 0; i < parent.getChildCount(); i++) {
+			Field field = parent.getChildAt(i);
+			if (field.isSourceIntact() && (field.getSourceDepth() == depth)) {
+				strings.addRecords(field.getSourceRange());
+				continue;
+			}
+
+			strings.addRecord(field.getRecord());
+			addTexts(strings, field, (byte)(depth + 1));
+		}
+	}
+
+	/**
+	 * Writes the string table section of a document.
+	 *
+	 * @param buffer     Buffer the document is being written through.
+	 * @param channel    Channel the document is being written to.
+	 * @param compressed Should the section be compressed?
+	 * @param level      Compression level of the section.
+	 * @param strings    String table of the document or {@code null} if it has none.
+	 *
+	 * @throws IOException if an error occurred while writing to the channel.
+	 */
+	static void writeStrings(ByteBuffer buffer, WritableByteChannel channel, boolean compressed,
+	                         int level, StringTable.Encoder strings) throws IOException {
+		if (strings == null)
+			return;
+
+		WritableByteChannel section = beginSection(buffer, channel, compressed, level);
+		for (int i = 0; i < strings.size(); i++) {
+			flush(buffer, section, strings.getEntryLength(i));
+			strings.putEntry(buffer, i);
+		}
+		endSection(buffer, section);
+	}
+
+	/**
+	 * Starts writing a section of the document.
+	 *
+	 * @param buffer     Buffer the document is being written through.
+	 * @param channel    Channel the document is being written to.
+	 * @param compressed Should the section be compressed?
+	 * @param level      Compression level of the section.
+	 *
+	 * @return Channel that the contents of the section should be flushed to.
+	 *
+	 * @throws IOException if an error occurred while writing to the channel.
+	 */
+	static WritableByteChannel beginSection(ByteBuffer buffer, WritableByteChannel channel,
+	                                        boolean compressed, int level) throws IOException {
+		if (!compressed)
+			return channel;
+
+		// Whatever came before the section must not be compressed along with it.
+		flush(buffer, channel, buffer.capacity());
+		return new CompressedSection.Writer(channel, level);
+	}
+
+	/**
+	 * Finishes writing a section of the document.
+	 *
+	 * @param buffer  Buffer the document is being written through.
+	 * @param section Channel returned by {@link #beginSection}.
+	 *
+	 * @throws IOException if an error occurred while writing to the channel.
+	 */
+	static void endSection(ByteBuffer buffer, WritableByteChannel section) throws IOException {
+		if (!(section instanceof CompressedSection.Writer))
+			return;
+
+		flush(buffer, section, buffer.capacity());
+		((CompressedSection.Writer)section).finish();
+	}
+
+	/**
+	 * Writes all the descendants of a field through a buffer.
+	 *
+	 * <p>Subtrees that haven't changed since they were read, and are still at the same depth,
+	 * are copied straight from their source in one go. Everything else is written from the
+	 * cached records of the fields, so only the fields that changed get encoded again.</p>
+	 *
+	 * @param buffer  Buffer to write the fields through.
+	 * @param channel Channel to flush the buffer to or {@code null} if it's large enough.
+	 * @param parent  Field to have its descendants written.
+	 * @param depth   Depth of the children of the field.
+	 * @param strings String table to refer to or {@code null} if there's none.
+	 *
+	 * @throws IOException if an error occurred while writing the fields.
+	 */
+	static void writeTopics(ByteBuffer buffer, WritableByteChannel channel, Field parent,
+	                        byte depth, StringTable.Encoder strings) throws IOException {
+		for (int i = 0; i < parent.getChildCount(); i++)
+			writeSubtree(buffer, channel, parent.getChildAt(i), depth, strings);
+	}
+
+	/**
+	 * Writes a field and all of its descendants through a buffer.
+	 *
+	 * @param buffer  Buffer to write the fields through.
+	 * @param channel Channel to flush the buffer to or {@code null} if it's large enough.
+	 * @param field   Field to be written.
+	 * @param depth   Depth of the field.
+	 * @param strings String table to refer to or {@code null} if there's none.
+	 *
+	 * @throws IOException if an error occurred while writing the fields.
+	 */
+	private static void writeSubtree(ByteBuffer buffer, WritableByteChannel channel, Field field,
+	                                 byte depth, StringTable.Encoder strings) throws IOException {
+		if (field.isSourceIntact() && (field.getSourceDepth() == depth)) {
+			copy(buffer, channel, field.getSourceRange(), strings);
+			return;
+		}
+
+		putRecord(buffer, channel, field.getRecord(), depth, strings);
+		writeTopics(buffer, channel, field, (byte)(depth + 1), strings);
+	}
+
+	/**
+	 * Puts a single record into a buffer at a specific depth.
+	 *
+	 * @param buffer  Buffer to put the record into.
+	 * @param channel Channel to flush the buffer to or {@code null} if it's large enough.
+	 * @param record  Little-endian buffer with the record.
+	 * @param depth   Depth of the field to be written.
+	 * @param strings String table to refer to or {@code null} if there's none.
+	 *
+	 * @throws IOException if an error occurred while writing to the channel.
+	 */
+	static void putRecord(ByteBuffer buffer, WritableByteChannel channel, ByteBuffer record,
+	                      byte depth, StringTable.Encoder strings) throws IOException {
+		flush(buffer, channel, record.remaining());
+		if (strings != null) {
+			strings.putRecord(buffer, record, depth);
+			return;
+		}
+
+		int pos = buffer.position();
+		buffer.put(record);
+		buffer.put(pos + 1, depth);
+	}
+
+	/**
+	 * Copies a range of records through a buffer. Ranges too large to fit in the buffer are
+	 * written straight to the channel after whatever the buffer is holding. If there's a string
+	 * table, the records are copied one by one instead, so that they can refer to it.
+	 *
+	 * @param buffer  Buffer to copy the records through.
+	 * @param channel Channel to flush the buffer to or {@code null} if it's large enough.
+	 * @param range   Records to be copied.
+	 * @param strings String table to refer to or {@code null} if there's none.
+	 *
+	 * @throws IOException if an error occurred while writing to the channel.
+	 */
+	static void copy(ByteBuffer buffer, WritableByteChannel channel, ByteBuffer range,
+	                 StringTable.Encoder strings) throws IOException {
+		if (strings != null) {
+			range.order(ByteOrder.LITTLE_ENDIAN);
+			while (range.hasRemaining()) {
+				int pos = range.position();
+				flush(buffer, channel, range.getShort(pos + 2) & 0xFFFF);
+				strings.putRecord(buffer, range, range.get(pos + 1));
+			}
+			return;
+		}
+
+		if ((channel != null) && (range.remaining() > buffer.capacity())) {
+			flush(buffer, channel, buffer.capacity());
+			while (range.hasRemaining())
+				channel.write(range);
+			return;
+		}
+
+		flush(buffer, channel, range.remaining());
+		buffer.put(range);
+	}
+
+	/**
+	 * Flushes the contents of a buffer to a channel if it doesn't have enough space left.
+	 *
+	 * @param buffer   Buffer to be flushed.
+	 * @param channel  Channel to flush the buffer to or {@code null} if it's large enough.
+	 * @param required Number of bytes that are about to be put in the buffer.
+	 *
+	 * @throws IOException if an error occurred while writing to the channel.
+	 */
+	static void flush(ByteBuffer buffer, WritableByteChannel channel,
+	                  int required) throws IOException {
+		if ((channel == null) || (buffer.remaining() >= required))
+			return;
+
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	/**
+	 * Checks if only the top-level topics are parsed when the document is opened.
+	 *
+	 * @return {@code true} if the document is loaded lazily.
+	 */
+	public boolean isLazyLoading() {
+		return lazyLoading;
+	}
+
+	/**
+	 * Sets whether only the top-level topics should be parsed when the document is opened. The
+	 * children of each field are then only parsed when they are first accessed. This must be
+	 * set before the document is opened.
+	 *
+	 * @param lazyLoading Should the document be loaded lazily?
+	 */
+	public void setLazyLoading(boolean lazyLoading) {
+		this.lazyLoading = lazyLoading;
+	}
+
+	/**
+	 * Checks if the sections of the document are compressed when it's saved.
+	 *
+	 * @return {@code true} if the document is saved compressed.
+	 */
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	/**
+	 * Sets whether the sections of the document should be compressed when it's saved, which
+	 * requires a reader that supports version {@link DocumentHeader#FLAGS_VERSION} of the
+	 * specification. This is set automatically when a document is opened.
+	 *
+	 * @param compressed Should the document be saved compressed?
+	 */
+	public void setCompressed(boolean compressed) {
+		if (this.compressed == compressed)
+			return;
+
+		this.compressed = compressed;
+		markModified();
+	}
+
+	/**
+	 * Checks if texts that repeat throughout the topics may be stored only once in a string
+	 * table when the document is saved.
+	 *
+	 * @return {@code true} if the document may be saved with a string table.
+	 */
+	public boolean isStringTableEnabled() {
+		return stringTableEnabled;
+	}
+
+	/**
+	 * Sets whether texts that repeat throughout the topics may be stored only once in a string
+	 * table when the document is saved. The table is only written if it actually makes the
+	 * document smaller, in which case it requires a reader that supports version
+	 * {@link DocumentHeader#STRINGS_VERSION} of the specification. This is set automatically
+	 * when a document is opened.
+	 *
+	 * @param enabled May the document be saved with a string table?
+	 */
+	public void setStringTableEnabled(boolean enabled) {
+		if (stringTableEnabled == enabled)
+			return;
+
+		stringTableEnabled = enabled;
+		markModified();
+	}
+
+	/**
+	 * Gets the level of compression used when the document is saved compressed.
+	 *
+	 * @return Compression level from 0 to 9 or {@link Deflater#DEFAULT_COMPRESSION}.
+	 */
+	public int getCompressionLevel() {
+		return compressionLevel;
+	}
+
+	/**
+	 * Sets the level of compression used when the document is saved compressed.
+	 *
+	 * @param level Compression level from 0 to 9 or {@link Deflater#DEFAULT_COMPRESSION}.
+	 */
+	public void setCompressionLevel(int level) {
+		if ((level < Deflater.DEFAULT_COMPRESSION) || (level > Deflater.BEST_COMPRESSION))
+			throw new IllegalArgumentException("Invalid compression level " + level);
+
+		compressionLevel = level;
+		if (compressed)
+			markModified();
+	}
+
 	/**
 	 * Gets the document title.
 	 *
@@ -140,7 +1310,10 @@ public class Document extends Field {
 	 * @param title New title of the document.
 	 */
 	public void setTitle(String title) {
+		String old = getTitle();
 		this.title.setText(title);
+		markModified();
+		fireFieldChanged(this, PROPERTY_TITLE, old);
 	}
 
 	/**
@@ -158,7 +1331,10 @@ public class Document extends Field {
 	 * @param subtitle New subtitle of the document.
 	 */
 	public void setSubtitle(String subtitle) {
+		String old = getSubtitle();
 		this.subtitle.setText(subtitle);
+		markModified();
+		fireFieldChanged(this, PROPERTY_SUBTITLE, old);
 	}
 
 	/**
@@ -176,7 +1352,10 @@ public class Document extends Field {
 	 * @param dt New document's creation date and time.
 	 */
 	public void setDate(Calendar dt) {
+		Calendar old = getDate();
 		this.date.setDate(dt);
+		markModified();
+		fireFieldChanged(this, DateField.PROPERTY_DATE, old);
 	}
 
 	/**
@@ -184,10 +1363,114 @@ public class Document extends Field {
 	 *
 	 * @return Topics field list.
 	 */
-	public ArrayList<Field> getTopics() {
+	public List<Field> getTopics() {
+		ensureChildrenLoaded();
 		return children;
 	}
 
+	/**
+	 * Adds a listener to be notified of the changes made to the fields of the document.
+	 *
+	 * @param listener Listener to be added.
+	 */
+	public void addFieldListener(FieldListener listener) {
+		fieldListeners.add(listener);
+	}
+
+	/**
+	 * Removes a listener of changes made to the fields of the document.
+	 *
+	 * @param listener Listener to be removed.
+	 */
+	public void removeFieldListener(FieldListener listener) {
+		fieldListeners.remove(listener);
+	}
+
+	/**
+	 * Notifies the listeners that a property of a field has changed.
+	 *
+	 * @param field    Field that has changed.
+	 * @param property Property that has changed.
+	 * @param oldValue Value of the property before the change.
+	 */
+	void fireFieldChanged(Field field, String property, Object oldValue) {
+		for (FieldListener listener : fieldListeners)
+			listener.fieldChanged(field, property, oldValue);
+	}
+
+	/**
+	 * Notifies the listeners that a field has been inserted.
+	 *
+	 * @param parent Field the child was inserted into.
+	 * @param index  Index of the child in its parent.
+	 * @param child  Field that was inserted.
+	 */
+	void fireFieldInserted(Field parent, int index, Field child) {
+		for (FieldListener listener : fieldListeners)
+			listener.fieldInserted(parent, index, child);
+	}
+
+	/**
+	 * Notifies the listeners that a field has been removed.
+	 *
+	 * @param parent Field the child was removed from.
+	 * @param index  Index the child had in its parent.
+	 * @param child  Field that was removed.
+	 */
+	void fireFieldRemoved(Field parent, int index, Field child) {
+		for (FieldListener listener : fieldListeners)
+			listener.fieldRemoved(parent, index, child);
+	}
+
+	/**
+	 * Gets the field at a position in the document.
+	 *
+	 * @param path Position of the field as returned by {@link Field#getPath()}.
+	 *
+	 * @return Field at the position.
+	 */
+	public Field getField(int[] path) {
+		Field field = this;
+		for (int i = 0; i < path.length; i++)
+			field = field.getChildAt(path[i]);
+
+		return field;
+	}
+
+	/**
+	 * Takes an immutable snapshot of the entire document. Once taken, the snapshot is kept up
+	 * to date as the document is edited, so taking another one costs nothing.
+	 *
+	 * @return Snapshot of the document as it is right now.
+	 * @see Field#snapshot()
+	 */
+	@Override
+	public DocumentSnapshot snapshot() {
+		return (DocumentSnapshot)super.snapshot();
+	}
+
+	@Override
+	protected FieldSnapshot createSnapshot() {
+		return createSnapshot(getChildSnapshots());
+	}
+
+	@Override
+	protected FieldSnapshot updateSnapshot(FieldSnapshot snapshot) {
+		return createSnapshot(snapshot.getChildList());
+	}
+
+	/**
+	 * Creates a snapshot of the document with the properties it has right now.
+	 *
+	 * @param topics Snapshots of the top-level topics.
+	 *
+	 * @return Snapshot of the document.
+	 */
+	private DocumentSnapshot createSnapshot(SnapshotList topics) {
+		return new DocumentSnapshot(title.snapshot(), subtitle.snapshot(), date.snapshot(),
+			topics, compressed, compressionLevel, stringTableEnabled);
+	}
+
 	@Override
 	public boolean isDocumentRoot() {
 		return true;
@@ -212,23 +1495,37 @@ public class Document extends Field {
 	}
 
 	/**
-	 * Not implemented.
+	 * Gets the bytes of the entire document as they should be written to a file.
+	 *
+	 * @return Binary representation of the document.
 	 */
 	@Override
-	public void fromBytes(Field parent, ByteBuffer bytes) {
-		throw new RuntimeException("Not implemented");
+	public ByteBuffer getBytes() {
+		long length = getFileLength();
+		if (length > Integer.MAX_VALUE)
+			throw new RuntimeException("Document is too large to fit in a buffer");
+
+		ByteBuffer bytes = ByteBuffer.allocate((int)length);
+		bytes.order(ByteOrder.LITTLE_ENDIAN);
+		try {
+			write(bytes, null, false);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		return bytes;
 	}
 
 	/**
 	 * Not implemented.
 	 */
 	@Override
-	public ByteBuffer getBytes() {
+	public void putBytes(ByteBuffer bytes, byte depth) {
 		throw new RuntimeException("Not implemented");
 	}
 
 	/**
-	 * Not implemented.
+	 * Not implemented, since a document doesn't fit in a field. Use {@link #getFileLength()}.
 	 */
 	@Override
 	public short getLength() {
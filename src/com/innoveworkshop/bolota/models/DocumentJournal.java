@@ -0,0 +1,720 @@
+package com.innoveworkshop.bolota.models;
+
+import com.innoveworkshop.bolota.exceptions.BolotaFileException;
+import com.innoveworkshop.bolota.models.fields.DateField;
+import com.innoveworkshop.bolota.models.fields.IconField;
+import com.innoveworkshop.bolota.models.fields.TextField;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps the changes made to a {@link Document} in an append-only journal that sits next to its
+ * file, so that edits are persisted as they happen without having to rewrite the whole document.
+ *
+ * <p>Every change is appended to the journal as a small self-contained entry, and entries are
+ * written and synced to disk in batches from a background thread. Opening the document replays
+ * the journal on top of the base file. The document file itself is only ever written by an
+ * explicit {@link #save()}, after which the journal starts over.</p>
+ *
+ * <p>A journal is tied to the exact base file it was started for by its length and checksum,
+ * so a journal left behind by another version of the file is simply ignored. Saving the
+ * document deletes its journal, but use {@link #save()} instead of {@link Document#save(File)}
+ * for as long as the document is being journaled, so that the journal starts over.</p>
+ */
+public class DocumentJournal implements FieldListener {
+	private static final Logger Log = Logger.getLogger(DocumentJournal.class.getName());
+
+	private final Document doc;
+	private final File file;
+	private final File journalFile;
+	private final ScheduledExecutorService executor;
+	private final Thread shutdownHook;
+
+	// Edits waiting to be written, guarded by this object.
+	private ByteArrayOutputStream pending;
+	private long appended;
+
+	// Journal file state, only touched from the background thread.
+	private FileChannel channel;
+	private long fileLength;
+	private byte[] unwritten;
+	private long journalBase;
+
+	/**
+	 * Journal entries go unsynced for at most this long (in milliseconds).
+	 */
+	public static final long SYNC_INTERVAL = 200;
+
+	/**
+	 * Pending journal entries are synced right away once they take up this many bytes.
+	 */
+	public static final int SYNC_BATCH_LEN = 64 * 1024;
+
+	/**
+	 * Version of the journal format.
+	 */
+	public static final byte JOURNAL_VERSION = 2;
+
+	/**
+	 * Length of the journal header in bytes.
+	 */
+	private static final int HEADER_LEN = 20;
+
+	/**
+	 * Length of the fixed part of an entry (type, path length, payload length and checksum)
+	 * in bytes.
+	 */
+	private static final int ENTRY_OVERHEAD = 1 + 2 + 4 + 4;
+
+	private static final byte ENTRY_PROPERTIES = 'P';
+	private static final byte ENTRY_CHANGE = 'C';
+	private static final byte ENTRY_INSERT = 'I';
+	private static final byte ENTRY_REMOVE = 'R';
+
+	/**
+	 * Starts journaling the changes made to a document. Any journal left behind for the same
+	 * version of the document file is kept and appended to.
+	 *
+	 * @param doc  Document to journal the changes of, as opened from the file.
+	 * @param file Bolota document file the document was opened from.
+	 *
+	 * @throws FileNotFoundException if the document file doesn't exist.
+	 * @throws IOException if an error occurred while recovering an existing journal.
+	 */
+	public DocumentJournal(Document doc, File file) throws IOException {
+		if (!file.isFile())
+			throw new FileNotFoundException(file.getPath());
+
+		this.doc = doc;
+		this.file = file;
+		this.journalFile = getJournalFile(file);
+		this.pending = new ByteArrayOutputStream();
+		this.appended = 0;
+		this.channel = null;
+		this.fileLength = 0;
+		this.unwritten = null;
+		this.journalBase = 0;
+
+		recover();
+
+		// Sync the journal periodically from the background.
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Bolota journal");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				flush();
+			}
+		}, SYNC_INTERVAL, SYNC_INTERVAL, TimeUnit.MILLISECONDS);
+
+		// Don't lose the last batch when the application exits.
+		shutdownHook = new Thread("Bolota journal shutdown") {
+			@Override
+			public void run() {
+				try {
+					sync();
+				} catch (IOException e) {
+					Log.log(Level.SEVERE, "Failed to sync the journal on exit", e);
+				}
+			}
+		};
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+
+		doc.addFieldListener(this);
+	}
+
+	/**
+	 * Gets the journal file that belongs to a document file.
+	 *
+	 * @param file Bolota document file.
+	 *
+	 * @return Journal file of the document.
+	 */
+	public static File getJournalFile(File file) {
+		return new File(file.getPath() + ".journal");
+	}
+
+	/**
+	 * Waits until every change made so far has been written and synced to disk.
+	 *
+	 * @throws IOException if an error occurred while writing the journal.
+	 */
+	public void sync() throws IOException {
+		Future<?> future = executor.submit(new Runnable() {
+			public void run() {
+				flush();
+			}
+		});
+		await(future);
+
+		if (unwritten != null)
+			throw new BolotaFileException(journalFile, "Failed to write the journal");
+	}
+
+	/**
+	 * Waits for a task that was handed over to the background thread.
+	 *
+	 * @param future Task to wait for.
+	 *
+	 * @throws IOException if the task failed or took too long.
+	 */
+	private static void await(Future<?> future) throws IOException {
+		try {
+			future.get(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the journal");
+		} catch (ExecutionException e) {
+			throw new IOException("Failed to write the journal: " + e.getCause());
+		} catch (TimeoutException e) {
+			throw new IOException("Timed out while waiting for the journal");
+		}
+	}
+
+	/**
+	 * Saves the document over its file and starts the journal over, since the file then holds
+	 * every change journaled so far. Must be called from the thread that edits the document.
+	 *
+	 * @throws IOException if an error occurred while saving the document. The journal is left
+	 *                     as it was in that case.
+	 */
+	public void save() throws IOException {
+		sync();
+		doc.save(file);
+
+		// Whatever was journaled is in the file now, so the next entry starts a new journal.
+		Future<?> future = executor.submit(new Runnable() {
+			public void run() {
+				try {
+					if (channel != null)
+						channel.close();
+				} catch (IOException e) {
+					Log.log(Level.WARNING, "Failed to close the journal " + journalFile, e);
+				}
+				channel = null;
+				unwritten = null;
+			}
+		});
+		await(future);
+
+		synchronized (this) {
+			pending.reset();
+			journalBase = appended;
+		}
+	}
+
+	/**
+	 * Syncs whatever is left and stops journaling the changes made to the document.
+	 *
+	 * @throws IOException if an error occurred while writing the journal.
+	 */
+	public void close() throws IOException {
+		doc.removeFieldListener(this);
+
+		try {
+			sync();
+		} finally {
+			executor.shutdown();
+			try {
+				executor.awaitTermination(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+
+			if (channel != null)
+				channel.close();
+
+			try {
+				Runtime.getRuntime().removeShutdownHook(shutdownHook);
+			} catch (IllegalStateException e) {
+				// We are already shutting down.
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of bytes of changes that have been journaled since the document file was
+	 * last saved.
+	 *
+	 * @return Length of the journaled changes in bytes.
+	 */
+	public synchronized long getLength() {
+		return appended - journalBase;
+	}
+
+	///
+	/// FieldListener implementation
+	///
+
+	public void fieldChanged(Field field, String property, Object oldValue) {
+		if (field == doc) {
+			// Document properties aren't part of the tree, so they're journaled separately.
+			byte[] title = new TextField(doc.getTitle()).getBytes().array();
+			byte[] subtitle = new TextField(doc.getSubtitle()).getBytes().array();
+			byte[] date = new DateField(null, doc.getDate(), "").getBytes().array();
+
+			ByteBuffer payload = ByteBuffer.allocate(title.length + subtitle.length +
+				date.length);
+			payload.put(title).put(subtitle).put(date);
+			append(ENTRY_PROPERTIES, new int[0], payload.array());
+			return;
+		}
+
+		append(ENTRY_CHANGE, field.getPath(), field.getBytes().array());
+	}
+
+	public void fieldInserted(Field parent, int index, Field child) {
+		append(ENTRY_INSERT, child.getPath(), Document.serializeSubtree(child));
+	}
+
+	public void fieldRemoved(Field parent, int index, Field child) {
+		int[] parentPath = parent.getPath();
+		int[] path = new int[parentPath.length + 1];
+		System.arraycopy(parentPath, 0, path, 0, parentPath.length);
+		path[parentPath.length] = index;
+
+		append(ENTRY_REMOVE, path, new byte[0]);
+	}
+
+	///
+	/// Writing
+	///
+
+	/**
+	 * Appends an entry to the journal.
+	 *
+	 * @param type    Type of the entry.
+	 * @param path    Position of the field in the tree.
+	 * @param payload Data of the entry.
+	 */
+	private void append(byte type, int[] path, byte[] payload) {
+		ByteBuffer entry = ByteBuffer.allocate(ENTRY_OVERHEAD + (path.length * 4) +
+			payload.length);
+		entry.order(ByteOrder.LITTLE_ENDIAN);
+		entry.put(type);
+		entry.putShort((short)path.length);
+		for (int i = 0; i < path.length; i++)
+			entry.putInt(path[i]);
+		entry.putInt(payload.length);
+		entry.put(payload);
+
+		CRC32 crc = new CRC32();
+		crc.update(entry.array(), 0, entry.position());
+		entry.putInt((int)crc.getValue());
+
+		int batchLength;
+		synchronized (this) {
+			pending.write(entry.array(), 0, entry.capacity());
+			appended += entry.capacity();
+			batchLength = pending.size();
+		}
+
+		// Don't let a large batch wait for the next sync.
+		if (batchLength >= SYNC_BATCH_LEN) {
+			executor.execute(new Runnable() {
+				public void run() {
+					flush();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Writes the pending entries to the journal and syncs it to disk. Entries that couldn't be
+	 * written are kept to be retried on the next flush.
+	 */
+	private void flush() {
+		byte[] batch;
+		synchronized (this) {
+			if ((pending.size() == 0) && (unwritten == null))
+				return;
+
+			batch = pending.toByteArray();
+			pending.reset();
+		}
+
+		if (unwritten != null) {
+			byte[] retry = new byte[unwritten.length + batch.length];
+			System.arraycopy(unwritten, 0, retry, 0, unwritten.length);
+			System.arraycopy(batch, 0, retry, unwritten.length, batch.length);
+			batch = retry;
+			unwritten = null;
+		}
+
+		try {
+			if (channel == null)
+				create();
+
+			// Always write from the end of the last successful write, covering any torn data.
+			ByteBuffer buffer = ByteBuffer.wrap(batch);
+			long position = fileLength;
+			while (buffer.hasRemaining())
+				position += channel.write(buffer, position);
+			channel.force(false);
+			fileLength = position;
+		} catch (IOException e) {
+			Log.log(Level.SEVERE, "Failed to write the journal " + journalFile, e);
+			unwritten = batch;
+		}
+	}
+
+	/**
+	 * Creates a brand new journal file for the current version of the document file.
+	 *
+	 * @throws IOException if an error occurred while creating the journal.
+	 */
+	private void create() throws IOException {
+		FileChannel created = new RandomAccessFile(journalFile, "rw").getChannel();
+		try {
+			created.truncate(0);
+			ByteBuffer header = createHeader(file);
+			while (header.hasRemaining())
+				created.write(header);
+			created.force(true);
+		} catch (IOException e) {
+			created.close();
+			throw e;
+		}
+
+		channel = created;
+		fileLength = HEADER_LEN;
+	}
+
+	/**
+	 * Creates the header of a journal for a version of a document file.
+	 *
+	 * @param base Document file the journal applies to.
+	 *
+	 * @return Header ready to be written.
+	 *
+	 * @throws IOException if an error occurred while reading the document file.
+	 */
+	private static ByteBuffer createHeader(File base) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_LEN);
+		header.order(ByteOrder.LITTLE_ENDIAN);
+		header.put((byte)'B').put((byte)'L').put((byte)'J').put(JOURNAL_VERSION);
+		header.putLong(base.length());
+		header.putLong(checksum(base));
+		header.flip();
+
+		return header;
+	}
+
+	/**
+	 * Calculates the checksum of the contents of a document file.
+	 *
+	 * @param base Document file.
+	 *
+	 * @return CRC-32 of the file.
+	 *
+	 * @throws IOException if an error occurred while reading the file.
+	 */
+	private static long checksum(File base) throws IOException {
+		CRC32 crc = new CRC32();
+		byte[] buffer = new byte[64 * 1024];
+		FileInputStream fis = new FileInputStream(base);
+		try {
+			int length;
+			while ((length = fis.read(buffer)) >= 0)
+				crc.update(buffer, 0, length);
+		} finally {
+			fis.close();
+		}
+
+		return crc.getValue();
+	}
+
+	///
+	/// Reading
+	///
+
+	/**
+	 * Applies the journal of a document file, if there's one, to a document that was just
+	 * opened from it.
+	 *
+	 * @param doc  Document as read from the file.
+	 * @param file Bolota document file.
+	 *
+	 * @return Number of changes that were applied.
+	 *
+	 * @throws IOException if an error occurred while reading the journal.
+	 */
+	public static int replay(Document doc, File file) throws IOException {
+		File journal = findJournal(file);
+		if (journal == null)
+			return 0;
+
+		ByteBuffer bytes = read(journal);
+		Counter counter = new Counter();
+		scan(bytes, doc, counter);
+
+		if (counter.count > 0) {
+			Log.log(Level.INFO, "Replayed " + counter.count + " journaled changes on top of " +
+				file);
+		}
+		return counter.count;
+	}
+
+	/**
+	 * Recovers the journal left behind for the document file, if any, so that it can be
+	 * appended to, or gets rid of it if it belongs to another version of the file.
+	 *
+	 * @throws IOException if an error occurred while recovering the journal.
+	 */
+	private void recover() throws IOException {
+		if (findJournal(file) == null) {
+			// Stale journals only get in the way.
+			if (journalFile.exists())
+				Log.log(Level.INFO, "Discarding the stale journal of " + file);
+			journalFile.delete();
+			return;
+		}
+
+		// Drop anything after the last intact entry.
+		ByteBuffer bytes = read(journalFile);
+		int end = scan(bytes, null, new Counter());
+		channel = new RandomAccessFile(journalFile, "rw").getChannel();
+		channel.truncate(end);
+		fileLength = end;
+		appended = end - HEADER_LEN;
+	}
+
+	/**
+	 * Finds the journal that belongs to the current version of a document file.
+	 *
+	 * @param file Bolota document file.
+	 *
+	 * @return Journal file or {@code null} if there's no journal for this version of the file.
+	 *
+	 * @throws IOException if an error occurred while reading a journal header.
+	 */
+	private static File findJournal(File file) throws IOException {
+		File journal = getJournalFile(file);
+		if (matches(journal, file))
+			return journal;
+
+		return null;
+	}
+
+	/**
+	 * Checks if a journal belongs to a specific version of a document file.
+	 *
+	 * @param journal Journal file.
+	 * @param base    Bolota document file.
+	 *
+	 * @return {@code true} if the journal applies to the document file.
+	 *
+	 * @throws IOException if an error occurred while reading the journal header.
+	 */
+	private static boolean matches(File journal, File base) throws IOException {
+		if (!journal.isFile() || (journal.length() < HEADER_LEN))
+			return false;
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_LEN);
+		header.order(ByteOrder.LITTLE_ENDIAN);
+		FileInputStream fis = new FileInputStream(journal);
+		try {
+			FileChannel in = fis.getChannel();
+			while (header.hasRemaining() && (in.read(header) >= 0));
+		} finally {
+			fis.close();
+		}
+
+		// Only go through the entire document file once everything else matches.
+		header.flip();
+		return (header.get() == 'B') && (header.get() == 'L') && (header.get() == 'J') &&
+			(header.get() == JOURNAL_VERSION) && (header.getLong() == base.length()) &&
+			(header.getLong() == checksum(base));
+	}
+
+	/**
+	 * Reads an entire journal file.
+	 *
+	 * @param journal Journal file.
+	 *
+	 * @return Little-endian buffer with the contents of the journal.
+	 *
+	 * @throws IOException if an error occurred while reading the journal.
+	 */
+	private static ByteBuffer read(File journal) throws IOException {
+		FileInputStream fis = new FileInputStream(journal);
+		try {
+			FileChannel in = fis.getChannel();
+			ByteBuffer bytes = ByteBuffer.allocate((int)in.size());
+			while (bytes.hasRemaining() && (in.read(bytes) >= 0));
+			bytes.flip();
+
+			return bytes.order(ByteOrder.LITTLE_ENDIAN);
+		} finally {
+			fis.close();
+		}
+	}
+
+	/**
+	 * Goes through the entries of a journal, stopping at the first one that is incomplete or
+	 * corrupted, which is what's left of a write that was cut short.
+	 *
+	 * @param bytes   Contents of the journal.
+	 * @param doc     Document to apply the entries to or {@code null} to only check them.
+	 * @param counter Counter of the entries that were applied.
+	 *
+	 * @return Position right after the last intact entry.
+	 */
+	private static int scan(ByteBuffer bytes, Document doc, Counter counter) {
+		int pos = HEADER_LEN;
+		int limit = bytes.limit();
+		CRC32 crc = new CRC32();
+
+		while (limit - pos >= ENTRY_OVERHEAD) {
+			int pathLength = bytes.getShort(pos + 1) & 0xFFFF;
+			int payloadPos = pos + 3 + (pathLength * 4) + 4;
+			if (payloadPos > limit - 4)
+				break;
+			int payloadLength = bytes.getInt(payloadPos - 4);
+			if ((payloadLength < 0) || (payloadLength > limit - payloadPos - 4))
+				break;
+			int end = payloadPos + payloadLength;
+
+			// Check the integrity of the entry.
+			crc.reset();
+			crc.update(bytes.array(), bytes.arrayOffset() + pos, end - pos);
+			if ((int)crc.getValue() != bytes.getInt(end))
+				break;
+
+			if (doc != null) {
+				int[] path = new int[pathLength];
+				for (int i = 0; i < pathLength; i++)
+					path[i] = bytes.getInt(pos + 3 + (i * 4));
+
+				byte[] payload = new byte[payloadLength];
+				ByteBuffer view = bytes.duplicate();
+				view.position(payloadPos);
+				view.get(payload);
+
+				try {
+					apply(doc, bytes.get(pos), path, payload);
+				} catch (RuntimeException e) {
+					Log.log(Level.WARNING, "Stopped replaying the journal at an entry that " +
+						"doesn't fit the document", e);
+					break;
+				}
+				counter.count++;
+			}
+
+			pos = end + 4;
+		}
+
+		if (pos < limit)
+			Log.log(Level.WARNING, "Ignoring " + (limit - pos) + " bytes at the end of a journal");
+
+		return pos;
+	}
+
+	/**
+	 * Applies a journal entry to a document.
+	 *
+	 * @param doc     Document to apply the entry to.
+	 * @param type    Type of the entry.
+	 * @param path    Position of the field in the tree.
+	 * @param payload Data of the entry.
+	 */
+	private static void apply(Document doc, byte type, int[] path, byte[] payload) {
+		ByteBuffer bytes = ByteBuffer.wrap(payload).order(ByteOrder.LITTLE_ENDIAN);
+
+		switch (type) {
+			case ENTRY_PROPERTIES:
+				doc.setTitle(parseRecord(bytes).getText());
+				doc.setSubtitle(parseRecord(bytes).getText());
+				doc.setDate(((DateField)parseRecord(bytes)).getDate());
+				break;
+			case ENTRY_CHANGE:
+				Field field = doc.getField(path);
+				Field changed = parseRecord(bytes);
+				if (field.getType() != changed.getType())
+					throw new IllegalStateException("Journaled field type doesn't match");
+
+				if (changed.getType() != Field.TYPE_BLANK)
+					field.setText(changed.getText());
+				if (changed instanceof DateField) {
+					((DateField)field).setTimestamp(((DateField)changed).getTimestamp());
+				} else if (changed instanceof IconField) {
+					((IconField)field).setIconId(((IconField)changed).getIconId());
+				}
+				break;
+			case ENTRY_INSERT:
+				getParent(doc, path).insert(Document.deserializeSubtree(payload),
+					path[path.length - 1]);
+				break;
+			case ENTRY_REMOVE:
+				getParent(doc, path).remove(path[path.length - 1]);
+				break;
+			default:
+				throw new IllegalStateException("Unknown journal entry type " + type);
+		}
+	}
+
+	/**
+	 * Gets the parent of the field at a position in the tree.
+	 *
+	 * @param doc  Document the field belongs to.
+	 * @param path Position of the field.
+	 *
+	 * @return Parent of the field.
+	 */
+	private static Field getParent(Document doc, int[] path) {
+		int[] parentPath = new int[path.length - 1];
+		System.arraycopy(path, 0, parentPath, 0, parentPath.length);
+		return doc.getField(parentPath);
+	}
+
+	/**
+	 * Parses a single field record and moves past it.
+	 *
+	 * @param bytes Little-endian buffer positioned at the start of the record.
+	 *
+	 * @return Detached field.
+	 */
+	private static Field parseRecord(ByteBuffer bytes) {
+		int start = bytes.position();
+		int length = bytes.getShort(start + 2) & 0xFFFF;
+
+		try {
+			Field field = Field.createFromType(bytes.get());
+			field.fromBytes(bytes);
+			return field;
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			bytes.position(start + length);
+		}
+	}
+
+	/**
+	 * Mutable counter of the entries that were applied.
+	 */
+	private static class Counter {
+		public int count = 0;
+	}
+}
@@ -0,0 +1,232 @@
+package com.innoveworkshop.bolota.models;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+
+/**
+ * Opens a {@link Document} in the background, handing its top-level topics over in batches as
+ * they get parsed, so that the document can be shown long before it's been completely read.
+ *
+ * <p>The topics are parsed into fields that aren't attached to the document. Whoever owns the
+ * document, usually the event dispatch thread, attaches each batch with
+ * {@link #attachTopics(List)} and calls {@link #finish()} once the whole document has been
+ * loaded. Lazily loaded documents are read in one go, since only their top-level topics get
+ * parsed anyway.</p>
+ */
+public class DocumentLoader {
+	private final File file;
+	private final Document doc;
+	private Listener listener;
+	private long lastPublished;
+	private boolean started;
+	private volatile boolean cancelled;
+
+	/**
+	 * Minimum time in nanoseconds between batches of topics after the first one.
+	 */
+	private static final long PUBLISH_INTERVAL = 100 * 1000 * 1000;
+
+	/**
+	 * Gets notified of the progress of a document being loaded. Every method is called from
+	 * the loading thread.
+	 */
+	public interface Listener {
+		/**
+		 * The properties of the document have been read and it's ready to be shown, with its
+		 * topics coming next.
+		 *
+		 * @param loader Loader of the document.
+		 */
+		void loadStarted(DocumentLoader loader);
+
+		/**
+		 * A batch of top-level topics, along with their descendants, has been parsed.
+		 *
+		 * @param loader   Loader of the document.
+		 * @param topics   Topics that should be attached to the document with
+		 *                 {@link DocumentLoader#attachTopics(List)}.
+		 * @param position Number of bytes of the topics section that have been parsed.
+		 * @param length   Length of the topics section in bytes.
+		 */
+		void topicsLoaded(DocumentLoader loader, List<Field> topics, long position, long length);
+
+		/**
+		 * The whole document has been read.
+		 *
+		 * @param loader Loader of the document.
+		 */
+		void loadFinished(DocumentLoader loader);
+
+		/**
+		 * Loading was cancelled.
+		 *
+		 * @param loader Loader of the document.
+		 */
+		void loadCancelled(DocumentLoader loader);
+
+		/**
+		 * Loading failed.
+		 *
+		 * @param loader Loader of the document.
+		 * @param e      Error that occurred while reading the document.
+		 */
+		void loadFailed(DocumentLoader loader, IOException e);
+	}
+
+	/**
+	 * Prepares to load a document.
+	 *
+	 * @param file Bolota document file to be loaded.
+	 */
+	public DocumentLoader(File file) {
+		this.file = file;
+		this.doc = new Document();
+		this.started = false;
+		this.cancelled = false;
+	}
+
+	/**
+	 * Loads the document from a new background thread.
+	 *
+	 * @param listener Listener to be notified of the progress.
+	 *
+	 * @return Thread that is loading the document.
+	 */
+	public Thread start(final Listener listener) {
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				load(listener);
+			}
+		}, "Bolota loader");
+		thread.setDaemon(true);
+		thread.start();
+
+		return thread;
+	}
+
+	/**
+	 * Loads the document from the calling thread.
+	 *
+	 * @param listener Listener to be notified of the progress.
+	 */
+	public void load(Listener listener) {
+		this.listener = listener;
+		this.lastPublished = System.nanoTime() - PUBLISH_INTERVAL;
+
+		try {
+			doc.load(file, this);
+			begin();
+			listener.loadFinished(this);
+		} catch (InterruptedIOException e) {
+			listener.loadCancelled(this);
+		} catch (IOException e) {
+			if (cancelled) {
+				listener.loadCancelled(this);
+			} else {
+				listener.loadFailed(this, e);
+			}
+		}
+	}
+
+	/**
+	 * Stops loading the document as soon as possible.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Checks if loading the document has been cancelled.
+	 *
+	 * @return {@code true} if loading has been cancelled.
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Notifies the listener that the document is about to get its topics, if that hasn't been
+	 * done yet.
+	 */
+	void begin() {
+		if (started)
+			return;
+
+		started = true;
+		listener.loadStarted(this);
+	}
+
+	/**
+	 * Checks if a batch of topics is due to be handed over.
+	 *
+	 * @return {@code true} if the topics parsed so far should be handed over.
+	 *
+	 * @throws InterruptedIOException if loading has been cancelled.
+	 */
+	boolean isPublishDue() throws InterruptedIOException {
+		if (cancelled)
+			throw new InterruptedIOException("Loading of " + file + " was cancelled");
+
+		return (System.nanoTime() - lastPublished) >= PUBLISH_INTERVAL;
+	}
+
+	/**
+	 * Hands a batch of parsed topics over to the listener.
+	 *
+	 * @param topics   Topics that have been parsed, detached from any parent.
+	 * @param position Number of bytes of the topics section that have been parsed.
+	 * @param length   Length of the topics section in bytes.
+	 */
+	void publish(List<Field> topics, long position, long length) {
+		begin();
+		lastPublished = System.nanoTime();
+		listener.topicsLoaded(this, topics, position, length);
+	}
+
+	/**
+	 * Attaches a batch of topics to the end of the document. No field notifications are sent
+	 * for them. Must be called from the thread that owns the document.
+	 *
+	 * @param topics Topics handed over by the loader.
+	 *
+	 * @return Index of the first topic in the document.
+	 */
+	public int attachTopics(List<Field> topics) {
+		int index = doc.getChildCount();
+		for (Field topic : topics)
+			doc.attachChild(topic);
+
+		return index;
+	}
+
+	/**
+	 * Finishes loading the document once all of its topics have been attached, bringing it up
+	 * to date with the edits that were journaled after its last save. Must be called from the
+	 * thread that owns the document.
+	 *
+	 * @throws IOException if an error occurred while reading the journal.
+	 */
+	public void finish() throws IOException {
+		DocumentJournal.replay(doc, file);
+	}
+
+	/**
+	 * Gets the document being loaded.
+	 *
+	 * @return Document being loaded.
+	 */
+	public Document getDocument() {
+		return doc;
+	}
+
+	/**
+	 * Gets the file the document is loaded from.
+	 *
+	 * @return Bolota document file.
+	 */
+	public File getFile() {
+		return file;
+	}
+}
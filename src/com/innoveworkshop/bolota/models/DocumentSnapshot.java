@@ -0,0 +1,218 @@
+package com.innoveworkshop.bolota.models;
+
+import com.innoveworkshop.bolota.io.DocumentHeader;
+import com.innoveworkshop.bolota.io.StringTable;
+import com.innoveworkshop.bolota.models.fields.DateField;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.util.Calendar;
+import java.util.List;
+
+/**
+ * An immutable copy of an entire {@link Document} as it was when the snapshot was taken, which
+ * can be saved, exported or compared from any thread while the document keeps being edited.
+ */
+public class DocumentSnapshot extends FieldSnapshot implements DocumentWriter {
+	private final FieldSnapshot title;
+	private final FieldSnapshot subtitle;
+	private final FieldSnapshot date;
+	private final boolean compressed;
+	private final int compressionLevel;
+	private final boolean stringTableEnabled;
+
+	/**
+	 * Creates a snapshot of a document.
+	 *
+	 * @param title      Snapshot of the title property.
+	 * @param subtitle   Snapshot of the subtitle property.
+	 * @param date       Snapshot of the date property.
+	 * @param topics     Snapshots of the top-level topics.
+	 * @param compressed Should the document be saved compressed?
+	 * @param level      Compression level used when saving the document.
+	 * @param strings    May the document be saved with a string table?
+	 */
+	DocumentSnapshot(FieldSnapshot title, FieldSnapshot subtitle, FieldSnapshot date,
+	                 SnapshotList topics, boolean compressed, int level, boolean strings) {
+		super(null, topics);
+		this.title = title;
+		this.subtitle = subtitle;
+		this.date = date;
+		this.compressed = compressed;
+		this.compressionLevel = level;
+		this.stringTableEnabled = strings;
+	}
+
+	@Override
+	FieldSnapshot withChildren(SnapshotList children) {
+		return new DocumentSnapshot(title, subtitle, date, children, compressed, compressionLevel,
+			stringTableEnabled);
+	}
+
+	/**
+	 * Gets the document title.
+	 *
+	 * @return Document's title.
+	 */
+	public String getTitle() {
+		return title.getText();
+	}
+
+	/**
+	 * Gets the document's subtitle.
+	 *
+	 * @return Document's subtitle.
+	 */
+	public String getSubtitle() {
+		return subtitle.getText();
+	}
+
+	/**
+	 * Gets the date and time of the document's creation.
+	 *
+	 * @return Date and time of the document's creation.
+	 */
+	public Calendar getDate() {
+		return ((DateField)date.toField()).getDate();
+	}
+
+	/**
+	 * Gets the document's topics.
+	 *
+	 * @return Unmodifiable list of the snapshots of the topics.
+	 */
+	public List<FieldSnapshot> getTopics() {
+		return getChildren();
+	}
+
+	/**
+	 * Gets the length of the document in its uncompressed binary form.
+	 *
+	 * @return Length of the uncompressed document file in bytes.
+	 */
+	public long getFileLength() {
+		return DocumentHeader.LENGTH + getPropertiesLength() + getDescendantsLength();
+	}
+
+	/**
+	 * Gets the length of the properties section of the document.
+	 *
+	 * @return Length of the properties section in bytes.
+	 */
+	private int getPropertiesLength() {
+		return title.getLength() + subtitle.getLength() + date.getLength();
+	}
+
+	/**
+	 * Saves the snapshot to a file, replacing it atomically just like
+	 * {@link Document#save(File)}.
+	 *
+	 * @param file Destination Bolota document file.
+	 *
+	 * @throws IOException if an error occurred while writing the document.
+	 */
+	public void save(File file) throws IOException {
+		Document.save(file, this);
+	}
+
+	/**
+	 * Writes the snapshot to a channel.
+	 *
+	 * @param channel Channel to write the document to.
+	 *
+	 * @throws IOException if an error occurred while writing the document.
+	 */
+	public void save(WritableByteChannel channel) throws IOException {
+		long topicsLength = getDescendantsLength();
+
+		// Only store the texts that repeat once if it actually makes the document smaller.
+		StringTable.Encoder strings = null;
+		if (stringTableEnabled) {
+			strings = new StringTable.Encoder();
+			addTexts(strings, this, (byte)0);
+			if (strings.finish()) {
+				topicsLength -= strings.getSavedLength();
+			} else {
+				strings = null;
+			}
+		}
+		if (topicsLength > Integer.MAX_VALUE)
+			throw new IOException("Document topics section is too large to be saved");
+
+		ByteBuffer buffer = ByteBuffer.allocate(Document.WRITE_BUFFER_LEN);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+		// Write the header and the properties section.
+		Document.createHeader(compressed, getPropertiesLength(), (int)topicsLength,
+			strings).write(buffer);
+		WritableByteChannel section = Document.beginSection(buffer, channel, compressed,
+			compressionLevel);
+		Document.flush(buffer, section, title.getLength());
+		title.putBytes(buffer, (byte)0);
+		Document.flush(buffer, section, subtitle.getLength());
+		subtitle.putBytes(buffer, (byte)0);
+		Document.flush(buffer, section, date.getLength());
+		date.putBytes(buffer, (byte)0);
+		Document.endSection(buffer, section);
+
+		// Write the string table and topics sections and whatever is left in the buffer.
+		Document.writeStrings(buffer, channel, compressed, compressionLevel, strings);
+		section = Document.beginSection(buffer, channel, compressed, compressionLevel);
+		writeTopics(buffer, section, this, (byte)0, strings);
+		Document.endSection(buffer, section);
+		Document.flush(buffer, channel, buffer.capacity());
+	}
+
+	/**
+	 * Counts the texts of all the descendants of a snapshot that are about to be written, going
+	 * through exactly the same records as {@link #writeTopics}.
+	 *
+	 * @param strings String table being built.
+	 * @param parent  Snapshot to have the texts of its descendants counted.
+	 * @param depth   Depth of the children of the snapshot.
+	 */
+	private static void addTexts(StringTable.Encoder strings, FieldSnapshot parent, byte depth) {
+		for (int i = 0; i < parent.getChildCount(); i++) {
+			FieldSnapshot field = parent.getChildAt(i);
+			strings.addRecord(field.getRecord());
+
+			ByteBuffer descendants = field.getDescendantsSource((byte)(depth + 1));
+			if (descendants != null) {
+				strings.addRecords(descendants);
+			} else {
+				addTexts(strings, field, (byte)(depth + 1));
+			}
+		}
+	}
+
+	/**
+	 * Writes all the descendants of a snapshot through a buffer.
+	 *
+	 * @param buffer  Buffer to write the fields through.
+	 * @param channel Channel to flush the buffer to.
+	 * @param parent  Snapshot to have its descendants written.
+	 * @param depth   Depth of the children of the snapshot.
+	 * @param strings String table to refer to or {@code null} if there's none.
+	 *
+	 * @throws IOException if an error occurred while writing the fields.
+	 */
+	private static void writeTopics(ByteBuffer buffer, WritableByteChannel channel,
+	                                FieldSnapshot parent, byte depth,
+	                                StringTable.Encoder strings) throws IOException {
+		for (int i = 0; i < parent.getChildCount(); i++) {
+			FieldSnapshot field = parent.getChildAt(i);
+			Document.putRecord(buffer, channel, field.getRecord(), depth, strings);
+
+			// Descendants that were never parsed can be copied as they are.
+			ByteBuffer descendants = field.getDescendantsSource((byte)(depth + 1));
+			if (descendants != null) {
+				Document.copy(buffer, channel, descendants, strings);
+			} else {
+				writeTopics(buffer, channel, field, (byte)(depth + 1), strings);
+			}
+		}
+	}
+}
@@ -0,0 +1,18 @@
+package com.innoveworkshop.bolota.models;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Something that can be written out as an entire Bolota document.
+ */
+interface DocumentWriter {
+	/**
+	 * Writes the document to a channel.
+	 *
+	 * @param channel Channel to write the document to.
+	 *
+	 * @throws IOException if an error occurred while writing the document.
+	 */
+	void save(WritableByteChannel channel) throws IOException;
+}
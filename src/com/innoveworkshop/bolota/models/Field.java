@@ -1,29 +1,48 @@
 package com.innoveworkshop.bolota.models;
 
 import com.innoveworkshop.bolota.exceptions.InvalidFieldTypeException;
+import com.innoveworkshop.bolota.io.StringTable;
 import com.innoveworkshop.bolota.models.fields.BlankField;
 import com.innoveworkshop.bolota.models.fields.DateField;
 import com.innoveworkshop.bolota.models.fields.IconField;
 import com.innoveworkshop.bolota.models.fields.TextField;
 import com.innoveworkshop.bolota.utils.UString;
 
-import javax.swing.tree.MutableTreeNode;
-import javax.swing.tree.TreeNode;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.List;
 
 /**
  * The base of every Bolota field.
  */
-public abstract class Field implements MutableTreeNode {
+public abstract class Field {
 	private final byte type;
-	private final UString text;
+	private UString text;
+	private boolean sharedText;
 	private Field parent;
-	protected final ArrayList<Field> children;
+	private byte depth;
+	protected final FieldList children;
+	private boolean modified;
+	private boolean dirty;
+	private ByteBuffer record;
+	private FieldSnapshot snapshot;
+
+	// Topics section the field was read from and its unparsed descendants loaded on demand.
+	private ByteBuffer source;
+	private int sourceStart;
+	private int childrenStart;
+	private int childrenEnd;
+	private boolean childrenLoaded;
+	private boolean childrenChanged;
+
+	// Position of the field in its parent's list of children.
+	FieldList.Chunk listChunk;
+	int listIndex;
+	int listStamp;
 
 	/**
 	 * Bolota field type character for text.
@@ -45,6 +64,11 @@ public abstract class Field implements MutableTreeNode {
 	 */
 	public static final byte TYPE_BLANK = '0';
 
+	/**
+	 * Name of the text property in field change notifications.
+	 */
+	public static final String PROPERTY_TEXT = "text";
+
 	/**
 	 * Initializes the base field with default values.
 	 *
@@ -55,8 +79,18 @@ public abstract class Field implements MutableTreeNode {
 	protected Field(byte type, Field parent, UString text) {
 		this.type = type;
 		this.text = text;
+		this.sharedText = false;
 		this.parent = parent;
-		this.children = new ArrayList<Field>();
+		this.depth = (parent == null) ? -1 : (byte)(parent.depth + 1);
+		this.children = new FieldList();
+		this.modified = false;
+		this.dirty = false;
+		this.record = null;
+		this.snapshot = null;
+		this.source = null;
+		this.sourceStart = -1;
+		this.childrenLoaded = true;
+		this.childrenChanged = false;
 	}
 
 	/**
@@ -77,21 +111,6 @@ public abstract class Field implements MutableTreeNode {
 	 */
 	public abstract byte fromBytes(ByteBuffer bytes);
 
-	/**
-	 * Populates the field object based on the {@link ByteBuffer} that was read from a Bolota
-	 * document file and appends it automatically to parent field that's determined by the
-	 * depth read.
-	 *
-	 * <p></p>
-	 *
-	 * <p><b style="color: red;">This method will append the field automatically to the right
-	 * parent field.</b></p>
-	 *
-	 * @param previous Previous field that was added to the document.
-	 * @param bytes    Buffer read from a document that contains a single field entry.
-	 */
-	public abstract void fromBytes(Field previous, ByteBuffer bytes);
-
 	/**
 	 * Populates the field object base from a {@link ByteBuffer} that was read from a Bolota
 	 * document file.
@@ -105,76 +124,31 @@ public abstract class Field implements MutableTreeNode {
 		byte depth = bytes.get();
 		short fieldLength = bytes.getShort();
 		short textLength = bytes.getShort();
-		if (textLength > 0) {
-			byte[] unicodeString = new byte[textLength];
-			bytes.get(unicodeString);
+		if (textLength == StringTable.REFERENCE) {
+			// The text is in the string table, which is up to whoever is parsing the document.
+			StringTable.skipIndex(bytes);
+		} else if (textLength > 0) {
+			// Reference the text in place, it'll only be decoded when needed.
 			if (text != null)
-				text.set(unicodeString);
+				getWritableText().set(bytes, bytes.position(), textLength);
+			bytes.position(bytes.position() + textLength);
 		}
 
 		return depth;
 	}
 
 	/**
-	 * Populates the field object base from a {@link ByteBuffer} that was read from a Bolota
-	 * document file and appends it automatically to parent field that's determined by the
-	 * depth read.
-	 *
-	 * <p></p>
-	 *
-	 * <p><b style="color: red;">This method will append the field automatically to the right
-	 * parent field.</b></p>
-	 *
-	 * @param previous Previous field that was added to the document.
-	 * @param bytes    Buffer read from a document that contains a single field entry.
-	 */
-	protected void fromBaseBytes(Field previous, ByteBuffer bytes) {
-		// Read field base.
-		byte depth = fromBytes(bytes);
-
-		// Get the base parent.
-		Field parent = previous;
-		if (!parent.isDocumentRoot())
-			parent = previous.getParent();
-
-		// Select the right parent based on depth.
-		if (depth < previous.getDepth()) {
-			// Next topic of a parent field.
-			while (depth != previous.getDepth())
-				previous = previous.getParent();
-			parent = previous.getParent();
-		} else if (depth > previous.getDepth()) {
-			// Child of the last field.
-			if ((depth - previous.getDepth()) > 1)
-				throw new RuntimeException("Field depth forward jump greater than 1");
-			parent = previous;
-		}
-
-		// Append this field to its rightful parent.
-		parent.appendChild(this);
-	}
-
-	/**
-	 * Gets a proper field object based on the {@link ByteBuffer} that was read from a Bolota
-	 * document file.
+	 * Creates a blank field object of the correct type for a field type identifier character.
 	 *
-	 * @param previous Previous field that was added to the document.
-	 * @param bytes    Buffer read from a document that contains a single field entry.
+	 * @param type Field type identifier character.
 	 *
-	 * @return Parsed field object of the correct type for the read field or {@code null} if
-	 *         we have reached the end of the buffer.
+	 * @return Blank field object of the requested type.
 	 *
-	 * @throws InvalidFieldTypeException whenever an invalid field type is found when reading.
+	 * @throws InvalidFieldTypeException if the field type is invalid.
 	 */
-	protected static Field createFromBytes(Field previous, ByteBuffer bytes) throws InvalidFieldTypeException {
-		Field field = null;
+	protected static Field createFromType(byte type) throws InvalidFieldTypeException {
+		Field field;
 
-		// Check if we have reached the end of the buffer.
-		if (!bytes.hasRemaining())
-			return null;
-
-		// Create field based on type.
-		byte type = bytes.get();
 		switch (type) {
 			case TYPE_TEXT:
 				field = new TextField(null, new UString(""));
@@ -183,7 +157,7 @@ public abstract class Field implements MutableTreeNode {
 				field = new DateField(null, null, new UString(""));
 				break;
 			case TYPE_ICON:
-				field = new IconField(null, null, new UString(""));
+				field = new IconField(null, (byte)0, new UString(""));
 				break;
 			case TYPE_BLANK:
 				field = new BlankField(null);
@@ -192,22 +166,379 @@ public abstract class Field implements MutableTreeNode {
 				throw new InvalidFieldTypeException(type);
 		}
 
-		// Populate the field.
-		field.fromBytes(previous, bytes);
-
 		return field;
 	}
 
 	/**
-	 * Copies internal values from another field object into ours.
+	 * Parses only the direct children of a field from a range of a topics section. The
+	 * descendants of each child are skipped over using the lengths in their headers and only
+	 * get parsed once they are needed.
+	 *
+	 * @param parent Field to append the children to.
+	 * @param source Topics section that contains the children.
+	 * @param start  Absolute position of the first child in the section.
+	 * @param end    Absolute position of the end of the range.
+	 *
+	 * @throws IOException if an invalid field is found.
+	 */
+	protected static void loadChildren(Field parent, ByteBuffer source, int start,
+	                                   int end) throws IOException {
+		ByteBuffer bytes = source.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		bytes.limit(end);
+		bytes.position(start);
+
+		Field child = null;
+		int descendantsStart = start;
+		byte childDepth = bytes.get(start + 1);
+		while (bytes.hasRemaining()) {
+			// Peek at the header of the field.
+			int pos = bytes.position();
+			byte depth = bytes.get(pos + 1);
+			int length = bytes.getShort(pos + 2) & 0xFFFF;
+
+			if (depth == childDepth) {
+				// Wrap up the descendants of the previous child.
+				if (child != null)
+					child.setChildrenSource(source, descendantsStart, pos);
+
+				// Parse the child itself.
+				child = createFromType(bytes.get());
+				child.fromBytes(bytes);
+				child.setSource(source, pos, pos + length);
+				parent.attachChild(child);
+				descendantsStart = pos + length;
+			} else if (depth < childDepth) {
+				throw new IOException("Field depth is shallower than the one of its siblings");
+			}
+
+			// Go to the next field.
+			bytes.position(pos + length);
+		}
+
+		// Wrap up the descendants of the last child.
+		if (child != null)
+			child.setChildrenSource(source, descendantsStart, end);
+	}
+
+	/**
+	 * Sets the range of a topics section that holds the unparsed descendants of this field.
+	 *
+	 * @param source Topics section that contains the descendants.
+	 * @param start  Absolute position of the first descendant in the section.
+	 * @param end    Absolute position of the end of the descendants.
+	 */
+	protected void setChildrenSource(ByteBuffer source, int start, int end) {
+		if (start == end)
+			return;
+
+		this.source = source;
+		childrenStart = start;
+		childrenEnd = end;
+		childrenLoaded = false;
+	}
+
+	/**
+	 * Sets where the record of this field is in the topics section it was read from. Its
+	 * descendants are assumed to follow it, up to the end set by {@link #setSourceEnd(int)}.
+	 *
+	 * @param source Topics section that contains the field.
+	 * @param start  Absolute position of the record of the field in the section.
+	 * @param end    Absolute position of the end of the record.
+	 */
+	void setSource(ByteBuffer source, int start, int end) {
+		this.source = source;
+		sourceStart = start;
+		childrenStart = end;
+		childrenEnd = end;
+	}
+
+	/**
+	 * Sets where the descendants of this field end in the topics section it was read from.
+	 *
+	 * @param end Absolute position of the end of the descendants.
+	 */
+	void setSourceEnd(int end) {
+		childrenEnd = end;
+	}
+
+	/**
+	 * Forgets where this field was read from, usually because its subtree wasn't read from a
+	 * single buffer and can't be copied from it as a whole.
+	 */
+	void clearSource() {
+		source = null;
+		sourceStart = -1;
+	}
+
+	/**
+	 * Checks if neither this field nor any of its descendants have changed since they were
+	 * read, which means that the entire subtree can be copied straight from its source.
+	 *
+	 * @return {@code true} if the subtree is still exactly as it was read.
+	 */
+	boolean isSourceIntact() {
+		return !modified && (sourceStart >= 0);
+	}
+
+	/**
+	 * Gets the depth this field had when it was read, which is the one its subtree has in the
+	 * source. Only meaningful if {@link #isSourceIntact()}.
+	 *
+	 * @return Depth of the field in its source.
+	 */
+	byte getSourceDepth() {
+		return source.get(sourceStart + 1);
+	}
+
+	/**
+	 * Gets the length of the subtree of this field as it was read. Only meaningful if
+	 * {@link #isSourceIntact()}.
+	 *
+	 * @return Length of the field and its descendants in bytes.
+	 */
+	int getSourceLength() {
+		return childrenEnd - sourceStart;
+	}
+
+	/**
+	 * Gets the field and all of its descendants exactly as they were read. Only meaningful if
+	 * {@link #isSourceIntact()}.
+	 *
+	 * @return View of the subtree in its source.
+	 */
+	ByteBuffer getSourceRange() {
+		ByteBuffer range = source.duplicate();
+		range.limit(childrenEnd);
+		range.position(sourceStart);
+		return range;
+	}
+
+	/**
+	 * Points every descendant of this field at the records it has just been saved as and flags
+	 * them as unmodified, along with the field itself.
+	 *
+	 * @param topics Descendants of the field exactly as they were saved, starting at 0.
+	 */
+	void resetSource(ByteBuffer topics) {
+		int end = 0;
+		for (Field child : children)
+			end = child.rebase(topics, end);
+
+		modified = false;
+		dirty = false;
+		childrenChanged = false;
+		record = null;
+		snapshot = null;
+	}
+
+	/**
+	 * Points this field and its descendants at the records they have just been saved as and
+	 * flags them as unmodified.
+	 *
+	 * @param topics Topics section the field was saved to.
+	 * @param start  Absolute position of the record of the field in the section.
+	 *
+	 * @return Absolute position of the end of the descendants of the field.
+	 */
+	private int rebase(ByteBuffer topics, int start) {
+		int recordEnd = start + getRecordLength();
+		int end = recordEnd;
+		if (childrenLoaded) {
+			for (Field child : children)
+				end = child.rebase(topics, end);
+		} else {
+			// Descendants that were never loaded have been copied over as they were.
+			end += childrenEnd - childrenStart;
+		}
+
+		source = topics;
+		sourceStart = start;
+		childrenStart = recordEnd;
+		childrenEnd = end;
+		modified = false;
+		dirty = false;
+		childrenChanged = false;
+		record = null;
+		snapshot = null;
+
+		return end;
+	}
+
+	/**
+	 * Parses the children of this field if they haven't been loaded yet.
+	 */
+	protected void ensureChildrenLoaded() {
+		if (childrenLoaded)
+			return;
+
+		childrenLoaded = true;
+		try {
+			loadChildren(this, source, childrenStart, childrenEnd);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Checks if the children of this field have been parsed.
+	 *
+	 * @return {@code true} if the children are in memory.
+	 */
+	public boolean isChildrenLoaded() {
+		return childrenLoaded;
+	}
+
+	/**
+	 * Releases the children of this field so that they can be parsed again from the document
+	 * when needed. Only possible if they still match the records they were last read from or
+	 * saved as, which is the case again after the document is saved.
+	 *
+	 * @return {@code true} if the children were unloaded.
+	 */
+	public boolean unloadChildren() {
+		if (!childrenLoaded)
+			return true;
+		if ((source == null) || childrenChanged || (childrenStart == childrenEnd))
+			return false;
+		for (Field child : children) {
+			if (child.isModified())
+				return false;
+		}
+
+		for (Field child : children) {
+			child.parent = null;
+			child.depth = -1;
+		}
+		children.clear();
+		childrenLoaded = false;
+
+		return true;
+	}
+
+	/**
+	 * Checks if this field or any of its descendants have been modified.
+	 *
+	 * @return {@code true} if the field or its descendants have been modified.
+	 */
+	public boolean isModified() {
+		return modified;
+	}
+
+	/**
+	 * Flags this field and all of its ancestors as modified.
+	 */
+	protected void markModified() {
+		// Our own record has to be encoded again.
+		dirty = true;
+		record = null;
+
+		Field field = this;
+		while ((field != null) && !field.modified) {
+			field.modified = true;
+			field = field.parent;
+		}
+
+		// Keep the snapshots of the field and its ancestors up to date by copying the path from
+		// the field to the root. Fields loaded on demand may not have one even though their
+		// ancestors do, so go all the way up.
+		if (snapshot != null)
+			snapshot = updateSnapshot(snapshot);
+		Field child = this;
+		field = parent;
+		while (field != null) {
+			if (field.snapshot != null) {
+				int index = field.children.indexOf(child);
+				if (index < 0)
+					break;
+
+				field.snapshot = field.snapshot.withChildren(
+					field.snapshot.getChildList().with(index, child.snapshot()));
+			}
+
+			child = field;
+			field = field.parent;
+		}
+	}
+
+	/**
+	 * Takes an immutable snapshot of this field and all of its descendants.
+	 *
+	 * <p>Once taken, the snapshot is kept up to date as the field and its descendants are
+	 * edited, by copying only the nodes on the path from each change to this field, so taking
+	 * another one costs nothing. The first snapshot has to go through every descendant that was
+	 * modified since the document was read or saved, but the ones that weren't are left to be
+	 * parsed from their source when needed.</p>
+	 *
+	 * @return Snapshot of the field as it is right now.
+	 */
+	public FieldSnapshot snapshot() {
+		if (snapshot == null)
+			snapshot = createSnapshot();
+
+		return snapshot;
+	}
+
+	/**
+	 * Creates a brand new snapshot of this field, reusing the snapshots of its children.
+	 *
+	 * @return Snapshot of the field.
+	 */
+	protected FieldSnapshot createSnapshot() {
+		// Descendants that are still as they were read can be parsed from the source as needed.
+		if (!childrenLoaded || isSourceIntact())
+			return new FieldSnapshot(getRecord(), source, childrenStart, childrenEnd);
+
+		return new FieldSnapshot(getRecord(), getChildSnapshots());
+	}
+
+	/**
+	 * Creates a copy of the snapshot of this field that reflects a change to the field itself.
+	 * The snapshots of its children are shared with the previous one.
+	 *
+	 * @param snapshot Previous snapshot of the field.
+	 *
+	 * @return Snapshot of the field.
+	 */
+	protected FieldSnapshot updateSnapshot(FieldSnapshot snapshot) {
+		return snapshot.withRecord(getRecord());
+	}
+
+	/**
+	 * Gets the snapshots of the children of this field.
+	 *
+	 * @return Snapshots of the children.
+	 */
+	SnapshotList getChildSnapshots() {
+		List<FieldSnapshot> snapshots = new ArrayList<FieldSnapshot>(children.size());
+		for (Field child : children)
+			snapshots.add(child.snapshot());
+
+		return SnapshotList.of(snapshots);
+	}
+
+	/**
+	 * Copies internal values from another field object into ours. The children of the other
+	 * field are copied as well, so that each field keeps a subtree of its own.
 	 *
 	 * @param field Reference field to be copied over.
 	 */
 	public void copy(Field field) {
-		text.set(field.text.toString());
+		field.ensureChildrenLoaded();
+		ensureChildrenLoaded();
+
+		getWritableText().set(field.text);
 		parent = field.parent;
+		depth = field.depth;
+		for (Field child : children) {
+			child.parent = null;
+			child.updateDepth((byte)-1);
+		}
 		children.clear();
-		children.addAll(field.children);
+		for (Field child : field.children)
+			attachChild(child.snapshot().toField());
+		childrenChanged = true;
+		snapshot = null;
+		markModified();
 	}
 
 	/**
@@ -215,7 +546,63 @@ public abstract class Field implements MutableTreeNode {
 	 *
 	 * @return Binary representation of the object as needed for writing to a file.
 	 */
-	public abstract ByteBuffer getBytes();
+	public ByteBuffer getBytes() {
+		// Allocate our LE bytes buffer.
+		ByteBuffer bytes = ByteBuffer.allocate(getLength() & 0xFFFF);
+		bytes.order(ByteOrder.LITTLE_ENDIAN);
+
+		// Put the data in the buffer.
+		putBytes(bytes, getDepth());
+
+		return bytes;
+	}
+
+	/**
+	 * Gets the record of this field as it's written to a file. Records of fields that haven't
+	 * changed since they were read come straight from their source, everything else is only
+	 * encoded again after it changes. The depth in the record is meaningless, since it depends
+	 * on where the field is written.
+	 *
+	 * @return Little-endian view of the record.
+	 */
+	ByteBuffer getRecord() {
+		if (record == null) {
+			if (!dirty && (sourceStart >= 0)) {
+				ByteBuffer view = source.duplicate();
+				view.limit(childrenStart);
+				view.position(sourceStart);
+				return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+			}
+
+			record = getBytes();
+			record.rewind();
+		}
+
+		return record.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Gets the length of the record of this field, preferably without encoding it.
+	 *
+	 * @return Length of the record in bytes.
+	 */
+	int getRecordLength() {
+		if (record != null)
+			return record.limit();
+		if (!dirty && (sourceStart >= 0))
+			return childrenStart - sourceStart;
+
+		return getRecord().limit();
+	}
+
+	/**
+	 * Puts the bytes relative to this field, as they should be written to a file, into an
+	 * existing buffer. This allows for an entire document to be written through a single buffer.
+	 *
+	 * @param bytes Little-endian buffer with at least {@link #getLength()} bytes remaining.
+	 * @param depth Depth of the field to be written.
+	 */
+	public abstract void putBytes(ByteBuffer bytes, byte depth);
 
 	/**
 	 * Gets the bytes relative to the base of this field as they should be written to a file.
@@ -224,21 +611,32 @@ public abstract class Field implements MutableTreeNode {
 	 */
 	public ByteBuffer getBaseBytes() {
 		// Allocate our LE bytes buffer.
-		ByteBuffer bytes = ByteBuffer.allocate(getLength());
+		ByteBuffer bytes = ByteBuffer.allocate(getLength() & 0xFFFF);
 		bytes.order(ByteOrder.LITTLE_ENDIAN);
 
 		// Put the data in the buffer.
+		putBaseBytes(bytes, getDepth());
+
+		return bytes;
+	}
+
+	/**
+	 * Puts the bytes relative to the base of this field, as they should be written to a file,
+	 * into an existing buffer.
+	 *
+	 * @param bytes Little-endian buffer to put the base of the field into.
+	 * @param depth Depth of the field to be written.
+	 */
+	protected void putBaseBytes(ByteBuffer bytes, byte depth) {
 		bytes.put(type);
-		bytes.put(getDepth());
+		bytes.put(depth);
 		bytes.putShort(getLength());
 		if (text != null) {
 			bytes.putShort((short)text.getUTF8Length());
-			bytes.put(text.getBytes());
+			text.putBytes(bytes);
 		} else {
 			bytes.putShort((short)0);
 		}
-
-		return bytes;
 	}
 
 	/**
@@ -255,6 +653,8 @@ public abstract class Field implements MutableTreeNode {
 	 */
 	public short getBaseLength() {
 		// Type (U8) + Depth (U8) + Length (U16) + Text Length (U16) = 6.
+		if (text == null)
+			return 6;
 		return (short)(6 + text.getUTF8Length());
 	}
 
@@ -264,15 +664,21 @@ public abstract class Field implements MutableTreeNode {
 	 * @return Depth of the node.
 	 */
 	public byte getDepth() {
-		byte count = -1;
+		return depth;
+	}
 
-		Field field = this;
-		while (field.parent != null) {
-			count++;
-			field = field.parent;
-		}
+	/**
+	 * Updates the depth of this node and all of its descendants that are in memory.
+	 *
+	 * @param depth New depth of the node.
+	 */
+	private void updateDepth(byte depth) {
+		if (this.depth == depth)
+			return;
 
-		return count;
+		this.depth = depth;
+		for (Field child : children)
+			child.updateDepth((byte)(depth + 1));
 	}
 
 	/**
@@ -281,7 +687,28 @@ public abstract class Field implements MutableTreeNode {
 	 * @param field New child field to be appended.
 	 */
 	public void appendChild(Field field) {
+		ensureChildrenLoaded();
+		attachChild(field);
+		childrenChanged = true;
+		if (snapshot != null) {
+			snapshot = snapshot.withChildren(snapshot.getChildList().plus(children.size() - 1,
+				field.snapshot()));
+		}
+		markModified();
+
+		Document doc = getDocument();
+		if (doc != null)
+			doc.fireFieldInserted(this, children.size() - 1, field);
+	}
+
+	/**
+	 * Appends a child field to this field while it's being loaded from a document.
+	 *
+	 * @param field New child field to be appended.
+	 */
+	protected void attachChild(Field field) {
 		field.parent = this;
+		field.updateDepth((byte)(depth + 1));
 		children.add(field);
 	}
 
@@ -309,7 +736,61 @@ public abstract class Field implements MutableTreeNode {
 	 * @param text New text to be associated with the field.
 	 */
 	public void setText(String text) {
-		this.text.set(text);
+		Document doc = getDocument();
+		String oldText = (doc != null) ? this.text.toString() : null;
+
+		getWritableText().set(text);
+		markModified();
+		if (doc != null)
+			doc.fireFieldChanged(this, PROPERTY_TEXT, oldText);
+	}
+
+	/**
+	 * Makes the text of this field a string from a {@link StringTable}, which is shared with
+	 * every other field that has the same text. The string only gets copied once the text of
+	 * this field changes.
+	 *
+	 * @param text Shared string.
+	 */
+	void shareText(UString text) {
+		this.text = text;
+		sharedText = true;
+	}
+
+	/**
+	 * Resolves the text of a field that has just been parsed from a record that refers to a
+	 * string table.
+	 *
+	 * @param record  Buffer that contains the record.
+	 * @param pos     Absolute position of the record in the buffer.
+	 * @param strings String table of the document or {@code null} if it doesn't have one.
+	 *
+	 * @throws IOException if the text isn't in the string table.
+	 */
+	void resolveText(ByteBuffer record, int pos, StringTable strings) throws IOException {
+		if (!StringTable.isReference(record, pos))
+			return;
+		if (strings == null)
+			throw new IOException("Field refers to a string table that the document doesn't have");
+
+		shareText(strings.get(record, pos));
+	}
+
+	/**
+	 * Gets the text of this field, making sure it isn't shared with other fields so that it
+	 * can be changed.
+	 *
+	 * @return Text that belongs only to this field.
+	 */
+	private UString getWritableText() {
+		if (sharedText) {
+			UString copy = new UString("");
+			copy.set(text);
+			text = copy;
+			sharedText = false;
+		}
+
+		return text;
 	}
 
 	/**
@@ -330,89 +811,177 @@ public abstract class Field implements MutableTreeNode {
 		return false;
 	}
 
+	/**
+	 * Gets the position of this field in its tree.
+	 *
+	 * @return Index of the field and each of its ancestors in their parents, starting from the
+	 *         top-level topic. Empty for the document root.
+	 */
+	public int[] getPath() {
+		int[] path = new int[isDocumentRoot() ? 0 : (getDepth() + 1)];
+		Field node = this;
+		for (int i = path.length - 1; i >= 0; i--) {
+			Field parent = node.getParent();
+			path[i] = parent.getIndex(node);
+			node = parent;
+		}
+
+		return path;
+	}
+
+	/**
+	 * Gets the document this field is a part of.
+	 *
+	 * @return Document that contains this field or {@code null} if it's not part of one.
+	 */
+	public Document getDocument() {
+		Field field = this;
+		while (field != null) {
+			if (field.isDocumentRoot())
+				return (Document)field;
+			field = field.parent;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Notifies the listeners of the document that a property of this field has changed.
+	 *
+	 * @param property Property that has changed.
+	 * @param oldValue Value of the property before the change.
+	 */
+	protected void fireFieldChanged(String property, Object oldValue) {
+		Document doc = getDocument();
+		if (doc != null)
+			doc.fireFieldChanged(this, property, oldValue);
+	}
+
 	///
-	/// TreeNode implementation
+	/// Tree structure
 	///
 
+	/**
+	 * Gets a child field, loading the children first if needed.
+	 *
+	 * @param childIndex Index of the child.
+	 *
+	 * @return Child field at the index.
+	 */
 	public Field getChildAt(int childIndex) {
+		ensureChildrenLoaded();
 		return children.get(childIndex);
 	}
 
+	/**
+	 * Gets the number of children, loading them first if needed.
+	 *
+	 * @return Number of child fields.
+	 */
 	public int getChildCount() {
+		ensureChildrenLoaded();
 		return children.size();
 	}
 
+	/**
+	 * Gets the parent of this field.
+	 *
+	 * @return Parent field or {@code null} if the field isn't attached to one.
+	 */
 	public Field getParent() {
 		return parent;
 	}
 
-	public int getIndex(TreeNode node) {
-		for (int i = 0; i < children.size(); i++) {
-			if (children.get(i) == node)
-				return i;
-		}
-
-		return -1;
-	}
-
-	public boolean getAllowsChildren() {
-		return true;
+	/**
+	 * Gets the index of a child field.
+	 *
+	 * @param child Child field to look for.
+	 *
+	 * @return Index of the child or {@code -1} if it isn't a child of this field.
+	 */
+	public int getIndex(Field child) {
+		ensureChildrenLoaded();
+		return children.indexOf(child);
 	}
 
+	/**
+	 * Checks if this field has no children, without having to load them.
+	 *
+	 * @return {@code true} if the field has no children.
+	 */
 	public boolean isLeaf() {
-		return children.isEmpty();
+		// Unloaded children are never empty, so there's no need to load them.
+		return childrenLoaded && children.isEmpty();
 	}
 
+	/**
+	 * Gets the children of this field, loading them first if needed.
+	 *
+	 * @return Enumeration of the child fields.
+	 */
 	public Enumeration<Field> children() {
+		ensureChildrenLoaded();
 		return Collections.enumeration(children);
 	}
 
-	///
-	/// MutableTreeNode implementation
-	///
-
-	public void insert(MutableTreeNode child, int index) {
-		if (!(child instanceof Field))
-			throw new RuntimeException("Tried inserting a child field that is not of type Field");
-
-		Field field = (Field)child;
+	/**
+	 * Inserts a child field and notifies the listeners of the document.
+	 *
+	 * @param field Field to be inserted.
+	 * @param index Index where the field will be inserted.
+	 */
+	public void insert(Field field, int index) {
+		ensureChildrenLoaded();
 		field.parent = this;
+		field.updateDepth((byte)(depth + 1));
 		children.add(index, field);
+		childrenChanged = true;
+		if (snapshot != null)
+			snapshot = snapshot.withChildren(snapshot.getChildList().plus(index, field.snapshot()));
+		markModified();
+
+		Document doc = getDocument();
+		if (doc != null)
+			doc.fireFieldInserted(this, index, field);
 	}
 
+	/**
+	 * Removes a child field and notifies the listeners of the document.
+	 *
+	 * @param index Index of the field to be removed.
+	 */
 	public void remove(int index) {
+		ensureChildrenLoaded();
 		Field field = children.remove(index);
 		field.parent = null;
+		field.updateDepth((byte)-1);
+		childrenChanged = true;
+		if (snapshot != null)
+			snapshot = snapshot.withChildren(snapshot.getChildList().minus(index));
+		markModified();
+
+		Document doc = getDocument();
+		if (doc != null)
+			doc.fireFieldRemoved(this, index, field);
 	}
 
-	public void remove(MutableTreeNode node) {
-		if (!(node instanceof Field))
-			throw new RuntimeException("Tried removing a child field that is not of type Field");
-
-		for (int i = 0; i < children.size(); i++) {
-			Field field = children.get(i);
-			if (field == node) {
-				field.remove(i);
-				return;
-			}
-		}
-	}
-
-	public void setUserObject(Object object) {
-		throw new RuntimeException("Cannot set user object on a Field object");
+	/**
+	 * Removes a child field and notifies the listeners of the document.
+	 *
+	 * @param field Field to be removed. Nothing happens if it isn't a child of this field.
+	 */
+	public void remove(Field field) {
+		ensureChildrenLoaded();
+		int index = children.indexOf(field);
+		if (index >= 0)
+			remove(index);
 	}
 
+	/**
+	 * Removes this field from its parent.
+	 */
 	public void removeFromParent() {
 		parent.remove(this);
 		parent = null;
 	}
-
-	public void setParent(MutableTreeNode newParent) {
-		if (parent == newParent)
-			return;
-		if (!(newParent instanceof Field))
-			throw new RuntimeException("Tried setting a parent field that is not of type Field");
-
-		((Field)newParent).appendChild(this);
-	}
 }
@@ -0,0 +1,501 @@
+package com.innoveworkshop.bolota.models;
+
+import java.util.AbstractList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/**
+ * A list of child fields that stays fast even when a field has tens of thousands of children.
+ *
+ * <p>Fields are stored in small chunks, which are the nodes of a treap (a binary search tree
+ * kept balanced by random priorities) ordered by their position in the list. Every node knows
+ * how many fields are under it, which makes positional lookups, inserts and removals
+ * logarithmic, including the ones that split or merge chunks. Each field remembers the chunk
+ * it's in and caches its own position, so looking up the index of a child is constant time as
+ * long as the list hasn't changed, and costs a single chunk scan afterwards.</p>
+ */
+class FieldList extends AbstractList<Field> implements RandomAccess {
+	private Chunk root;
+	private Chunk head;
+	private Chunk tail;
+	private int size;
+	private int seed;
+
+	/**
+	 * Maximum number of fields in a chunk before it gets split.
+	 */
+	private static final int CHUNK_LEN = 64;
+
+	/**
+	 * Constructs an empty list.
+	 */
+	public FieldList() {
+		seed = 0x2545F491;
+		clear();
+	}
+
+	@Override
+	public Field get(int index) {
+		checkIndex(index);
+		Chunk chunk = findChunk(index);
+		return chunk.items[index - chunk.start];
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public Field set(int index, Field field) {
+		checkIndex(index);
+		Chunk chunk = findChunk(index);
+		Field old = chunk.items[index - chunk.start];
+		chunk.items[index - chunk.start] = field;
+		release(old);
+		field.listChunk = chunk;
+		field.listStamp = -1;
+		modCount++;
+
+		return old;
+	}
+
+	@Override
+	public void add(int index, Field field) {
+		if ((index < 0) || (index > size))
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+
+		// Start a new chunk if needed.
+		if (head == null)
+			insertChunk(null, new Chunk());
+
+		// Find the chunk to insert into, preferring the end of the previous one.
+		Chunk chunk = (index == size) ? findLastChunk() : findChunk(index);
+		if (chunk.size == CHUNK_LEN) {
+			splitChunk(chunk);
+			chunk = (index == size) ? findLastChunk() : findChunk(index);
+		}
+
+		// Insert the field into the chunk.
+		int offset = index - chunk.start;
+		System.arraycopy(chunk.items, offset, chunk.items, offset + 1, chunk.size - offset);
+		chunk.items[offset] = field;
+		resize(chunk, 1);
+		field.listChunk = chunk;
+		field.listStamp = -1;
+		size++;
+		modCount++;
+	}
+
+	@Override
+	public Field remove(int index) {
+		checkIndex(index);
+		Chunk chunk = findChunk(index);
+
+		// Remove the field from the chunk.
+		int offset = index - chunk.start;
+		Field field = chunk.items[offset];
+		System.arraycopy(chunk.items, offset + 1, chunk.items, offset, chunk.size - offset - 1);
+		resize(chunk, -1);
+		chunk.items[chunk.size] = null;
+		size--;
+		modCount++;
+		release(field);
+
+		// Get rid of empty chunks and merge small ones.
+		if (chunk.size == 0) {
+			removeChunk(chunk);
+		} else if ((chunk.next != null) && ((chunk.size + chunk.next.size) <= (CHUNK_LEN / 2))) {
+			mergeChunks(chunk, chunk.next);
+		}
+
+		return field;
+	}
+
+	@Override
+	public void clear() {
+		for (Chunk chunk = head; chunk != null; chunk = chunk.next) {
+			for (int i = 0; i < chunk.size; i++)
+				release(chunk.items[i]);
+			chunk.attached = false;
+		}
+
+		root = null;
+		head = null;
+		tail = null;
+		size = 0;
+		modCount++;
+	}
+
+	@Override
+	public int indexOf(Object object) {
+		if (!(object instanceof Field))
+			return -1;
+
+		// Fields that aren't in this list.
+		Field field = (Field)object;
+		Chunk chunk = field.listChunk;
+		if ((chunk == null) || (chunk.list != this) || !chunk.attached)
+			return super.indexOf(object);
+
+		// Use the cached position if the list hasn't changed since.
+		if (field.listStamp == modCount)
+			return field.listIndex;
+
+		// Cache the positions of every field in the chunk.
+		int start = getStart(chunk);
+		int index = -1;
+		for (int i = 0; i < chunk.size; i++) {
+			Field item = chunk.items[i];
+			if (item.listChunk == chunk) {
+				item.listIndex = start + i;
+				item.listStamp = modCount;
+			}
+			if (item == field)
+				index = start + i;
+		}
+
+		return (index >= 0) ? index : super.indexOf(object);
+	}
+
+	@Override
+	public boolean contains(Object object) {
+		return indexOf(object) >= 0;
+	}
+
+	@Override
+	public Iterator<Field> iterator() {
+		return new Iterator<Field>() {
+			private Chunk chunk = head;
+			private int offset = 0;
+			private final int expectedModCount = modCount;
+
+			public boolean hasNext() {
+				return (chunk != null) && (offset < chunk.size);
+			}
+
+			public Field next() {
+				if (modCount != expectedModCount)
+					throw new ConcurrentModificationException();
+				if (!hasNext())
+					throw new NoSuchElementException();
+
+				Field field = chunk.items[offset++];
+				if (offset == chunk.size) {
+					chunk = chunk.next;
+					offset = 0;
+				}
+
+				return field;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Finds the chunk that holds a position and updates its start position.
+	 *
+	 * @param index Position in the list.
+	 *
+	 * @return Chunk that holds the position.
+	 */
+	private Chunk findChunk(int index) {
+		Chunk chunk = root;
+		int remaining = index;
+		while (true) {
+			int before = count(chunk.left);
+			if (remaining < before) {
+				chunk = chunk.left;
+			} else if (remaining < (before + chunk.size)) {
+				chunk.start = index - (remaining - before);
+				return chunk;
+			} else {
+				remaining -= before + chunk.size;
+				chunk = chunk.right;
+			}
+		}
+	}
+
+	/**
+	 * Gets the last chunk and updates its start position.
+	 *
+	 * @return Last chunk of the list.
+	 */
+	private Chunk findLastChunk() {
+		tail.start = size - tail.size;
+		return tail;
+	}
+
+	/**
+	 * Gets the number of fields in the chunks before a given one.
+	 *
+	 * @param chunk Chunk in the list.
+	 *
+	 * @return Number of fields before the chunk.
+	 */
+	private int getStart(Chunk chunk) {
+		int start = count(chunk.left);
+		for (Chunk node = chunk; node.parent != null; node = node.parent) {
+			if (node == node.parent.right)
+				start += count(node.parent.left) + node.parent.size;
+		}
+
+		return start;
+	}
+
+	/**
+	 * Gets the number of fields under a node of the tree.
+	 *
+	 * @param chunk Node of the tree or {@code null}.
+	 *
+	 * @return Number of fields in the chunk and all of its descendants.
+	 */
+	private static int count(Chunk chunk) {
+		return (chunk != null) ? chunk.count : 0;
+	}
+
+	/**
+	 * Changes the number of fields in a chunk, keeping the counts of its ancestors up to date.
+	 *
+	 * @param chunk Chunk that changed.
+	 * @param delta Number of fields added to or removed from the chunk.
+	 */
+	private static void resize(Chunk chunk, int delta) {
+		chunk.size += delta;
+		for (Chunk node = chunk; node != null; node = node.parent)
+			node.count += delta;
+	}
+
+	/**
+	 * Gets a random priority for a new node of the tree.
+	 *
+	 * @return Random priority.
+	 */
+	private int nextPriority() {
+		// Xorshift is good enough to keep the tree balanced.
+		seed ^= seed << 13;
+		seed ^= seed >>> 17;
+		seed ^= seed << 5;
+		return seed;
+	}
+
+	/**
+	 * Inserts a chunk into the list of chunks.
+	 *
+	 * @param prev  Chunk to insert after or {@code null} to insert it first.
+	 * @param chunk Chunk to be inserted.
+	 */
+	private void insertChunk(Chunk prev, Chunk chunk) {
+		Chunk next = (prev != null) ? prev.next : head;
+
+		// Link it up in order.
+		chunk.prev = prev;
+		chunk.next = next;
+		if (prev != null) {
+			prev.next = chunk;
+		} else {
+			head = chunk;
+		}
+		if (next != null) {
+			next.prev = chunk;
+		} else {
+			tail = chunk;
+		}
+
+		// Hang it as a leaf right after the previous chunk in the tree.
+		chunk.count = chunk.size;
+		chunk.priority = nextPriority();
+		chunk.attached = true;
+		if (root == null) {
+			root = chunk;
+		} else if ((prev != null) && (prev.right == null)) {
+			prev.right = chunk;
+			chunk.parent = prev;
+		} else {
+			// The next chunk is the leftmost one under the previous one, or in the whole tree.
+			next.left = chunk;
+			chunk.parent = next;
+		}
+		for (Chunk node = chunk.parent; node != null; node = node.parent)
+			node.count += chunk.size;
+
+		// Bring it up to where its priority belongs.
+		while ((chunk.parent != null) && (chunk.parent.priority < chunk.priority))
+			rotateUp(chunk);
+	}
+
+	/**
+	 * Removes a chunk from the list of chunks.
+	 *
+	 * @param chunk Chunk to be removed.
+	 */
+	private void removeChunk(Chunk chunk) {
+		// Push it down until it's got at most one child.
+		while ((chunk.left != null) && (chunk.right != null)) {
+			rotateUp((chunk.left.priority > chunk.right.priority) ? chunk.left : chunk.right);
+		}
+
+		// Take it out of the tree.
+		Chunk child = (chunk.left != null) ? chunk.left : chunk.right;
+		replace(chunk, child);
+		for (Chunk node = chunk.parent; node != null; node = node.parent)
+			node.count -= chunk.size;
+
+		// Take it out of the order.
+		if (chunk.prev != null) {
+			chunk.prev.next = chunk.next;
+		} else {
+			head = chunk.next;
+		}
+		if (chunk.next != null) {
+			chunk.next.prev = chunk.prev;
+		} else {
+			tail = chunk.prev;
+		}
+
+		chunk.parent = null;
+		chunk.left = null;
+		chunk.right = null;
+		chunk.prev = null;
+		chunk.next = null;
+		chunk.attached = false;
+	}
+
+	/**
+	 * Rotates a node of the tree above its parent.
+	 *
+	 * @param chunk Node to be rotated.
+	 */
+	private void rotateUp(Chunk chunk) {
+		Chunk parent = chunk.parent;
+		replace(parent, chunk);
+		if (chunk == parent.left) {
+			parent.left = chunk.right;
+			if (chunk.right != null)
+				chunk.right.parent = parent;
+			chunk.right = parent;
+		} else {
+			parent.right = chunk.left;
+			if (chunk.left != null)
+				chunk.left.parent = parent;
+			chunk.left = parent;
+		}
+		parent.parent = chunk;
+
+		parent.count = count(parent.left) + parent.size + count(parent.right);
+		chunk.count = count(chunk.left) + chunk.size + count(chunk.right);
+	}
+
+	/**
+	 * Puts a node of the tree in the place of another one under its parent.
+	 *
+	 * @param chunk       Node to be replaced.
+	 * @param replacement Node to take its place or {@code null}.
+	 */
+	private void replace(Chunk chunk, Chunk replacement) {
+		Chunk parent = chunk.parent;
+		if (parent == null) {
+			root = replacement;
+		} else if (parent.left == chunk) {
+			parent.left = replacement;
+		} else {
+			parent.right = replacement;
+		}
+
+		if (replacement != null)
+			replacement.parent = parent;
+	}
+
+	/**
+	 * Splits a full chunk in half.
+	 *
+	 * @param chunk Chunk to be split.
+	 */
+	private void splitChunk(Chunk chunk) {
+		Chunk next = new Chunk();
+		int half = chunk.size / 2;
+		next.size = chunk.size - half;
+		System.arraycopy(chunk.items, half, next.items, 0, next.size);
+		for (int i = half; i < chunk.size; i++)
+			chunk.items[i] = null;
+		resize(chunk, -next.size);
+		moveFields(next);
+
+		insertChunk(chunk, next);
+	}
+
+	/**
+	 * Merges a chunk into the one that precedes it.
+	 *
+	 * @param chunk Chunk that will hold the fields of both.
+	 * @param next  Chunk that follows it and will be removed.
+	 */
+	private void mergeChunks(Chunk chunk, Chunk next) {
+		System.arraycopy(next.items, 0, chunk.items, chunk.size, next.size);
+		resize(chunk, next.size);
+		moveFields(chunk);
+
+		resize(next, -next.size);
+		removeChunk(next);
+	}
+
+	/**
+	 * Points every field in a chunk back at it.
+	 *
+	 * @param chunk Chunk whose fields were moved.
+	 */
+	private void moveFields(Chunk chunk) {
+		for (int i = 0; i < chunk.size; i++) {
+			Field field = chunk.items[i];
+			if ((field.listChunk != null) && (field.listChunk.list == this))
+				field.listChunk = chunk;
+		}
+	}
+
+	/**
+	 * Clears the position information of a field that left this list.
+	 *
+	 * @param field Field that was removed.
+	 */
+	private void release(Field field) {
+		if ((field.listChunk != null) && (field.listChunk.list == this)) {
+			field.listChunk = null;
+			field.listStamp = -1;
+		}
+	}
+
+	/**
+	 * Checks if an index points to an existing field.
+	 *
+	 * @param index Index to be checked.
+	 */
+	private void checkIndex(int index) {
+		if ((index < 0) || (index >= size))
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+	}
+
+	/**
+	 * A chunk of consecutive fields in the list, which is also a node of the tree.
+	 */
+	final class Chunk {
+		final FieldList list = FieldList.this;
+		final Field[] items = new Field[CHUNK_LEN];
+		int size = 0;
+		int start = 0;
+		boolean attached = false;
+
+		// Position in the tree and in the order of the list.
+		Chunk parent;
+		Chunk left;
+		Chunk right;
+		Chunk prev;
+		Chunk next;
+		int priority;
+		int count;
+	}
+}
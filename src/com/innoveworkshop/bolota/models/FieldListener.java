@@ -0,0 +1,40 @@
+package com.innoveworkshop.bolota.models;
+
+import java.util.EventListener;
+
+/**
+ * Gets notified of the changes made to the fields of a {@link Document}.
+ *
+ * <p>Only changes to fields that are part of the document are notified. Fields that are attached
+ * while the document is being loaded, or loaded on demand later, don't generate any
+ * notifications. Listeners are always called on the thread that made the change, after the
+ * change has been made.</p>
+ */
+public interface FieldListener extends EventListener {
+	/**
+	 * A property of a field has changed.
+	 *
+	 * @param field    Field that has changed.
+	 * @param property Property that has changed, such as {@link Field#PROPERTY_TEXT}.
+	 * @param oldValue Value of the property before the change.
+	 */
+	void fieldChanged(Field field, String property, Object oldValue);
+
+	/**
+	 * A field has been inserted into the document, along with all of its descendants.
+	 *
+	 * @param parent Field the child was inserted into.
+	 * @param index  Index of the child in its parent.
+	 * @param child  Field that was inserted.
+	 */
+	void fieldInserted(Field parent, int index, Field child);
+
+	/**
+	 * A field has been removed from the document, along with all of its descendants.
+	 *
+	 * @param parent Field the child was removed from.
+	 * @param index  Index the child had in its parent.
+	 * @param child  Field that was removed.
+	 */
+	void fieldRemoved(Field parent, int index, Field child);
+}
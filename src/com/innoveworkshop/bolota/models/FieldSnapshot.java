@@ -0,0 +1,309 @@
+package com.innoveworkshop.bolota.models;
+
+import com.innoveworkshop.bolota.utils.UString;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An immutable copy of a {@link Field} and all of its descendants, as they were when the
+ * snapshot was taken.
+ *
+ * <p>Each node holds the binary record of its field and the snapshots of its children. Nodes
+ * are shared between snapshots for as long as their fields aren't modified, and a change only
+ * copies the nodes on the path from the field that changed to the root. Snapshots can be freely
+ * handed over to other threads.</p>
+ */
+public class FieldSnapshot {
+	private final ByteBuffer record;
+	private SnapshotList children;
+
+	// Unparsed descendants of a lazily loaded field.
+	private ByteBuffer childrenSource;
+	private final int childrenStart;
+	private final int childrenEnd;
+
+	/**
+	 * Creates a snapshot node with its children.
+	 *
+	 * @param record   Record of the field as it's written to a file or {@code null} if this is
+	 *                 the root of a document.
+	 * @param children Snapshots of the children of the field.
+	 */
+	FieldSnapshot(ByteBuffer record, SnapshotList children) {
+		this.record = (record != null) ? readOnly(record) : null;
+		this.children = children;
+		this.childrenSource = null;
+		this.childrenStart = 0;
+		this.childrenEnd = 0;
+	}
+
+	/**
+	 * Creates a snapshot node whose descendants haven't been parsed yet.
+	 *
+	 * @param record Record of the field as it's written to a file.
+	 * @param source Topics section that contains the descendants.
+	 * @param start  Absolute position of the first descendant in the section.
+	 * @param end    Absolute position of the end of the descendants.
+	 */
+	FieldSnapshot(ByteBuffer record, ByteBuffer source, int start, int end) {
+		this.record = readOnly(record);
+		this.children = null;
+		this.childrenSource = source;
+		this.childrenStart = start;
+		this.childrenEnd = end;
+	}
+
+	/**
+	 * Creates a copy of this node with another record, sharing its descendants.
+	 *
+	 * @param record Record of the field as it's written to a file.
+	 *
+	 * @return Snapshot of the field with the new record.
+	 */
+	synchronized FieldSnapshot withRecord(ByteBuffer record) {
+		if (children == null)
+			return new FieldSnapshot(record, childrenSource, childrenStart, childrenEnd);
+
+		return new FieldSnapshot(record, children);
+	}
+
+	/**
+	 * Creates a copy of this node with other children.
+	 *
+	 * @param children Snapshots of the children of the field.
+	 *
+	 * @return Snapshot of the field with the new children.
+	 */
+	FieldSnapshot withChildren(SnapshotList children) {
+		return new FieldSnapshot(record, children);
+	}
+
+	/**
+	 * Gets the field type identifier character.
+	 *
+	 * @return Field type identifier character.
+	 */
+	public byte getType() {
+		return (record != null) ? record.get(0) : 0;
+	}
+
+	/**
+	 * Gets the text of the field.
+	 *
+	 * @return Text of the field.
+	 */
+	public String getText() {
+		if (record == null)
+			return "";
+
+		UString text = new UString("");
+		text.set(record, 6, record.getShort(4) & 0xFFFF);
+		return text.toString();
+	}
+
+	/**
+	 * Gets the record of the field as it's written to a file. The depth in the record is
+	 * meaningless, since it depends on where the snapshot ends up in a tree.
+	 *
+	 * @return Read-only little-endian buffer with the record of the field.
+	 */
+	public ByteBuffer getRecord() {
+		return record.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Gets the length of the field's record.
+	 *
+	 * @return Length of the record in bytes.
+	 */
+	public int getLength() {
+		return (record != null) ? record.limit() : 0;
+	}
+
+	/**
+	 * Puts the record of the field into a buffer at a specific depth.
+	 *
+	 * @param bytes Little-endian buffer with at least {@link #getLength()} bytes remaining.
+	 * @param depth Depth of the field to be written.
+	 */
+	public void putBytes(ByteBuffer bytes, byte depth) {
+		int pos = bytes.position();
+		bytes.put(record.duplicate());
+		bytes.put(pos + 1, depth);
+	}
+
+	/**
+	 * Gets the number of children of the field.
+	 *
+	 * @return Number of children.
+	 */
+	public int getChildCount() {
+		return getChildList().size();
+	}
+
+	/**
+	 * Gets a child of the field.
+	 *
+	 * @param index Index of the child.
+	 *
+	 * @return Snapshot of the child.
+	 */
+	public FieldSnapshot getChildAt(int index) {
+		return getChildList().get(index);
+	}
+
+	/**
+	 * Gets the children of the field.
+	 *
+	 * @return Unmodifiable list of the snapshots of the children.
+	 */
+	public List<FieldSnapshot> getChildren() {
+		return getChildList();
+	}
+
+	/**
+	 * Gets the length of all the descendants of the field in their binary form.
+	 *
+	 * @return Length of the descendants in bytes.
+	 */
+	public long getDescendantsLength() {
+		// Unparsed descendants are already laid out in their source.
+		synchronized (this) {
+			if (children == null)
+				return childrenEnd - childrenStart;
+		}
+
+		long length = 0;
+		for (FieldSnapshot child : getChildList())
+			length += child.getLength() + child.getDescendantsLength();
+
+		return length;
+	}
+
+	/**
+	 * Gets the descendants of the field exactly as they were read, as long as they haven't been
+	 * parsed and would be written at the same depth.
+	 *
+	 * @param depth Depth of the children of the field as they're about to be written.
+	 *
+	 * @return View of the descendants or {@code null} if they have to be written one by one.
+	 */
+	synchronized ByteBuffer getDescendantsSource(byte depth) {
+		if ((children != null) || (childrenStart == childrenEnd) ||
+				(childrenSource.get(childrenStart + 1) != depth))
+			return null;
+
+		ByteBuffer range = childrenSource.duplicate();
+		range.limit(childrenEnd);
+		range.position(childrenStart);
+		return range;
+	}
+
+	/**
+	 * Creates a brand new field, along with all of its descendants, from this snapshot. The new
+	 * field isn't attached to any document.
+	 *
+	 * @return Field as it was when the snapshot was taken.
+	 */
+	public Field toField() {
+		Field field;
+		try {
+			ByteBuffer bytes = getRecord();
+			field = Field.createFromType(bytes.get());
+			field.fromBytes(bytes);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		// Descendants that were never parsed can keep being loaded on demand.
+		synchronized (this) {
+			if (children == null) {
+				field.setChildrenSource(childrenSource, childrenStart, childrenEnd);
+				return field;
+			}
+		}
+
+		for (FieldSnapshot child : getChildList())
+			field.attachChild(child.toField());
+		return field;
+	}
+
+	/**
+	 * Gets the snapshots of the children, parsing them if needed.
+	 *
+	 * @return Immutable list of the snapshots of the children.
+	 */
+	synchronized SnapshotList getChildList() {
+		if (children == null) {
+			children = parseChildren(childrenSource, childrenStart, childrenEnd);
+			childrenSource = null;
+		}
+
+		return children;
+	}
+
+	/**
+	 * Parses only the direct children of a field from a range of a topics section, leaving their
+	 * descendants to be parsed when needed.
+	 *
+	 * @param source Topics section that contains the children.
+	 * @param start  Absolute position of the first child in the section.
+	 * @param end    Absolute position of the end of the range.
+	 *
+	 * @return Snapshots of the children.
+	 */
+	private static SnapshotList parseChildren(ByteBuffer source, int start, int end) {
+		if (start == end)
+			return SnapshotList.EMPTY;
+
+		ByteBuffer bytes = source.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		int limit = bytes.limit();
+		List<FieldSnapshot> children = new ArrayList<FieldSnapshot>();
+		byte childDepth = bytes.get(start + 1);
+		ByteBuffer record = null;
+		int descendantsStart = start;
+		int pos = start;
+
+		while (pos < end) {
+			byte depth = bytes.get(pos + 1);
+			int length = bytes.getShort(pos + 2) & 0xFFFF;
+
+			if (depth == childDepth) {
+				// Wrap up the previous child.
+				if (record != null)
+					children.add(new FieldSnapshot(record, source, descendantsStart, pos));
+
+				bytes.limit(pos + length);
+				bytes.position(pos);
+				record = bytes.slice();
+				bytes.limit(limit);
+				descendantsStart = pos + length;
+			}
+
+			pos += length;
+		}
+
+		// Wrap up the last child.
+		if (record != null)
+			children.add(new FieldSnapshot(record, source, descendantsStart, end));
+
+		return SnapshotList.of(children);
+	}
+
+	/**
+	 * Gets a read-only little-endian view of an entire record.
+	 *
+	 * @param record Record to get a view of.
+	 *
+	 * @return Read-only view of the record.
+	 */
+	private static ByteBuffer readOnly(ByteBuffer record) {
+		ByteBuffer view = record.duplicate();
+		view.rewind();
+		return view.slice().asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+	}
+}
@@ -0,0 +1,370 @@
+package com.innoveworkshop.bolota.models;
+
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * An immutable list of snapshots that is changed by copying the path to the change.
+ *
+ * <p>The snapshots are kept in a tree whose nodes hold up to {@link #NODE_LEN} entries each.
+ * Replacing, inserting or removing a snapshot creates a new list that only copies the nodes
+ * on the way down to it and shares every other node with the original one, so it takes
+ * O(log n) no matter how many snapshots there are. Nodes left with few entries by removals
+ * aren't merged back, which only wastes a bit of space.</p>
+ */
+final class SnapshotList extends AbstractList<FieldSnapshot> {
+	private final Node root;
+
+	/**
+	 * Maximum number of entries in a node of the tree.
+	 */
+	static final int NODE_LEN = 32;
+
+	/**
+	 * List without any snapshots.
+	 */
+	static final SnapshotList EMPTY = new SnapshotList(new Leaf(new FieldSnapshot[0]));
+
+	/**
+	 * Creates a list from the root of its tree.
+	 *
+	 * @param root Root node of the tree.
+	 */
+	private SnapshotList(Node root) {
+		this.root = root;
+	}
+
+	/**
+	 * Creates a list with some snapshots.
+	 *
+	 * @param snapshots Snapshots in the order they should appear in the list.
+	 *
+	 * @return List of the snapshots.
+	 */
+	static SnapshotList of(List<FieldSnapshot> snapshots) {
+		if (snapshots.isEmpty())
+			return EMPTY;
+
+		// Fill the leaves, then group each level into the one above it.
+		int count = (snapshots.size() + NODE_LEN - 1) / NODE_LEN;
+		Node[] level = new Node[count];
+		for (int i = 0; i < count; i++) {
+			int start = i * NODE_LEN;
+			int end = Math.min(start + NODE_LEN, snapshots.size());
+			level[i] = new Leaf(snapshots.subList(start, end).toArray(
+				new FieldSnapshot[end - start]));
+		}
+
+		while (level.length > 1) {
+			Node[] above = new Node[(level.length + NODE_LEN - 1) / NODE_LEN];
+			for (int i = 0; i < above.length; i++) {
+				int start = i * NODE_LEN;
+				Node[] nodes = new Node[Math.min(NODE_LEN, level.length - start)];
+				System.arraycopy(level, start, nodes, 0, nodes.length);
+				above[i] = new Branch(nodes);
+			}
+			level = above;
+		}
+
+		return new SnapshotList(level[0]);
+	}
+
+	@Override
+	public FieldSnapshot get(int index) {
+		checkIndex(index, root.size - 1);
+
+		Node node = root;
+		while (node instanceof Branch) {
+			Node[] nodes = ((Branch)node).nodes;
+			int i = 0;
+			while (index >= nodes[i].size)
+				index -= nodes[i++].size;
+			node = nodes[i];
+		}
+
+		return ((Leaf)node).items[index];
+	}
+
+	@Override
+	public int size() {
+		return root.size;
+	}
+
+	/**
+	 * Creates a copy of this list with a snapshot replaced by another one.
+	 *
+	 * @param index    Index of the snapshot to be replaced.
+	 * @param snapshot Snapshot to take its place.
+	 *
+	 * @return New list with the snapshot replaced.
+	 */
+	SnapshotList with(int index, FieldSnapshot snapshot) {
+		checkIndex(index, root.size - 1);
+		return new SnapshotList(root.with(index, snapshot));
+	}
+
+	/**
+	 * Creates a copy of this list with an extra snapshot.
+	 *
+	 * @param index    Index where the snapshot will be inserted.
+	 * @param snapshot Snapshot to be inserted.
+	 *
+	 * @return New list with the snapshot inserted.
+	 */
+	SnapshotList plus(int index, FieldSnapshot snapshot) {
+		checkIndex(index, root.size);
+
+		Node[] nodes = root.plus(index, snapshot);
+		if (nodes.length == 1)
+			return new SnapshotList(nodes[0]);
+
+		// The root was split in two, so the tree grows by a level.
+		return new SnapshotList(new Branch(nodes));
+	}
+
+	/**
+	 * Creates a copy of this list without one of its snapshots.
+	 *
+	 * @param index Index of the snapshot to be removed.
+	 *
+	 * @return New list without the snapshot.
+	 */
+	SnapshotList minus(int index) {
+		checkIndex(index, root.size - 1);
+
+		Node node = root.minus(index);
+		if (node == null)
+			return EMPTY;
+
+		// Don't keep a chain of branches with a single node at the top of the tree.
+		while ((node instanceof Branch) && (((Branch)node).nodes.length == 1))
+			node = ((Branch)node).nodes[0];
+		return new SnapshotList(node);
+	}
+
+	/**
+	 * Checks if an index is within bounds.
+	 *
+	 * @param index Index to be checked.
+	 * @param max   Highest index allowed.
+	 *
+	 * @throws IndexOutOfBoundsException if the index is out of bounds.
+	 */
+	private void checkIndex(int index, int max) {
+		if ((index < 0) || (index > max))
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + root.size);
+	}
+
+	/**
+	 * Creates a copy of an array with an entry inserted into it.
+	 *
+	 * @param entries Original array.
+	 * @param grown   Array one entry longer than the original one to copy into.
+	 * @param index   Index where the entry will be inserted.
+	 * @param entry   Entry to be inserted.
+	 */
+	private static void insert(Object[] entries, Object[] grown, int index, Object entry) {
+		System.arraycopy(entries, 0, grown, 0, index);
+		grown[index] = entry;
+		System.arraycopy(entries, index, grown, index + 1, entries.length - index);
+	}
+
+	/**
+	 * Creates a copy of an array without one of its entries.
+	 *
+	 * @param entries Original array.
+	 * @param shrunk  Array one entry shorter than the original one to copy into.
+	 * @param index   Index of the entry to be left out.
+	 */
+	private static void delete(Object[] entries, Object[] shrunk, int index) {
+		System.arraycopy(entries, 0, shrunk, 0, index);
+		System.arraycopy(entries, index + 1, shrunk, index, shrunk.length - index);
+	}
+
+	/**
+	 * A node of the tree, which is never changed once created.
+	 */
+	private abstract static class Node {
+		public final int size;
+
+		/**
+		 * Initializes the node.
+		 *
+		 * @param size Number of snapshots under the node.
+		 */
+		protected Node(int size) {
+			this.size = size;
+		}
+
+		/**
+		 * Copies the path to a snapshot, replacing it with another one.
+		 *
+		 * @param index    Index of the snapshot under this node.
+		 * @param snapshot Snapshot to take its place.
+		 *
+		 * @return Copy of this node with the snapshot replaced.
+		 */
+		public abstract Node with(int index, FieldSnapshot snapshot);
+
+		/**
+		 * Copies the path to where a snapshot is inserted.
+		 *
+		 * @param index    Index of the snapshot under this node.
+		 * @param snapshot Snapshot to be inserted.
+		 *
+		 * @return Copy of this node with the snapshot inserted, or two nodes if it had to be
+		 *         split.
+		 */
+		public abstract Node[] plus(int index, FieldSnapshot snapshot);
+
+		/**
+		 * Copies the path to a snapshot, leaving it out.
+		 *
+		 * @param index Index of the snapshot under this node.
+		 *
+		 * @return Copy of this node without the snapshot or {@code null} if it would be empty.
+		 */
+		public abstract Node minus(int index);
+	}
+
+	/**
+	 * A node at the bottom of the tree that holds the snapshots themselves.
+	 */
+	private static class Leaf extends Node {
+		public final FieldSnapshot[] items;
+
+		/**
+		 * Creates a leaf.
+		 *
+		 * @param items Snapshots in the leaf.
+		 */
+		public Leaf(FieldSnapshot[] items) {
+			super(items.length);
+			this.items = items;
+		}
+
+		@Override
+		public Node with(int index, FieldSnapshot snapshot) {
+			FieldSnapshot[] copy = items.clone();
+			copy[index] = snapshot;
+			return new Leaf(copy);
+		}
+
+		@Override
+		public Node[] plus(int index, FieldSnapshot snapshot) {
+			FieldSnapshot[] grown = new FieldSnapshot[items.length + 1];
+			insert(items, grown, index, snapshot);
+			if (grown.length <= NODE_LEN)
+				return new Node[] { new Leaf(grown) };
+
+			// Split the leaf in half.
+			FieldSnapshot[] first = new FieldSnapshot[grown.length / 2];
+			FieldSnapshot[] second = new FieldSnapshot[grown.length - first.length];
+			System.arraycopy(grown, 0, first, 0, first.length);
+			System.arraycopy(grown, first.length, second, 0, second.length);
+			return new Node[] { new Leaf(first), new Leaf(second) };
+		}
+
+		@Override
+		public Node minus(int index) {
+			if (items.length == 1)
+				return null;
+
+			FieldSnapshot[] shrunk = new FieldSnapshot[items.length - 1];
+			delete(items, shrunk, index);
+			return new Leaf(shrunk);
+		}
+	}
+
+	/**
+	 * A node inside the tree that holds other nodes.
+	 */
+	private static class Branch extends Node {
+		public final Node[] nodes;
+
+		/**
+		 * Creates a branch.
+		 *
+		 * @param nodes Nodes in the branch.
+		 */
+		public Branch(Node[] nodes) {
+			super(countSnapshots(nodes));
+			this.nodes = nodes;
+		}
+
+		/**
+		 * Counts the snapshots under some nodes.
+		 *
+		 * @param nodes Nodes to be counted.
+		 *
+		 * @return Number of snapshots under the nodes.
+		 */
+		private static int countSnapshots(Node[] nodes) {
+			int size = 0;
+			for (int i = 0; i < nodes.length; i++)
+				size += nodes[i].size;
+
+			return size;
+		}
+
+		@Override
+		public Node with(int index, FieldSnapshot snapshot) {
+			int i = 0;
+			while (index >= nodes[i].size)
+				index -= nodes[i++].size;
+
+			Node[] copy = nodes.clone();
+			copy[i] = nodes[i].with(index, snapshot);
+			return new Branch(copy);
+		}
+
+		@Override
+		public Node[] plus(int index, FieldSnapshot snapshot) {
+			// Appending to a node is preferred over prepending to the next one.
+			int i = 0;
+			while ((i < nodes.length - 1) && (index > nodes[i].size))
+				index -= nodes[i++].size;
+
+			Node[] replaced = nodes[i].plus(index, snapshot);
+			Node[] grown;
+			if (replaced.length == 1) {
+				grown = nodes.clone();
+				grown[i] = replaced[0];
+			} else {
+				grown = new Node[nodes.length + 1];
+				insert(nodes, grown, i, replaced[0]);
+				grown[i + 1] = replaced[1];
+			}
+			if (grown.length <= NODE_LEN)
+				return new Node[] { new Branch(grown) };
+
+			// Split the branch in half.
+			Node[] first = new Node[grown.length / 2];
+			Node[] second = new Node[grown.length - first.length];
+			System.arraycopy(grown, 0, first, 0, first.length);
+			System.arraycopy(grown, first.length, second, 0, second.length);
+			return new Node[] { new Branch(first), new Branch(second) };
+		}
+
+		@Override
+		public Node minus(int index) {
+			int i = 0;
+			while (index >= nodes[i].size)
+				index -= nodes[i++].size;
+
+			Node replaced = nodes[i].minus(index);
+			if (replaced != null) {
+				Node[] copy = nodes.clone();
+				copy[i] = replaced;
+				return new Branch(copy);
+			}
+
+			// Drop nodes that ended up empty.
+			if (nodes.length == 1)
+				return null;
+			Node[] shrunk = new Node[nodes.length - 1];
+			delete(nodes, shrunk, i);
+			return new Branch(shrunk);
+		}
+	}
+}
@@ -0,0 +1,624 @@
+package com.innoveworkshop.bolota.models;
+
+import com.innoveworkshop.bolota.models.fields.DateField;
+import com.innoveworkshop.bolota.models.fields.IconField;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Records the changes made to a {@link Document} so that they can be undone and redone.
+ *
+ * <p>Every change is recorded as the information needed to revert it. Fields are located by
+ * their position in the tree instead of being referenced directly, and removed subtrees are
+ * kept in their serialized form, which is a lot more compact than the live objects. Runs of
+ * text changes to the same field are merged into a single entry, and the oldest entries are
+ * dropped whenever the history goes over its memory budget.</p>
+ *
+ * <p>This class isn't thread-safe and must only be used from the thread that edits the
+ * document.</p>
+ */
+public class UndoHistory implements FieldListener {
+	private final Document doc;
+	private final LinkedList<Edit> undoStack;
+	private final LinkedList<Edit> redoStack;
+	private final List<Listener> listeners;
+	private long memoryBudget;
+	private long memoryUsed;
+	private boolean applying;
+	private boolean mergeable;
+	private int compoundDepth;
+	private CompoundEdit compound;
+
+	/**
+	 * Default amount of memory in bytes the history may take up.
+	 */
+	public static final long DEFAULT_MEMORY_BUDGET = 8 * 1024 * 1024;
+
+	/**
+	 * Maximum time in milliseconds between text changes to the same field for them to be
+	 * merged into a single entry.
+	 */
+	public static final long MERGE_INTERVAL = 1500;
+
+	/**
+	 * Estimated memory overhead in bytes of each entry.
+	 */
+	private static final int EDIT_OVERHEAD = 64;
+
+	/**
+	 * Starts recording the changes made to a document.
+	 *
+	 * @param doc          Document to record the changes of.
+	 * @param memoryBudget Amount of memory in bytes the history may take up.
+	 */
+	public UndoHistory(Document doc, long memoryBudget) {
+		this.doc = doc;
+		this.undoStack = new LinkedList<Edit>();
+		this.redoStack = new LinkedList<Edit>();
+		this.listeners = new CopyOnWriteArrayList<Listener>();
+		this.memoryBudget = memoryBudget;
+		this.memoryUsed = 0;
+		this.applying = false;
+		this.mergeable = false;
+		this.compoundDepth = 0;
+		this.compound = null;
+
+		doc.addFieldListener(this);
+	}
+
+	/**
+	 * Starts recording the changes made to a document with the default memory budget.
+	 *
+	 * @param doc Document to record the changes of.
+	 */
+	public UndoHistory(Document doc) {
+		this(doc, DEFAULT_MEMORY_BUDGET);
+	}
+
+	/**
+	 * Stops recording the changes made to the document.
+	 */
+	public void close() {
+		doc.removeFieldListener(this);
+	}
+
+	/**
+	 * Checks if there's a change that can be undone.
+	 *
+	 * @return {@code true} if there's a change to be undone.
+	 */
+	public boolean canUndo() {
+		return !undoStack.isEmpty();
+	}
+
+	/**
+	 * Checks if there's a change that can be redone.
+	 *
+	 * @return {@code true} if there's a change to be redone.
+	 */
+	public boolean canRedo() {
+		return !redoStack.isEmpty();
+	}
+
+	/**
+	 * Undoes the last change made to the document.
+	 */
+	public void undo() {
+		if (!canUndo())
+			return;
+
+		Edit edit = undoStack.removeLast();
+		memoryUsed -= edit.getSize();
+		apply(edit, true);
+		redoStack.addLast(edit);
+		memoryUsed += edit.getSize();
+
+		mergeable = false;
+		fireHistoryChanged();
+	}
+
+	/**
+	 * Redoes the last change that was undone.
+	 */
+	public void redo() {
+		if (!canRedo())
+			return;
+
+		Edit edit = redoStack.removeLast();
+		memoryUsed -= edit.getSize();
+		apply(edit, false);
+		undoStack.addLast(edit);
+		memoryUsed += edit.getSize();
+
+		mergeable = false;
+		trim();
+		fireHistoryChanged();
+	}
+
+	/**
+	 * Starts grouping the changes that follow into a single entry, such as the removal and
+	 * insertion that make up moving a field. Groups may be nested.
+	 */
+	public void beginCompound() {
+		if (compoundDepth++ == 0)
+			compound = new CompoundEdit();
+	}
+
+	/**
+	 * Finishes grouping changes into a single entry.
+	 */
+	public void endCompound() {
+		if ((compoundDepth == 0) || (--compoundDepth > 0))
+			return;
+
+		CompoundEdit edit = compound;
+		compound = null;
+		if (!edit.edits.isEmpty()) {
+			mergeable = false;
+			push(edit);
+		}
+	}
+
+	/**
+	 * Prevents the next text change from being merged with the previous one, for example when
+	 * the user moves on to editing another part of the text.
+	 */
+	public void breakMerge() {
+		mergeable = false;
+	}
+
+	/**
+	 * Moves a field to another place in the document as a single change, so that it's undone
+	 * in one step instead of as a removal followed by an insertion.
+	 *
+	 * @param field  Field to be moved.
+	 * @param parent Field that will become the parent of the moved field.
+	 * @param index  Index of the field among the children of its new parent, counted after it
+	 *               has been removed from its current place.
+	 */
+	public void move(Field field, Field parent, int index) {
+		beginCompound();
+		try {
+			field.removeFromParent();
+			parent.insert(field, index);
+		} finally {
+			endCompound();
+		}
+	}
+
+	/**
+	 * Forgets every change that has been recorded.
+	 */
+	public void clear() {
+		undoStack.clear();
+		redoStack.clear();
+		memoryUsed = 0;
+		mergeable = false;
+		fireHistoryChanged();
+	}
+
+	/**
+	 * Gets the number of changes that can be undone.
+	 *
+	 * @return Number of changes in the undo history.
+	 */
+	public int getUndoCount() {
+		return undoStack.size();
+	}
+
+	/**
+	 * Gets the number of changes that can be redone.
+	 *
+	 * @return Number of changes in the redo history.
+	 */
+	public int getRedoCount() {
+		return redoStack.size();
+	}
+
+	/**
+	 * Gets the estimated amount of memory taken up by the history.
+	 *
+	 * @return Memory used in bytes.
+	 */
+	public long getMemoryUsed() {
+		return memoryUsed;
+	}
+
+	/**
+	 * Gets the amount of memory the history may take up.
+	 *
+	 * @return Memory budget in bytes.
+	 */
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/**
+	 * Sets the amount of memory the history may take up. The oldest changes are forgotten to
+	 * make the history fit.
+	 *
+	 * @param memoryBudget Memory budget in bytes.
+	 */
+	public void setMemoryBudget(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+		trim();
+		fireHistoryChanged();
+	}
+
+	/**
+	 * Adds a listener to be notified whenever the history changes.
+	 *
+	 * @param listener Listener to be added.
+	 */
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Removes a listener of the history.
+	 *
+	 * @param listener Listener to be removed.
+	 */
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	///
+	/// FieldListener implementation
+	///
+
+	public void fieldChanged(Field field, String property, Object oldValue) {
+		if (applying)
+			return;
+
+		Object newValue;
+		if (property.equals(Field.PROPERTY_TEXT)) {
+			newValue = field.getText();
+		} else if (property.equals(Document.PROPERTY_TITLE)) {
+			newValue = doc.getTitle();
+		} else if (property.equals(Document.PROPERTY_SUBTITLE)) {
+			newValue = doc.getSubtitle();
+		} else if (property.equals(DateField.PROPERTY_DATE)) {
+			oldValue = copyDate((Calendar)oldValue);
+			newValue = copyDate((field == doc) ? doc.getDate() : ((DateField)field).getDate());
+		} else if (property.equals(IconField.PROPERTY_ICON)) {
+			newValue = ((IconField)field).getIconId();
+		} else {
+			return;
+		}
+
+		record(new ChangeEdit(field.getPath(), property, oldValue, newValue));
+	}
+
+	public void fieldInserted(Field parent, int index, Field child) {
+		if (!applying)
+			record(new InsertEdit(parent.getPath(), index));
+	}
+
+	public void fieldRemoved(Field parent, int index, Field child) {
+		if (!applying)
+			record(new RemoveEdit(parent.getPath(), index, Document.serializeSubtree(child)));
+	}
+
+	///
+	/// History management
+	///
+
+	/**
+	 * Records a change made to the document.
+	 *
+	 * @param edit Change to be recorded.
+	 */
+	private void record(Edit edit) {
+		// A new change makes whatever was undone impossible to redo.
+		for (Edit undone : redoStack)
+			memoryUsed -= undone.getSize();
+		redoStack.clear();
+
+		if (compound != null) {
+			compound.edits.add(edit);
+			return;
+		}
+
+		// Merge runs of text changes.
+		if (mergeable && !undoStack.isEmpty()) {
+			Edit last = undoStack.getLast();
+			long size = last.getSize();
+			if (last.merge(edit)) {
+				memoryUsed += last.getSize() - size;
+				trim();
+				fireHistoryChanged();
+				return;
+			}
+		}
+
+		mergeable = true;
+		push(edit);
+	}
+
+	/**
+	 * Pushes a change to the undo history.
+	 *
+	 * @param edit Change to be pushed.
+	 */
+	private void push(Edit edit) {
+		undoStack.addLast(edit);
+		memoryUsed += edit.getSize();
+		trim();
+		fireHistoryChanged();
+	}
+
+	/**
+	 * Forgets the oldest changes until the history fits its memory budget. The last change is
+	 * always kept, so that it can be undone.
+	 */
+	private void trim() {
+		while ((memoryUsed > memoryBudget) && (undoStack.size() > 1))
+			memoryUsed -= undoStack.removeFirst().getSize();
+		while ((memoryUsed > memoryBudget) && !redoStack.isEmpty())
+			memoryUsed -= redoStack.removeFirst().getSize();
+	}
+
+	/**
+	 * Applies a change to the document without recording it.
+	 *
+	 * @param edit Change to be applied.
+	 * @param undo Should the change be undone instead of redone?
+	 */
+	private void apply(Edit edit, boolean undo) {
+		applying = true;
+		try {
+			if (undo) {
+				edit.undo();
+			} else {
+				edit.redo();
+			}
+		} finally {
+			applying = false;
+		}
+	}
+
+	/**
+	 * Notifies the listeners that the history has changed.
+	 */
+	private void fireHistoryChanged() {
+		for (Listener listener : listeners)
+			listener.historyChanged(this);
+	}
+
+	///
+	/// Helpers
+	///
+
+	/**
+	 * Copies a date so that later changes to it don't affect the history.
+	 *
+	 * @param date Date to be copied.
+	 *
+	 * @return Copy of the date.
+	 */
+	private static Calendar copyDate(Calendar date) {
+		return (date != null) ? (Calendar)date.clone() : null;
+	}
+
+	/**
+	 * Gets notified whenever changes are recorded, undone or redone.
+	 */
+	public interface Listener {
+		/**
+		 * The history has changed.
+		 *
+		 * @param history History that has changed.
+		 */
+		void historyChanged(UndoHistory history);
+	}
+
+	/**
+	 * A change that can be undone and redone.
+	 */
+	private abstract static class Edit {
+		/**
+		 * Reverts the change.
+		 */
+		public abstract void undo();
+
+		/**
+		 * Makes the change again.
+		 */
+		public abstract void redo();
+
+		/**
+		 * Gets the estimated amount of memory taken up by the change.
+		 *
+		 * @return Memory used in bytes.
+		 */
+		public abstract long getSize();
+
+		/**
+		 * Merges a change that came right after this one into it.
+		 *
+		 * @param edit Change that came after this one.
+		 *
+		 * @return {@code true} if the change was merged.
+		 */
+		public boolean merge(Edit edit) {
+			return false;
+		}
+	}
+
+	/**
+	 * A change to a property of a field.
+	 */
+	private class ChangeEdit extends Edit {
+		private final int[] path;
+		private final String property;
+		private final Object oldValue;
+		private Object newValue;
+		private long timestamp;
+
+		public ChangeEdit(int[] path, String property, Object oldValue, Object newValue) {
+			this.path = path;
+			this.property = property;
+			this.oldValue = oldValue;
+			this.newValue = newValue;
+			this.timestamp = System.currentTimeMillis();
+		}
+
+		@Override
+		public void undo() {
+			set(oldValue);
+		}
+
+		@Override
+		public void redo() {
+			set(newValue);
+		}
+
+		/**
+		 * Sets the property of the field.
+		 *
+		 * @param value Value to set the property to.
+		 */
+		private void set(Object value) {
+			Field field = doc.getField(path);
+			if (property.equals(Field.PROPERTY_TEXT)) {
+				field.setText((String)value);
+			} else if (property.equals(Document.PROPERTY_TITLE)) {
+				doc.setTitle((String)value);
+			} else if (property.equals(Document.PROPERTY_SUBTITLE)) {
+				doc.setSubtitle((String)value);
+			} else if (field == doc) {
+				doc.setDate(copyDate((Calendar)value));
+			} else if (property.equals(DateField.PROPERTY_DATE)) {
+				((DateField)field).setDate(copyDate((Calendar)value));
+			} else if (property.equals(IconField.PROPERTY_ICON)) {
+				((IconField)field).setIconId((Byte)value);
+			}
+		}
+
+		@Override
+		public long getSize() {
+			long size = EDIT_OVERHEAD + (path.length * 4);
+			if (oldValue instanceof String)
+				size += ((String)oldValue).length() * 2;
+			if (newValue instanceof String)
+				size += ((String)newValue).length() * 2;
+
+			return size;
+		}
+
+		@Override
+		public boolean merge(Edit edit) {
+			if (!(edit instanceof ChangeEdit))
+				return false;
+
+			// Only merge text changes made to the same field in quick succession.
+			ChangeEdit change = (ChangeEdit)edit;
+			if (!property.equals(Field.PROPERTY_TEXT) || !change.property.equals(property) ||
+					!Arrays.equals(path, change.path) ||
+					((change.timestamp - timestamp) > MERGE_INTERVAL))
+				return false;
+
+			newValue = change.newValue;
+			timestamp = change.timestamp;
+			return true;
+		}
+	}
+
+	/**
+	 * The insertion of a field into the document.
+	 */
+	private class InsertEdit extends Edit {
+		private final int[] parentPath;
+		private final int index;
+		private byte[] subtree;
+
+		public InsertEdit(int[] parentPath, int index) {
+			this.parentPath = parentPath;
+			this.index = index;
+			this.subtree = null;
+		}
+
+		@Override
+		public void undo() {
+			Field parent = doc.getField(parentPath);
+			subtree = Document.serializeSubtree(parent.getChildAt(index));
+			parent.remove(index);
+		}
+
+		@Override
+		public void redo() {
+			doc.getField(parentPath).insert(Document.deserializeSubtree(subtree), index);
+			subtree = null;
+		}
+
+		@Override
+		public long getSize() {
+			return EDIT_OVERHEAD + (parentPath.length * 4) +
+				((subtree != null) ? subtree.length : 0);
+		}
+	}
+
+	/**
+	 * The removal of a field from the document.
+	 */
+	private class RemoveEdit extends Edit {
+		private final int[] parentPath;
+		private final int index;
+		private final byte[] subtree;
+
+		public RemoveEdit(int[] parentPath, int index, byte[] subtree) {
+			this.parentPath = parentPath;
+			this.index = index;
+			this.subtree = subtree;
+		}
+
+		@Override
+		public void undo() {
+			doc.getField(parentPath).insert(Document.deserializeSubtree(subtree), index);
+		}
+
+		@Override
+		public void redo() {
+			doc.getField(parentPath).remove(index);
+		}
+
+		@Override
+		public long getSize() {
+			return EDIT_OVERHEAD + (parentPath.length * 4) + subtree.length;
+		}
+	}
+
+	/**
+	 * A group of changes that are undone and redone together.
+	 */
+	private static class CompoundEdit extends Edit {
+		public final List<Edit> edits = new ArrayList<Edit>();
+
+		@Override
+		public void undo() {
+			for (int i = edits.size() - 1; i >= 0; i--)
+				edits.get(i).undo();
+		}
+
+		@Override
+		public void redo() {
+			for (Edit edit : edits)
+				edit.redo();
+		}
+
+		@Override
+		public long getSize() {
+			long size = EDIT_OVERHEAD;
+			for (Edit edit : edits)
+				size += edit.getSize();
+
+			return size;
+		}
+	}
+}
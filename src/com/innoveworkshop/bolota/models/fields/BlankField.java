@@ -31,13 +31,8 @@ public class BlankField extends Field {
 	}
 
 	@Override
-	public void fromBytes(Field previous, ByteBuffer bytes) {
-		super.fromBaseBytes(previous, bytes);
-	}
-
-	@Override
-	public ByteBuffer getBytes() {
-		return getBaseBytes();
+	public void putBytes(ByteBuffer bytes, byte depth) {
+		putBaseBytes(bytes, depth);
 	}
 
 	@Override
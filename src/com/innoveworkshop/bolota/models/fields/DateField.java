@@ -1,7 +1,6 @@
 package com.innoveworkshop.bolota.models.fields;
 
 import com.innoveworkshop.bolota.models.Field;
-import com.innoveworkshop.bolota.utils.ResourceManager;
 import com.innoveworkshop.bolota.utils.UString;
 
 import java.nio.ByteBuffer;
@@ -13,8 +12,21 @@ import java.util.TimeZone;
  * A Bolota field representing a timestamp.
  */
 public class DateField extends Field {
+	private long timestamp;
 	private Calendar date;
 
+	/**
+	 * Name of the date property in field change notifications.
+	 */
+	public static final String PROPERTY_DATE = "date";
+
+	/**
+	 * Timestamp of a field that has no date associated with it.
+	 */
+	public static final long NO_DATE = 0;
+
+	private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
 	/**
 	 * Initializes the date field with default values.
 	 *
@@ -24,6 +36,7 @@ public class DateField extends Field {
 	 */
 	public DateField(Field parent, Calendar date, UString text) {
 		super(Field.TYPE_DATE, parent, text);
+		this.timestamp = (date != null) ? pack(date) : NO_DATE;
 		this.date = date;
 	}
 
@@ -44,15 +57,57 @@ public class DateField extends Field {
 	 * @return Calendar instance in UTC.
 	 */
 	public static Calendar getCalendarUTC() {
-		return Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+		return Calendar.getInstance(UTC);
 	}
 
 	/**
-	 * Gets the date and time associated with the field.
+	 * Packs the date and time of a calendar into a timestamp. The timestamp holds the same
+	 * parts as the field does in the file, from the year in its most significant bits down
+	 * to the seconds in its least significant byte, so timestamps sort chronologically.
+	 *
+	 * @param date Calendar to be packed, taken in its own timezone.
 	 *
-	 * @return Date and time associated with the field.
+	 * @return Packed timestamp.
+	 */
+	public static long pack(Calendar date) {
+		return ((long)(date.get(Calendar.YEAR) & 0xFFFF) << 40) |
+			((long)(date.get(Calendar.MONTH) + 1) << 32) |
+			((long)date.get(Calendar.DAY_OF_MONTH) << 24) |
+			(date.get(Calendar.HOUR_OF_DAY) << 16) |
+			(date.get(Calendar.MINUTE) << 8) |
+			date.get(Calendar.SECOND);
+	}
+
+	/**
+	 * Unpacks a timestamp into a new calendar in UTC.
+	 *
+	 * @param timestamp Packed timestamp.
+	 *
+	 * @return Calendar with the date and time of the timestamp.
+	 *
+	 * @see #pack(Calendar)
+	 */
+	public static Calendar unpack(long timestamp) {
+		Calendar date = getCalendarUTC();
+		date.clear();
+		date.set((short)(timestamp >>> 40), (int)((timestamp >>> 32) & 0xFF) - 1,
+			(int)((timestamp >>> 24) & 0xFF), (int)((timestamp >>> 16) & 0xFF),
+			(int)((timestamp >>> 8) & 0xFF), (int)(timestamp & 0xFF));
+
+		return date;
+	}
+
+	/**
+	 * Gets the date and time associated with the field. The calendar is only created the
+	 * first time it's asked for and is shared by every caller, so it must not be changed
+	 * directly; use {@link #setDate(Calendar)} instead.
+	 *
+	 * @return Date and time associated with the field or {@code null} if there's none.
 	 */
 	public Calendar getDate() {
+		if ((date == null) && (timestamp != NO_DATE))
+			date = unpack(timestamp);
+
 		return this.date;
 	}
 
@@ -62,7 +117,38 @@ public class DateField extends Field {
 	 * @param date New date and time to be associated with the field.
 	 */
 	public void setDate(Calendar date) {
+		Calendar old = getDate();
+		this.timestamp = (date != null) ? pack(date) : NO_DATE;
 		this.date = date;
+		markModified();
+		fireFieldChanged(PROPERTY_DATE, old);
+	}
+
+	/**
+	 * Gets the packed date and time associated with the field without creating a calendar.
+	 *
+	 * @return Packed timestamp or {@link #NO_DATE} if there's none.
+	 *
+	 * @see #pack(Calendar)
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Sets the date and time associated with the field from a packed timestamp.
+	 *
+	 * @param timestamp New packed timestamp or {@link #NO_DATE}.
+	 *
+	 * @see #pack(Calendar)
+	 */
+	public void setTimestamp(long timestamp) {
+		// Only build the old calendar if there's someone to be notified about it.
+		Calendar old = (getDocument() != null) ? getDate() : null;
+		this.timestamp = timestamp;
+		this.date = null;
+		markModified();
+		fireFieldChanged(PROPERTY_DATE, old);
 	}
 
 	@Override
@@ -70,49 +156,41 @@ public class DateField extends Field {
 		// Read field base.
 		byte depth = super.fromBaseBytes(bytes);
 
-		// Read in the individual parts of the timestamp.
-		short year = bytes.getShort();
-		byte month = (byte)(bytes.get() - 1);
-		byte day = bytes.get();
-		byte hour = bytes.get();
-		byte minute = bytes.get();
-		byte second = bytes.get();
+		// Read in the individual parts of the timestamp as they are packed in the file.
+		long year = bytes.getShort() & 0xFFFF;
+		timestamp = (year << 40) | ((long)(bytes.get() & 0xFF) << 32) |
+			((long)(bytes.get() & 0xFF) << 24) | ((bytes.get() & 0xFF) << 16) |
+			((bytes.get() & 0xFF) << 8) | (bytes.get() & 0xFF);
 		bytes.get();  // Reserved.
 
-		// Set up our internal timestamp object.
-		date = getCalendarUTC();
-		date.set(year, month, day, hour, minute, second);
+		// The calendar is only built if someone asks for it.
+		date = null;
 
 		return depth;
 	}
 
-	@Override
-	public void fromBytes(Field previous, ByteBuffer bytes) {
-		super.fromBaseBytes(previous, bytes);
-	}
-
 	@Override
 	public void copy(Field field) {
 		super.copy(field);
-		if (field instanceof DateField)
+		if (field instanceof DateField) {
+			timestamp = ((DateField)field).timestamp;
 			date = ((DateField)field).date;
+		}
 	}
 
 	@Override
-	public ByteBuffer getBytes() {
-		// Get the base field.
-		ByteBuffer bytes =  getBaseBytes();
+	public void putBytes(ByteBuffer bytes, byte depth) {
+		// Put the base field.
+		putBaseBytes(bytes, depth);
 
 		// Build up the timestamp structure.
-		bytes.putShort((short)date.get(Calendar.YEAR));
-		bytes.put((byte)(date.get(Calendar.MONTH) + 1));
-		bytes.put((byte)date.get(Calendar.DAY_OF_MONTH));
-		bytes.put((byte)date.get(Calendar.HOUR_OF_DAY));
-		bytes.put((byte)date.get(Calendar.MINUTE));
-		bytes.put((byte)date.get(Calendar.SECOND));
+		bytes.putShort((short)(timestamp >>> 40));
+		bytes.put((byte)(timestamp >>> 32));
+		bytes.put((byte)(timestamp >>> 24));
+		bytes.put((byte)(timestamp >>> 16));
+		bytes.put((byte)(timestamp >>> 8));
+		bytes.put((byte)timestamp);
 		bytes.put((byte)0);  // Reserved
-
-		return bytes;
 	}
 
 	@Override
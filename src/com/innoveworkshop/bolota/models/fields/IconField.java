@@ -1,86 +1,86 @@
 package com.innoveworkshop.bolota.models.fields;
 
 import com.innoveworkshop.bolota.models.Field;
-import com.innoveworkshop.bolota.models.resources.FieldIcon;
-import com.innoveworkshop.bolota.utils.ResourceManager;
 import com.innoveworkshop.bolota.utils.UString;
 
 import java.nio.ByteBuffer;
 
 /**
- * A Bolota text field with an associated icon.
+ * A Bolota text field with an associated icon. Only the ID of the icon is kept, it's up to the
+ * user interface to turn it into an image.
  */
 public class IconField extends Field {
-	private FieldIcon icon;
+	private byte iconId;
+
+	/**
+	 * Name of the icon property in field change notifications.
+	 */
+	public static final String PROPERTY_ICON = "icon";
 
 	/**
 	 * Initializes the icon field with default values.
 	 *
 	 * @param parent Parent field object.
-	 * @param icon   Icon associated with the field.
+	 * @param iconId ID of the icon associated with the field.
 	 * @param text   Text associated with the field.
 	 */
-	public IconField(Field parent, FieldIcon icon, UString text) {
+	public IconField(Field parent, byte iconId, UString text) {
 		super(Field.TYPE_ICON, parent, text);
-		this.icon = icon;
+		this.iconId = iconId;
 	}
 
 	/**
 	 * Initializes the icon field with default values.
 	 *
 	 * @param parent Parent field object.
-	 * @param icon   Icon associated with the field.
+	 * @param iconId ID of the icon associated with the field.
 	 * @param text   Text associated with the field.
 	 */
-	public IconField(Field parent, FieldIcon icon, String text) {
-		this(parent, icon, new UString(text));
+	public IconField(Field parent, byte iconId, String text) {
+		this(parent, iconId, new UString(text));
 	}
 
 	/**
-	 * Gets the associated field icon.
+	 * Gets the ID of the associated field icon.
 	 *
-	 * @return Associated field icon.
+	 * @return ID of the associated field icon.
 	 */
-	public FieldIcon getIcon() {
-		return icon;
+	public byte getIconId() {
+		return iconId;
 	}
 
 	/**
 	 * Sets a new field icon.
 	 *
-	 * @param icon New icon to be associated with this field.
+	 * @param iconId ID of the new icon to be associated with this field.
 	 */
-	public void setIcon(FieldIcon icon) {
-		this.icon = icon;
+	public void setIconId(byte iconId) {
+		byte old = this.iconId;
+		this.iconId = iconId;
+		markModified();
+		fireFieldChanged(PROPERTY_ICON, old);
 	}
 
 	@Override
 	public byte fromBytes(ByteBuffer bytes) {
 		byte depth = super.fromBaseBytes(bytes);
-		icon = ResourceManager.getInstance().fieldIcons.get(bytes.get());
+		iconId = bytes.get();
 
 		return depth;
 	}
 
-	@Override
-	public void fromBytes(Field previous, ByteBuffer bytes) {
-		super.fromBaseBytes(previous, bytes);
-	}
-
 	@Override
 	public void copy(Field field) {
 		super.copy(field);
 		if (field instanceof IconField)
-			icon = ((IconField)field).icon;
+			iconId = ((IconField)field).iconId;
 	}
 
 	@Override
-	public ByteBuffer getBytes() {
-		// Get the base field and the icon ID.
-		ByteBuffer bytes =  getBaseBytes();
-		bytes.put(icon.id);
-
-		return bytes;
+	public void putBytes(ByteBuffer bytes, byte depth) {
+		// Put the base field and the icon ID.
+		putBaseBytes(bytes, depth);
+		bytes.put(iconId);
 	}
 
 	@Override
@@ -45,13 +45,8 @@ public class TextField extends Field {
 	}
 
 	@Override
-	public void fromBytes(Field previous, ByteBuffer bytes) {
-		super.fromBaseBytes(previous, bytes);
-	}
-
-	@Override
-	public ByteBuffer getBytes() {
-		return getBaseBytes();
+	public void putBytes(ByteBuffer bytes, byte depth) {
+		putBaseBytes(bytes, depth);
 	}
 
 	@Override
@@ -0,0 +1,677 @@
+package com.innoveworkshop.bolota.search;
+
+import com.innoveworkshop.bolota.models.Document;
+import com.innoveworkshop.bolota.models.Field;
+import com.innoveworkshop.bolota.models.FieldListener;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * An in-memory inverted index of the text of every field in a {@link Document}, which is kept
+ * up to date as the document gets edited.
+ *
+ * <p>Queries are made up of terms that must all match a field's text:</p>
+ *
+ * <ul>
+ *     <li>{@code word} matches fields with the exact word.</li>
+ *     <li>{@code wor*} matches fields with words that start with the prefix.</li>
+ *     <li>{@code "some words"} matches fields with the words in sequence. The last word of a
+ *     phrase may also end with an asterisk to be matched as a prefix.</li>
+ * </ul>
+ *
+ * <p>Matching is case-insensitive and ignores punctuation. Indexing a lazily loaded document
+ * loads all of its fields. This class isn't thread-safe and must only be used from the thread
+ * that edits the document.</p>
+ */
+public class SearchIndex implements FieldListener {
+	private final Document doc;
+	private final TreeMap<String, Postings> tokens;
+	private final Map<Field, Entry> entries;
+	private int revision;
+
+	private static final String[] NO_TOKENS = new String[0];
+
+	/**
+	 * Builds up the index of a document and starts listening for its changes.
+	 *
+	 * @param doc Document to be indexed.
+	 */
+	public SearchIndex(Document doc) {
+		this.doc = doc;
+		this.tokens = new TreeMap<String, Postings>();
+		this.entries = new IdentityHashMap<Field, Entry>();
+		this.revision = 0;
+
+		for (int i = 0; i < doc.getChildCount(); i++)
+			indexTree(doc.getChildAt(i));
+		doc.addFieldListener(this);
+	}
+
+	/**
+	 * Stops keeping the index up to date with the document.
+	 */
+	public void close() {
+		doc.removeFieldListener(this);
+	}
+
+	/**
+	 * Finds the fields that match a query.
+	 *
+	 * @param query Query to look for.
+	 *
+	 * @return Matching fields in the order they appear in the document.
+	 */
+	public List<Field> find(String query) {
+		List<Term> terms = parse(query);
+		if (terms.isEmpty())
+			return new ArrayList<Field>();
+
+		// Get the candidates from the most selective term.
+		Term driver = terms.get(0);
+		int driverCost = driver.getCost();
+		for (int i = 1; i < terms.size(); i++) {
+			int cost = terms.get(i).getCost();
+			if (cost < driverCost) {
+				driver = terms.get(i);
+				driverCost = cost;
+			}
+		}
+
+		// Only look at the words of a candidate if it isn't obviously a match or a miss.
+		long mask = 0;
+		boolean exact = (terms.size() == 1) && driver.isExact();
+		for (Term term : terms)
+			mask |= term.getSignature();
+
+		// Check every term against the words of each candidate.
+		Postings candidates = driver.getCandidates();
+		List<Field> results = new ArrayList<Field>(exact ? candidates.size : 16);
+		for (int i = 0; i < candidates.size; i++) {
+			if ((candidates.signatures[i] & mask) != mask)
+				continue;
+
+			if (!exact) {
+				Entry entry = candidates.entries[i];
+				boolean matches = true;
+				for (Term term : terms) {
+					if ((term != driver || !driver.isExact()) && !term.matches(entry.words)) {
+						matches = false;
+						break;
+					}
+				}
+
+				if (!matches)
+					continue;
+			}
+
+			results.add(candidates.fields[i]);
+		}
+
+		// Postings are mostly kept in the order the fields were indexed, so this is cheap.
+		Collections.sort(results, DOCUMENT_ORDER);
+		return results;
+	}
+
+	/**
+	 * Gets the number of distinct words in the index.
+	 *
+	 * @return Number of distinct words.
+	 */
+	public int getTokenCount() {
+		return tokens.size();
+	}
+
+	/**
+	 * Gets the number of fields in the index.
+	 *
+	 * @return Number of indexed fields.
+	 */
+	public int getFieldCount() {
+		return entries.size();
+	}
+
+	/**
+	 * Gets a number that changes every time the index gets updated, so that previous results
+	 * can be checked for staleness.
+	 *
+	 * @return Revision of the index.
+	 */
+	public int getRevision() {
+		return revision;
+	}
+
+	/**
+	 * Splits a text into lower case words.
+	 *
+	 * @param text Text to be split.
+	 *
+	 * @return Words in the text.
+	 */
+	public static String[] tokenize(String text) {
+		if (text == null)
+			return NO_TOKENS;
+
+		List<String> words = null;
+		StringBuilder sb = new StringBuilder();
+		int length = text.length();
+		for (int i = 0; i <= length; i++) {
+			char ch = (i < length) ? text.charAt(i) : ' ';
+			if (Character.isLetterOrDigit(ch)) {
+				sb.append(Character.toLowerCase(ch));
+			} else if (sb.length() > 0) {
+				if (words == null)
+					words = new ArrayList<String>();
+				words.add(sb.toString());
+				sb.setLength(0);
+			}
+		}
+
+		if (words == null)
+			return NO_TOKENS;
+		return words.toArray(new String[words.size()]);
+	}
+
+	/**
+	 * Adds fields that were attached to the document without it reporting it, like when it's
+	 * being loaded in the background, to the index along with all of their descendants.
+	 *
+	 * @param parent Field the children were attached to.
+	 * @param index  Index of the first child that was attached.
+	 * @param count  Number of children that were attached.
+	 */
+	public void fieldsAttached(Field parent, int index, int count) {
+		for (int i = index; i < (index + count); i++)
+			indexTree(parent.getChildAt(i));
+		revision++;
+	}
+
+	///
+	/// FieldListener implementation
+	///
+
+	public void fieldChanged(Field field, String property, Object oldValue) {
+		if (!property.equals(Field.PROPERTY_TEXT))
+			return;
+
+		unindex(field);
+		index(field);
+		revision++;
+	}
+
+	public void fieldInserted(Field parent, int index, Field child) {
+		indexTree(child);
+		revision++;
+	}
+
+	public void fieldRemoved(Field parent, int index, Field child) {
+		unindexTree(child);
+		revision++;
+	}
+
+	///
+	/// Index maintenance
+	///
+
+	/**
+	 * Adds a field and all of its descendants to the index.
+	 *
+	 * @param field Field to be added.
+	 */
+	private void indexTree(Field field) {
+		index(field);
+		for (int i = 0; i < field.getChildCount(); i++)
+			indexTree(field.getChildAt(i));
+	}
+
+	/**
+	 * Removes a field and all of its descendants from the index.
+	 *
+	 * @param field Field to be removed.
+	 */
+	private void unindexTree(Field field) {
+		unindex(field);
+		for (int i = 0; i < field.getChildCount(); i++)
+			unindexTree(field.getChildAt(i));
+	}
+
+	/**
+	 * Adds the words of a field to the index.
+	 *
+	 * @param field Field to be added.
+	 */
+	private void index(Field field) {
+		if (field.getType() == Field.TYPE_BLANK)
+			return;
+
+		// Get the postings of every distinct word.
+		String[] words = tokenize(field.getText());
+		Postings[] distinct = new Postings[words.length];
+		int count = 0;
+		for (int i = 0; i < words.length; i++) {
+			Postings postings = tokens.get(words[i]);
+			if (postings == null) {
+				postings = new Postings(words[i]);
+				tokens.put(postings.token, postings);
+			}
+
+			// Share a single instance of each word.
+			words[i] = postings.token;
+			if (!contains(distinct, count, postings))
+				distinct[count++] = postings;
+		}
+
+		// Add the field to each of them, remembering where it went.
+		Entry entry = new Entry(field, words, count);
+		for (int i = 0; i < count; i++)
+			entry.signature |= getSignature(distinct[i].token);
+		for (int i = 0; i < count; i++) {
+			entry.postings[i] = distinct[i];
+			distinct[i].add(entry, i);
+		}
+
+		entries.put(field, entry);
+	}
+
+	/**
+	 * Removes the words of a field from the index.
+	 *
+	 * @param field Field to be removed.
+	 */
+	private void unindex(Field field) {
+		Entry entry = entries.remove(field);
+		if (entry == null)
+			return;
+
+		for (int i = 0; i < entry.postings.length; i++) {
+			Postings postings = entry.postings[i];
+			postings.remove(entry.slots[i]);
+			if (postings.size == 0)
+				tokens.remove(postings.token);
+		}
+	}
+
+	/**
+	 * Checks if a list of postings already has a given one.
+	 *
+	 * @param list     List of postings.
+	 * @param count    Number of postings in the list.
+	 * @param postings Postings to look for.
+	 *
+	 * @return {@code true} if the postings are in the list.
+	 */
+	private static boolean contains(Postings[] list, int count, Postings postings) {
+		for (int i = 0; i < count; i++) {
+			if (list[i] == postings)
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Gets the bit that stands for a word in the signature of a field, which is a quick way to
+	 * rule out fields that don't contain a word without looking at their words.
+	 *
+	 * @param word Word to get the bit of.
+	 *
+	 * @return Signature with only the bit of the word set.
+	 */
+	private static long getSignature(String word) {
+		return 1L << (word.hashCode() & 63);
+	}
+
+	///
+	/// Querying
+	///
+
+	/**
+	 * Parses a query into its terms.
+	 *
+	 * @param query Query to be parsed.
+	 *
+	 * @return Terms of the query.
+	 */
+	private List<Term> parse(String query) {
+		List<Term> terms = new ArrayList<Term>();
+		int length = query.length();
+		int i = 0;
+
+		while (i < length) {
+			char ch = query.charAt(i);
+			if (Character.isWhitespace(ch)) {
+				i++;
+				continue;
+			}
+
+			// Get the text of the term.
+			int end;
+			String text;
+			if (ch == '"') {
+				end = query.indexOf('"', i + 1);
+				if (end < 0)
+					end = length;
+				text = query.substring(i + 1, end);
+				i = end + 1;
+			} else {
+				end = i;
+				while ((end < length) && !Character.isWhitespace(query.charAt(end)))
+					end++;
+				text = query.substring(i, end);
+				i = end;
+			}
+
+			String[] words = tokenize(text);
+			if (words.length > 0)
+				terms.add(new Term(words, text.trim().endsWith("*")));
+		}
+
+		return terms;
+	}
+
+	/**
+	 * Orders fields as they appear in the document by comparing the indexes of their ancestors
+	 * right below the closest common one, without building the path of each field.
+	 */
+	private static final Comparator<Field> DOCUMENT_ORDER = new Comparator<Field>() {
+		public int compare(Field a, Field b) {
+			if (a == b)
+				return 0;
+
+			// Bring both fields to the same depth. An ancestor comes before its descendants.
+			Field x = a;
+			Field y = b;
+			for (int depth = x.getDepth(); depth > y.getDepth(); depth--) {
+				x = x.getParent();
+				if (x == y)
+					return 1;
+			}
+			for (int depth = y.getDepth(); depth > x.getDepth(); depth--) {
+				y = y.getParent();
+				if (y == x)
+					return -1;
+			}
+
+			// Climb until they're siblings.
+			while (x.getParent() != y.getParent()) {
+				x = x.getParent();
+				y = y.getParent();
+			}
+
+			Field parent = x.getParent();
+			return (parent.getIndex(x) < parent.getIndex(y)) ? -1 : 1;
+		}
+	};
+
+	/**
+	 * A single term of a query, which is a sequence of words where the last one may be a
+	 * prefix.
+	 */
+	private class Term {
+		private final String[] words;
+		private final boolean prefix;
+		private long signature;
+
+		/**
+		 * Creates a query term.
+		 *
+		 * @param words  Words that must appear in sequence.
+		 * @param prefix Should the last word be matched as a prefix?
+		 */
+		public Term(String[] words, boolean prefix) {
+			this.words = words;
+			this.prefix = prefix;
+
+			// Use the instances in the index so that whole words can be compared by identity.
+			int wholeWords = prefix ? (words.length - 1) : words.length;
+			for (int i = 0; i < wholeWords; i++) {
+				Postings postings = tokens.get(words[i]);
+				if (postings != null)
+					words[i] = postings.token;
+				signature |= SearchIndex.getSignature(words[i]);
+			}
+		}
+
+		/**
+		 * Gets the bits that must be set in the signature of a field that matches this term.
+		 *
+		 * @return Signature of the whole words of the term.
+		 */
+		public long getSignature() {
+			return signature;
+		}
+
+		/**
+		 * Gets the number of candidate fields this term would produce.
+		 *
+		 * @return Number of candidate fields.
+		 */
+		public int getCost() {
+			int cost = Integer.MAX_VALUE;
+
+			// Whole words are the cheapest to look up.
+			int wholeWords = prefix ? (words.length - 1) : words.length;
+			for (int i = 0; i < wholeWords; i++) {
+				Postings postings = tokens.get(words[i]);
+				if (postings == null)
+					return 0;
+				cost = Math.min(cost, postings.size);
+			}
+
+			// Prefixes must go through every word that matches them.
+			if (wholeWords == 0) {
+				cost = 0;
+				for (Postings postings : getPrefixPostings().values())
+					cost += postings.size;
+			}
+
+			return cost;
+		}
+
+		/**
+		 * Checks if every candidate of this term is a match, which is the case for a single word
+		 * or prefix.
+		 *
+		 * @return {@code true} if the term doesn't have to be checked against its candidates.
+		 */
+		public boolean isExact() {
+			return words.length == 1;
+		}
+
+		/**
+		 * Gets the fields that contain at least one of the words of the term.
+		 *
+		 * @return Postings with the candidate fields, without duplicates.
+		 */
+		public Postings getCandidates() {
+			// Use the rarest whole word if there is one.
+			Postings rarest = null;
+			int wholeWords = prefix ? (words.length - 1) : words.length;
+			for (int i = 0; i < wholeWords; i++) {
+				Postings postings = tokens.get(words[i]);
+				if (postings == null)
+					return new Postings(words[i]);
+				if ((rarest == null) || (postings.size < rarest.size))
+					rarest = postings;
+			}
+			if (rarest != null)
+				return rarest;
+
+			// Join the fields of every word that starts with the prefix.
+			String start = words[words.length - 1];
+			Collection<Postings> matching = getPrefixPostings().values();
+			if (matching.size() == 1)
+				return matching.iterator().next();
+			Postings joined = new Postings(start);
+			for (Postings postings : matching) {
+				for (int i = 0; i < postings.size; i++) {
+					// Only take a field from the first of its words that starts with the prefix.
+					Entry entry = postings.entries[i];
+					boolean first = true;
+					for (int j = 0; j < postings.refs[i]; j++) {
+						if (entry.postings[j].token.startsWith(start)) {
+							first = false;
+							break;
+						}
+					}
+
+					if (first)
+						joined.add(entry, -1);
+				}
+			}
+
+			return joined;
+		}
+
+		/**
+		 * Checks if the words of a field match this term.
+		 *
+		 * @param fieldWords Words of the field.
+		 *
+		 * @return {@code true} if the words of the term appear in sequence in the field.
+		 */
+		public boolean matches(String[] fieldWords) {
+			int last = words.length - 1;
+			for (int start = 0; start + last < fieldWords.length; start++) {
+				boolean matches = true;
+				for (int i = 0; i <= last; i++) {
+					String word = fieldWords[start + i];
+					if ((prefix && (i == last)) ? !word.startsWith(words[i]) :
+							(word != words[i])) {
+						matches = false;
+						break;
+					}
+				}
+
+				if (matches)
+					return true;
+			}
+
+			return false;
+		}
+
+		/**
+		 * Gets the postings of every word that starts with the prefix of this term.
+		 *
+		 * @return Postings of the words that start with the prefix.
+		 */
+		private SortedMap<String, Postings> getPrefixPostings() {
+			String start = words[words.length - 1];
+			return tokens.subMap(start, start + Character.MAX_VALUE);
+		}
+	}
+
+	/**
+	 * A field in the index along with its words and where it is in the postings of each of
+	 * them, so that it can be removed without having to look for it.
+	 */
+	private static class Entry {
+		public final Field field;
+		public final String[] words;
+		public final Postings[] postings;
+		public final int[] slots;
+		public long signature;
+
+		/**
+		 * Creates the entry of a field.
+		 *
+		 * @param field Field in the index.
+		 * @param words Words of the field.
+		 * @param count Number of distinct words of the field.
+		 */
+		public Entry(Field field, String[] words, int count) {
+			this.field = field;
+			this.words = words;
+			this.postings = new Postings[count];
+			this.slots = new int[count];
+			this.signature = 0;
+		}
+	}
+
+	/**
+	 * Fields that contain a word. The field and signature of each entry are kept alongside it
+	 * so that queries can go through them without having to reach into every entry.
+	 */
+	private static class Postings {
+		public final String token;
+		public Entry[] entries;
+		public Field[] fields;
+		public long[] signatures;
+		public int[] refs;
+		public int size;
+
+		/**
+		 * Creates an empty list of fields for a word.
+		 *
+		 * @param token Word the fields contain.
+		 */
+		public Postings(String token) {
+			this.token = token;
+			this.entries = new Entry[2];
+			this.fields = new Field[2];
+			this.signatures = new long[2];
+			this.refs = new int[2];
+			this.size = 0;
+		}
+
+		/**
+		 * Adds a field to the end of the list.
+		 *
+		 * @param entry Entry of the field to be added.
+		 * @param ref   Index of these postings in the entry or {@code -1} if the entry
+		 *              shouldn't keep track of where it went.
+		 */
+		public void add(Entry entry, int ref) {
+			if (size == entries.length) {
+				Entry[] grownEntries = new Entry[size * 2];
+				System.arraycopy(entries, 0, grownEntries, 0, size);
+				entries = grownEntries;
+
+				Field[] grownFields = new Field[size * 2];
+				System.arraycopy(fields, 0, grownFields, 0, size);
+				fields = grownFields;
+
+				long[] grownSignatures = new long[size * 2];
+				System.arraycopy(signatures, 0, grownSignatures, 0, size);
+				signatures = grownSignatures;
+
+				int[] grownRefs = new int[size * 2];
+				System.arraycopy(refs, 0, grownRefs, 0, size);
+				refs = grownRefs;
+			}
+
+			entries[size] = entry;
+			fields[size] = entry.field;
+			signatures[size] = entry.signature;
+			refs[size] = ref;
+			if (ref >= 0)
+				entry.slots[ref] = size;
+			size++;
+		}
+
+		/**
+		 * Removes a field from the list. The last field takes its place.
+		 *
+		 * @param slot Position of the field in the list.
+		 */
+		public void remove(int slot) {
+			size--;
+			if (slot != size) {
+				entries[slot] = entries[size];
+				fields[slot] = fields[size];
+				signatures[slot] = signatures[size];
+				refs[slot] = refs[size];
+				entries[slot].slots[refs[slot]] = slot;
+			}
+			entries[size] = null;
+			fields[size] = null;
+		}
+	}
+}
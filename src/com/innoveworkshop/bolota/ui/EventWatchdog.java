@@ -0,0 +1,268 @@
+package com.innoveworkshop.bolota.ui;
+
+import java.awt.AWTEvent;
+import java.awt.EventQueue;
+import java.awt.Toolkit;
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.FileHandler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
+
+/**
+ * Watches the event dispatch thread for events that take too long to be handled and logs what
+ * the application was doing while the interface was frozen.
+ *
+ * <p>Once installed, every event goes through this queue, which keeps track of when the event
+ * started being dispatched. A daemon thread samples the dispatch thread and, whenever an event
+ * runs for longer than the threshold, logs its stack trace alongside the Bolota operation that
+ * was running at the time into a rolling log file.</p>
+ *
+ * <p>Operations are tagged by the code that runs on the dispatch thread:</p>
+ *
+ * <pre>
+ * String previous = EventWatchdog.enter(EventWatchdog.OP_EXPAND);
+ * try {
+ *     ...
+ * } finally {
+ *     EventWatchdog.exit(previous);
+ * }
+ * </pre>
+ */
+public class EventWatchdog extends EventQueue {
+	private static final Logger Log = Logger.getLogger(EventWatchdog.class.getName());
+
+	public static final String OP_OPEN = "open";
+	public static final String OP_EXPAND = "expand";
+	public static final String OP_RENDER = "render";
+	public static final String OP_EDIT = "edit";
+
+	/**
+	 * Default time in milliseconds an event may take before it's considered a stall.
+	 */
+	public static final long DEFAULT_THRESHOLD = 500;
+
+	/**
+	 * Default pattern of the rolling log files.
+	 */
+	public static final String DEFAULT_LOG_PATTERN = "%h/bolota-watchdog%g.log";
+
+	/**
+	 * Maximum size in bytes of each log file before it gets rolled over.
+	 */
+	private static final int LOG_FILE_LIMIT = 1024 * 1024;
+
+	/**
+	 * Number of log files to keep around.
+	 */
+	private static final int LOG_FILE_COUNT = 4;
+
+	/**
+	 * Maximum number of stack traces logged for a single stalled event.
+	 */
+	private static final int MAX_SAMPLES = 5;
+
+	private static volatile String operation = null;
+	private static EventWatchdog instance = null;
+
+	private final long threshold;
+	private final Thread sampler;
+	private volatile Thread dispatchThread;
+	private volatile long dispatchStart;
+	private volatile long dispatchCount;
+	private volatile String dispatchEvent;
+
+	/**
+	 * Creates the watchdog's event queue.
+	 *
+	 * @param threshold Time in milliseconds an event may take before it's considered a stall.
+	 */
+	private EventWatchdog(long threshold) {
+		super();
+		this.threshold = threshold * 1000000L;
+		this.dispatchStart = 0;
+		this.dispatchCount = 0;
+
+		// Sample the dispatch thread a few times within the threshold.
+		final long interval = Math.max(threshold / 4, 10);
+		sampler = new Thread(new Runnable() {
+			public void run() {
+				sample(interval);
+			}
+		}, "Bolota EDT Watchdog");
+		sampler.setDaemon(true);
+	}
+
+	/**
+	 * Installs the watchdog using the settings from the {@code bolota.watchdog.threshold} (in
+	 * milliseconds, 0 to disable) and {@code bolota.watchdog.log} (log file pattern) system
+	 * properties.
+	 *
+	 * @return Installed watchdog or {@code null} if it has been disabled.
+	 */
+	public static EventWatchdog install() {
+		long threshold = DEFAULT_THRESHOLD;
+		try {
+			threshold = Long.parseLong(System.getProperty("bolota.watchdog.threshold",
+				String.valueOf(DEFAULT_THRESHOLD)));
+		} catch (NumberFormatException e) {
+			Log.log(Level.WARNING, "Invalid watchdog threshold, using the default: " + e);
+		}
+
+		if (threshold <= 0)
+			return null;
+
+		return install(threshold, System.getProperty("bolota.watchdog.log", DEFAULT_LOG_PATTERN));
+	}
+
+	/**
+	 * Installs the watchdog in the system's event queue.
+	 *
+	 * @param threshold  Time in milliseconds an event may take before it's considered a stall.
+	 * @param logPattern {@link FileHandler} pattern of the rolling log files or {@code null} if
+	 *                   stalls should only go to the default log handlers.
+	 *
+	 * @return Installed watchdog.
+	 */
+	public static synchronized EventWatchdog install(long threshold, String logPattern) {
+		if (instance != null)
+			return instance;
+
+		// Set up the rolling log file.
+		if (logPattern != null) {
+			try {
+				File dir = new File(logPattern.replace("%h", System.getProperty("user.home"))
+					.replace("%t", System.getProperty("java.io.tmpdir"))).getParentFile();
+				if (dir != null)
+					dir.mkdirs();
+
+				FileHandler handler = new FileHandler(logPattern, LOG_FILE_LIMIT,
+					LOG_FILE_COUNT, true);
+				handler.setFormatter(new SimpleFormatter());
+				Log.addHandler(handler);
+			} catch (IOException e) {
+				Log.log(Level.WARNING, "Failed to open the watchdog log file: " + e);
+			}
+		}
+
+		// Take over the event queue.
+		instance = new EventWatchdog(threshold);
+		Toolkit.getDefaultToolkit().getSystemEventQueue().push(instance);
+		instance.sampler.start();
+
+		Log.log(Level.INFO, "Event dispatch thread watchdog installed with a threshold of " +
+			threshold + " ms");
+		return instance;
+	}
+
+	/**
+	 * Tags the Bolota operation that's about to run on the dispatch thread.
+	 *
+	 * @param operation Operation that's about to run.
+	 *
+	 * @return Operation that was running before, to be passed on to {@link #exit(String)}.
+	 */
+	public static String enter(String operation) {
+		String previous = EventWatchdog.operation;
+		EventWatchdog.operation = operation;
+
+		return previous;
+	}
+
+	/**
+	 * Untags an operation that has finished running on the dispatch thread.
+	 *
+	 * @param previous Operation that was running before, as returned by {@link #enter(String)}.
+	 */
+	public static void exit(String previous) {
+		EventWatchdog.operation = previous;
+	}
+
+	/**
+	 * Gets the Bolota operation currently running on the dispatch thread.
+	 *
+	 * @return Current operation or {@code null} if no tagged operation is running.
+	 */
+	public static String getOperation() {
+		return operation;
+	}
+
+	@Override
+	protected void dispatchEvent(AWTEvent event) {
+		// Events may be dispatched from within other events by modal dialogs.
+		long previousStart = dispatchStart;
+		String previousEvent = dispatchEvent;
+		String previousOperation = operation;
+
+		dispatchThread = Thread.currentThread();
+		dispatchEvent = event.getClass().getName() + "[id=" + event.getID() + "]";
+		dispatchCount++;
+		dispatchStart = System.nanoTime();
+		operation = null;
+
+		try {
+			super.dispatchEvent(event);
+		} finally {
+			long elapsed = System.nanoTime() - dispatchStart;
+			if (elapsed > threshold) {
+				Log.log(Level.WARNING, "Event " + dispatchEvent + " finished after " +
+					(elapsed / 1000000) + " ms");
+			}
+
+			dispatchCount++;
+			dispatchStart = previousStart;
+			dispatchEvent = previousEvent;
+			operation = previousOperation;
+		}
+	}
+
+	/**
+	 * Periodically checks if the event being dispatched has gone over the threshold and logs
+	 * what the dispatch thread is doing.
+	 *
+	 * @param interval Time in milliseconds between samples.
+	 */
+	private void sample(long interval) {
+		long reportedCount = -1;
+		int samples = 0;
+		long lastSample = 0;
+
+		while (true) {
+			try {
+				Thread.sleep(interval);
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			// Check if the current event has been running for too long.
+			long count = dispatchCount;
+			long start = dispatchStart;
+			long now = System.nanoTime();
+			if ((start == 0) || ((now - start) < threshold))
+				continue;
+
+			// Keep the amount of samples of a single stall under control.
+			if (count != reportedCount) {
+				reportedCount = count;
+				samples = 0;
+			} else if ((samples >= MAX_SAMPLES) || ((now - lastSample) < threshold)) {
+				continue;
+			}
+			samples++;
+			lastSample = now;
+
+			// Log what the dispatch thread is doing.
+			Thread thread = dispatchThread;
+			StringBuilder sb = new StringBuilder();
+			sb.append("Event dispatch thread stalled for ").append((now - start) / 1000000)
+				.append(" ms while handling ").append(dispatchEvent)
+				.append(" (operation: ").append(operation).append(", sample ").append(samples)
+				.append(")");
+			for (StackTraceElement element : thread.getStackTrace())
+				sb.append("\n\tat ").append(element);
+
+			Log.log(Level.WARNING, sb.toString());
+		}
+	}
+}
@@ -4,63 +4,177 @@ import com.innoveworkshop.bolota.models.Field;
 import com.innoveworkshop.bolota.models.fields.BlankField;
 import com.innoveworkshop.bolota.models.fields.DateField;
 import com.innoveworkshop.bolota.models.fields.IconField;
+import com.innoveworkshop.bolota.ui.EventWatchdog;
 import com.innoveworkshop.bolota.utils.ResourceManager;
 
 import javax.swing.*;
 import javax.swing.tree.DefaultTreeCellRenderer;
 import java.awt.*;
 import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 /**
  * A customized {@link javax.swing.tree.TreeCellRenderer} for Bolota {@link Field}s.
+ *
+ * <p>The label, icon and size of each field are cached the first time it's rendered, so
+ * painting a field again costs next to nothing. The cache entry of a field must be dropped
+ * with {@link #invalidate(Field)} whenever it changes.</p>
  */
 public class BolotaFieldRenderer extends DefaultTreeCellRenderer {
+	private final Map<Field, Cell> cache;
+	private final SimpleDateFormat dateFormat;
+	private final Icon bulletIcon;
+	private final Icon calendarIcon;
+	private Cell current;
+
+	/**
+	 * Text shown in place of blank fields.
+	 */
+	private static final String BLANK_TEXT = "                                                  ";
+
+	/**
+	 * How a field is rendered.
+	 */
+	private static class Cell {
+		public final String text;
+		public final Icon icon;
+		public Dimension size;
+
+		/**
+		 * Initializes a cached cell.
+		 *
+		 * @param text Label of the field.
+		 * @param icon Icon of the field.
+		 */
+		public Cell(String text, Icon icon) {
+			this.text = text;
+			this.icon = icon;
+			this.size = null;
+		}
+	}
 
 	/**
 	 * Initializes the Bolota field tree cell renderer.
 	 */
 	public BolotaFieldRenderer() {
 		super();
+		cache = new WeakHashMap<Field, Cell>();
+		dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+		bulletIcon = ResourceManager.getInstance().getBulletIcon();
+		calendarIcon = ResourceManager.getInstance().getCalendarIcon();
+		current = null;
 
 		// Initialize new defaults.
-		setLeafIcon(ResourceManager.getInstance().getBulletIcon());
-		setOpenIcon(ResourceManager.getInstance().getBulletIcon());
-		setClosedIcon(ResourceManager.getInstance().getBulletIcon());
+		setLeafIcon(bulletIcon);
+		setOpenIcon(bulletIcon);
+		setClosedIcon(bulletIcon);
 	}
 
 	@Override
 	public Component getTreeCellRendererComponent(JTree tree, Object value, boolean sel,
 			boolean expanded, boolean leaf, int row, boolean hasFocus) {
-		super.getTreeCellRendererComponent(tree, value, sel, expanded, leaf, row, hasFocus);
-		Field field = (Field)value;
+		String operation = EventWatchdog.enter(EventWatchdog.OP_RENDER);
+		try {
+			// Let anything that isn't a field be rendered as usual.
+			if (!(value instanceof Field)) {
+				current = null;
+				return super.getTreeCellRendererComponent(tree, value, sel, expanded, leaf,
+					row, hasFocus);
+			}
 
-		// Sets the node's text to the field's text.
-		setText(field.getText());
+			// Get how the field looks, building it only if it has changed since last time.
+			Field field = (Field)value;
+			Cell cell = cache.get(field);
+			if (cell == null) {
+				cell = createCell(field);
+				cache.put(field, cell);
+			}
 
+			// Hand the label over instead of the field to avoid converting its text again.
+			super.getTreeCellRendererComponent(tree, cell.text, sel, expanded, leaf, row,
+				hasFocus);
+			setIcon(cell.icon);
+			current = cell;
+
+			return this;
+		} finally {
+			EventWatchdog.exit(operation);
+		}
+	}
+
+	/**
+	 * Builds the label and icon of a field.
+	 *
+	 * @param field Field to be rendered.
+	 *
+	 * @return How the field should be rendered.
+	 */
+	private Cell createCell(Field field) {
 		// Handle the rendering of special field types.
 		if (field instanceof DateField) {
-			handleDateField((DateField)field);
+			return handleDateField((DateField)field);
 		} else if (field instanceof IconField) {
-			setIcon(((IconField)field).getIcon());
+			Icon icon = ResourceManager.getInstance().getFieldIcon(((IconField)field).getIconId());
+			return new Cell(field.getText(), (icon != null) ? icon : bulletIcon);
 		} else if (field instanceof BlankField) {
-			setIcon(null);
-			setText("                                                  ");
+			return new Cell(BLANK_TEXT, null);
 		}
 
-		return this;
+		return new Cell(field.getText(), bulletIcon);
 	}
 
 	/**
 	 * Handles the rendering of a {@link DateField} node.
 	 *
 	 * @param field Date field to be rendered.
+	 *
+	 * @return Cell with the date and time alongside the field's text and a calendar icon.
 	 */
-	private void handleDateField(DateField field) {
-		// Set icon to calendar.
-		setIcon(ResourceManager.getInstance().getCalendarIcon());
+	private Cell handleDateField(DateField field) {
+		Calendar date = field.getDate();
+		String text = (date != null) ? "(" + dateFormat.format(date.getTime()) + ") " : "";
+
+		return new Cell(text + field.getText(), calendarIcon);
+	}
+
+	/**
+	 * Drops the cached rendering of a field after it has changed.
+	 *
+	 * @param field Field that has changed.
+	 */
+	public void invalidate(Field field) {
+		if (cache.remove(field) == current)
+			current = null;
+	}
+
+	/**
+	 * Drops the cached rendering of every field.
+	 */
+	public void invalidateAll() {
+		if (cache != null)
+			cache.clear();
+		current = null;
+	}
+
+	@Override
+	public Dimension getPreferredSize() {
+		if (current == null)
+			return super.getPreferredSize();
+
+		// Only measure each field once.
+		if (current.size == null)
+			current.size = super.getPreferredSize();
+
+		return new Dimension(current.size);
+	}
+
+	@Override
+	public void updateUI() {
+		super.updateUI();
 
-		// Display the date and time alongside the field's text.
-		SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm");
-		setText("(" + sdf.format(field.getDate().getTime()) + ") " + field.getText());
+		// Fonts and borders may have changed, so every size has to be measured again.
+		invalidateAll();
 	}
 }
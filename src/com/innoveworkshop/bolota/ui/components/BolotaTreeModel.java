@@ -0,0 +1,600 @@
+package com.innoveworkshop.bolota.ui.components;
+
+import com.innoveworkshop.bolota.models.Document;
+import com.innoveworkshop.bolota.models.Field;
+import com.innoveworkshop.bolota.models.FieldListener;
+import com.innoveworkshop.bolota.ui.EventWatchdog;
+
+import javax.swing.*;
+import javax.swing.event.EventListenerList;
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+import javax.swing.tree.TreeModel;
+import javax.swing.tree.TreePath;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link TreeModel} of a Bolota {@link Document} that follows the changes made to its fields.
+ *
+ * <p>Changes are collected as they're made and delivered to the listeners all at once in the
+ * event dispatch thread, grouped by the field they were made to, so that any number of
+ * changes made in one go only get the tree to lay itself out and repaint once. Changes to the
+ * children of a field are always reported as insertions and removals, never as a change of
+ * its whole structure, so fields that were expanded stay expanded.</p>
+ */
+public class BolotaTreeModel implements TreeModel {
+	private final Document doc;
+	private final EventListenerList listeners;
+	private final FieldListener fieldListener;
+	private final Runnable flusher;
+	private Map<Field, Batch> pending;
+	private boolean rootChanged;
+	private boolean flushScheduled;
+
+	/**
+	 * Changes made to the children of a field that haven't been delivered yet.
+	 */
+	private static class Batch {
+		public Field[] before;
+		public List<Field> changed;
+
+		/**
+		 * Initializes an empty batch of changes.
+		 */
+		public Batch() {
+			this.before = null;
+			this.changed = null;
+		}
+	}
+
+	/**
+	 * Initializes a tree model of a document.
+	 *
+	 * @param doc Document to be represented by the model.
+	 */
+	public BolotaTreeModel(Document doc) {
+		this.doc = doc;
+		this.listeners = new EventListenerList();
+		this.pending = new LinkedHashMap<Field, Batch>();
+		this.rootChanged = false;
+		this.flushScheduled = false;
+
+		this.flusher = new Runnable() {
+			public void run() {
+				flush();
+			}
+		};
+
+		// Collect the changes made to the document.
+		this.fieldListener = new FieldListener() {
+			public void fieldChanged(Field field, String property, Object oldValue) {
+				addChanged(field);
+			}
+
+			public void fieldInserted(Field parent, int index, Field child) {
+				addStructural(parent, index, child, true);
+			}
+
+			public void fieldRemoved(Field parent, int index, Field child) {
+				addStructural(parent, index, child, false);
+			}
+		};
+		doc.addFieldListener(fieldListener);
+	}
+
+	/**
+	 * Stops following the changes made to the document. Changes that haven't been delivered
+	 * yet are discarded.
+	 */
+	public void close() {
+		doc.removeFieldListener(fieldListener);
+		synchronized (this) {
+			pending.clear();
+			rootChanged = false;
+		}
+	}
+
+	/**
+	 * Gets the document represented by the model.
+	 *
+	 * @return Document of the model.
+	 */
+	public Document getDocument() {
+		return doc;
+	}
+
+	/**
+	 * Records that a field has changed.
+	 *
+	 * @param field Field that has changed.
+	 */
+	private synchronized void addChanged(Field field) {
+		Field parent = field.getParent();
+		if (parent == null) {
+			rootChanged = true;
+		} else {
+			Batch batch = getBatch(parent);
+			if (batch.changed == null)
+				batch.changed = new ArrayList<Field>();
+			batch.changed.add(field);
+		}
+
+		scheduleFlush();
+	}
+
+	/**
+	 * Records that a field has been inserted or removed.
+	 *
+	 * @param parent   Field the child was inserted into or removed from.
+	 * @param index    Index of the child in its parent.
+	 * @param child    Field that was inserted or removed.
+	 * @param inserted Was the child inserted?
+	 */
+	private synchronized void addStructural(Field parent, int index, Field child,
+			boolean inserted) {
+		Batch batch = getBatch(parent);
+
+		// Keep the children the listeners know about by undoing the first change made.
+		if (batch.before == null) {
+			List<Field> before = new ArrayList<Field>(parent.getChildCount() + 1);
+			for (int i = 0; i < parent.getChildCount(); i++)
+				before.add(parent.getChildAt(i));
+			if (inserted) {
+				before.remove(index);
+			} else {
+				before.add(index, child);
+			}
+
+			batch.before = before.toArray(new Field[before.size()]);
+		}
+
+		scheduleFlush();
+	}
+
+	/**
+	 * Gets the batch of changes to the children of a field, creating it if needed.
+	 *
+	 * @param parent Field whose children have changed.
+	 *
+	 * @return Batch of changes of the field.
+	 */
+	private Batch getBatch(Field parent) {
+		Batch batch = pending.get(parent);
+		if (batch == null) {
+			batch = new Batch();
+			pending.put(parent, batch);
+		}
+
+		return batch;
+	}
+
+	/**
+	 * Makes sure the pending changes get delivered in the event dispatch thread.
+	 */
+	private void scheduleFlush() {
+		if (flushScheduled)
+			return;
+
+		flushScheduled = true;
+		SwingUtilities.invokeLater(flusher);
+	}
+
+	/**
+	 * Delivers the changes that are pending to the listeners right away. Must be called from
+	 * the event dispatch thread.
+	 */
+	public void flush() {
+		Map<Field, Batch> batches;
+		boolean root;
+		synchronized (this) {
+			flushScheduled = false;
+			if (pending.isEmpty() && !rootChanged)
+				return;
+
+			batches = pending;
+			root = rootChanged;
+			pending = new LinkedHashMap<Field, Batch>();
+			rootChanged = false;
+		}
+
+		// Work out what has changed in each field still in the document.
+		List<Update> updates = new ArrayList<Update>(batches.size());
+		Map<Field, Boolean> inserted = new IdentityHashMap<Field, Boolean>();
+		for (Map.Entry<Field, Batch> entry : batches.entrySet()) {
+			if (!isAttached(entry.getKey()))
+				continue;
+
+			Update update = new Update(entry.getKey(), entry.getValue());
+			updates.add(update);
+			for (Field child : update.insertedChildren)
+				inserted.put(child, Boolean.TRUE);
+		}
+
+		// Deliver them, except for fields that the listeners are only now learning about.
+		for (Update update : updates) {
+			if (isInside(update.parent, inserted))
+				continue;
+
+			TreePath path = getPath(update.parent);
+			if (update.removedIndices.length > 0) {
+				fireTreeNodesRemoved(new TreeModelEvent(this, path, update.removedIndices,
+					update.removedChildren));
+			}
+			if (update.insertedIndices.length > 0) {
+				fireTreeNodesInserted(new TreeModelEvent(this, path, update.insertedIndices,
+					update.insertedChildren));
+			}
+			if (update.changedIndices.length > 0) {
+				fireTreeNodesChanged(new TreeModelEvent(this, path, update.changedIndices,
+					update.changedChildren));
+			}
+		}
+
+		if (root)
+			fireTreeNodesChanged(new TreeModelEvent(this, new TreePath(doc), null, null));
+	}
+
+	/**
+	 * Notifies the listeners that everything under a field has changed in ways that weren't
+	 * reported by the document, such as its children being unloaded. Must be called from the
+	 * event dispatch thread.
+	 *
+	 * @param field Field whose structure has changed.
+	 */
+	public void fieldStructureChanged(Field field) {
+		flush();
+		fireTreeStructureChanged(new TreeModelEvent(this, getPath(field)));
+	}
+
+	/**
+	 * Notifies the listeners that fields were attached to the end of another one without the
+	 * document reporting it, like when it's being loaded in the background. Must be called from
+	 * the event dispatch thread.
+	 *
+	 * @param parent Field the children were attached to.
+	 * @param index  Index of the first child that was attached.
+	 * @param count  Number of children that were attached.
+	 */
+	public void fieldsAttached(Field parent, int index, int count) {
+		flush();
+
+		int[] indices = new int[count];
+		Field[] children = new Field[count];
+		for (int i = 0; i < count; i++) {
+			indices[i] = index + i;
+			children[i] = parent.getChildAt(index + i);
+		}
+
+		fireTreeNodesInserted(new TreeModelEvent(this, getPath(parent), indices, children));
+	}
+
+	/**
+	 * Checks if a field is still a part of the document.
+	 *
+	 * @param field Field to be checked.
+	 *
+	 * @return {@code true} if the field is in the document.
+	 */
+	private boolean isAttached(Field field) {
+		while ((field != null) && (field != doc))
+			field = field.getParent();
+
+		return field == doc;
+	}
+
+	/**
+	 * Checks if a field or any of its ancestors is one of a set of fields.
+	 *
+	 * @param field  Field to be checked.
+	 * @param fields Fields to look for.
+	 *
+	 * @return {@code true} if the field or one of its ancestors is in the set.
+	 */
+	private static boolean isInside(Field field, Map<Field, Boolean> fields) {
+		if (fields.isEmpty())
+			return false;
+
+		while (field != null) {
+			if (fields.containsKey(field))
+				return true;
+			field = field.getParent();
+		}
+
+		return false;
+	}
+
+	/**
+	 * Builds the path from the document root to a field.
+	 *
+	 * @param field Field to build the path to.
+	 *
+	 * @return Path to the field.
+	 */
+	private static TreePath getPath(Field field) {
+		List<Object> nodes = new ArrayList<Object>();
+		while (field != null) {
+			nodes.add(field);
+			field = field.getParent();
+		}
+		Collections.reverse(nodes);
+
+		return new TreePath(nodes.toArray());
+	}
+
+	/**
+	 * Changes made to the children of a field, as they'll be reported to the listeners.
+	 */
+	private static class Update {
+		public final Field parent;
+		public int[] removedIndices;
+		public Field[] removedChildren;
+		public int[] insertedIndices;
+		public Field[] insertedChildren;
+		public int[] changedIndices;
+		public Field[] changedChildren;
+
+		/**
+		 * Works out the changes made to the children of a field.
+		 *
+		 * @param parent Field whose children have changed.
+		 * @param batch  Changes that were recorded for the field.
+		 */
+		public Update(Field parent, Batch batch) {
+			this.parent = parent;
+
+			// Index the children the field has now.
+			Field[] after = new Field[parent.getChildCount()];
+			Map<Field, Integer> afterIndices = new IdentityHashMap<Field, Integer>(after.length);
+			for (int i = 0; i < after.length; i++) {
+				after[i] = parent.getChildAt(i);
+				afterIndices.put(after[i], i);
+			}
+
+			boolean[] isNew = new boolean[after.length];
+			if (batch.before != null) {
+				diff(batch.before, after, afterIndices, isNew);
+			} else {
+				removedIndices = new int[0];
+				removedChildren = new Field[0];
+				insertedIndices = new int[0];
+				insertedChildren = new Field[0];
+			}
+
+			// Fields that are new don't have to be reported as changed.
+			boolean[] isChanged = new boolean[after.length];
+			int count = 0;
+			if (batch.changed != null) {
+				for (Field field : batch.changed) {
+					Integer index = afterIndices.get(field);
+					if ((index != null) && !isNew[index] && !isChanged[index]) {
+						isChanged[index] = true;
+						count++;
+					}
+				}
+			}
+
+			changedIndices = new int[count];
+			changedChildren = new Field[count];
+			count = 0;
+			for (int i = 0; i < after.length; i++) {
+				if (isChanged[i]) {
+					changedIndices[count] = i;
+					changedChildren[count++] = after[i];
+				}
+			}
+		}
+
+		/**
+		 * Works out the children that were removed and inserted. Children that are still
+		 * there but were moved around are reported as removed and inserted again.
+		 *
+		 * @param before       Children the listeners know about.
+		 * @param after        Children the field has now.
+		 * @param afterIndices Index of each of the current children.
+		 * @param isNew        Gets set for each current child that is reported as inserted.
+		 */
+		private void diff(Field[] before, Field[] after, Map<Field, Integer> afterIndices,
+				boolean[] isNew) {
+			// Find where each child that is still there used to be.
+			int[] oldIndices = new int[after.length];
+			int[] newIndices = new int[after.length];
+			int common = 0;
+			boolean ordered = true;
+			for (int i = 0; i < before.length; i++) {
+				Integer index = afterIndices.get(before[i]);
+				if (index != null) {
+					newIndices[common] = index;
+					oldIndices[common] = i;
+					if ((common > 0) && (newIndices[common - 1] > index))
+						ordered = false;
+					common++;
+				}
+			}
+
+			// Keep the largest set of children that are still in the same order.
+			boolean[] kept = new boolean[before.length];
+			if (ordered) {
+				for (int i = 0; i < common; i++)
+					kept[oldIndices[i]] = true;
+			} else {
+				for (int i : longestIncreasing(newIndices, common))
+					kept[oldIndices[i]] = true;
+			}
+
+			// Everything else was removed or inserted.
+			int removed = 0;
+			for (int i = 0; i < before.length; i++) {
+				if (!kept[i])
+					removed++;
+			}
+			removedIndices = new int[removed];
+			removedChildren = new Field[removed];
+			removed = 0;
+			Arrays.fill(isNew, true);
+			for (int i = 0; i < before.length; i++) {
+				if (kept[i]) {
+					isNew[afterIndices.get(before[i])] = false;
+				} else {
+					removedIndices[removed] = i;
+					removedChildren[removed++] = before[i];
+				}
+			}
+
+			int inserted = after.length - (before.length - removed);
+			insertedIndices = new int[inserted];
+			insertedChildren = new Field[inserted];
+			inserted = 0;
+			for (int i = 0; i < after.length; i++) {
+				if (isNew[i]) {
+					insertedIndices[inserted] = i;
+					insertedChildren[inserted++] = after[i];
+				}
+			}
+		}
+
+		/**
+		 * Finds the longest strictly increasing subsequence of a sequence.
+		 *
+		 * @param values Sequence of values.
+		 * @param length Number of values in the sequence.
+		 *
+		 * @return Positions in the sequence of the values in the subsequence.
+		 */
+		private static int[] longestIncreasing(int[] values, int length) {
+			int[] tails = new int[length];
+			int[] previous = new int[length];
+			int size = 0;
+
+			for (int i = 0; i < length; i++) {
+				// Find the shortest subsequence whose last value isn't lower than this one.
+				int low = 0;
+				int high = size;
+				while (low < high) {
+					int middle = (low + high) >>> 1;
+					if (values[tails[middle]] < values[i]) {
+						low = middle + 1;
+					} else {
+						high = middle;
+					}
+				}
+
+				previous[i] = (low > 0) ? tails[low - 1] : -1;
+				tails[low] = i;
+				if (low == size)
+					size++;
+			}
+
+			// Walk the longest subsequence back from its end.
+			int[] positions = new int[size];
+			int position = (size > 0) ? tails[size - 1] : -1;
+			for (int i = size - 1; i >= 0; i--) {
+				positions[i] = position;
+				position = previous[position];
+			}
+
+			return positions;
+		}
+	}
+
+	///
+	/// TreeModel implementation
+	///
+
+	public Object getRoot() {
+		return doc;
+	}
+
+	public Object getChild(Object parent, int index) {
+		return ((Field)parent).getChildAt(index);
+	}
+
+	public int getChildCount(Object parent) {
+		return ((Field)parent).getChildCount();
+	}
+
+	public boolean isLeaf(Object node) {
+		return ((Field)node).isLeaf();
+	}
+
+	public void valueForPathChanged(TreePath path, Object newValue) {
+		String operation = EventWatchdog.enter(EventWatchdog.OP_EDIT);
+		try {
+			((Field)path.getLastPathComponent()).setText(newValue.toString());
+		} finally {
+			EventWatchdog.exit(operation);
+		}
+	}
+
+	public int getIndexOfChild(Object parent, Object child) {
+		if ((parent == null) || (child == null))
+			return -1;
+
+		return ((Field)parent).getIndex((Field)child);
+	}
+
+	public void addTreeModelListener(TreeModelListener l) {
+		listeners.add(TreeModelListener.class, l);
+	}
+
+	public void removeTreeModelListener(TreeModelListener l) {
+		listeners.remove(TreeModelListener.class, l);
+	}
+
+	/**
+	 * Notifies the listeners that some fields have changed.
+	 *
+	 * @param e Event to be delivered.
+	 */
+	private void fireTreeNodesChanged(TreeModelEvent e) {
+		Object[] list = listeners.getListenerList();
+		for (int i = list.length - 2; i >= 0; i -= 2) {
+			if (list[i] == TreeModelListener.class)
+				((TreeModelListener)list[i + 1]).treeNodesChanged(e);
+		}
+	}
+
+	/**
+	 * Notifies the listeners that some fields have been inserted.
+	 *
+	 * @param e Event to be delivered.
+	 */
+	private void fireTreeNodesInserted(TreeModelEvent e) {
+		Object[] list = listeners.getListenerList();
+		for (int i = list.length - 2; i >= 0; i -= 2) {
+			if (list[i] == TreeModelListener.class)
+				((TreeModelListener)list[i + 1]).treeNodesInserted(e);
+		}
+	}
+
+	/**
+	 * Notifies the listeners that some fields have been removed.
+	 *
+	 * @param e Event to be delivered.
+	 */
+	private void fireTreeNodesRemoved(TreeModelEvent e) {
+		Object[] list = listeners.getListenerList();
+		for (int i = list.length - 2; i >= 0; i -= 2) {
+			if (list[i] == TreeModelListener.class)
+				((TreeModelListener)list[i + 1]).treeNodesRemoved(e);
+		}
+	}
+
+	/**
+	 * Notifies the listeners that the whole structure under a field has changed.
+	 *
+	 * @param e Event to be delivered.
+	 */
+	private void fireTreeStructureChanged(TreeModelEvent e) {
+		Object[] list = listeners.getListenerList();
+		for (int i = list.length - 2; i >= 0; i -= 2) {
+			if (list[i] == TreeModelListener.class)
+				((TreeModelListener)list[i + 1]).treeStructureChanged(e);
+		}
+	}
+}
@@ -1,16 +1,56 @@
 package com.innoveworkshop.bolota.ui.components;
 
 import com.innoveworkshop.bolota.models.Document;
+import com.innoveworkshop.bolota.models.DocumentLoader;
+import com.innoveworkshop.bolota.models.Field;
+import com.innoveworkshop.bolota.models.FieldListener;
+import com.innoveworkshop.bolota.models.UndoHistory;
+import com.innoveworkshop.bolota.search.SearchIndex;
+import com.innoveworkshop.bolota.ui.EventWatchdog;
 
 import javax.swing.*;
-import javax.swing.tree.DefaultTreeModel;
+import javax.swing.tree.TreeCellRenderer;
+import javax.swing.tree.TreePath;
 import javax.swing.tree.TreeSelectionModel;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
 
 /**
  * Bolota document outline viewer.
  */
 public class DocumentViewer extends JTree {
 	public Document doc;
+	private SearchIndex searchIndex;
+	private UndoHistory undoHistory;
+	private BolotaTreeModel model;
+	private final FieldListener cellUpdater;
+	private final Timer memoryTimer;
+	private SoftReference<Object> memoryCanary;
+	private int openDepth;
+	private boolean skipDescendants;
+	private boolean loading;
+
+	/**
+	 * Depth that expands every field in the document.
+	 */
+	public static final int ALL_DEPTHS = Integer.MAX_VALUE;
+
+	/**
+	 * Interval in milliseconds between checks for memory pressure.
+	 */
+	private static final int MEMORY_CHECK_INTERVAL = 5000;
+
+	/**
+	 * Size of the softly referenced object that gets reclaimed under memory pressure.
+	 */
+	private static final int MEMORY_CANARY_LEN = 1024 * 1024;
 
 	/**
 	 * Initializes a Bolota {@link Document} viewer {@link JTree}.
@@ -24,6 +64,35 @@ public class DocumentViewer extends JTree {
 		setRootVisible(false);
 		setShowsRootHandles(true);
 		setEditable(true);
+		openDepth = ALL_DEPTHS;
+		skipDescendants = false;
+		loading = false;
+
+		// Every row is just as tall, so the tree doesn't have to measure or keep track of rows
+		// that aren't visible.
+		updateRowHeight();
+		setLargeModel(true);
+
+		// Make sure changed fields don't get rendered as they were before.
+		cellUpdater = new FieldListener() {
+			public void fieldChanged(Field field, String property, Object oldValue) {
+				invalidateField(field);
+			}
+
+			public void fieldInserted(Field parent, int index, Field child) {
+				invalidateField(child);
+			}
+
+			public void fieldRemoved(Field parent, int index, Field child) {
+			}
+		};
+
+		// Periodically check if we should release collapsed subtrees of lazy documents.
+		memoryTimer = new Timer(MEMORY_CHECK_INTERVAL, new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				checkMemoryPressure();
+			}
+		});
 	}
 
 	/**
@@ -39,21 +108,543 @@ public class DocumentViewer extends JTree {
 	/**
 	 * Opens a document in the viewer.
 	 *
+	 * <p>Fields are expanded down to the {@link #getOpenDepth() open depth}, except in lazily
+	 * loaded documents, which are not expanded, so that only the fields that are actually shown
+	 * ever get parsed.</p>
+	 *
 	 * @param doc Bolota document to be associated with the viewer.
 	 */
 	public void openDocument(Document doc) {
+		Document previous = this.doc;
+		String operation = EventWatchdog.enter(EventWatchdog.OP_OPEN);
+		try {
+			showDocument(doc);
+			documentLoaded(true);
+		} finally {
+			EventWatchdog.exit(operation);
+		}
+
+		firePropertyChange("document", previous, doc);
+	}
+
+	/**
+	 * Starts showing a document that is still being loaded in the background. The viewer
+	 * can't be edited until {@link #finishLoading()} is called.
+	 *
+	 * @param doc Bolota document being loaded by a {@link DocumentLoader}.
+	 */
+	public void beginLoading(Document doc) {
+		Document previous = this.doc;
+		String operation = EventWatchdog.enter(EventWatchdog.OP_OPEN);
+		try {
+			showDocument(doc);
+			loading = true;
+			setEditable(false);
+
+			// Index the topics as they arrive, so the document is ready to be searched once
+			// it's done.
+			if (!doc.isLazyLoading())
+				searchIndex = new SearchIndex(doc);
+		} finally {
+			EventWatchdog.exit(operation);
+		}
+
+		firePropertyChange("document", previous, doc);
+	}
+
+	/**
+	 * Attaches a batch of topics that were loaded in the background to the document in the
+	 * viewer and shows them, expanded down to the {@link #getOpenDepth() open depth}.
+	 *
+	 * @param loader Loader of the document in the viewer.
+	 * @param topics Topics handed over by the loader.
+	 */
+	public void appendTopics(DocumentLoader loader, List<Field> topics) {
+		String operation = EventWatchdog.enter(EventWatchdog.OP_OPEN);
+		try {
+			int index = loader.attachTopics(topics);
+			model.fieldsAttached(doc, index, topics.size());
+			if (doc.isLazyLoading())
+				return;
+			searchIndex.fieldsAttached(doc, index, topics.size());
+
+			// Expand the new topics, along with the root if they're the first ones.
+			List<TreePath> expand = new ArrayList<TreePath>();
+			List<TreePath> collapse = new ArrayList<TreePath>();
+			TreePath root = new TreePath(doc);
+			if (!isExpanded(root))
+				expand.add(root);
+			for (Field topic : topics)
+				collectExpansion(root.pathByAddingChild(topic), 0, openDepth, expand, collapse);
+			setExpandedStates(expand, collapse, false);
+		} finally {
+			EventWatchdog.exit(operation);
+		}
+	}
+
+	/**
+	 * Finishes loading the document in the viewer once all of its topics have been attached.
+	 */
+	public void finishLoading() {
+		String operation = EventWatchdog.enter(EventWatchdog.OP_OPEN);
+		try {
+			loading = false;
+			setEditable(true);
+			documentLoaded(false);
+		} finally {
+			EventWatchdog.exit(operation);
+		}
+
+		firePropertyChange("loading", true, false);
+	}
+
+	/**
+	 * Checks if the document in the viewer is still being loaded.
+	 *
+	 * @return {@code true} if the document is being loaded in the background.
+	 */
+	public boolean isLoading() {
+		return loading;
+	}
+
+	/**
+	 * Puts a document in the tree, leaving the previous one behind.
+	 *
+	 * @param doc Bolota document to be shown.
+	 */
+	private void showDocument(Document doc) {
+		// Stop following the previous document.
+		if (this.doc != null)
+			this.doc.removeFieldListener(cellUpdater);
+		if (model != null)
+			model.close();
+		if (searchIndex != null) {
+			searchIndex.close();
+			searchIndex = null;
+		}
+		if (undoHistory != null) {
+			undoHistory.close();
+			undoHistory = null;
+		}
+		memoryTimer.stop();
+		loading = false;
+
 		// Load the new document into the tree.
 		this.doc = doc;
-		setModel(new DefaultTreeModel(doc, false));
-		expandAllNodes();
+		if (getCellRenderer() instanceof BolotaFieldRenderer)
+			((BolotaFieldRenderer)getCellRenderer()).invalidateAll();
+		doc.addFieldListener(cellUpdater);
+		model = new BolotaTreeModel(doc);
+		setModel(model);
+		setEditable(true);
+	}
+
+	/**
+	 * Sets up everything that follows the changes made to the document once it's been
+	 * completely loaded.
+	 *
+	 * @param expand Should the fields be expanded down to the open depth?
+	 */
+	private void documentLoaded(boolean expand) {
+		undoHistory = new UndoHistory(doc);
+
+		if (doc.isLazyLoading()) {
+			memoryCanary = new SoftReference<Object>(new byte[MEMORY_CANARY_LEN]);
+			memoryTimer.start();
+		} else {
+			if (searchIndex == null)
+				searchIndex = new SearchIndex(doc);
+			if (expand)
+				expandToDepth(openDepth);
+		}
+	}
+
+	/**
+	 * Gets the search index of the document in the viewer. Lazily loaded documents only get
+	 * indexed, and therefore fully loaded, the first time this is called.
+	 *
+	 * @return Search index of the document or {@code null} if it's still being loaded.
+	 */
+	public SearchIndex getSearchIndex() {
+		if (loading)
+			return null;
+
+		if (searchIndex == null) {
+			// Every field is now referenced by the index, so there's no point in unloading.
+			memoryTimer.stop();
+			searchIndex = new SearchIndex(doc);
+		}
+
+		return searchIndex;
+	}
+
+	/**
+	 * Gets the history of changes made to the document in the viewer.
+	 *
+	 * @return Undo history of the document.
+	 */
+	public UndoHistory getUndoHistory() {
+		return undoHistory;
+	}
+
+	/**
+	 * Undoes the last change made to the document, committing any edit in progress first.
+	 */
+	public void undo() {
+		stopEditing();
+		undoHistory.undo();
+	}
+
+	/**
+	 * Redoes the last change made to the document that was undone.
+	 */
+	public void redo() {
+		stopEditing();
+		undoHistory.redo();
+	}
+
+	/**
+	 * Moves the selected field above its previous sibling.
+	 */
+	public void moveSelectedFieldUp() {
+		Field field = getSelectedField();
+		if (field == null)
+			return;
+
+		int index = field.getParent().getIndex(field);
+		if (index > 0)
+			moveField(field, field.getParent(), index - 1);
+	}
+
+	/**
+	 * Moves the selected field below its next sibling.
+	 */
+	public void moveSelectedFieldDown() {
+		Field field = getSelectedField();
+		if (field == null)
+			return;
+
+		int index = field.getParent().getIndex(field);
+		if (index < (field.getParent().getChildCount() - 1))
+			moveField(field, field.getParent(), index + 1);
+	}
+
+	/**
+	 * Makes the selected field the last child of its previous sibling.
+	 */
+	public void indentSelectedField() {
+		Field field = getSelectedField();
+		if (field == null)
+			return;
+
+		int index = field.getParent().getIndex(field);
+		if (index > 0) {
+			Field sibling = field.getParent().getChildAt(index - 1);
+			moveField(field, sibling, sibling.getChildCount());
+		}
+	}
+
+	/**
+	 * Makes the selected field the next sibling of its parent.
+	 */
+	public void deindentSelectedField() {
+		Field field = getSelectedField();
+		if ((field == null) || (field.getParent() == doc))
+			return;
+
+		Field parent = field.getParent();
+		Field grandparent = parent.getParent();
+		moveField(field, grandparent, grandparent.getIndex(parent) + 1);
+	}
+
+	/**
+	 * Gets the selected field if it can be edited.
+	 *
+	 * @return Selected field or {@code null} if there's no field that can be edited selected.
+	 */
+	private Field getSelectedField() {
+		if ((undoHistory == null) || loading)
+			return null;
+
+		Object node = getLastSelectedPathComponent();
+		if (!(node instanceof Field) || (node == doc))
+			return null;
+
+		return (Field)node;
+	}
+
+	/**
+	 * Moves a field to another place in the document as a single change and keeps it
+	 * selected.
+	 *
+	 * @param field  Field to be moved.
+	 * @param parent Field that will become the parent of the moved field.
+	 * @param index  Index of the field among the children of its new parent.
+	 */
+	private void moveField(Field field, Field parent, int index) {
+		stopEditing();
+		undoHistory.move(field, parent, index);
+		showField(field);
+	}
+
+	/**
+	 * Gets the document in the viewer.
+	 *
+	 * @return Document in the viewer or {@code null} if no document has been opened.
+	 */
+	public Document getDocument() {
+		return doc;
+	}
+
+	/**
+	 * Gets the tree model of the document.
+	 *
+	 * @return Tree model of the document or {@code null} if no document has been opened.
+	 */
+	public BolotaTreeModel getTreeModel() {
+		return model;
+	}
+
+	/**
+	 * Brings the tree up to date with the changes made to the document that haven't been
+	 * delivered to it yet.
+	 */
+	private void flushChanges() {
+		if (model != null)
+			model.flush();
+	}
+
+	/**
+	 * Drops the cached rendering of a field that has changed.
+	 *
+	 * @param field Field that has changed.
+	 */
+	private void invalidateField(Field field) {
+		if (getCellRenderer() instanceof BolotaFieldRenderer)
+			((BolotaFieldRenderer)getCellRenderer()).invalidate(field);
+	}
+
+	/**
+	 * Fixes the height of the rows to the one of a field rendered with the current font.
+	 */
+	private void updateRowHeight() {
+		TreeCellRenderer renderer = getCellRenderer();
+		if (renderer == null)
+			return;
+
+		Component cell = renderer.getTreeCellRendererComponent(this, "Xg", false, false, true,
+			0, false);
+		setRowHeight(cell.getPreferredSize().height);
+	}
+
+	@Override
+	public void updateUI() {
+		super.updateUI();
+		updateRowHeight();
+	}
+
+	/**
+	 * Selects a field and scrolls the viewer to make it visible.
+	 *
+	 * @param field Field to be shown.
+	 */
+	public void showField(Field field) {
+		flushChanges();
+
+		// Build the path from the document root to the field.
+		Object[] nodes = new Object[field.getDepth() + 2];
+		Field node = field;
+		for (int i = nodes.length - 1; i >= 0; i--) {
+			nodes[i] = node;
+			node = node.getParent();
+		}
+
+		TreePath path = new TreePath(nodes);
+		setSelectionPath(path);
+		scrollPathToVisible(path);
 	}
 
 	/**
 	 * Expands all nodes in the viewer.
 	 */
 	public void expandAllNodes() {
-		for (int i = 0; i < getRowCount(); i++) {
-			expandRow(i);
+		expandToDepth(ALL_DEPTHS);
+	}
+
+	/**
+	 * Expands every field that is shallower than a depth and collapses the ones at that depth,
+	 * so that the deepest fields shown are the ones at the given depth. Fields that are hidden
+	 * inside collapsed ones are left as they are.
+	 *
+	 * @param depth Depth of the deepest fields to be shown, where 0 shows only the top level
+	 *              fields and {@link #ALL_DEPTHS} expands everything.
+	 */
+	public void expandToDepth(int depth) {
+		if (doc == null)
+			return;
+
+		List<TreePath> expand = new ArrayList<TreePath>();
+		List<TreePath> collapse = new ArrayList<TreePath>();
+
+		TreePath root = new TreePath(doc);
+		for (int i = 0; i < doc.getChildCount(); i++)
+			collectExpansion(root.pathByAddingChild(doc.getChildAt(i)), 0, depth, expand, collapse);
+
+		setExpandedStates(expand, collapse, true);
+	}
+
+	/**
+	 * Expands a set of paths all at once. Paths should be given with their parents before
+	 * them, since the ones whose parents are collapsed are expanded the slow way.
+	 *
+	 * @param paths Paths to be expanded.
+	 */
+	public void expandPaths(Collection<TreePath> paths) {
+		setExpandedStates(paths, Collections.<TreePath>emptyList(), false);
+	}
+
+	/**
+	 * Gets the depth the fields are expanded to when a document is opened.
+	 *
+	 * @return Depth of the deepest fields shown when opening a document.
+	 *
+	 * @see #expandToDepth(int)
+	 */
+	public int getOpenDepth() {
+		return openDepth;
+	}
+
+	/**
+	 * Sets the depth the fields are expanded to when a document is opened.
+	 *
+	 * @param depth Depth of the deepest fields to be shown when opening a document or
+	 *              {@link #ALL_DEPTHS} to expand everything.
+	 *
+	 * @see #expandToDepth(int)
+	 */
+	public void setOpenDepth(int depth) {
+		this.openDepth = depth;
+	}
+
+	/**
+	 * Finds the paths that have to be expanded or collapsed for the fields to be shown down to
+	 * a depth.
+	 *
+	 * @param path       Path to the field to start from.
+	 * @param fieldDepth Depth of the field.
+	 * @param depth      Depth of the deepest fields to be shown.
+	 * @param expand     List the paths to be expanded are added to.
+	 * @param collapse   List the paths to be collapsed are added to.
+	 */
+	private void collectExpansion(TreePath path, int fieldDepth, int depth,
+			List<TreePath> expand, List<TreePath> collapse) {
+		Field field = (Field)path.getLastPathComponent();
+		if (fieldDepth >= depth) {
+			// Parents may still be collapsed at this point, which would hide it from isExpanded.
+			if (hasBeenExpanded(path))
+				collapse.add(path);
+			return;
+		}
+
+		if (field.getChildCount() == 0)
+			return;
+		expand.add(path);
+		for (int i = 0; i < field.getChildCount(); i++) {
+			collectExpansion(path.pathByAddingChild(field.getChildAt(i)), fieldDepth + 1, depth,
+				expand, collapse);
 		}
 	}
+
+	/**
+	 * Expands and collapses a set of paths in a single operation.
+	 *
+	 * <p>Every time a path gets expanded the tree's UI asks for all of its expanded
+	 * descendants, which goes through every path that has ever been expanded, making the
+	 * expansion of a whole document quadratic. Since the paths are expanded parents first,
+	 * their descendants are already taken care of, and that lookup can be skipped for any
+	 * path whose descendants can't have been expanded before or, when the paths are known to
+	 * cover every expanded field, for all of them.</p>
+	 *
+	 * @param expand   Paths to be expanded, parents first.
+	 * @param collapse Paths to be collapsed.
+	 * @param complete Are these all the paths that should end up expanded in the tree?
+	 */
+	private void setExpandedStates(Collection<TreePath> expand, Collection<TreePath> collapse,
+			boolean complete) {
+		String operation = EventWatchdog.enter(EventWatchdog.OP_EXPAND);
+		try {
+			stopEditing();
+			flushChanges();
+
+			try {
+				for (TreePath path : expand) {
+					TreePath parent = path.getParentPath();
+					skipDescendants = complete || (!hasBeenExpanded(path) &&
+						((parent == null) || isExpanded(parent)));
+					super.setExpandedState(path, true);
+				}
+			} finally {
+				skipDescendants = false;
+			}
+
+			// Collapse paths once their parents are expanded, so they don't get expanded again.
+			for (TreePath path : collapse)
+				super.setExpandedState(path, false);
+		} finally {
+			EventWatchdog.exit(operation);
+		}
+	}
+
+	@Override
+	public Enumeration<TreePath> getExpandedDescendants(TreePath parent) {
+		if (skipDescendants)
+			return null;
+
+		return super.getExpandedDescendants(parent);
+	}
+
+	@Override
+	protected void setExpandedState(TreePath path, boolean state) {
+		String operation = EventWatchdog.enter(EventWatchdog.OP_EXPAND);
+		try {
+			super.setExpandedState(path, state);
+		} finally {
+			EventWatchdog.exit(operation);
+		}
+	}
+
+	/**
+	 * Releases the children of collapsed fields if the garbage collector has started to reclaim
+	 * softly referenced memory.
+	 */
+	private void checkMemoryPressure() {
+		if (memoryCanary.get() != null)
+			return;
+
+		unloadCollapsedNodes(new TreePath(doc));
+		memoryCanary = new SoftReference<Object>(new byte[MEMORY_CANARY_LEN]);
+	}
+
+	/**
+	 * Releases the children of every collapsed field under a path that can be parsed again from
+	 * the document later.
+	 *
+	 * @param path Path to the field to start from.
+	 */
+	private void unloadCollapsedNodes(TreePath path) {
+		Field field = (Field)path.getLastPathComponent();
+		if (!field.isChildrenLoaded())
+			return;
+
+		// Release the children of collapsed fields.
+		if ((field != doc) && !isExpanded(path)) {
+			if (field.unloadChildren())
+				model.fieldStructureChanged(field);
+			return;
+		}
+
+		// Go through the children of expanded ones.
+		for (int i = 0; i < field.getChildCount(); i++)
+			unloadCollapsedNodes(path.pathByAddingChild(field.getChildAt(i)));
+	}
 }
@@ -0,0 +1,103 @@
+package com.innoveworkshop.bolota.ui.resources;
+
+import com.innoveworkshop.bolota.utils.ResourceManager;
+
+import javax.swing.*;
+import java.awt.*;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A field icon from an icon type field topic. The image is only decoded the first time the
+ * icon is actually needed, so that icons that are never shown don't have to be read at all.
+ */
+public class FieldIcon extends ImageIcon {
+	private static final Logger Log = Logger.getLogger(FieldIcon.class.getName());
+
+	public final String description;
+	public final byte id;
+	private final String filename;
+	private boolean loaded;
+
+	/**
+	 * Directory in the resources folder where the field icons are located.
+	 */
+	public static final String ICON_DIR = "icons/fields";
+
+	/**
+	 * Constructs a field icon whose image will be read when it's first needed.
+	 *
+	 * @param id          ID number of the field icon.
+	 * @param description Description to be shown in the UI.
+	 * @param filename    Filename to read the image icon from.
+	 */
+	public FieldIcon(byte id, String description, String filename) {
+		// Populate the basics.
+		super();
+		this.description = description;
+		this.id = id;
+		this.filename = filename;
+		this.loaded = false;
+	}
+
+	/**
+	 * Constructs a field icon object from a line in the definitions file.
+	 *
+	 * @param line Field icon definitions file line.
+	 *
+	 * @return Field icon object.
+	 */
+	public static FieldIcon fromDefinitionLine(String line) {
+		String[] parts = line.split("\t");
+		return new FieldIcon(Byte.parseByte(parts[0]), parts[1], parts[2]);
+	}
+
+	/**
+	 * Reads the image into ourselves if it hasn't been read yet.
+	 */
+	private synchronized void load() {
+		if (loaded)
+			return;
+
+		loaded = true;
+		try {
+			setImage(ResourceManager.getInstance().readFieldIconImage(filename));
+		} catch (IOException e) {
+			Log.log(Level.WARNING, "Failed to read the icon " + filename + ": " + e);
+		}
+	}
+
+	/**
+	 * Gets the filename the image icon is read from.
+	 *
+	 * @return Filename of the image.
+	 */
+	public String getFilename() {
+		return filename;
+	}
+
+	@Override
+	public Image getImage() {
+		load();
+		return super.getImage();
+	}
+
+	@Override
+	public int getIconWidth() {
+		load();
+		return super.getIconWidth();
+	}
+
+	@Override
+	public int getIconHeight() {
+		load();
+		return super.getIconHeight();
+	}
+
+	@Override
+	public synchronized void paintIcon(Component c, Graphics g, int x, int y) {
+		load();
+		super.paintIcon(c, g, x, y);
+	}
+}
@@ -0,0 +1,157 @@
+package com.innoveworkshop.bolota.ui.windows;
+
+import com.innoveworkshop.bolota.models.Field;
+import com.innoveworkshop.bolota.search.SearchIndex;
+import com.innoveworkshop.bolota.ui.components.DocumentViewer;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.List;
+
+/**
+ * A dialog that searches the document in a viewer and jumps to the matching fields.
+ */
+public class FindDialog extends JDialog {
+	private final DocumentViewer viewer;
+	private JTextField queryField;
+	private JLabel statusLabel;
+
+	// Results of the last search.
+	private SearchIndex index;
+	private String query;
+	private int revision;
+	private List<Field> results;
+	private int current;
+
+	/**
+	 * Creates the find dialog.
+	 *
+	 * @param owner  Window that owns the dialog.
+	 * @param viewer Viewer of the document to be searched.
+	 */
+	public FindDialog(Frame owner, DocumentViewer viewer) {
+		super(owner, "Find", false);
+		this.viewer = viewer;
+		this.results = null;
+		setupComponents();
+	}
+
+	/**
+	 * Sets up the components and lays them out in our dialog.
+	 */
+	private void setupComponents() {
+		JPanel panel = new JPanel(new BorderLayout(5, 5));
+		panel.setBorder(BorderFactory.createEmptyBorder(8, 8, 8, 8));
+
+		// Query.
+		queryField = new JTextField(30);
+		queryField.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				findNext(true);
+			}
+		});
+		panel.add(new JLabel("Find:"), BorderLayout.WEST);
+		panel.add(queryField, BorderLayout.CENTER);
+
+		// Buttons.
+		JPanel buttons = new JPanel(new GridLayout(0, 1, 5, 5));
+		JButton button = new JButton("Find Next");
+		button.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				findNext(true);
+			}
+		});
+		buttons.add(button);
+		getRootPane().setDefaultButton(button);
+		button = new JButton("Find Previous");
+		button.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				findNext(false);
+			}
+		});
+		buttons.add(button);
+		button = new JButton("Close");
+		button.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				setVisible(false);
+			}
+		});
+		buttons.add(button);
+		panel.add(buttons, BorderLayout.EAST);
+
+		// Status.
+		statusLabel = new JLabel(" ");
+		panel.add(statusLabel, BorderLayout.SOUTH);
+
+		// Sets the properties for the dialog itself.
+		setContentPane(panel);
+		setDefaultCloseOperation(HIDE_ON_CLOSE);
+		pack();
+		setLocationRelativeTo(getOwner());
+	}
+
+	/**
+	 * Shows the dialog with the query selected, ready to be typed over.
+	 */
+	public void showDialog() {
+		setVisible(true);
+		queryField.selectAll();
+		queryField.requestFocusInWindow();
+	}
+
+	/**
+	 * Jumps to the next or previous match of the query.
+	 *
+	 * @param forward Should we go to the next match?
+	 */
+	private void findNext(boolean forward) {
+		String text = queryField.getText();
+		if (text.trim().length() == 0)
+			return;
+
+		// Search again if the query or the document have changed.
+		SearchIndex index = viewer.getSearchIndex();
+		if (index == null) {
+			statusLabel.setText("The document is still loading");
+			return;
+		}
+		if ((results == null) || (index != this.index) || !text.equals(query) ||
+				(index.getRevision() != revision)) {
+			search(index, text);
+			if (results.isEmpty()) {
+				statusLabel.setText("No matches found");
+				return;
+			}
+		}
+
+		// Go to the match.
+		if (forward) {
+			current = (current + 1) % results.size();
+		} else {
+			current = (current <= 0) ? (results.size() - 1) : (current - 1);
+		}
+		viewer.showField(results.get(current));
+		statusLabel.setText("Match " + (current + 1) + " of " + results.size());
+	}
+
+	/**
+	 * Searches the document and keeps the position of the current match if possible.
+	 *
+	 * @param index Search index of the document.
+	 * @param text  Query to search for.
+	 */
+	private void search(SearchIndex index, String text) {
+		Field previous = ((results != null) && (current >= 0) &&
+			(current < results.size())) ? results.get(current) : null;
+
+		this.index = index;
+		this.query = text;
+		this.revision = index.getRevision();
+		this.results = index.find(text);
+
+		// Continue from where we were if the previous match is still there.
+		current = (previous != null) ? results.indexOf(previous) : -1;
+	}
+}
@@ -1,26 +1,61 @@
 package com.innoveworkshop.bolota.ui.windows;
 
 import com.innoveworkshop.bolota.models.Document;
+import com.innoveworkshop.bolota.models.DocumentJournal;
+import com.innoveworkshop.bolota.models.DocumentLoader;
 import com.innoveworkshop.bolota.models.Field;
 import com.innoveworkshop.bolota.models.fields.DateField;
+import com.innoveworkshop.bolota.models.UndoHistory;
 import com.innoveworkshop.bolota.models.fields.TextField;
 import com.innoveworkshop.bolota.ui.components.DocumentViewer;
+import com.innoveworkshop.bolota.utils.ResourceManager;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.KeyEvent;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.File;
+import java.io.IOException;
 import java.util.Date;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Our application's main window.
  */
 public class MainWindow extends JFrame {
+	private static final Logger Log = Logger.getLogger(MainWindow.class.getName());
+
 	private DocumentViewer viewer = null;
+	private JPanel loadingPanel = null;
+	private JProgressBar progressBar = null;
+	private DocumentLoader loader = null;
+	private Document previousDocument = null;
+	private File documentFile = null;
+	private DocumentJournal journal = null;
+	private JCheckBoxMenuItem journalItem = null;
+	private FindDialog findDialog = null;
+	private JMenuItem undoItem = null;
+	private JMenuItem redoItem = null;
+	private final UndoHistory.Listener historyListener;
 
 	/**
 	 * Creates the main window of our application.
 	 */
 	public MainWindow() {
 		super();
+
+		// Keep the undo and redo items in sync with the history.
+		historyListener = new UndoHistory.Listener() {
+			public void historyChanged(UndoHistory history) {
+				updateHistoryItems();
+			}
+		};
+
 		setupComponents();
 	}
 
@@ -35,8 +70,33 @@ public class MainWindow extends JFrame {
 		// Main document viewer.
 		viewer = new DocumentViewer();
 		viewer.setPreferredSize(new Dimension(600, 800));
+		PropertyChangeListener historyHook = new PropertyChangeListener() {
+			public void propertyChange(PropertyChangeEvent e) {
+				// Documents being loaded only get a history once they're done.
+				if (viewer.getUndoHistory() != null)
+					viewer.getUndoHistory().addListener(historyListener);
+				updateHistoryItems();
+			}
+		};
+		viewer.addPropertyChangeListener("document", historyHook);
+		viewer.addPropertyChangeListener("loading", historyHook);
 		add(viewer, BorderLayout.CENTER);
 
+		// Progress of the document being loaded.
+		loadingPanel = new JPanel(new BorderLayout(5, 0));
+		loadingPanel.setBorder(BorderFactory.createEmptyBorder(3, 5, 3, 5));
+		progressBar = new JProgressBar(0, 1000);
+		loadingPanel.add(progressBar, BorderLayout.CENTER);
+		JButton cancelButton = new JButton("Cancel");
+		cancelButton.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				cancelLoading();
+			}
+		});
+		loadingPanel.add(cancelButton, BorderLayout.EAST);
+		loadingPanel.setVisible(false);
+		add(loadingPanel, BorderLayout.SOUTH);
+
 		// Sets the properties for the frame itself.
 		setSize(600, 800);
 		setJMenuBar(setupMenuBar());
@@ -53,21 +113,106 @@ public class MainWindow extends JFrame {
 		JMenuItem item = null;
 
 		// File menu.
+		int shortcut = getMenuShortcutMask();
 		menu = new JMenu("File");
 		item = new JMenuItem("New...");
 		menu.add(item);
 		item = new JMenuItem("Open...");
+		item.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				showOpenDialog();
+			}
+		});
 		menu.add(item);
 		menu.addSeparator();
 		item = new JMenuItem("Save...");
+		item.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_S, shortcut));
+		item.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				saveDocument();
+			}
+		});
 		menu.add(item);
 		item = new JMenuItem("Save As...");
 		menu.add(item);
 		menu.addSeparator();
+		journalItem = new JCheckBoxMenuItem("Journal Edits",
+			Boolean.getBoolean("bolota.journal.enabled"));
+		journalItem.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				if (journalItem.isSelected()) {
+					startJournal();
+				} else {
+					closeJournal();
+				}
+			}
+		});
+		menu.add(journalItem);
+		menu.addSeparator();
 		item = new JMenuItem("Properties...");
 		menu.add(item);
 		mb.add(menu);
 
+		// Edit menu.
+		menu = new JMenu("Edit");
+		undoItem = new JMenuItem("Undo", ResourceManager.getInstance().getUndoIcon());
+		undoItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Z, shortcut));
+		undoItem.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				viewer.undo();
+			}
+		});
+		menu.add(undoItem);
+		redoItem = new JMenuItem("Redo", ResourceManager.getInstance().getRedoIcon());
+		redoItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Y, shortcut));
+		redoItem.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				viewer.redo();
+			}
+		});
+		menu.add(redoItem);
+		menu.addSeparator();
+		item = new JMenuItem("Find...", ResourceManager.getInstance().getFindIcon());
+		item.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F, shortcut));
+		item.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				showFindDialog();
+			}
+		});
+		menu.add(item);
+		mb.add(menu);
+		updateHistoryItems();
+
+		// View menu.
+		menu = new JMenu("View");
+		item = new JMenuItem("Expand All");
+		item.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				viewer.expandAllNodes();
+			}
+		});
+		menu.add(item);
+		item = new JMenuItem("Collapse All");
+		item.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				viewer.expandToDepth(0);
+			}
+		});
+		menu.add(item);
+		JMenu depthMenu = new JMenu("Expand to Depth");
+		for (int i = 1; i <= 5; i++) {
+			final int depth = i;
+			item = new JMenuItem(String.valueOf(depth));
+			item.addActionListener(new ActionListener() {
+				public void actionPerformed(ActionEvent e) {
+					viewer.expandToDepth(depth);
+				}
+			});
+			depthMenu.add(item);
+		}
+		menu.add(depthMenu);
+		mb.add(menu);
+
 		// Field menu.
 		menu = new JMenu("Field");
 		item = new JMenuItem("Edit...");
@@ -83,13 +228,33 @@ public class MainWindow extends JFrame {
 		menu.add(item);
 		menu.addSeparator();
 		item = new JMenuItem("Move Up");
+		item.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				viewer.moveSelectedFieldUp();
+			}
+		});
 		menu.add(item);
 		item = new JMenuItem("Move Down");
+		item.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				viewer.moveSelectedFieldDown();
+			}
+		});
 		menu.add(item);
 		menu.addSeparator();
 		item = new JMenuItem("Indent");
+		item.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				viewer.indentSelectedField();
+			}
+		});
 		menu.add(item);
 		item = new JMenuItem("De-indent");
+		item.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				viewer.deindentSelectedField();
+			}
+		});
 		menu.add(item);
 		mb.add(menu);
 
@@ -104,6 +269,234 @@ public class MainWindow extends JFrame {
 		return mb;
 	}
 
+	/**
+	 * Gets the modifier used for menu shortcuts on this platform.
+	 *
+	 * @return Modifier mask of the menu shortcut key.
+	 */
+	@SuppressWarnings("deprecation")
+	private static int getMenuShortcutMask() {
+		// The extended mask replacing this only appeared in Java 10, we still target 1.5.
+		return Toolkit.getDefaultToolkit().getMenuShortcutKeyMask();
+	}
+
+	/**
+	 * Shows the dialog to pick a document to be opened.
+	 */
+	public void showOpenDialog() {
+		JFileChooser chooser = new JFileChooser();
+		if (chooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION)
+			openFile(chooser.getSelectedFile());
+	}
+
+	/**
+	 * Opens a document file in the background, showing its topics as they get loaded. The
+	 * document that was open is kept around in case loading fails or gets cancelled.
+	 *
+	 * @param file Bolota document file to be opened.
+	 */
+	public void openFile(File file) {
+		if (loader != null) {
+			loader.cancel();
+		} else {
+			previousDocument = viewer.getDocument();
+		}
+
+		// Only parse the top-level topics of large documents up front.
+		loader = new DocumentLoader(file);
+		loader.getDocument().setLazyLoading(file.length() >= Document.LAZY_THRESHOLD);
+		progressBar.setValue(0);
+		loadingPanel.setVisible(true);
+		validate();
+
+		loader.start(new DocumentLoader.Listener() {
+			public void loadStarted(final DocumentLoader loader) {
+				post(loader, new Runnable() {
+					public void run() {
+						viewer.beginLoading(loader.getDocument());
+					}
+				});
+			}
+
+			public void topicsLoaded(final DocumentLoader loader, final List<Field> topics,
+					final long position, final long length) {
+				post(loader, new Runnable() {
+					public void run() {
+						viewer.appendTopics(loader, topics);
+						progressBar.setValue((int)((position * 1000) / Math.max(length, 1)));
+					}
+				});
+			}
+
+			public void loadFinished(final DocumentLoader loader) {
+				post(loader, new Runnable() {
+					public void run() {
+						finishLoading();
+					}
+				});
+			}
+
+			public void loadCancelled(final DocumentLoader loader) {
+				post(loader, new Runnable() {
+					public void run() {
+						stopLoading();
+					}
+				});
+			}
+
+			public void loadFailed(final DocumentLoader loader, final IOException e) {
+				post(loader, new Runnable() {
+					public void run() {
+						stopLoading();
+						JOptionPane.showMessageDialog(MainWindow.this,
+								"Failed to open " + loader.getFile() + ": " + e.getMessage(),
+								"Open Failed", JOptionPane.ERROR_MESSAGE);
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Cancels loading the document that is being opened, going back to the previous one.
+	 */
+	public void cancelLoading() {
+		if (loader == null)
+			return;
+
+		loader.cancel();
+		stopLoading();
+	}
+
+	/**
+	 * Runs a notification from a document loader in the event dispatch thread, unless the
+	 * loader has been cancelled or replaced in the meantime.
+	 *
+	 * @param loader   Loader that sent the notification.
+	 * @param runnable Handler of the notification.
+	 */
+	private void post(final DocumentLoader loader, final Runnable runnable) {
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				if ((loader == MainWindow.this.loader) && !loader.isCancelled())
+					runnable.run();
+			}
+		});
+	}
+
+	/**
+	 * Finishes opening the document that was loaded, and starts journaling the edits made to
+	 * it if that's been turned on.
+	 */
+	private void finishLoading() {
+		Document doc = loader.getDocument();
+		File file = loader.getFile();
+
+		// Documents too small to get a batch of topics are only shown now.
+		if (viewer.getDocument() != doc)
+			viewer.beginLoading(doc);
+
+		try {
+			loader.finish();
+		} catch (IOException e) {
+			Log.log(Level.WARNING, "Failed to replay the journal of the document: " + e);
+		}
+		viewer.finishLoading();
+		loader = null;
+		previousDocument = null;
+		loadingPanel.setVisible(false);
+		validate();
+
+		// Persist edits as they happen.
+		closeJournal();
+		documentFile = file;
+		if (journalItem.isSelected())
+			startJournal();
+	}
+
+	/**
+	 * Gives up on the document that was being loaded and goes back to the previous one.
+	 */
+	private void stopLoading() {
+		loader = null;
+		loadingPanel.setVisible(false);
+		validate();
+
+		if (viewer.isLoading() || (viewer.getDocument() == null)) {
+			viewer.openDocument((previousDocument != null) ? previousDocument : new Document());
+		}
+		previousDocument = null;
+	}
+
+	/**
+	 * Saves the open document over the file it was opened from. The document file is never
+	 * written to other than through here.
+	 */
+	public void saveDocument() {
+		if ((documentFile == null) || (loader != null))
+			return;
+
+		try {
+			if (journal != null) {
+				journal.save();
+			} else {
+				viewer.getDocument().save(documentFile);
+			}
+		} catch (IOException e) {
+			JOptionPane.showMessageDialog(this, "Failed to save " + documentFile + ": " +
+				e.getMessage(), "Save Failed", JOptionPane.ERROR_MESSAGE);
+		}
+	}
+
+	/**
+	 * Starts journaling the edits made to the open document, so that they're persisted as they
+	 * happen, in between saves.
+	 */
+	private void startJournal() {
+		if ((documentFile == null) || (journal != null) || (loader != null))
+			return;
+
+		try {
+			journal = new DocumentJournal(viewer.getDocument(), documentFile);
+		} catch (IOException e) {
+			Log.log(Level.WARNING, "Failed to start journaling the document: " + e);
+		}
+	}
+
+	/**
+	 * Stops journaling the edits made to the open document. Whatever was journaled is kept and
+	 * replayed the next time the document is opened.
+	 */
+	private void closeJournal() {
+		if (journal == null)
+			return;
+
+		try {
+			journal.close();
+		} catch (IOException e) {
+			Log.log(Level.WARNING, "Failed to close the journal of the document: " + e);
+		}
+		journal = null;
+	}
+
+	/**
+	 * Enables the undo and redo menu items according to the history of the document.
+	 */
+	private void updateHistoryItems() {
+		UndoHistory history = viewer.getUndoHistory();
+		undoItem.setEnabled((history != null) && history.canUndo());
+		redoItem.setEnabled((history != null) && history.canRedo());
+	}
+
+	/**
+	 * Shows the dialog to search the document.
+	 */
+	public void showFindDialog() {
+		if (findDialog == null)
+			findDialog = new FindDialog(this, viewer);
+		findDialog.showDialog();
+	}
+
 	/**
 	 * Gets the document viewer in the main window.
 	 *
@@ -0,0 +1,176 @@
+package com.innoveworkshop.bolota.utils;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A single image that packs every icon of a resource directory, so that all of them can be
+ * read at once instead of one file at a time.
+ *
+ * <p>The atlas is made up of an image and an index, which is a tab-separated file with the
+ * filename and the bounds of each icon. Both are generated at build time by {@link #main} and
+ * are optional, so icons are simply read from their own files if there's no atlas.</p>
+ */
+public class IconAtlas {
+	private final BufferedImage image;
+	private final Map<String, Rectangle> bounds;
+
+	/**
+	 * Filename of the atlas image.
+	 */
+	public static final String IMAGE_FILE = "atlas.png";
+
+	/**
+	 * Filename of the atlas index.
+	 */
+	public static final String INDEX_FILE = "atlas.tsv";
+
+	/**
+	 * Maximum number of icons in each row of the atlas.
+	 */
+	private static final int COLUMNS = 8;
+
+	/**
+	 * Creates an atlas from an image and its index.
+	 *
+	 * @param image  Image with all the icons.
+	 * @param bounds Bounds of each icon in the image by filename.
+	 */
+	private IconAtlas(BufferedImage image, Map<String, Rectangle> bounds) {
+		this.image = image;
+		this.bounds = bounds;
+	}
+
+	/**
+	 * Reads the atlas of a resource directory.
+	 *
+	 * @param dir Resource directory of the icons.
+	 *
+	 * @return Atlas of the directory or {@code null} if one wasn't packed.
+	 *
+	 * @throws IOException if an error occurred while reading the atlas.
+	 */
+	public static IconAtlas read(String dir) throws IOException {
+		InputStream in = IconAtlas.class.getClassLoader().getResourceAsStream(
+				dir + "/" + INDEX_FILE);
+		if (in == null)
+			return null;
+
+		// Read the bounds of each icon.
+		Map<String, Rectangle> bounds = new HashMap<String, Rectangle>();
+		BufferedReader br = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+		try {
+			String line = br.readLine();
+			while ((line = br.readLine()) != null) {
+				String[] parts = line.split("\t");
+				bounds.put(parts[0], new Rectangle(Integer.parseInt(parts[1]),
+						Integer.parseInt(parts[2]), Integer.parseInt(parts[3]),
+						Integer.parseInt(parts[4])));
+			}
+		} finally {
+			br.close();
+		}
+
+		return new IconAtlas(ImageIO.read(ResourceManager.getResourceURL(dir + "/" +
+				IMAGE_FILE)), bounds);
+	}
+
+	/**
+	 * Gets the image of an icon in the atlas.
+	 *
+	 * @param filename Filename the icon was packed from.
+	 *
+	 * @return Image of the icon or {@code null} if it isn't in the atlas.
+	 */
+	public BufferedImage getImage(String filename) {
+		Rectangle rect = bounds.get(filename);
+		if (rect == null)
+			return null;
+
+		return image.getSubimage(rect.x, rect.y, rect.width, rect.height);
+	}
+
+	/**
+	 * Packs every PNG icon in a directory into an atlas.
+	 *
+	 * @param dir    Directory with the icons.
+	 * @param outDir Directory the atlas image and index will be written to.
+	 *
+	 * @throws IOException if an error occurred while reading the icons or writing the atlas.
+	 */
+	public static void pack(File dir, File outDir) throws IOException {
+		File[] files = dir.listFiles(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.endsWith(".png") && !name.equals(IMAGE_FILE);
+			}
+		});
+		if ((files == null) || (files.length == 0))
+			throw new FileNotFoundException("No icons to pack in " + dir);
+		Arrays.sort(files);
+
+		// Lay the icons out in a grid of cells as large as the largest one.
+		BufferedImage[] icons = new BufferedImage[files.length];
+		int cellWidth = 0;
+		int cellHeight = 0;
+		for (int i = 0; i < files.length; i++) {
+			icons[i] = ImageIO.read(files[i]);
+			if (icons[i] == null)
+				throw new IOException("Unable to decode " + files[i]);
+			cellWidth = Math.max(cellWidth, icons[i].getWidth());
+			cellHeight = Math.max(cellHeight, icons[i].getHeight());
+		}
+		int columns = Math.min(files.length, COLUMNS);
+		int rows = (files.length + columns - 1) / columns;
+
+		// Draw the icons and write down where they went.
+		BufferedImage atlas = new BufferedImage(columns * cellWidth, rows * cellHeight,
+				BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = atlas.createGraphics();
+		StringBuilder index = new StringBuilder("Filename\tX\tY\tWidth\tHeight\n");
+		for (int i = 0; i < icons.length; i++) {
+			int x = (i % columns) * cellWidth;
+			int y = (i / columns) * cellHeight;
+			g.drawImage(icons[i], x, y, null);
+			index.append(files[i].getName()).append('\t').append(x).append('\t').append(y)
+					.append('\t').append(icons[i].getWidth()).append('\t')
+					.append(icons[i].getHeight()).append('\n');
+		}
+		g.dispose();
+
+		// Write the atlas out.
+		if (!outDir.isDirectory() && !outDir.mkdirs())
+			throw new IOException("Unable to create " + outDir);
+		ImageIO.write(atlas, "png", new File(outDir, IMAGE_FILE));
+		Writer writer = new OutputStreamWriter(new FileOutputStream(new File(outDir,
+				INDEX_FILE)), "UTF-8");
+		try {
+			writer.write(index.toString());
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Packs the icons of a directory into an atlas.
+	 *
+	 * <p>Usage: {@code IconAtlas directory [output-directory]}</p>
+	 *
+	 * @param args Command line arguments.
+	 *
+	 * @throws IOException if an error occurred while packing the icons.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: IconAtlas directory [output-directory]");
+			System.exit(1);
+		}
+
+		File dir = new File(args[0]);
+		pack(dir, (args.length > 1) ? new File(args[1]) : dir);
+	}
+}
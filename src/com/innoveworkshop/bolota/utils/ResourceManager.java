@@ -1,22 +1,34 @@
 package com.innoveworkshop.bolota.utils;
 
-import com.innoveworkshop.bolota.models.resources.FieldIcon;
+import com.innoveworkshop.bolota.ui.resources.FieldIcon;
 
+import javax.imageio.ImageIO;
+import java.awt.*;
 import java.io.*;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Manages the resources included with the application and their loading in an efficient fashion.
  */
 public final class ResourceManager {
+	private static final Logger Log = Logger.getLogger(ResourceManager.class.getName());
 	private static ResourceManager INSTANCE;
-	public final List<FieldIcon> fieldIcons;
+	private final FieldIcon[] fieldIcons;
+	private final List<FieldIcon> fieldIconList;
+	private IconAtlas atlas;
+	private boolean atlasRead;
 
 	// Field icon shortcuts.
 	private FieldIcon bulletIcon;
 	private FieldIcon calendarIcon;
+	private FieldIcon findIcon;
+	private FieldIcon undoIcon;
+	private FieldIcon redoIcon;
 
 	/**
 	 * Constructor for the resource manager singleton object.
@@ -24,24 +36,42 @@ public final class ResourceManager {
 	 * @throws IOException When we are unable to read a resource from archive.
 	 */
     private ResourceManager() throws IOException {
-		// Get field icons and shortcuts.
+		// Get field icons and shortcuts. Their images are only read when they're first used.
 	    bulletIcon = new FieldIcon((byte)0, "Bullet", "_Bullet1.png");
-		fieldIcons = getFieldIcons();
+		fieldIcons = new FieldIcon[256];
+		for (FieldIcon icon : readFieldIcons())
+			fieldIcons[icon.id & 0xFF] = icon;
+		atlas = null;
+		atlasRead = false;
+
+		// Keep a list of the icons in ID order around.
+		List<FieldIcon> list = new ArrayList<FieldIcon>();
 		for (FieldIcon icon : fieldIcons) {
+			if (icon == null)
+				continue;
+
+			list.add(icon);
 			if (icon.description.equals("Calendar")) {
 				calendarIcon = icon;
+			} else if (icon.description.equals("Find")) {
+				findIcon = icon;
+			} else if (icon.description.equals("Undo")) {
+				undoIcon = icon;
+			} else if (icon.description.equals("Redo")) {
+				redoIcon = icon;
 			}
 		}
+		fieldIconList = Collections.unmodifiableList(list);
     }
 
 	/**
-	 * Gets a list of all our field icons.
+	 * Reads the definitions of all our field icons.
 	 *
-	 * @return List of all our field icons preloaded into memory.
+	 * @return List of all our field icons in the order they were defined.
 	 *
 	 * @throws IOException if the icon definition file isn't found or a read error occurs.
 	 */
-	private ArrayList<FieldIcon> getFieldIcons() throws IOException {
+	private ArrayList<FieldIcon> readFieldIcons() throws IOException {
 		String line;
 
 		// Load our field icon definitions file.
@@ -62,16 +92,46 @@ public final class ResourceManager {
 			lines.add(line);
 		}
 
+		br.close();
+
 		// Create our field icons list.
 		ArrayList<FieldIcon> list = new ArrayList<FieldIcon>(lines.size());
-		for (String defLine : lines) {
-			FieldIcon icon = FieldIcon.fromDefinitionLine(defLine);
-			list.add(icon.id - 1, icon);
-		}
+		for (String defLine : lines)
+			list.add(FieldIcon.fromDefinitionLine(defLine));
 
 		return list;
 	}
 
+	/**
+	 * Reads the image of a field icon, from the icon atlas if one was packed at build time or
+	 * from its own file otherwise.
+	 *
+	 * @param filename Filename of the field icon image.
+	 *
+	 * @return Image of the field icon.
+	 *
+	 * @throws IOException if an error occurred while reading the image.
+	 */
+	public synchronized Image readFieldIconImage(String filename) throws IOException {
+		// Read every icon in one go the first time one is needed.
+		if (!atlasRead) {
+			atlasRead = true;
+			try {
+				atlas = IconAtlas.read(FieldIcon.ICON_DIR);
+			} catch (IOException e) {
+				Log.log(Level.WARNING, "Failed to read the field icon atlas: " + e);
+			}
+		}
+
+		if (atlas != null) {
+			Image image = atlas.getImage(filename);
+			if (image != null)
+				return image;
+		}
+
+		return ImageIO.read(getResourceURL(FieldIcon.ICON_DIR + "/" + filename));
+	}
+
 	/**
 	 * Gets the global resource manager instance.
 	 *
@@ -127,6 +187,26 @@ public final class ResourceManager {
 		return url;
 	}
 
+	/**
+	 * Gets a field icon by its ID.
+	 *
+	 * @param id ID number of the field icon.
+	 *
+	 * @return Field icon or {@code null} if there's no icon with that ID.
+	 */
+	public FieldIcon getFieldIcon(byte id) {
+		return fieldIcons[id & 0xFF];
+	}
+
+	/**
+	 * Gets all of our field icons.
+	 *
+	 * @return Unmodifiable list of the field icons in the order of their IDs.
+	 */
+	public List<FieldIcon> getFieldIcons() {
+		return fieldIconList;
+	}
+
 	/**
 	 * Gets the regular field bullet icon.
 	 *
@@ -144,4 +224,31 @@ public final class ResourceManager {
 	public FieldIcon getCalendarIcon() {
 		return calendarIcon;
 	}
+
+	/**
+	 * Gets the find field icon.
+	 *
+	 * @return Find field icon.
+	 */
+	public FieldIcon getFindIcon() {
+		return findIcon;
+	}
+
+	/**
+	 * Gets the undo field icon.
+	 *
+	 * @return Undo field icon.
+	 */
+	public FieldIcon getUndoIcon() {
+		return undoIcon;
+	}
+
+	/**
+	 * Gets the redo field icon.
+	 *
+	 * @return Redo field icon.
+	 */
+	public FieldIcon getRedoIcon() {
+		return redoIcon;
+	}
 }
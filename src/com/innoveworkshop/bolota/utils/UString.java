@@ -1,14 +1,23 @@
 package com.innoveworkshop.bolota.utils;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 
 /**
  * A universal string type that allows for easy conversion to and from UTF-8.
+ *
+ * <p>Strings read from a document can be backed directly by the buffer they were read from, in
+ * which case they are only decoded the first time their text is requested.</p>
  */
 public class UString implements Comparable<UString> {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
 	private String str;
 	private byte[] strUTF8;
+	private ByteBuffer source;
+	private int sourceOffset;
+	private int sourceLength;
 	protected boolean synced;
 
 	/**
@@ -36,7 +45,7 @@ public class UString implements Comparable<UString> {
 	 * @return Number of characters in the string.
 	 */
 	public int getLength() {
-		return str.length();
+		return toString().length();
 	}
 
 	/**
@@ -45,7 +54,42 @@ public class UString implements Comparable<UString> {
 	 * @return Number of bytes in the UTF-8 string.
 	 */
 	public int getUTF8Length() {
-		return getBytes().length;
+		if (!synced)
+			return getUTF8Length(str);
+		if (strUTF8 == null)
+			return sourceLength;
+
+		return strUTF8.length;
+	}
+
+	/**
+	 * Measures a string in UTF-8 without actually encoding it.
+	 *
+	 * @param str String to be measured.
+	 *
+	 * @return Number of bytes in the UTF-8 encoded string.
+	 */
+	private static int getUTF8Length(String str) {
+		int length = 0;
+		for (int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+			if (c < 0x80) {
+				length += 1;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c) && ((i + 1) < str.length()) &&
+					Character.isLowSurrogate(str.charAt(i + 1))) {
+				length += 4;
+				i++;
+			} else if ((c >= Character.MIN_SURROGATE) && (c <= Character.MAX_SURROGATE)) {
+				// Unpaired surrogates are replaced by a question mark.
+				length += 1;
+			} else {
+				length += 3;
+			}
+		}
+
+		return length;
 	}
 
 	/**
@@ -54,11 +98,22 @@ public class UString implements Comparable<UString> {
 	 * @return UTF-8 encoded string in bytes.
 	 */
 	public byte[] getBytes() {
-		if (synced)
+		if (synced) {
+			if (strUTF8 != null)
+				return strUTF8;
+
+			// Copy the bytes out of the buffer that backs us.
+			strUTF8 = new byte[sourceLength];
+			ByteBuffer buffer = source.duplicate();
+			buffer.position(sourceOffset);
+			buffer.get(strUTF8);
+
 			return strUTF8;
+		}
 
 		try {
 			strUTF8 = str.getBytes("UTF-8");
+			synced = true;
 		} catch (UnsupportedEncodingException e) {
 			throw new RuntimeException(e);
 		}
@@ -66,6 +121,23 @@ public class UString implements Comparable<UString> {
 		return strUTF8;
 	}
 
+	/**
+	 * Puts the UTF-8 encoded string into a buffer. Strings that are still backed by the buffer
+	 * they were read from are copied straight from it without allocating anything.
+	 *
+	 * @param bytes Buffer to put the encoded string into.
+	 */
+	public void putBytes(ByteBuffer bytes) {
+		if (!synced || (strUTF8 != null)) {
+			bytes.put(getBytes());
+		} else if (source.hasArray()) {
+			bytes.put(source.array(), source.arrayOffset() + sourceOffset, sourceLength);
+		} else {
+			for (int i = sourceOffset; i < (sourceOffset + sourceLength); i++)
+				bytes.put(source.get(i));
+		}
+	}
+
 	/**
 	 * Sets the string's text.
 	 *
@@ -73,30 +145,89 @@ public class UString implements Comparable<UString> {
 	 */
 	public void set(String str) {
 		this.str = str;
+		this.strUTF8 = null;
+		this.source = null;
 		this.synced = false;
 	}
 
 	/**
-	 * Sets the string's text from an array of UTF-8 bytes.
+	 * Sets the string's text from an array of UTF-8 bytes. The text is only decoded when it's
+	 * first requested.
 	 *
 	 * @param bytes Array of characters in UTF-8 encoding.
 	 */
 	public void set(byte[] bytes) {
+		this.str = null;
 		this.strUTF8 = bytes;
+		this.source = null;
 		this.synced = true;
+	}
+
+	/**
+	 * Sets the string's text to a UTF-8 encoded region of a buffer without copying it. The
+	 * buffer is referenced rather than copied, so its contents must not change afterwards, and
+	 * the text is only decoded when it's first requested.
+	 *
+	 * @param buffer Buffer that contains the UTF-8 encoded text.
+	 * @param offset Absolute position of the text in the buffer.
+	 * @param length Length of the text in bytes.
+	 */
+	public void set(ByteBuffer buffer, int offset, int length) {
+		this.str = null;
+		this.strUTF8 = null;
+		this.source = buffer;
+		this.sourceOffset = offset;
+		this.sourceLength = length;
+		this.synced = true;
+	}
+
+	/**
+	 * Sets the string's text to the same as another string's, sharing its encoded form.
+	 *
+	 * @param ustr String to copy the text from.
+	 */
+	public void set(UString ustr) {
+		this.str = ustr.str;
+		this.strUTF8 = ustr.strUTF8;
+		this.source = ustr.source;
+		this.sourceOffset = ustr.sourceOffset;
+		this.sourceLength = ustr.sourceLength;
+		this.synced = ustr.synced;
+	}
+
+	/**
+	 * Decodes the string from its UTF-8 representation.
+	 *
+	 * @return Decoded string.
+	 */
+	private String decode() {
 		try {
-			this.str = new String(bytes, "UTF-8");
+			if (strUTF8 != null)
+				return new String(strUTF8, "UTF-8");
+			if (source.hasArray()) {
+				return new String(source.array(), source.arrayOffset() + sourceOffset,
+					sourceLength, "UTF-8");
+			}
 		} catch (UnsupportedEncodingException e) {
 			throw new RuntimeException(e);
 		}
+
+		// Direct or read-only buffers have no accessible array to decode from.
+		ByteBuffer buffer = source.duplicate();
+		buffer.limit(sourceOffset + sourceLength);
+		buffer.position(sourceOffset);
+		return UTF8.decode(buffer).toString();
 	}
 
 	public int compareTo(UString ustr) {
-		return str.compareTo(ustr.toString());
+		return toString().compareTo(ustr.toString());
 	}
 
 	@Override
 	public String toString() {
+		if (str == null)
+			str = decode();
+
 		return this.str;
 	}
 }
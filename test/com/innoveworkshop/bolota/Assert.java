@@ -0,0 +1,45 @@
+package com.innoveworkshop.bolota;
+
+/**
+ * Checks shared by the tests, each of which fails by throwing an {@link AssertionError}.
+ */
+public final class Assert {
+	/**
+	 * Not meant to be instantiated.
+	 */
+	private Assert() {
+	}
+
+	/**
+	 * Fails if two values aren't equal.
+	 *
+	 * @param message  What is being checked.
+	 * @param expected Expected value.
+	 * @param actual   Actual value.
+	 */
+	public static void assertEquals(String message, Object expected, Object actual) {
+		if ((expected == null) ? (actual != null) : !expected.equals(actual))
+			throw new AssertionError(message + ": expected " + expected + " but was " + actual);
+	}
+
+	/**
+	 * Fails if a condition doesn't hold.
+	 *
+	 * @param message   What is being checked.
+	 * @param condition Condition that must hold.
+	 */
+	public static void assertTrue(String message, boolean condition) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+
+	/**
+	 * Fails if a condition holds.
+	 *
+	 * @param message   What is being checked.
+	 * @param condition Condition that mustn't hold.
+	 */
+	public static void assertFalse(String message, boolean condition) {
+		assertTrue(message, !condition);
+	}
+}
@@ -0,0 +1,110 @@
+package com.innoveworkshop.bolota;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Finds every test class in a directory of compiled tests and runs its checks.
+ *
+ * <p>A test class is any class whose name ends in {@code Test}. Each of its public static
+ * methods without parameters whose name starts with {@code test} is a check, which fails by
+ * throwing. This keeps the tests free of any dependencies.</p>
+ */
+public class TestRunner {
+	private int passed;
+	private final List<String> failures;
+
+	/**
+	 * Initializes an empty test runner.
+	 */
+	public TestRunner() {
+		passed = 0;
+		failures = new ArrayList<String>();
+	}
+
+	/**
+	 * Finds the names of the test classes in a directory of compiled classes.
+	 *
+	 * @param dir     Directory to look into.
+	 * @param pkg     Package that corresponds to the directory, with a trailing dot, or an
+	 *                empty string for the root.
+	 * @param classes List to add the fully qualified class names to.
+	 */
+	private static void findTestClasses(File dir, String pkg, List<String> classes) {
+		File[] files = dir.listFiles();
+		if (files == null)
+			return;
+
+		for (File file : files) {
+			String name = file.getName();
+			if (file.isDirectory()) {
+				findTestClasses(file, pkg + name + ".", classes);
+			} else if (name.endsWith("Test.class")) {
+				classes.add(pkg + name.substring(0, name.length() - ".class".length()));
+			}
+		}
+	}
+
+	/**
+	 * Runs every check of a test class.
+	 *
+	 * @param cls Test class to be run.
+	 */
+	private void run(Class<?> cls) {
+		List<Method> tests = new ArrayList<Method>();
+		for (Method method : cls.getMethods()) {
+			int modifiers = method.getModifiers();
+			if (method.getName().startsWith("test") && Modifier.isStatic(modifiers) &&
+					(method.getParameterTypes().length == 0)) {
+				tests.add(method);
+			}
+		}
+
+		for (Method method : tests) {
+			String name = cls.getSimpleName() + "." + method.getName();
+			try {
+				method.invoke(null);
+				passed++;
+			} catch (InvocationTargetException e) {
+				failures.add(name);
+				System.err.println("FAILED " + name);
+				e.getCause().printStackTrace();
+			} catch (IllegalAccessException e) {
+				failures.add(name);
+				System.err.println("FAILED " + name + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Runs every test class in a directory of compiled tests.
+	 *
+	 * @param args Directory of compiled tests.
+	 *
+	 * @throws ClassNotFoundException if a test class couldn't be loaded.
+	 */
+	public static void main(String[] args) throws ClassNotFoundException {
+		if (args.length != 1) {
+			System.err.println("Usage: TestRunner <test classes directory>");
+			System.exit(2);
+		}
+
+		List<String> classes = new ArrayList<String>();
+		findTestClasses(new File(args[0]), "", classes);
+		Collections.sort(classes);
+
+		TestRunner runner = new TestRunner();
+		for (String name : classes)
+			runner.run(Class.forName(name));
+
+		System.out.println(runner.passed + " checks passed, " + runner.failures.size() +
+			" failed in " + classes.size() + " test classes");
+		if (!runner.failures.isEmpty())
+			System.exit(1);
+	}
+}
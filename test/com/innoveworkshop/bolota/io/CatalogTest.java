@@ -0,0 +1,95 @@
+package com.innoveworkshop.bolota.io;
+
+import com.innoveworkshop.bolota.models.Document;
+import com.innoveworkshop.bolota.models.fields.DateField;
+import com.innoveworkshop.bolota.models.fields.TextField;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+
+import static com.innoveworkshop.bolota.Assert.assertEquals;
+
+/**
+ * Checks that the catalog reads the properties of documents just like they were saved.
+ */
+public class CatalogTest {
+	/**
+	 * Saves a small document to a temporary file that is deleted when the tests finish.
+	 *
+	 * @param title      Title of the document.
+	 * @param date       Date of the document or {@code null} for none.
+	 * @param compressed Should the document be compressed?
+	 *
+	 * @return Document file.
+	 *
+	 * @throws IOException if the document couldn't be saved.
+	 */
+	private static File save(String title, Calendar date, boolean compressed) throws IOException {
+		File file = File.createTempFile("bolota", ".bol");
+		file.deleteOnExit();
+
+		Document doc = new Document();
+		doc.setTitle(title);
+		doc.setDate(date);
+		doc.setCompressed(compressed);
+		doc.appendChild(new TextField("Topic"));
+		doc.getChildAt(0).appendChild(new TextField("Child"));
+		doc.save(file);
+
+		return file;
+	}
+
+	/**
+	 * Creates a date in UTC without any milliseconds.
+	 *
+	 * @param year  Year of the date.
+	 * @param month Month of the date, starting at 0.
+	 * @param day   Day of the month.
+	 *
+	 * @return Date at noon of that day.
+	 */
+	private static Calendar createDate(int year, int month, int day) {
+		Calendar date = DateField.getCalendarUTC();
+		date.clear();
+		date.set(year, month, day, 12, 0, 30);
+		return date;
+	}
+
+	/**
+	 * The date of an entry is exactly the one that was saved, down to the millisecond.
+	 */
+	public static void testDateReadExactly() throws IOException {
+		Calendar date = createDate(2021, Calendar.JULY, 4);
+		for (int i = 0; i < 2; i++) {
+			Catalog.Entry entry = new Catalog(true).read(save("Dated", date, i == 1));
+			assertEquals("title", "Dated", entry.title);
+			assertEquals("date", date.getTimeInMillis(), entry.date.getTimeInMillis());
+			assertEquals("field count", 2, entry.fieldCount);
+		}
+	}
+
+	/**
+	 * Documents without a date have entries without one, which sort after the dated ones.
+	 */
+	public static void testMissingDate() throws IOException {
+		Catalog catalog = new Catalog(false);
+		Catalog.Entry undated = catalog.read(save("Undated", null, false));
+		assertEquals("date", null, undated.date);
+
+		List<Catalog.Entry> entries = new ArrayList<Catalog.Entry>();
+		entries.add(undated);
+		entries.add(catalog.read(save("Later", createDate(2022, Calendar.MAY, 1), false)));
+		entries.add(catalog.read(save("Undated", null, true)));
+		entries.add(catalog.read(save("Earlier", createDate(1999, Calendar.MAY, 1), true)));
+		Collections.sort(entries, Catalog.BY_DATE);
+
+		StringBuilder titles = new StringBuilder();
+		for (Catalog.Entry entry : entries)
+			titles.append(entry.title).append(' ');
+		assertEquals("sorted by date", "Earlier Later Undated Undated ", titles.toString());
+	}
+}
@@ -0,0 +1,272 @@
+package com.innoveworkshop.bolota.models;
+
+import com.innoveworkshop.bolota.models.fields.DateField;
+import com.innoveworkshop.bolota.models.fields.TextField;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Calendar;
+
+import static com.innoveworkshop.bolota.Assert.assertEquals;
+import static com.innoveworkshop.bolota.Assert.assertTrue;
+
+/**
+ * Checks that documents come back the same after being saved with each feature of the format.
+ */
+public class DocumentFormatTest {
+	/**
+	 * Creates a document large enough to span several compressed blocks, with texts that
+	 * repeat throughout it.
+	 *
+	 * @return Document to be saved.
+	 */
+	static Document createLargeDocument() {
+		Document doc = new Document();
+		doc.setTitle("Large");
+		doc.setSubtitle("Document");
+		for (int i = 0; i < 3000; i++) {
+			Field topic = new TextField("Topic " + i);
+			doc.appendChild(topic);
+			topic.appendChild(new TextField("Note"));
+			for (int j = 0; j < (i % 4); j++)
+				topic.getChildAt(0).appendChild(new TextField("Item " + i + "." + j));
+		}
+
+		return doc;
+	}
+
+	/**
+	 * Opens a document that has just been saved.
+	 *
+	 * @param file   Document file.
+	 * @param lazy   Should the document be loaded lazily?
+	 * @param mapped Should the file be memory-mapped?
+	 *
+	 * @return Document read from the file.
+	 *
+	 * @throws IOException if the document couldn't be read.
+	 */
+	static Document reopen(File file, boolean lazy, boolean mapped) throws IOException {
+		Document doc = new Document();
+		doc.setLazyLoading(lazy);
+		doc.open(file, mapped);
+		return doc;
+	}
+
+	/**
+	 * Checks that a saved document reads back the same no matter how it's opened.
+	 *
+	 * @param file     Document file.
+	 * @param expected Outline that should be read back.
+	 *
+	 * @throws IOException if the document couldn't be read.
+	 */
+	static void checkReopened(File file, String expected) throws IOException {
+		for (int i = 0; i < 4; i++) {
+			boolean lazy = (i & 1) != 0;
+			boolean mapped = (i & 2) != 0;
+			Document saved = reopen(file, lazy, mapped);
+			String how = ((lazy) ? "lazy" : "eager") + ((mapped) ? " mapped" : " stream");
+			assertEquals("outline read " + how, expected, Outline.of(saved));
+			assertEquals("title read " + how, "Large", saved.getTitle());
+			assertEquals("subtitle read " + how, "Document", saved.getSubtitle());
+		}
+	}
+
+	/**
+	 * Fails unless a document can't be opened.
+	 *
+	 * @param file   Document file.
+	 * @param reason What is wrong with the file.
+	 */
+	private static void checkRejected(File file, String reason) {
+		for (int i = 0; i < 4; i++) {
+			try {
+				reopen(file, (i & 1) != 0, (i & 2) != 0);
+			} catch (IOException e) {
+				continue;
+			}
+
+			throw new AssertionError("Opened a document with " + reason);
+		}
+	}
+
+	/**
+	 * Compressed documents are smaller and read back the same.
+	 */
+	public static void testCompressedRoundTrip() throws IOException {
+		File file = DocumentSaveTest.createTempFile();
+		Document doc = createLargeDocument();
+		doc.setCompressed(true);
+		doc.save(file);
+
+		assertTrue("compressed file smaller", file.length() < doc.getFileLength());
+		checkReopened(file, Outline.of(doc));
+		assertTrue("compressed after reading", reopen(file, false, false).isCompressed());
+	}
+
+	/**
+	 * Compressed documents can be edited and saved again, both as they were read and after
+	 * being saved once more.
+	 */
+	public static void testCompressedResave() throws IOException {
+		File file = DocumentSaveTest.createTempFile();
+		Document doc = createLargeDocument();
+		doc.setCompressed(true);
+		doc.save(file);
+
+		// Edit the topics that came from different blocks of the file.
+		Document lazy = reopen(file, true, false);
+		lazy.getChildAt(0).setText("Edited first");
+		lazy.getChildAt(2999).getChildAt(0).appendChild(new TextField("New"));
+		lazy.save(file);
+		lazy.getChildAt(1500).getChildAt(0).setText("Edited note");
+		lazy.save(file);
+
+		String expected = Outline.of(lazy);
+		assertTrue("edits in the outline", expected.startsWith("[Edited first [Note]"));
+		checkReopened(file, expected);
+
+		// Turning compression off writes the same topics uncompressed.
+		Document eager = reopen(file, false, false);
+		eager.setCompressed(false);
+		eager.save(file);
+		assertEquals("uncompressed length", eager.getFileLength(), file.length());
+		checkReopened(file, expected);
+	}
+
+	/**
+	 * Compressed documents that were cut short or had their data damaged aren't opened.
+	 */
+	public static void testCorruptedCompressedDocument() throws IOException {
+		File file = DocumentSaveTest.createTempFile();
+		Document doc = createLargeDocument();
+		doc.setCompressed(true);
+		doc.save(file);
+		long length = file.length();
+
+		// Damage the middle of the compressed topics.
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.seek(length / 2);
+			for (int i = 0; i < 64; i++)
+				raf.write(0);
+		} finally {
+			raf.close();
+		}
+		checkRejected(file, "damaged compressed data");
+
+		// Cut the file short.
+		doc.save(file);
+		raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(length - 16);
+		} finally {
+			raf.close();
+		}
+		checkRejected(file, "a truncated compressed section");
+	}
+
+	/**
+	 * Documents with a string table are smaller and read back the same, compressed or not.
+	 */
+	public static void testStringTableRoundTrip() throws IOException {
+		File file = DocumentSaveTest.createTempFile();
+		Document doc = createLargeDocument();
+		doc.setStringTableEnabled(true);
+		doc.save(file);
+
+		assertTrue("file with a string table smaller", file.length() < doc.getFileLength());
+		checkReopened(file, Outline.of(doc));
+		assertTrue("string table after reading",
+			reopen(file, false, false).isStringTableEnabled());
+
+		doc.setCompressed(true);
+		doc.save(file);
+		checkReopened(file, Outline.of(doc));
+		Document saved = reopen(file, true, true);
+		assertTrue("compressed string table after reading",
+			saved.isCompressed() && saved.isStringTableEnabled());
+	}
+
+	/**
+	 * Documents with a string table can be edited and saved again, including texts that are
+	 * in the table.
+	 */
+	public static void testStringTableResave() throws IOException {
+		File file = DocumentSaveTest.createTempFile();
+		Document doc = createLargeDocument();
+		doc.setStringTableEnabled(true);
+		doc.save(file);
+
+		// Edit texts in and out of the table, and add another one that repeats.
+		Document saved = reopen(file, false, false);
+		saved.getChildAt(0).getChildAt(0).setText("Edited note");
+		saved.getChildAt(1).setText("Note");
+		saved.appendChild(new TextField("Note"));
+		saved.save(file);
+		saved.getChildAt(2).getChildAt(0).setText("Edited note");
+		saved.save(file);
+
+		String expected = Outline.of(saved);
+		assertTrue("edits in the outline",
+			expected.startsWith("[Topic 0 [Edited note], Note [Note [Item 1.0]], " +
+				"Topic 2 [Edited note [Item 2.0"));
+		checkReopened(file, expected);
+
+		// Turning the table off writes every text in place again.
+		saved = reopen(file, false, true);
+		saved.setStringTableEnabled(false);
+		saved.save(file);
+		assertEquals("length without a string table", saved.getFileLength(), file.length());
+		checkReopened(file, expected);
+	}
+
+	/**
+	 * Dates of topics and of the document itself read back exactly as they were saved,
+	 * including topics without a date.
+	 */
+	public static void testDateRoundTrip() throws IOException {
+		File file = DocumentSaveTest.createTempFile();
+		Document doc = Outline.createDocument();
+		Calendar created = DateField.getCalendarUTC();
+		created.clear();
+		created.set(2020, Calendar.MARCH, 15, 8, 30, 5);
+		doc.setDate(created);
+
+		Calendar due = DateField.getCalendarUTC();
+		due.clear();
+		due.set(9999, Calendar.DECEMBER, 31, 23, 59, 59);
+		doc.getChildAt(0).appendChild(new DateField(null, due, "Due"));
+		doc.getChildAt(1).appendChild(new DateField(null, (Calendar)null, "Someday"));
+		doc.save(file);
+
+		for (int i = 0; i < 4; i++) {
+			Document saved = reopen(file, (i & 1) != 0, (i & 2) != 0);
+			assertEquals("document date", created.getTimeInMillis(),
+				saved.getDate().getTimeInMillis());
+
+			DateField field = (DateField)saved.getChildAt(0).getChildAt(1);
+			assertEquals("text", "Due", field.getText());
+			assertEquals("timestamp", DateField.pack(due), field.getTimestamp());
+			assertEquals("date", due.getTimeInMillis(), field.getDate().getTimeInMillis());
+
+			field = (DateField)saved.getChildAt(1).getChildAt(0);
+			assertEquals("no timestamp", DateField.NO_DATE, field.getTimestamp());
+			assertEquals("no date", null, field.getDate());
+		}
+
+		// Changing a date and saving again only changes that date.
+		Document saved = reopen(file, true, false);
+		DateField field = (DateField)saved.getChildAt(1).getChildAt(0);
+		field.setTimestamp(DateField.pack(created));
+		saved.save(file);
+
+		saved = reopen(file, false, false);
+		field = (DateField)saved.getChildAt(1).getChildAt(0);
+		assertEquals("changed date", created.getTimeInMillis(), field.getDate().getTimeInMillis());
+		field = (DateField)saved.getChildAt(0).getChildAt(1);
+		assertEquals("untouched date", DateField.pack(due), field.getTimestamp());
+	}
+}
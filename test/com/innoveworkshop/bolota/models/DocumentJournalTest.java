@@ -0,0 +1,160 @@
+package com.innoveworkshop.bolota.models;
+
+import com.innoveworkshop.bolota.models.fields.TextField;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static com.innoveworkshop.bolota.Assert.assertEquals;
+import static com.innoveworkshop.bolota.Assert.assertFalse;
+import static com.innoveworkshop.bolota.Assert.assertTrue;
+
+/**
+ * Checks that the edits kept in a {@link DocumentJournal} are replayed on top of the document
+ * file they belong to.
+ */
+public class DocumentJournalTest {
+	/**
+	 * Saves a brand new document to a temporary file.
+	 *
+	 * @return Document file with no journal.
+	 *
+	 * @throws IOException if the document couldn't be saved.
+	 */
+	private static File createDocumentFile() throws IOException {
+		File file = DocumentSaveTest.createTempFile();
+		DocumentJournal.getJournalFile(file).deleteOnExit();
+		Outline.createDocument().save(file);
+
+		return file;
+	}
+
+	/**
+	 * Opens a document file as it is, leaving out the edits in its journal.
+	 *
+	 * @param file Document file.
+	 *
+	 * @return Document read from a copy of the file.
+	 *
+	 * @throws IOException if the document couldn't be read.
+	 */
+	private static Document readWithoutJournal(File file) throws IOException {
+		File copy = DocumentSaveTest.createTempFile();
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileOutputStream out = new FileOutputStream(copy);
+			try {
+				byte[] buffer = new byte[4096];
+				int length;
+				while ((length = in.read(buffer)) >= 0)
+					out.write(buffer, 0, length);
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+
+		return new Document(copy);
+	}
+
+	/**
+	 * Journaled edits are applied when the document is opened again.
+	 */
+	public static void testEditsAreReplayed() throws IOException {
+		File file = createDocumentFile();
+		Document doc = DocumentSaveTest.reopen(file, false);
+		DocumentJournal journal = new DocumentJournal(doc, file);
+		try {
+			doc.setTitle("Journaled");
+			doc.getChildAt(0).getChildAt(0).setText("Edited child");
+			doc.getChildAt(1).appendChild(new TextField("New"));
+			doc.remove(2);
+		} finally {
+			journal.close();
+		}
+
+		Document replayed = DocumentSaveTest.reopen(file, false);
+		assertEquals("replayed outline", "[First [Edited child], Second [New]]",
+			Outline.of(replayed));
+		assertEquals("replayed title", "Journaled", replayed.getTitle());
+	}
+
+	/**
+	 * Saving through the journal puts the edits in the file and starts the journal over.
+	 */
+	public static void testSaveStartsTheJournalOver() throws IOException {
+		File file = createDocumentFile();
+		long length = file.length();
+		Document doc = DocumentSaveTest.reopen(file, false);
+		DocumentJournal journal = new DocumentJournal(doc, file);
+		try {
+			doc.getChildAt(0).setText("Saved");
+			journal.sync();
+			assertEquals("file written before saving", length, file.length());
+
+			journal.save();
+			assertEquals("journaled length after saving", 0L, journal.getLength());
+			assertFalse("modified after saving", doc.isModified());
+
+			doc.getChildAt(1).setText("Journaled");
+		} finally {
+			journal.close();
+		}
+
+		assertEquals("outline in the file", "[Saved [Child], Second, Third]",
+			Outline.of(readWithoutJournal(file)));
+		assertEquals("outline with the journal", "[Saved [Child], Journaled, Third]",
+			Outline.of(DocumentSaveTest.reopen(file, false)));
+	}
+
+	/**
+	 * A journal isn't replayed on top of another version of its document file, even if it has
+	 * the same length and modification time.
+	 */
+	public static void testJournalOfAnotherVersionIsIgnored() throws IOException {
+		File file = createDocumentFile();
+		Document doc = DocumentSaveTest.reopen(file, false);
+		DocumentJournal journal = new DocumentJournal(doc, file);
+		try {
+			doc.getChildAt(2).setText("Journaled");
+		} finally {
+			journal.close();
+		}
+
+		// Change the file behind the back of the journal.
+		long modified = file.lastModified();
+		Document other = Outline.createDocument();
+		other.getChildAt(0).setText("Fir5t");
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			other.save(out.getChannel());
+		} finally {
+			out.close();
+		}
+		file.setLastModified(modified);
+
+		assertEquals("outline of the other version", "[Fir5t [Child], Second, Third]",
+			Outline.of(DocumentSaveTest.reopen(file, false)));
+	}
+
+	/**
+	 * Saving a document gets rid of the journal of its previous version.
+	 */
+	public static void testSaveDeletesTheJournal() throws IOException {
+		File file = createDocumentFile();
+		Document doc = DocumentSaveTest.reopen(file, false);
+		DocumentJournal journal = new DocumentJournal(doc, file);
+		try {
+			doc.getChildAt(2).setText("Journaled");
+		} finally {
+			journal.close();
+		}
+		assertTrue("journal exists", DocumentJournal.getJournalFile(file).exists());
+
+		doc.save(file);
+		assertFalse("journal exists after saving", DocumentJournal.getJournalFile(file).exists());
+	}
+}
@@ -0,0 +1,176 @@
+package com.innoveworkshop.bolota.models;
+
+import com.innoveworkshop.bolota.models.fields.TextField;
+
+import java.io.File;
+import java.io.IOException;
+
+import static com.innoveworkshop.bolota.Assert.assertEquals;
+import static com.innoveworkshop.bolota.Assert.assertFalse;
+import static com.innoveworkshop.bolota.Assert.assertTrue;
+
+/**
+ * Checks that documents survive being saved over and over while they're being edited.
+ */
+public class DocumentSaveTest {
+	/**
+	 * Creates an empty temporary document file that is deleted when the tests finish.
+	 *
+	 * @return Temporary file.
+	 *
+	 * @throws IOException if the file couldn't be created.
+	 */
+	static File createTempFile() throws IOException {
+		File file = File.createTempFile("bolota", ".bol");
+		file.deleteOnExit();
+		return file;
+	}
+
+	/**
+	 * Opens a document that has just been saved.
+	 *
+	 * @param file Document file.
+	 * @param lazy Should the document be loaded lazily?
+	 *
+	 * @return Document read from the file.
+	 *
+	 * @throws IOException if the document couldn't be read.
+	 */
+	static Document reopen(File file, boolean lazy) throws IOException {
+		Document doc = new Document();
+		doc.setLazyLoading(lazy);
+		doc.open(file);
+		return doc;
+	}
+
+	/**
+	 * A saved document is no longer modified and can be copied straight from what was saved.
+	 */
+	public static void testSaveClearsModified() throws IOException {
+		Document doc = Outline.createDocument();
+		assertTrue("modified before saving", doc.isModified());
+
+		doc.save(createTempFile());
+		assertFalse("document modified after saving", doc.isModified());
+		assertFalse("topic modified after saving", doc.getChildAt(0).isModified());
+		assertTrue("topic intact after saving", doc.getChildAt(0).isSourceIntact());
+		assertTrue("child intact after saving", doc.getChildAt(0).getChildAt(0).isSourceIntact());
+	}
+
+	/**
+	 * Only the path to an edit is modified after a save.
+	 */
+	public static void testEditAfterSaveOnlyModifiesItsPath() throws IOException {
+		Document doc = Outline.createDocument();
+		doc.save(createTempFile());
+
+		doc.getChildAt(0).getChildAt(0).setText("Edited");
+		assertTrue("edited topic modified", doc.getChildAt(0).isModified());
+		assertFalse("sibling modified", doc.getChildAt(1).isModified());
+		assertTrue("sibling intact", doc.getChildAt(1).isSourceIntact());
+	}
+
+	/**
+	 * Edits made between saves all end up in the file.
+	 */
+	public static void testEditsSurviveRepeatedSaves() throws IOException {
+		File file = createTempFile();
+		Document doc = Outline.createDocument();
+		doc.setTitle("Title");
+		doc.save(file);
+
+		doc.getChildAt(0).getChildAt(0).setText("Edited child");
+		doc.save(file);
+
+		doc.getChildAt(2).setText("Edited third");
+		doc.getChildAt(1).appendChild(new TextField("New"));
+		doc.save(file);
+
+		doc.getChildAt(0).remove(0);
+		doc.insert(new TextField("Fourth"), 3);
+		doc.save(file);
+
+		String expected = "[First, Second [New], Edited third, Fourth]";
+		assertEquals("outline in memory", expected, Outline.of(doc));
+		Document saved = reopen(file, false);
+		assertEquals("outline in the file", expected, Outline.of(saved));
+		assertEquals("title in the file", "Title", saved.getTitle());
+	}
+
+	/**
+	 * Subtrees that were never loaded are carried over from one save to the next.
+	 */
+	public static void testUnloadedSubtreesSurviveRepeatedSaves() throws IOException {
+		File file = createTempFile();
+		Document doc = Outline.createDocument();
+		doc.getChildAt(0).getChildAt(0).appendChild(new TextField("Grandchild"));
+		doc.save(file);
+
+		// Save without ever loading the descendants of the first topic.
+		Document lazy = reopen(file, true);
+		assertFalse("children loaded", lazy.getChildAt(0).isChildrenLoaded());
+		lazy.getChildAt(1).setText("Edited second");
+		lazy.save(file);
+		assertFalse("children loaded after saving", lazy.getChildAt(0).isChildrenLoaded());
+
+		// Load them from what was just saved and edit them too.
+		lazy.getChildAt(0).getChildAt(0).setText("Edited child");
+		lazy.save(file);
+
+		String expected = "[First [Edited child [Grandchild]], Edited second, Third]";
+		assertEquals("outline in memory", expected, Outline.of(lazy));
+		assertEquals("outline in the file", expected, Outline.of(reopen(file, false)));
+	}
+
+	/**
+	 * Topics that moved to another depth are written at their new depth after a save.
+	 */
+	public static void testMovedSubtreesSurviveRepeatedSaves() throws IOException {
+		File file = createTempFile();
+		Document doc = Outline.createDocument();
+		doc.save(file);
+
+		Field first = doc.getChildAt(0);
+		Field third = doc.getChildAt(2);
+		third.removeFromParent();
+		first.getChildAt(0).appendChild(third);
+		doc.save(file);
+
+		Field child = first.getChildAt(0);
+		child.removeFromParent();
+		doc.insert(child, 0);
+		doc.save(file);
+
+		String expected = "[Child [Third], First, Second]";
+		assertEquals("outline in memory", expected, Outline.of(doc));
+		assertEquals("outline in the file", expected, Outline.of(reopen(file, false)));
+	}
+
+	/**
+	 * Children that were edited can only be released once they're saved.
+	 */
+	public static void testEditedChildrenAreUnloadedOnceSaved() throws IOException {
+		File file = createTempFile();
+		Outline.createDocument().save(file);
+
+		Document doc = reopen(file, true);
+		Field first = doc.getChildAt(0);
+		first.getChildAt(0).setText("Edited child");
+		first.setText("Edited first");
+		assertFalse("unloaded with an edited child", first.unloadChildren());
+
+		doc.save(file);
+		assertTrue("unloaded after saving", first.unloadChildren());
+		assertEquals("outline after unloading", "[Edited first [Edited child], Second, Third]",
+			Outline.of(doc));
+
+		// Only the list of children changing keeps them from being released.
+		first.appendChild(new TextField("New"));
+		assertFalse("unloaded with a new child", first.unloadChildren());
+		first.getChildAt(1).removeFromParent();
+		assertFalse("unloaded after removing a child", first.unloadChildren());
+		doc.save(file);
+		first.setText("First");
+		assertTrue("unloaded with only the parent edited", first.unloadChildren());
+	}
+}
@@ -0,0 +1,102 @@
+package com.innoveworkshop.bolota.models;
+
+import com.innoveworkshop.bolota.models.fields.TextField;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static com.innoveworkshop.bolota.Assert.assertEquals;
+
+/**
+ * Checks {@link FieldList} against a plain list going through the same changes.
+ */
+public class FieldListTest {
+	/**
+	 * Checks that both lists hold the same fields and find them at the same positions.
+	 *
+	 * @param expected Plain list.
+	 * @param list     List being checked.
+	 */
+	private static void checkSame(List<Field> expected, FieldList list) {
+		assertEquals("size", expected.size(), list.size());
+		Iterator<Field> it = list.iterator();
+		for (int i = 0; i < expected.size(); i++) {
+			Field field = expected.get(i);
+			assertEquals("get " + i, field, list.get(i));
+			assertEquals("iterator " + i, field, it.next());
+			assertEquals("indexOf " + i, i, list.indexOf(field));
+		}
+		assertEquals("iterator done", false, it.hasNext());
+	}
+
+	/**
+	 * Random changes end up the same as in a plain list.
+	 */
+	public static void testRandomChanges() {
+		Random random = new Random(42);
+		List<Field> expected = new ArrayList<Field>();
+		FieldList list = new FieldList();
+
+		for (int i = 0; i < 20000; i++) {
+			int op = random.nextInt(10);
+			if ((op < 5) || expected.isEmpty()) {
+				// Favour both ends, where most edits happen.
+				int index = random.nextInt(expected.size() + 1);
+				if (op == 0)
+					index = expected.size();
+				Field field = new TextField("field " + i);
+				expected.add(index, field);
+				list.add(index, field);
+			} else if (op < 8) {
+				int index = random.nextInt(expected.size());
+				assertEquals("remove " + index, expected.remove(index), list.remove(index));
+			} else {
+				int index = random.nextInt(expected.size());
+				Field field = new TextField("field " + i);
+				assertEquals("set " + index, expected.set(index, field), list.set(index, field));
+			}
+
+			if (i % 1000 == 0)
+				checkSame(expected, list);
+		}
+
+		checkSame(expected, list);
+	}
+
+	/**
+	 * Growing a large list and emptying it again keeps every field in place.
+	 */
+	public static void testGrowAndShrink() {
+		List<Field> expected = new ArrayList<Field>();
+		FieldList list = new FieldList();
+		for (int i = 0; i < 10000; i++) {
+			Field field = new TextField("field " + i);
+			expected.add(field);
+			list.add(field);
+		}
+		checkSame(expected, list);
+
+		// Removing every other field merges the chunks back together.
+		for (int i = expected.size() - 1; i >= 0; i -= 2) {
+			expected.remove(i);
+			list.remove(i);
+		}
+		checkSame(expected, list);
+
+		while (!expected.isEmpty()) {
+			expected.remove(0);
+			list.remove(0);
+		}
+		checkSame(expected, list);
+
+		// Fields that left the list aren't found in it anymore.
+		Field field = new TextField("gone");
+		list.add(field);
+		list.clear();
+		assertEquals("cleared", -1, list.indexOf(field));
+		list.add(new TextField("back"));
+		assertEquals("reused", 1, list.size());
+	}
+}
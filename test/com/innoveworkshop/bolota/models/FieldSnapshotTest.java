@@ -0,0 +1,81 @@
+package com.innoveworkshop.bolota.models;
+
+import com.innoveworkshop.bolota.models.fields.TextField;
+
+import java.io.File;
+import java.io.IOException;
+
+import static com.innoveworkshop.bolota.Assert.assertEquals;
+import static com.innoveworkshop.bolota.Assert.assertTrue;
+
+/**
+ * Checks that snapshots keep up with the edits made to a document without ever changing.
+ */
+public class FieldSnapshotTest {
+	/**
+	 * A snapshot stays as it was taken while a newer one follows the edits.
+	 */
+	public static void testSnapshotsFollowEdits() {
+		Document doc = Outline.createDocument();
+		DocumentSnapshot before = doc.snapshot();
+		String outline = Outline.of(doc);
+
+		doc.setTitle("Edited");
+		doc.getChildAt(0).getChildAt(0).setText("Edited child");
+		doc.getChildAt(1).appendChild(new TextField("New"));
+		doc.insert(new TextField("Zeroth"), 0);
+		doc.remove(3);
+		Field moved = doc.getChildAt(1).getChildAt(0);
+		moved.removeFromParent();
+		doc.insert(moved, 1);
+
+		DocumentSnapshot after = doc.snapshot();
+		assertEquals("outline of the old snapshot", outline, Outline.of(before));
+		assertEquals("title of the old snapshot", "", before.getTitle());
+		assertEquals("outline of the new snapshot", Outline.of(doc), Outline.of(after));
+		assertEquals("title of the new snapshot", "Edited", after.getTitle());
+		assertTrue("snapshot taken again", doc.snapshot() == after);
+	}
+
+	/**
+	 * Only the path from an edit to the root is copied.
+	 */
+	public static void testUnchangedSubtreesAreShared() {
+		Document doc = Outline.createDocument();
+		FieldSnapshot before = doc.snapshot();
+
+		doc.getChildAt(0).getChildAt(0).setText("Edited child");
+		FieldSnapshot after = doc.snapshot();
+		assertTrue("edited topic shared", before.getChildAt(0) != after.getChildAt(0));
+		assertTrue("second topic shared", before.getChildAt(1) == after.getChildAt(1));
+		assertTrue("third topic shared", before.getChildAt(2) == after.getChildAt(2));
+	}
+
+	/**
+	 * Snapshots of lazily loaded documents follow edits to subtrees loaded after they were
+	 * taken and can be saved and turned back into fields.
+	 */
+	public static void testSnapshotOfLazyDocument() throws IOException {
+		File file = DocumentSaveTest.createTempFile();
+		Document original = Outline.createDocument();
+		original.getChildAt(0).getChildAt(0).appendChild(new TextField("Grandchild"));
+		original.save(file);
+
+		Document doc = DocumentSaveTest.reopen(file, true);
+		DocumentSnapshot before = doc.snapshot();
+		doc.getChildAt(0).getChildAt(0).getChildAt(0).setText("Edited grandchild");
+		DocumentSnapshot after = doc.snapshot();
+
+		assertEquals("outline of the old snapshot", "[First [Child [Grandchild]], Second, Third]",
+			Outline.of(before));
+		String outline = "[First [Child [Edited grandchild]], Second, Third]";
+		assertEquals("outline of the new snapshot", outline, Outline.of(after));
+		assertEquals("outline of a field from the snapshot", "[Child [Edited grandchild]]",
+			Outline.of(after.getChildAt(0).toField()));
+
+		File copy = DocumentSaveTest.createTempFile();
+		after.save(copy);
+		assertEquals("outline of the saved snapshot", outline,
+			Outline.of(DocumentSaveTest.reopen(copy, false)));
+	}
+}
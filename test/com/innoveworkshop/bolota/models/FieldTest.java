@@ -0,0 +1,34 @@
+package com.innoveworkshop.bolota.models;
+
+import com.innoveworkshop.bolota.models.fields.TextField;
+
+import static com.innoveworkshop.bolota.Assert.assertEquals;
+import static com.innoveworkshop.bolota.Assert.assertTrue;
+
+/**
+ * Checks the tree structure of {@link Field}.
+ */
+public class FieldTest {
+	/**
+	 * A copy of a field gets children of its own.
+	 */
+	public static void testCopyDoesNotShareChildren() {
+		Document doc = Outline.createDocument();
+		Field first = doc.getChildAt(0);
+		first.getChildAt(0).appendChild(new TextField("Grandchild"));
+
+		TextField copy = new TextField("");
+		copy.copy(first);
+		assertEquals("text of the copy", "First", copy.getText());
+		assertEquals("outline of the copy", "[Child [Grandchild]]", Outline.of(copy));
+		assertTrue("child shared", copy.getChildAt(0) != first.getChildAt(0));
+		assertTrue("parent of the copied child", copy.getChildAt(0).getParent() == copy);
+		assertEquals("index of the original child", 0, first.getIndex(first.getChildAt(0)));
+
+		// Editing one of them leaves the other alone.
+		copy.getChildAt(0).setText("Edited");
+		copy.getChildAt(0).remove(0);
+		assertEquals("outline of the original", "[Child [Grandchild]]", Outline.of(first));
+		assertEquals("outline of the copy after editing", "[Edited]", Outline.of(copy));
+	}
+}
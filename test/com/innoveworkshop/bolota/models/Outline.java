@@ -0,0 +1,71 @@
+package com.innoveworkshop.bolota.models;
+
+import com.innoveworkshop.bolota.models.fields.TextField;
+
+/**
+ * Builds and describes small documents for the tests.
+ */
+final class Outline {
+	/**
+	 * Not meant to be instantiated.
+	 */
+	private Outline() {
+	}
+
+	/**
+	 * Creates a document with a few topics, the first of which has a child.
+	 *
+	 * @return Document to be edited.
+	 */
+	static Document createDocument() {
+		Document doc = new Document();
+		doc.appendChild(new TextField("First"));
+		doc.appendChild(new TextField("Second"));
+		doc.appendChild(new TextField("Third"));
+		doc.getChildAt(0).appendChild(new TextField("Child"));
+
+		return doc;
+	}
+
+	/**
+	 * Describes the outline of a field, such as {@code [First [Child], Second]}.
+	 *
+	 * @param field Field to be described.
+	 *
+	 * @return Outline of the children of the field.
+	 */
+	static String of(Field field) {
+		StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < field.getChildCount(); i++) {
+			Field child = field.getChildAt(i);
+			if (i > 0)
+				sb.append(", ");
+			sb.append(child.getText());
+			if (child.getChildCount() > 0)
+				sb.append(' ').append(of(child));
+		}
+
+		return sb.append(']').toString();
+	}
+
+	/**
+	 * Describes the outline of a snapshot, just like {@link #of(Field)}.
+	 *
+	 * @param snapshot Snapshot to be described.
+	 *
+	 * @return Outline of the children of the snapshot.
+	 */
+	static String of(FieldSnapshot snapshot) {
+		StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < snapshot.getChildCount(); i++) {
+			FieldSnapshot child = snapshot.getChildAt(i);
+			if (i > 0)
+				sb.append(", ");
+			sb.append(child.getText());
+			if (child.getChildCount() > 0)
+				sb.append(' ').append(of(child));
+		}
+
+		return sb.append(']').toString();
+	}
+}
@@ -0,0 +1,66 @@
+package com.innoveworkshop.bolota.models;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.innoveworkshop.bolota.Assert.assertEquals;
+
+/**
+ * Checks {@link SnapshotList} against a plain list going through the same changes.
+ */
+public class SnapshotListTest {
+	/**
+	 * Creates a snapshot that can be told apart from the others.
+	 *
+	 * @param id Identifier of the snapshot.
+	 *
+	 * @return Snapshot without any children.
+	 */
+	private static FieldSnapshot createSnapshot(int id) {
+		ByteBuffer record = ByteBuffer.allocate(4);
+		record.putInt(0, id);
+		return new FieldSnapshot(record, SnapshotList.EMPTY);
+	}
+
+	/**
+	 * Random changes end up the same as in a plain list and never change the previous lists.
+	 */
+	public static void testRandomChanges() {
+		Random random = new Random(42);
+		List<FieldSnapshot> expected = new ArrayList<FieldSnapshot>();
+		SnapshotList list = SnapshotList.EMPTY;
+		List<FieldSnapshot> previous = new ArrayList<FieldSnapshot>();
+		SnapshotList previousList = list;
+
+		for (int i = 0; i < 20000; i++) {
+			int op = random.nextInt(10);
+			if ((op < 5) || expected.isEmpty()) {
+				int index = random.nextInt(expected.size() + 1);
+				FieldSnapshot snapshot = createSnapshot(i);
+				expected.add(index, snapshot);
+				list = list.plus(index, snapshot);
+			} else if (op < 8) {
+				int index = random.nextInt(expected.size());
+				expected.remove(index);
+				list = list.minus(index);
+			} else {
+				int index = random.nextInt(expected.size());
+				FieldSnapshot snapshot = createSnapshot(i);
+				expected.set(index, snapshot);
+				list = list.with(index, snapshot);
+			}
+
+			if (i % 1000 == 0) {
+				assertEquals("previous list", previous, previousList);
+				previous = new ArrayList<FieldSnapshot>(expected);
+				previousList = list;
+			}
+		}
+
+		assertEquals("size", expected.size(), list.size());
+		assertEquals("contents", expected, list);
+		assertEquals("contents when built at once", expected, SnapshotList.of(expected));
+	}
+}
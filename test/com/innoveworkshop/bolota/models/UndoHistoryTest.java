@@ -0,0 +1,55 @@
+package com.innoveworkshop.bolota.models;
+
+import static com.innoveworkshop.bolota.Assert.assertEquals;
+
+/**
+ * Checks that the changes recorded by {@link UndoHistory} are undone and redone as a whole.
+ */
+public class UndoHistoryTest {
+	/**
+	 * Moving a field is undone and redone in a single step.
+	 */
+	public static void testMoveIsUndoneInOneStep() {
+		Document doc = Outline.createDocument();
+		UndoHistory history = new UndoHistory(doc);
+		String before = Outline.of(doc);
+
+		history.move(doc.getChildAt(2), doc, 0);
+		String after = Outline.of(doc);
+		assertEquals("moved outline", "[Third, First [Child], Second]", after);
+		assertEquals("undo count after the move", 1, history.getUndoCount());
+
+		history.undo();
+		assertEquals("outline after undo", before, Outline.of(doc));
+		assertEquals("undo count after undo", 0, history.getUndoCount());
+
+		history.redo();
+		assertEquals("outline after redo", after, Outline.of(doc));
+		assertEquals("undo count after redo", 1, history.getUndoCount());
+	}
+
+	/**
+	 * Indenting and de-indenting a field are each undone in a single step.
+	 */
+	public static void testIndentIsUndoneInOneStep() {
+		Document doc = Outline.createDocument();
+		UndoHistory history = new UndoHistory(doc);
+		String before = Outline.of(doc);
+
+		// Indent the second topic under the first one.
+		Field first = doc.getChildAt(0);
+		history.move(doc.getChildAt(1), first, first.getChildCount());
+		String indented = Outline.of(doc);
+		assertEquals("indented outline", "[First [Child, Second], Third]", indented);
+
+		// De-indent the original child after its parent.
+		history.move(first.getChildAt(0), doc, 1);
+		assertEquals("de-indented outline", "[First [Second], Child, Third]", Outline.of(doc));
+		assertEquals("undo count", 2, history.getUndoCount());
+
+		history.undo();
+		assertEquals("outline after the first undo", indented, Outline.of(doc));
+		history.undo();
+		assertEquals("outline after the second undo", before, Outline.of(doc));
+	}
+}
@@ -0,0 +1,59 @@
+package com.innoveworkshop.bolota.models.fields;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import static com.innoveworkshop.bolota.Assert.assertEquals;
+import static com.innoveworkshop.bolota.Assert.assertTrue;
+
+/**
+ * Checks that dates survive being packed into timestamps.
+ */
+public class DateFieldTest {
+	/**
+	 * Unpacking a packed calendar gives back the same date and time, down to the second.
+	 */
+	public static void testPackRoundTrip() {
+		Calendar date = DateField.getCalendarUTC();
+		date.set(2024, Calendar.FEBRUARY, 29, 23, 59, 58);
+		date.set(Calendar.MILLISECOND, 999);
+
+		Calendar unpacked = DateField.unpack(DateField.pack(date));
+		assertEquals("year", 2024, unpacked.get(Calendar.YEAR));
+		assertEquals("month", Calendar.FEBRUARY, unpacked.get(Calendar.MONTH));
+		assertEquals("day", 29, unpacked.get(Calendar.DAY_OF_MONTH));
+		assertEquals("hour", 23, unpacked.get(Calendar.HOUR_OF_DAY));
+		assertEquals("minute", 59, unpacked.get(Calendar.MINUTE));
+		assertEquals("second", 58, unpacked.get(Calendar.SECOND));
+		assertEquals("millisecond", 0, unpacked.get(Calendar.MILLISECOND));
+		assertEquals("repacked", DateField.pack(date), DateField.pack(unpacked));
+	}
+
+	/**
+	 * Calendars are packed as they read in their own timezone.
+	 */
+	public static void testPackKeepsLocalTime() {
+		Calendar date = Calendar.getInstance(TimeZone.getTimeZone("GMT+09:00"));
+		date.clear();
+		date.set(2001, Calendar.JANUARY, 1, 3, 0, 0);
+
+		Calendar unpacked = DateField.unpack(DateField.pack(date));
+		assertEquals("day", 1, unpacked.get(Calendar.DAY_OF_MONTH));
+		assertEquals("hour", 3, unpacked.get(Calendar.HOUR_OF_DAY));
+	}
+
+	/**
+	 * Timestamps sort in the same order as the dates they hold.
+	 */
+	public static void testPackedOrder() {
+		Calendar earlier = DateField.getCalendarUTC();
+		earlier.clear();
+		earlier.set(1999, Calendar.DECEMBER, 31, 23, 59, 59);
+		Calendar later = DateField.getCalendarUTC();
+		later.clear();
+		later.set(2000, Calendar.JANUARY, 1, 0, 0, 0);
+
+		assertTrue("packed order", DateField.pack(earlier) < DateField.pack(later));
+		assertTrue("not empty", DateField.pack(earlier) != DateField.NO_DATE);
+	}
+}